@@ -0,0 +1,180 @@
+// Call history with 20000 calls to 500 people, against the Firestore
+// emulator.
+//
+//     firebase emulators:start --only firestore
+//     flutter test integration_test/call_history_emulator_test.dart \
+//       --dart-define=FIRESTORE_EMULATOR_HOST=10.0.2.2   # Android emulator
+//
+// Half of the people have an inline profile photo of about 20 KB. The old
+// screen read every call on open and ran one `client` query per number,
+// keeping every decoded photo; this repeats that and prints documents read,
+// queries and resident memory growth. CallLog and PhoneAvatars then open
+// the log and scroll it to the end a page at a time, resolving the avatars
+// of each page. Checks that opening reads one page plus one `whereIn` per
+// 30 numbers on screen, that the whole log is read exactly once, and that
+// photos in memory stay within ProfilePhotos.maxDecodedBytes.
+import 'dart:convert';
+import 'dart:io';
+import 'dart:math';
+
+import 'package:TwinBox/services/call_log.dart';
+import 'package:TwinBox/services/firestore_metrics.dart';
+import 'package:TwinBox/services/phone_avatars.dart';
+import 'package:TwinBox/services/profile_photos.dart';
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/material.dart';
+import 'package:flutter_test/flutter_test.dart';
+import 'package:integration_test/integration_test.dart';
+
+import 'support/emulator.dart';
+
+const int callCount = 20000;
+const int peerCount = 500;
+const int photoBytes = 20 * 1024;
+const int pageSize = 50;
+
+/// Rows on the first screen of the call log.
+const int visibleRows = 12;
+
+void main() {
+  IntegrationTestWidgetsFlutterBinding.ensureInitialized();
+  late FirebaseFirestore db;
+
+  setUpAll(() async {
+    db = await emulatorFirestore();
+  });
+
+  testWidgets('pages $callCount calls with batched avatars', (tester) async {
+    final run = DateTime.now().microsecondsSinceEpoch;
+    final uid = 'caller_$run';
+    final prefix = '7${(run % 10000).toString().padLeft(4, '0')}';
+    String phone(int peer) => '$prefix${peer.toString().padLeft(5, '0')}';
+
+    final random = Random(7);
+    await commitAll(db, peerCount, (batch, i) {
+      batch.set(db.collection('client').doc('peer_${run}_$i'), {
+        'first_name': 'Peer $i',
+        'phone': phone(i),
+        if (i.isEven)
+          ProfilePhotos.legacyField: base64Encode([
+            for (var b = 0; b < photoBytes; b++) random.nextInt(256),
+          ]),
+      });
+    });
+    // Calls come in runs of one to three to the same person, a minute
+    // apart, newest last.
+    final start = DateTime(2024);
+    final peers = <int>[];
+    while (peers.length < callCount) {
+      final peer = random.nextInt(peerCount);
+      for (var n = 1 + random.nextInt(3); n > 0; n--) {
+        peers.add(peer);
+      }
+    }
+    await commitAll(db, callCount, (batch, i) {
+      batch.set(db.collection('calls').doc('call_${run}_$i'), {
+        'callerId': uid,
+        'receiverPhone': phone(peers[i]),
+        'type': i % 4 == 0 ? 'video' : 'voice',
+        'status': i % 9 == 0 ? 'missed' : 'ended',
+        'duration': i % 300,
+        'startTime': Timestamp.fromDate(start.add(Duration(minutes: i))),
+      });
+    });
+
+    // Before: every call on open, then one query per number, with every
+    // decoded photo kept.
+    final oldRss = ProcessInfo.currentRss;
+    final oldOpen = Stopwatch()..start();
+    final all =
+        await db
+            .collection('calls')
+            .where('callerId', isEqualTo: uid)
+            .orderBy('startTime', descending: true)
+            .get();
+    oldOpen.stop();
+    final oldCache = <String, ImageProvider?>{};
+    var oldQueries = 0;
+    var oldDocs = 0;
+    for (final doc in all.docs) {
+      final number = doc['receiverPhone'] as String;
+      if (oldCache.containsKey(number)) continue;
+      final query =
+          await db
+              .collection('client')
+              .where('phone', isEqualTo: number)
+              .limit(1)
+              .get();
+      oldQueries++;
+      oldDocs += query.docs.length;
+      final user = query.docs.firstOrNull?.data();
+      final legacy = user?[ProfilePhotos.legacyField];
+      oldCache[number] =
+          legacy is String ? MemoryImage(base64Decode(legacy)) : null;
+    }
+    final oldGrowth = ProcessInfo.currentRss - oldRss;
+    debugPrint(
+      'Old: ${all.docs.length} calls read in ${oldOpen.elapsedMilliseconds} '
+      'ms on open, $oldQueries avatar queries ($oldDocs docs), '
+      '${mb(oldGrowth).toStringAsFixed(1)} MB resident growth',
+    );
+    expect(all.docs.length, callCount);
+
+    // After: a page on open, avatars of the rows on screen in one batch.
+    FirestoreMetrics.instance.reset();
+    final rss = ProcessInfo.currentRss;
+    final log = CallLog(uid: uid, firestore: db, pageSize: pageSize);
+    final avatars = PhoneAvatars(firestore: db);
+    final open = Stopwatch()..start();
+    await log.loadMore();
+    await avatars.prefetch([
+      for (final group in log.groups.take(visibleRows)) group.peer,
+    ]);
+    open.stop();
+    final onOpen = FirestoreMetrics.instance.screens.values.first;
+    final openNumbers = log.groups.take(visibleRows).map((g) => g.peer);
+    debugPrint(
+      'New: ${log.length} calls in ${log.groups.length} rows, '
+      '${avatars.stats['queries']} avatar queries in '
+      '${open.elapsedMilliseconds} ms on open',
+    );
+    expect(onOpen['calls']!.reads, pageSize);
+    expect(
+      avatars.stats['queries'],
+      (openNumbers.toSet().length / avatars.chunkSize).ceil(),
+    );
+
+    // Scrolled to the end, resolving each page's avatars as it arrives.
+    var maxPhotoBytes = 0;
+    var resolved = 0;
+    while (log.hasMore) {
+      await log.loadMore();
+      await avatars.prefetch([
+        for (final group in log.groups.skip(resolved)) group.peer,
+      ]);
+      resolved = log.groups.length;
+      maxPhotoBytes = max(maxPhotoBytes, ProfilePhotos.instance.decodedBytes);
+    }
+    final growth = ProcessInfo.currentRss - rss;
+    final paths = FirestoreMetrics.instance.screens.values.first;
+    debugPrint(
+      'New, scrolled to the end: ${paths['calls']!.billedReads} call reads, '
+      '${avatars.stats['queries']} avatar queries '
+      '(${paths['client']!.reads} docs), photos in memory at most '
+      '${mb(maxPhotoBytes).toStringAsFixed(1)} MB, '
+      '${mb(growth).toStringAsFixed(1)} MB resident growth',
+    );
+    expect(log.length, callCount);
+    expect(log.groups.length, lessThan(callCount));
+    // Every call once, plus the empty last page.
+    expect(paths['calls']!.reads, lessThanOrEqualTo(callCount + 1));
+    expect(avatars.stats['docs'], peerCount);
+    expect(
+      avatars.stats['queries'],
+      lessThan(oldQueries),
+      reason: 'numbers are resolved 30 at a time, each once',
+    );
+    expect(maxPhotoBytes, lessThanOrEqualTo(ProfilePhotos.maxDecodedBytes));
+    log.dispose();
+  }, timeout: const Timeout(Duration(minutes: 20)));
+}
@@ -0,0 +1,53 @@
+// Hot-user chat load against the Firestore emulator, on the current send
+// path and on the read-then-set it replaced.
+//
+//     firebase emulators:start --only firestore
+//     flutter test integration_test/chat_load_emulator_test.dart \
+//       --dart-define=FIRESTORE_EMULATOR_HOST=10.0.2.2   # Android emulator
+//
+// 60 users on 4 devices send 20 messages a second for 30 seconds, half of
+// them to one user. Prints both reports and the batch run compared with the
+// read-then-set run. The batch path must not lose or duplicate an unread
+// count or a message; the read-then-set run is expected to lose counts and
+// is only reported.
+import 'package:TwinBox/firebase_options.dart';
+import 'package:TwinBox/tools/chat_load.dart';
+import 'package:firebase_core/firebase_core.dart';
+import 'package:flutter/foundation.dart';
+import 'package:flutter_test/flutter_test.dart';
+import 'package:integration_test/integration_test.dart';
+
+import 'support/emulator.dart';
+
+ChatLoadConfig config(SendPath path) => ChatLoadConfig(
+  users: 60,
+  duration: const Duration(seconds: 30),
+  emulatorHost: emulatorHost,
+  sendPath: path,
+);
+
+void main() {
+  IntegrationTestWidgetsFlutterBinding.ensureInitialized();
+
+  setUpAll(() async {
+    await Firebase.initializeApp(
+      options: DefaultFirebaseOptions.currentPlatform,
+    );
+  });
+
+  testWidgets('hot user load keeps unread counts exact', (tester) async {
+    final old = await ChatLoadSimulator(config(SendPath.readThenSet)).run();
+    debugPrint('Read-then-set:\n$old');
+
+    final report = await ChatLoadSimulator(config(SendPath.batch)).run();
+    debugPrint('Batch, against read-then-set:\n${report.compare(old.json)}');
+
+    final json = report.json;
+    expect(json['sends']['committed'], greaterThan(0));
+    expect(json['sends']['errors'], 0);
+    expect(json['unread']['lost'], 0);
+    expect(json['unread']['duplicated'], 0);
+    expect(json['messages']['missing'], 0);
+    expect(json['chatListMs']['count'], greaterThan(0));
+  }, timeout: const Timeout(Duration(minutes: 5)));
+}
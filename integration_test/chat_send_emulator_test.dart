@@ -0,0 +1,159 @@
+// Concurrent sends into one conversation against the Firestore emulator.
+//
+//     firebase emulators:start --only firestore
+//     flutter test integration_test/chat_send_emulator_test.dart \
+//       --dart-define=FIRESTORE_EMULATOR_HOST=10.0.2.2   # Android emulator
+//
+// 30 messages are sent at once from 3 app instances, all from the same
+// sender to the same receiver, so every send bumps the same chatList entry.
+// The old send path (add the message, set the sender's entry, read the
+// receiver's entry, set it to unreadCount + 1) is run first and only
+// reported: it is expected to lose increments. ChatSender must end with an
+// unread count of exactly 30. Per-send latency of both is printed, and the
+// single commit must be faster at the median than the four round trips.
+import 'package:TwinBox/services/chat_message.dart';
+import 'package:TwinBox/services/chat_sender.dart';
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/foundation.dart';
+import 'package:flutter_test/flutter_test.dart';
+import 'package:integration_test/integration_test.dart';
+
+import 'support/emulator.dart';
+
+const int sends = 30;
+const int devices = 3;
+
+/// The send path ChatScreen had before ChatSender.
+Future<void> _oldSend(
+  FirebaseFirestore db,
+  String chatId,
+  String senderId,
+  String peerId,
+  String text,
+) async {
+  await db.collection('messages').doc(chatId).collection('chats').add({
+    'senderId': senderId,
+    'receiverId': peerId,
+    'message': text,
+    'type': 'text',
+    'timestamp': FieldValue.serverTimestamp(),
+    'isRead': false,
+  });
+  await db
+      .collection('chatList')
+      .doc(senderId)
+      .collection('chats')
+      .doc(peerId)
+      .set({
+        'peerId': peerId,
+        'lastMessage': text,
+        'timestamp': FieldValue.serverTimestamp(),
+        'unreadCount': 0,
+      });
+  final receiver = db
+      .collection('chatList')
+      .doc(peerId)
+      .collection('chats')
+      .doc(senderId);
+  final current = await receiver.get();
+  await receiver.set({
+    'peerId': senderId,
+    'lastMessage': text,
+    'timestamp': FieldValue.serverTimestamp(),
+    'unreadCount': (current.data()?['unreadCount'] as int? ?? 0) + 1,
+  });
+}
+
+/// Runs [send] [sends] times at once, spread over [dbs], and returns the
+/// latency of each send.
+Future<List<Duration>> _race(
+  List<FirebaseFirestore> dbs,
+  Future<void> Function(FirebaseFirestore db, int i) send,
+) => Future.wait([
+  for (var i = 0; i < sends; i++)
+    () async {
+      final stopwatch = Stopwatch()..start();
+      await send(dbs[i % dbs.length], i);
+      return stopwatch.elapsed;
+    }(),
+]);
+
+String _summary(List<Duration> latencies) {
+  final ms = [for (final l in latencies) l.inMilliseconds]..sort();
+  return 'p50 ${ms[ms.length ~/ 2]} ms, p95 ${ms[(ms.length * 0.95).floor()]} '
+      'ms, max ${ms.last} ms';
+}
+
+Duration _median(List<Duration> latencies) =>
+    (List.of(latencies)..sort())[latencies.length ~/ 2];
+
+void main() {
+  IntegrationTestWidgetsFlutterBinding.ensureInitialized();
+  late List<FirebaseFirestore> dbs;
+  final run = DateTime.now().microsecondsSinceEpoch;
+
+  setUpAll(() async {
+    await emulatorFirestore();
+    dbs = [
+      for (var i = 0; i < devices; i++) await emulatorDevice('send_${run}_$i'),
+    ];
+  });
+
+  Future<int?> unreadOf(String receiverId, String senderId) async {
+    final entry =
+        await dbs.first
+            .collection('chatList')
+            .doc(receiverId)
+            .collection('chats')
+            .doc(senderId)
+            .get();
+    return entry.data()?['unreadCount'] as int?;
+  }
+
+  testWidgets('$sends concurrent sends count $sends unread', (tester) async {
+    // Before: read-then-set of the unread count.
+    final oldSender = 'old_sender_$run';
+    final oldPeer = 'old_peer_$run';
+    final oldChatId = '${oldSender}_$oldPeer';
+    final oldLatency = await _race(
+      dbs,
+      (db, i) => _oldSend(db, oldChatId, oldSender, oldPeer, 'Message $i'),
+    );
+    final oldUnread = await unreadOf(oldPeer, oldSender);
+    debugPrint(
+      'Old: $sends sends, unread count $oldUnread '
+      '(${sends - (oldUnread ?? 0)} lost), ${_summary(oldLatency)}',
+    );
+
+    // After: one batch with a server-side increment.
+    final sender = 'sender_$run';
+    final peer = 'peer_$run';
+    final chatId = '${sender}_$peer';
+    final latency = await _race(dbs, (db, i) {
+      final text = 'Message $i';
+      return ChatSender(firestore: db).send(
+        chatId: chatId,
+        message: ChatMessage.compact(
+          senderId: sender,
+          text: text,
+          timestamp: FieldValue.serverTimestamp(),
+        ),
+        senderId: sender,
+        peerId: peer,
+        summary: ChatSender.summaryFor('text', text),
+      );
+    });
+    final unread = await unreadOf(peer, sender);
+    final messages =
+        await dbs.first
+            .collection('messages')
+            .doc(chatId)
+            .collection('chats')
+            .count()
+            .get();
+    debugPrint('New: $sends sends, unread count $unread, ${_summary(latency)}');
+    expect(unread, sends);
+    expect(messages.count, sends);
+    expect(_median(latency), lessThan(_median(oldLatency)));
+  }, timeout: const Timeout(Duration(minutes: 2)));
+}
@@ -0,0 +1,200 @@
+// Frame timings while typing 200 characters into a chat of 2000 messages.
+//
+//     firebase emulators:start --only firestore
+//     flutter drive --profile \
+//       --driver=test_driver/perf_driver.dart \
+//       --target=integration_test/composer_typing_benchmark_test.dart \
+//       --dart-define=FIRESTORE_EMULATOR_HOST=10.0.2.2   # Android emulator
+//
+// `typing_whole_screen` calls setState on the screen for every keystroke,
+// as the chat screens did before. `typing_scoped` drives the send button
+// from ComposerPresence.hasText and sends typing signals to the emulator,
+// as they do now. Screen builds and list item builds per keystroke and the
+// number of typing writes are printed; compare
+// `average_frame_build_time_millis` in build/<name>.timeline_summary.json.
+import 'package:TwinBox/services/chat_message.dart';
+import 'package:TwinBox/services/message_window.dart';
+import 'package:TwinBox/services/typing_presence.dart';
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/material.dart';
+import 'package:flutter_test/flutter_test.dart';
+import 'package:integration_test/integration_test.dart';
+
+import 'support/emulator.dart';
+
+const int messageCount = 2000;
+const int keystrokes = 200;
+
+final List<ChatMessage> _messages = [
+  for (var i = 0; i < messageCount; i++)
+    ChatMessage.fromMap('m$i', {
+      'senderId': i.isEven ? 'me' : 'peer',
+      'receiverId': i.isEven ? 'peer' : 'me',
+      'message': 'Message number $i with a bit of text to lay out',
+      'type': 'text',
+      'timestamp': Timestamp.fromMillisecondsSinceEpoch(
+        1700000000000 + i * 1000,
+      ),
+    }),
+];
+
+class _Chat extends StatefulWidget {
+  const _Chat({this.presence});
+
+  /// Null for the old setState-per-keystroke screen.
+  final TypingPresence? presence;
+
+  @override
+  State<_Chat> createState() => _ChatState();
+}
+
+class _ChatState extends State<_Chat> {
+  final TextEditingController _controller = TextEditingController();
+  final MessageRowCache _rows = MessageRowCache();
+  ComposerPresence? _composer;
+  int screenBuilds = 0;
+  int itemBuilds = 0;
+
+  @override
+  void initState() {
+    super.initState();
+    final presence = widget.presence;
+    if (presence == null) {
+      _controller.addListener(() => setState(() {}));
+    } else {
+      _composer = ComposerPresence(
+        chatId: 'typing_benchmark_${DateTime.now().microsecondsSinceEpoch}',
+        uid: 'me',
+        controller: _controller,
+        presence: presence,
+      );
+    }
+  }
+
+  @override
+  void dispose() {
+    _composer?.dispose();
+    _controller.dispose();
+    super.dispose();
+  }
+
+  Widget _buildRow(ChatMessage message) {
+    final isMe = message.senderId == 'me';
+    return Align(
+      alignment: isMe ? Alignment.centerRight : Alignment.centerLeft,
+      child: Container(
+        margin: const EdgeInsets.symmetric(vertical: 4),
+        padding: const EdgeInsets.symmetric(horizontal: 12, vertical: 8),
+        color: isMe ? const Color(0xFFDCF8C6) : Colors.white,
+        child: Text(message.text),
+      ),
+    );
+  }
+
+  Widget _sendIcon(bool hasText) =>
+      Icon(hasText ? Icons.send : Icons.mic, color: Colors.white);
+
+  @override
+  Widget build(BuildContext context) {
+    screenBuilds++;
+    final composer = _composer;
+    return Scaffold(
+      backgroundColor: Colors.blueAccent,
+      body: Column(
+        children: [
+          Expanded(
+            child: ListView.builder(
+              reverse: true,
+              itemCount: _messages.length,
+              itemBuilder: (context, index) {
+                itemBuilds++;
+                final message = _messages[_messages.length - 1 - index];
+                return _rows.row(
+                  message,
+                  () => KeyedSubtree(
+                    key: ValueKey(message.id),
+                    child: _buildRow(message),
+                  ),
+                );
+              },
+            ),
+          ),
+          Row(
+            children: [
+              Expanded(
+                child: TextField(
+                  key: const ValueKey('composer'),
+                  controller: _controller,
+                  style: const TextStyle(color: Colors.white),
+                ),
+              ),
+              Container(
+                decoration: const BoxDecoration(
+                  color: Colors.green,
+                  shape: BoxShape.circle,
+                ),
+                padding: const EdgeInsets.all(12),
+                child:
+                    composer == null
+                        ? _sendIcon(_controller.text.trim().isNotEmpty)
+                        : ValueListenableBuilder<bool>(
+                          valueListenable: composer.hasText,
+                          builder: (context, hasText, _) => _sendIcon(hasText),
+                        ),
+              ),
+            ],
+          ),
+        ],
+      ),
+    );
+  }
+}
+
+void main() {
+  final binding = IntegrationTestWidgetsFlutterBinding.ensureInitialized();
+  late FirebaseFirestore db;
+
+  setUpAll(() async {
+    db = await emulatorFirestore();
+  });
+
+  for (final scoped in [false, true]) {
+    final name = scoped ? 'typing_scoped' : 'typing_whole_screen';
+    testWidgets(name, (tester) async {
+      final presence = scoped ? TypingPresence(firestore: db) : null;
+      await tester.pumpWidget(MaterialApp(home: _Chat(presence: presence)));
+      await tester.pumpAndSettle();
+      final state = tester.state<_ChatState>(find.byType(_Chat));
+      final field = find.byKey(const ValueKey('composer'));
+      await tester.tap(field);
+      await tester.pump();
+      state
+        ..screenBuilds = 0
+        ..itemBuilds = 0;
+
+      const text = 'The quick brown fox jumps over the lazy dog. ';
+      await binding.traceAction(() async {
+        var typed = '';
+        for (var i = 0; i < keystrokes; i++) {
+          typed += text[i % text.length];
+          await tester.enterText(field, typed);
+          await tester.pump();
+          // Roughly a fast typist, so the signal's heartbeat comes into play.
+          await Future<void>.delayed(const Duration(milliseconds: 50));
+        }
+      }, reportKey: name);
+
+      debugPrint(
+        '$name: ${state.screenBuilds / keystrokes} screen builds and '
+        '${state.itemBuilds / keystrokes} list item builds per keystroke'
+        '${presence == null ? '' : ', ${presence.stats}'}',
+      );
+      if (presence != null) {
+        expect(state.screenBuilds, 0);
+        expect(presence.stats['keystrokes'], keystrokes);
+        // One signal per heartbeat, not one per keystroke.
+        expect(presence.stats['writes'], lessThan(keystrokes ~/ 10));
+      }
+    });
+  }
+}
@@ -0,0 +1,120 @@
+// Registered-contact discovery with 100k users and 5k device contacts,
+// against the Firestore emulator.
+//
+//     firebase emulators:start --only firestore
+//     flutter test integration_test/contact_discovery_emulator_test.dart \
+//       --dart-define=FIRESTORE_EMULATOR_HOST=10.0.2.2   # Android emulator
+//
+// 2000 of the 5000 contacts have an account. Prints documents read, time to
+// the answer and the time for 5000 row lookups, for the old approach (read
+// every `isUsingApp` user, then `List.contains` per row) and for
+// ContactDiscovery, and checks that a second run within the refresh
+// interval costs no query at all.
+import 'package:TwinBox/services/contact_discovery.dart';
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/foundation.dart';
+import 'package:flutter_test/flutter_test.dart';
+import 'package:integration_test/integration_test.dart';
+
+import 'support/emulator.dart';
+
+const int userCount = 100000;
+const int contactCount = 5000;
+const int registeredContacts = 2000;
+
+Future<void> _seedUsers(FirebaseFirestore db, int run, String prefix) =>
+    commitAll(db, userCount, (batch, i) {
+      final phone = '$prefix${i.toString().padLeft(5, '0')}';
+      batch.set(db.collection('client').doc('user_${run}_$i'), {
+        'first_name': 'User $i',
+        'phone': phone,
+        'isUsingApp': true,
+        'benchmarkRun': run,
+        ...ContactDiscovery.fieldsFor(phone),
+      });
+    });
+
+void main() {
+  IntegrationTestWidgetsFlutterBinding.ensureInitialized();
+  late FirebaseFirestore db;
+
+  setUpAll(() async {
+    db = await emulatorFirestore();
+  });
+
+  testWidgets(
+    'finds $registeredContacts of $contactCount contacts among '
+    '$userCount users',
+    (tester) async {
+      final run = DateTime.now().microsecondsSinceEpoch;
+      // Ten digits: '9', a per-run tag, then the user index.
+      final prefix = '9${(run % 10000).toString().padLeft(4, '0')}';
+      await _seedUsers(db, run, prefix);
+
+      // Every 50th user is a contact; the rest of the address book is people
+      // without an account.
+      final contacts = [
+        for (var i = 0; i < registeredContacts; i++)
+          '+91 $prefix${(i * 50).toString().padLeft(5, '0')}',
+        for (var i = registeredContacts; i < contactCount; i++)
+          '+91 8${(run % 10000).toString().padLeft(4, '0')}'
+              '${i.toString().padLeft(5, '0')}',
+      ];
+
+      // Before: the whole user base, then a linear scan per row.
+      final oldFetch = Stopwatch()..start();
+      final snapshot =
+          await db
+              .collection('client')
+              .where('isUsingApp', isEqualTo: true)
+              .where('benchmarkRun', isEqualTo: run)
+              .get();
+      final registeredNumbers =
+          snapshot.docs.map((doc) => '+91 ${doc['phone']}').toList();
+      oldFetch.stop();
+      final oldRows = Stopwatch()..start();
+      final oldFound = contacts.where(registeredNumbers.contains).length;
+      oldRows.stop();
+
+      // After: only the user's own numbers, answered from a local map.
+      final discovery = ContactDiscovery(
+        firestore: db,
+        prefsKey: 'contact_discovery_benchmark_$run',
+      );
+      final newFetch = Stopwatch()..start();
+      await discovery.discover(contacts);
+      newFetch.stop();
+      final newRows = Stopwatch()..start();
+      final newFound = contacts.where(discovery.isRegistered).length;
+      newRows.stop();
+
+      debugPrint(
+        'Old: ${snapshot.docs.length} docs in ${oldFetch.elapsedMilliseconds} '
+        'ms, rows ${oldRows.elapsedMicroseconds} us',
+      );
+      debugPrint(
+        'New: ${discovery.stats['docs']} docs, ${discovery.stats['queries']} '
+        'queries in ${newFetch.elapsedMilliseconds} ms, rows '
+        '${newRows.elapsedMicroseconds} us',
+      );
+      expect(oldFound, registeredContacts);
+      expect(newFound, registeredContacts);
+      expect(discovery.stats['docs'], registeredContacts);
+      expect(discovery.uidFor(contacts.first), 'user_${run}_0');
+
+      // Within the refresh interval, known numbers are not asked again.
+      final queries = discovery.stats['queries'];
+      await discovery.discover(contacts);
+      expect(discovery.stats['queries'], queries);
+
+      // A restart restores the answers without a query.
+      final restored = ContactDiscovery(
+        firestore: db,
+        prefsKey: 'contact_discovery_benchmark_$run',
+      );
+      await restored.discover(contacts);
+      expect(restored.stats['queries'], 0);
+      expect(contacts.where(restored.isRegistered).length, registeredContacts);
+    },
+  );
+}
@@ -0,0 +1,143 @@
+// Looking up chat peers among 10000 device contacts, before and after
+// ContactIndex.
+//
+//     flutter test integration_test/contact_lookup_benchmark_test.dart \
+//       --profile
+//
+// The contacts are generated, with one to three numbers each in the formats
+// address books mix (`+91 98765 43210`, `098765 43210`, `9876543210`). The
+// chat list used to scan every contact and number with a RegExp for each
+// row it built; this repeats that for [rows] rows. ContactIndex then indexes
+// the same contacts and resolves the same rows. Prints the time per lookup
+// and the longest stall of the UI isolate, measured with a 1 ms timer,
+// while each runs. Checks that the index finds every saved number under the
+// right name, that lookups are faster, and that building the index stalls
+// the UI isolate for less time than the old scans did.
+import 'dart:async';
+
+import 'package:TwinBox/services/contact_index.dart';
+import 'package:flutter/foundation.dart';
+import 'package:flutter_contacts/flutter_contacts.dart';
+import 'package:flutter_test/flutter_test.dart';
+import 'package:integration_test/integration_test.dart';
+
+const int contactCount = 10000;
+
+/// Chat list rows resolved; half are saved contacts.
+const int rows = 200;
+
+String _number(int i) => '9${i.toString().padLeft(9, '0')}';
+
+String _formatted(String number, int style) => switch (style % 3) {
+  0 => '+91 ${number.substring(0, 5)} ${number.substring(5)}',
+  1 => '0${number.substring(0, 5)} ${number.substring(5)}',
+  _ => number,
+};
+
+List<Contact> _contacts() => [
+  for (var i = 0; i < contactCount; i++)
+    Contact(
+      id: 'c$i',
+      displayName: 'Contact $i',
+      phones: [
+        for (var n = 0; n <= i % 3; n++)
+          Phone(_formatted(_number(i * 3 + n), i + n)),
+      ],
+    ),
+];
+
+/// The chat list's old per-row scan.
+String? _scan(List<Contact> contacts, String peerMobile) {
+  for (final contact in contacts) {
+    final match = contact.phones.any((phone) {
+      final contactNum = phone.number
+          .replaceAll(RegExp(r'\D'), '')
+          .replaceAll('91', '');
+      final firebaseNum = peerMobile
+          .replaceAll(RegExp(r'\D'), '')
+          .replaceAll('91', '');
+      return contactNum.endsWith(firebaseNum) ||
+          firebaseNum.endsWith(contactNum);
+    });
+    if (match) return contact.displayName;
+  }
+  return null;
+}
+
+/// Runs [work] and returns its duration and the longest gap between ticks
+/// of a 1 ms timer meanwhile, i.e. the longest the UI isolate was blocked.
+Future<(Duration, Duration)> _measure(FutureOr<void> Function() work) async {
+  var last = DateTime.now();
+  var longest = Duration.zero;
+  final ticker = Timer.periodic(const Duration(milliseconds: 1), (_) {
+    final now = DateTime.now();
+    final gap = now.difference(last);
+    if (gap > longest) longest = gap;
+    last = now;
+  });
+  final stopwatch = Stopwatch()..start();
+  await work();
+  stopwatch.stop();
+  // One more tick to catch a stall at the very end.
+  await Future.delayed(const Duration(milliseconds: 5));
+  ticker.cancel();
+  return (stopwatch.elapsed, longest);
+}
+
+void main() {
+  IntegrationTestWidgetsFlutterBinding.ensureInitialized();
+
+  testWidgets('$rows lookups among $contactCount contacts', (tester) async {
+    final contacts = _contacts();
+    // Every other row is a saved contact, as Firebase stores it (+91...).
+    final peers = [
+      for (var r = 0; r < rows; r++)
+        if (r.isEven)
+          (r * 37 % contactCount, '+91${_number(r * 37 % contactCount * 3)}')
+        else
+          (null, '+918${r.toString().padLeft(9, '0')}'),
+    ];
+
+    // Before: a full scan per row, on the UI isolate.
+    final oldNames = <String?>[];
+    final (oldTime, oldStall) = await _measure(() {
+      for (final (_, number) in peers) {
+        oldNames.add(_scan(contacts, number));
+      }
+    });
+    debugPrint(
+      'Old: ${(oldTime.inMicroseconds / rows).toStringAsFixed(0)} µs per '
+      'lookup, UI isolate blocked up to ${oldStall.inMilliseconds} ms',
+    );
+
+    // After: index once in the background, then a map access per row.
+    final index = ContactIndex.instance;
+    final (buildTime, buildStall) = await _measure(
+      () => index.indexContacts(contacts),
+    );
+    final names = <String?>[];
+    final (lookupTime, _) = await _measure(() {
+      for (final (_, number) in peers) {
+        names.add(index.lookup(number)?.displayName);
+      }
+    });
+    debugPrint(
+      'New: index built in ${buildTime.inMilliseconds} ms with the UI '
+      'isolate blocked up to ${buildStall.inMilliseconds} ms, '
+      '${(lookupTime.inMicroseconds / rows).toStringAsFixed(1)} µs per '
+      'lookup',
+    );
+
+    for (var r = 0; r < rows; r++) {
+      final (contact, _) = peers[r];
+      expect(names[r], contact == null ? isNull : 'Contact $contact');
+    }
+    var agreeing = 0;
+    for (var r = 0; r < rows; r++) {
+      if (oldNames[r] == names[r]) agreeing++;
+    }
+    debugPrint('Old and new agree on $agreeing of $rows rows');
+    expect(lookupTime, lessThan(oldTime));
+    expect(buildStall, lessThan(oldStall));
+  }, timeout: const Timeout(Duration(minutes: 10)));
+}
@@ -0,0 +1,225 @@
+// Per-screen Firestore read/write budgets, against the Firestore emulator.
+//
+//     firebase emulators:start --only firestore
+//     flutter test integration_test/firestore_budget_emulator_test.dart \
+//       --dart-define=FIRESTORE_EMULATOR_HOST=10.0.2.2   # Android emulator
+//
+// Seeds one user's world (a 300-message chat, 40 chat list entries, 60
+// contacts of whom 40 have an account and 20 posted a status), then replays
+// what each screen does through the same services and queries the screens
+// use, with the traffic attributed to the screen's route name. Prints the
+// FirestoreMetrics JSON export as the budget report and fails if a screen
+// goes over its budget.
+import 'package:TwinBox/services/chat_message.dart';
+import 'package:TwinBox/services/chat_sender.dart';
+import 'package:TwinBox/services/contact_discovery.dart';
+import 'package:TwinBox/services/firestore_metrics.dart';
+import 'package:TwinBox/services/message_window.dart';
+import 'package:TwinBox/services/read_receipts.dart';
+import 'package:TwinBox/services/status_feed.dart';
+import 'package:TwinBox/services/typing_presence.dart';
+import 'package:TwinBox/services/user_directory.dart';
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/foundation.dart';
+import 'package:flutter_test/flutter_test.dart';
+import 'package:integration_test/integration_test.dart';
+
+import 'support/emulator.dart';
+
+const int chatMessages = 300;
+const int chatListEntries = 40;
+const int contacts = 60;
+const int registered = 40;
+const int withStatus = 20;
+
+/// Most reads and writes a screen may cost for its scenario.
+class Budget {
+  const Budget(this.reads, this.writes);
+
+  final int reads;
+  final int writes;
+}
+
+class Scenario {
+  const Scenario(this.screen, this.budget, this.run);
+
+  final String screen;
+  final Budget budget;
+  final Future<void> Function() run;
+}
+
+String _phone(String tag, int i) => '9$tag${i.toString().padLeft(5, '0')}';
+
+void main() {
+  IntegrationTestWidgetsFlutterBinding.ensureInitialized();
+  late FirebaseFirestore db;
+
+  setUpAll(() async {
+    db = await emulatorFirestore();
+  });
+
+  testWidgets('every screen stays within its read/write budget', (
+    tester,
+  ) async {
+    final run = DateTime.now().microsecondsSinceEpoch;
+    final tag = (run % 10000).toString().padLeft(4, '0');
+    final me = 'budget_me_$run';
+    final peer = 'budget_user_${run}_0';
+    final chatId =
+        me.hashCode <= peer.hashCode ? '${me}_$peer' : '${peer}_$me';
+    final messages = db.collection('messages').doc(chatId).collection('chats');
+    final now = DateTime.now().millisecondsSinceEpoch;
+    final numbers = [for (var i = 0; i < contacts; i++) _phone(tag, i)];
+
+    final seed = {
+      db.collection('client').doc(me): {
+        'first_name': 'Me',
+        'phone': _phone(tag, 99999),
+        'isUsingApp': true,
+        ...ContactDiscovery.fieldsFor(_phone(tag, 99999)),
+      },
+      for (var i = 0; i < registered; i++)
+        db.collection('client').doc('budget_user_${run}_$i'): {
+          'first_name': 'User $i',
+          'phone': numbers[i],
+          'isUsingApp': true,
+          ...ContactDiscovery.fieldsFor(numbers[i]),
+        },
+      for (var i = 0; i < chatMessages; i++)
+        messages.doc('m${i.toString().padLeft(5, '0')}'): {
+          'senderId': i.isEven ? me : peer,
+          'receiverId': i.isEven ? peer : me,
+          'message': 'Message $i',
+          'type': 'text',
+          'timestamp': Timestamp.fromMillisecondsSinceEpoch(
+            now - (chatMessages - i) * 60000,
+          ),
+        },
+      for (var i = 0; i < chatListEntries; i++)
+        db
+            .collection('chatList')
+            .doc(me)
+            .collection('chats')
+            .doc('budget_user_${run}_$i'): {
+          'name': 'User $i',
+          'lastMessage': 'Hello',
+          'timestamp': Timestamp.fromMillisecondsSinceEpoch(now - i),
+        },
+      for (var i = 0; i < withStatus; i++)
+        db
+            .collection('whatsappstatus')
+            .doc('budget_user_${run}_$i')
+            .collection('statuses')
+            .doc('status_${run}_$i'): {
+          'uploaderId': 'budget_user_${run}_$i',
+          'image': '',
+          'timestamp': now - i * 1000,
+          'views': <String>[],
+          'phone10': numbers[i],
+        },
+    }.entries.toList();
+    await commitAll(
+      db,
+      seed.length,
+      (batch, i) => batch.set(seed[i].key, seed[i].value),
+    );
+
+    final metrics = FirestoreMetrics.instance..reset();
+
+    final scenarios = [
+      // The home list: one listener on the user's chat list.
+      Scenario('/ProfileCardPage', const Budget(chatListEntries, 0), () async {
+        final first = await db
+            .collection('chatList')
+            .doc(me)
+            .collection('chats')
+            .orderBy('timestamp', descending: true)
+            .trackedSnapshots(path: 'chatList/*/chats')
+            .firstWhere((snap) => !snap.metadata.isFromCache);
+        expect(first.docs, hasLength(chatListEntries));
+      }),
+      // Open a chat, scroll back one page, mark it read, type, send.
+      Scenario('/ChatScreen', const Budget(120, 8), () async {
+        final window = MessageWindow(chatId: chatId, collection: messages);
+        final presence = TypingPresence(firestore: db);
+        final receipts = ReadReceipts(firestore: db);
+        final peerDoc = UserDirectory.instance.watch('client/$peer').listen(
+          (_) {},
+        );
+        final typing = presence.watch(chatId, peer);
+        window.start();
+        await until(() => window.messages.length >= 50);
+        await window.loadOlder();
+
+        final newest = window.messages.last;
+        receipts.markRead(
+          chatId: chatId,
+          readerId: me,
+          upTo: newest.timestamp!,
+          messageId: newest.id,
+        );
+        await receipts.flush(chatId, me);
+
+        for (var i = 0; i < 20; i++) {
+          presence.keystroke(chatId, me);
+        }
+        presence.stop(chatId, me);
+        await ChatSender(firestore: db).send(
+          chatId: chatId,
+          message: ChatMessage.compact(
+            senderId: me,
+            text: 'Budget check',
+            timestamp: FieldValue.serverTimestamp(),
+          ),
+          senderId: me,
+          peerId: peer,
+          summary: ChatSender.summaryFor('text', 'Budget check'),
+        );
+        await Future<void>.delayed(const Duration(seconds: 1));
+        typing.dispose();
+        await peerDoc.cancel();
+        window.dispose();
+      }),
+      // Find which contacts have an account.
+      Scenario('/ContactListPage', const Budget(registered + 2, 0), () async {
+        final discovery = ContactDiscovery(
+          firestore: db,
+          prefsKey: 'contact_discovery_budget_$run',
+        );
+        await discovery.discover(numbers);
+        expect(numbers.where(discovery.isRegistered), hasLength(registered));
+      }),
+      // The status tab, then a second visit that should only ask for news.
+      Scenario('/StatusScreen', const Budget(withStatus + 6, 0), () async {
+        final feed = StatusFeed(firestore: db);
+        await feed.refresh(selfUid: me, phones: numbers);
+        await feed.refresh(selfUid: me, phones: numbers);
+        expect(feed.stories, hasLength(withStatus));
+      }),
+    ];
+
+    for (final scenario in scenarios) {
+      await metrics.runAs(scenario.screen, scenario.run);
+    }
+
+    debugPrint(metrics.exportJson());
+    final totals = metrics.totalsByScreen();
+    for (final scenario in scenarios) {
+      final total = totals[scenario.screen] ?? const {'reads': 0, 'writes': 0};
+      debugPrint(
+        '${scenario.screen}: ${total['reads']}/${scenario.budget.reads} '
+        'reads, ${total['writes']}/${scenario.budget.writes} writes',
+      );
+      expect(
+        total['reads'],
+        lessThanOrEqualTo(scenario.budget.reads),
+        reason: '${scenario.screen} reads',
+      );
+      expect(
+        total['writes'],
+        lessThanOrEqualTo(scenario.budget.writes),
+        reason: '${scenario.screen} writes',
+      );
+    }
+  });
+}
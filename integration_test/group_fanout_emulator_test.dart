@@ -0,0 +1,109 @@
+// Call invitation latency to the last member, against the Firestore
+// emulator.
+//
+//     firebase emulators:start --only firestore
+//     flutter test integration_test/group_fanout_emulator_test.dart \
+//       --dart-define=FIRESTORE_EMULATOR_HOST=10.0.2.2   # Android emulator
+//
+// For groups of 10, 100 and 500 members, prints how long the last member
+// waits for their invitation with the old one-awaited-add-per-member loop
+// and with GroupFanout.
+import 'package:TwinBox/services/group_fanout.dart';
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/foundation.dart';
+import 'package:flutter_test/flutter_test.dart';
+import 'package:integration_test/integration_test.dart';
+
+import 'support/emulator.dart';
+
+Map<String, dynamic> _invite(String groupId) => {
+  'groupId': groupId,
+  'groupName': 'Latency test',
+  'callerId': 'caller',
+  'callerName': 'Caller',
+  'isVideo': false,
+  'timestamp': FieldValue.serverTimestamp(),
+};
+
+/// Runs [send] and completes with the time until [lastMember] sees the
+/// invitation for [groupId].
+Future<Duration> _timeToLastMember(
+  FirebaseFirestore db,
+  String lastMember,
+  String groupId,
+  Future<void> Function() send,
+) async {
+  final stopwatch = Stopwatch()..start();
+  final delivered = db
+      .collection('users')
+      .doc(lastMember)
+      .collection('incomingCalls')
+      .where('groupId', isEqualTo: groupId)
+      .snapshots()
+      .firstWhere((s) => s.docs.any((d) => !d.metadata.hasPendingWrites));
+  await send();
+  await delivered;
+  return stopwatch.elapsed;
+}
+
+void main() {
+  IntegrationTestWidgetsFlutterBinding.ensureInitialized();
+  late FirebaseFirestore db;
+
+  setUpAll(() async {
+    db = await emulatorFirestore();
+  });
+
+  for (final size in [10, 100, 500]) {
+    testWidgets('invites reach the last of $size members', (tester) async {
+      final run = DateTime.now().microsecondsSinceEpoch;
+      final members = [for (var i = 0; i < size; i++) 'member_${run}_$i'];
+
+      final sequentialGroup = 'sequential_${size}_$run';
+      final sequential = await _timeToLastMember(
+        db,
+        members.last,
+        sequentialGroup,
+        () async {
+          for (final uid in members) {
+            await db
+                .collection('users')
+                .doc(uid)
+                .collection('incomingCalls')
+                .add(_invite(sequentialGroup));
+          }
+        },
+      );
+
+      final fanoutGroup = 'fanout_${size}_$run';
+      late FanoutReport report;
+      final callId = db.collection('groups').doc().id;
+      final fanout = await _timeToLastMember(
+        db,
+        members.last,
+        fanoutGroup,
+        () async {
+          report = await GroupFanout(firestore: db).fanOut(
+            recipients: members,
+            write:
+                (batch, uid) => batch.set(
+                  db
+                      .collection('users')
+                      .doc(uid)
+                      .collection('incomingCalls')
+                      .doc(callId),
+                  _invite(fanoutGroup),
+                ),
+          );
+        },
+      );
+
+      debugPrint(
+        '$size members: sequential ${sequential.inMilliseconds} ms, '
+        'fan-out ${fanout.inMilliseconds} ms ($report)',
+      );
+      expect(report.ok, isTrue);
+      expect(report.recipients, size);
+    });
+  }
+}
@@ -0,0 +1,209 @@
+// Frame times and memory for a group chat of 10000 messages over 100 days.
+//
+//     flutter drive --profile \
+//       --driver=test_driver/perf_driver.dart \
+//       --target=integration_test/group_timeline_benchmark_test.dart
+//
+// `group_timeline_eager` regroups every message by date on each snapshot and
+// builds all bubbles in a non-lazy ListView, as the group screen did before.
+// `group_timeline_sliver` feeds only the changes to GroupTimeline and shows
+// it in GroupTimelineView, as the group screen does now. Each run opens the
+// group, receives 20 messages and flings up through the history. Time to
+// open, resident memory growth and bubble builds are printed; compare
+// `average_frame_build_time_millis` and `worst_frame_build_time_millis` in
+// build/<name>.timeline_summary.json.
+// Checks that every message lands in its day, in order, and that the sliver
+// view builds only part of the history on open.
+import 'dart:io';
+
+import 'package:TwinBox/PAGES/group section/group_timeline_view.dart';
+import 'package:TwinBox/services/group_timeline.dart';
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/material.dart';
+import 'package:flutter_test/flutter_test.dart';
+import 'package:integration_test/integration_test.dart';
+
+const int messageCount = 10000;
+const int perDay = 100;
+const int arrivals = 20;
+const int flings = 5;
+
+int bubbleBuilds = 0;
+
+final DateTime _firstDay = DateUtils.dateOnly(
+  DateTime.now(),
+).subtract(const Duration(days: messageCount ~/ perDay - 1));
+
+Map<String, dynamic> _doc(int i) => {
+  'senderId': i % 3 == 0 ? 'me' : 'member${i % 7}',
+  'senderName': 'Member ${i % 7}',
+  'senderPhone': '98765${(i % 7).toString().padLeft(5, '0')}',
+  'text': 'Message number $i with a bit of text to lay out',
+  'timestamp': Timestamp.fromDate(
+    _firstDay.add(Duration(days: i ~/ perDay, minutes: (i % perDay) * 10)),
+  ),
+};
+
+String _id(int i) => 'm${i.toString().padLeft(6, '0')}';
+
+class _Bubble extends StatelessWidget {
+  const _Bubble(this.data);
+
+  final Map<String, dynamic> data;
+
+  @override
+  Widget build(BuildContext context) {
+    bubbleBuilds++;
+    final isMe = data['senderId'] == 'me';
+    return Align(
+      alignment: isMe ? Alignment.centerRight : Alignment.centerLeft,
+      child: Container(
+        margin: const EdgeInsets.symmetric(vertical: 4),
+        padding: const EdgeInsets.all(10),
+        constraints: const BoxConstraints(maxWidth: 280),
+        decoration: BoxDecoration(
+          color: isMe ? Colors.green.shade200 : Colors.white,
+          borderRadius: BorderRadius.circular(16),
+        ),
+        child: Column(
+          crossAxisAlignment:
+              isMe ? CrossAxisAlignment.end : CrossAxisAlignment.start,
+          children: [
+            Text(
+              isMe ? 'You' : data['senderName'],
+              style: const TextStyle(
+                fontSize: 12,
+                color: Colors.black54,
+                fontWeight: FontWeight.bold,
+              ),
+            ),
+            Text(data['text'], style: const TextStyle(fontSize: 15)),
+          ],
+        ),
+      ),
+    );
+  }
+}
+
+/// The previous screen: a full regroup and a non-lazy list per snapshot.
+class _EagerGroup extends StatelessWidget {
+  const _EagerGroup({required this.docs});
+
+  final ValueNotifier<List<MapEntry<String, Map<String, dynamic>>>> docs;
+
+  @override
+  Widget build(BuildContext context) {
+    return ValueListenableBuilder(
+      valueListenable: docs,
+      builder: (context, docs, _) {
+        final grouped = <String, List<Map<String, dynamic>>>{};
+        for (final doc in docs) {
+          final ts = (doc.value['timestamp'] as Timestamp).toDate();
+          grouped
+              .putIfAbsent(GroupTimelineView.dayLabel(ts), () => [])
+              .add(doc.value);
+        }
+        return ListView(
+          padding: const EdgeInsets.all(12),
+          children: [
+            for (final entry in grouped.entries)
+              Column(
+                children: [
+                  Text(entry.key),
+                  for (final data in entry.value) _Bubble(data),
+                ],
+              ),
+          ],
+        );
+      },
+    );
+  }
+}
+
+void main() {
+  final binding = IntegrationTestWidgetsFlutterBinding.ensureInitialized();
+
+  for (final lazy in [false, true]) {
+    final name = lazy ? 'group_timeline_sliver' : 'group_timeline_eager';
+    testWidgets(name, (tester) async {
+      final docs = ValueNotifier(<MapEntry<String, Map<String, dynamic>>>[]);
+      final timeline = GroupTimeline();
+      void receive(int from, int to) {
+        final added = [
+          for (var i = from; i < to; i++) MapEntry(_id(i), _doc(i)),
+        ];
+        if (lazy) {
+          timeline.apply([
+            for (final doc in added) (id: doc.key, data: doc.value),
+          ]);
+        } else {
+          docs.value = [...docs.value, ...added];
+        }
+      }
+
+      // The history arrives as the first snapshot, before the screen opens.
+      receive(0, messageCount);
+      final rssBefore = ProcessInfo.currentRss;
+      bubbleBuilds = 0;
+      final open = Stopwatch()..start();
+      await tester.pumpWidget(
+        MaterialApp(
+          home: Scaffold(
+            backgroundColor: Colors.blueAccent,
+            body:
+                lazy
+                    ? GroupTimelineView(
+                      timeline: timeline,
+                      buildMessage: (message) => _Bubble(message.data),
+                    )
+                    : _EagerGroup(docs: docs),
+          ),
+        ),
+      );
+      await tester.pumpAndSettle();
+      open.stop();
+      final rssGrowth = ProcessInfo.currentRss - rssBefore;
+      final openBuilds = bubbleBuilds;
+
+      bubbleBuilds = 0;
+      await binding.traceAction(() async {
+        for (var i = 0; i < arrivals; i++) {
+          receive(messageCount + i, messageCount + i + 1);
+          await tester.pump();
+        }
+        for (var i = 0; i < flings; i++) {
+          await tester.fling(
+            find.byType(Scrollable).first,
+            const Offset(0, 600),
+            3000,
+          );
+          await tester.pumpAndSettle();
+        }
+      }, reportKey: name);
+
+      debugPrint(
+        '$name: open ${open.elapsedMilliseconds} ms, '
+        '${(rssGrowth / (1024 * 1024)).toStringAsFixed(1)} MB resident '
+        'growth, $openBuilds bubbles built on open, '
+        '$bubbleBuilds while receiving and scrolling',
+      );
+      if (lazy) {
+        expect(timeline.length, messageCount + arrivals);
+        final days = [for (final section in timeline.sections) section.day];
+        expect(days.length, (messageCount + arrivals - 1) ~/ perDay + 1);
+        for (var d = 1; d < days.length; d++) {
+          expect(days[d].isAfter(days[d - 1]), isTrue);
+        }
+        for (final section in timeline.sections) {
+          final times = [for (final m in section.messages) m.time];
+          expect(times, orderedEquals([...times]..sort()));
+        }
+        expect(openBuilds, lessThan(messageCount));
+      } else {
+        expect(docs.value.length, messageCount + arrivals);
+        expect(openBuilds, messageCount);
+      }
+      timeline.dispose();
+    });
+  }
+}
@@ -0,0 +1,131 @@
+// Frame timings while scrolling a chat of 200 image messages.
+//
+//     flutter drive --profile \
+//       --driver=test_driver/perf_driver.dart \
+//       --target=integration_test/image_scroll_benchmark_test.dart
+//
+// Writes build/image_scroll_inline.timeline_summary.json (bubbles decoded
+// with base64Decode during build, as before) and
+// build/image_scroll_workers.timeline_summary.json (Base64Image on the
+// worker pool). Compare `average_frame_build_time_millis` and
+// `missed_frame_build_budget_count`.
+import 'dart:convert';
+import 'dart:ui' as ui;
+
+import 'package:TwinBox/services/base64_image.dart';
+import 'package:flutter/material.dart';
+import 'package:flutter_test/flutter_test.dart';
+import 'package:integration_test/integration_test.dart';
+
+const int messageCount = 200;
+const int distinctImages = 20;
+
+Future<String> _makeImage(int seed) async {
+  final recorder = ui.PictureRecorder();
+  final canvas = Canvas(recorder);
+  const size = 900.0;
+  for (var i = 0; i < 30; i++) {
+    canvas.drawCircle(
+      Offset((seed * 37 + i * 53) % size, (seed * 91 + i * 29) % size),
+      40.0 + (i * 7) % 120,
+      Paint()
+        ..color = Color(0xFF000000 | ((seed + 1) * 40503 + i * 9973) & 0xFFFFFF),
+    );
+  }
+  final image = await recorder.endRecording().toImage(
+    size.toInt(),
+    size.toInt(),
+  );
+  final png = await image.toByteData(format: ui.ImageByteFormat.png);
+  return base64Encode(png!.buffer.asUint8List());
+}
+
+class _Chat extends StatelessWidget {
+  const _Chat({required this.images, required this.useWorkers});
+
+  final List<String> images;
+  final bool useWorkers;
+
+  @override
+  Widget build(BuildContext context) {
+    return MaterialApp(
+      home: Scaffold(
+        body: ListView.builder(
+          key: const ValueKey('chat'),
+          reverse: true,
+          itemCount: messageCount,
+          itemBuilder: (context, index) {
+            final data = images[index % images.length];
+            final id = 'message-$index';
+            return Align(
+              alignment:
+                  index.isEven ? Alignment.centerRight : Alignment.centerLeft,
+              child: Padding(
+                padding: const EdgeInsets.all(8),
+                child: ClipRRect(
+                  borderRadius: BorderRadius.circular(10),
+                  child:
+                      useWorkers
+                          ? Image(
+                            image: Base64Image(
+                              data,
+                              cacheKey: id,
+                              targetWidth:
+                                  (200 * MediaQuery.devicePixelRatioOf(context))
+                                      .round(),
+                            ),
+                            width: 200,
+                            height: 200,
+                            fit: BoxFit.cover,
+                            gaplessPlayback: true,
+                          )
+                          : Image.memory(
+                            base64Decode(data),
+                            width: 200,
+                            height: 200,
+                            fit: BoxFit.cover,
+                          ),
+                ),
+              ),
+            );
+          },
+        ),
+      ),
+    );
+  }
+}
+
+void main() {
+  final binding = IntegrationTestWidgetsFlutterBinding.ensureInitialized();
+  late List<String> images;
+
+  setUpAll(() async {
+    images = [for (var i = 0; i < distinctImages; i++) await _makeImage(i)];
+  });
+
+  Future<void> scrollThrough(WidgetTester tester) async {
+    final list = find.byKey(const ValueKey('chat'));
+    for (var i = 0; i < 6; i++) {
+      await tester.fling(list, const Offset(0, 1500), 3000);
+      await tester.pumpAndSettle();
+    }
+    for (var i = 0; i < 6; i++) {
+      await tester.fling(list, const Offset(0, -1500), 3000);
+      await tester.pumpAndSettle();
+    }
+  }
+
+  for (final useWorkers in [false, true]) {
+    final name = useWorkers ? 'image_scroll_workers' : 'image_scroll_inline';
+    testWidgets(name, (tester) async {
+      imageCache.clear();
+      imageCache.clearLiveImages();
+      await tester.pumpWidget(_Chat(images: images, useWorkers: useWorkers));
+      await tester.pumpAndSettle();
+      await binding.traceAction(
+        () => scrollThrough(tester),
+        reportKey: name,
+      );
+    });
+  }
+}
@@ -0,0 +1,94 @@
+// Replays an hour-long GPS trace through a live location share against the
+// Firestore emulator and counts writes.
+//
+//     firebase emulators:start --only firestore
+//     flutter test integration_test/live_location_replay_test.dart \
+//       --dart-define=FIRESTORE_EMULATOR_HOST=10.0.2.2   # Android emulator
+//
+// The trace has one fix per second: 20 minutes walking, 20 minutes standing
+// still with a few meters of GPS jitter, then 20 minutes driving. Before,
+// every fix was a new chat message (3600 writes); the share now updates one
+// message in place.
+import 'dart:async';
+import 'dart:math';
+
+import 'package:TwinBox/services/chat_message.dart';
+import 'package:TwinBox/services/live_location.dart';
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/foundation.dart';
+import 'package:flutter_test/flutter_test.dart';
+import 'package:integration_test/integration_test.dart';
+import 'package:location/location.dart';
+
+import 'support/emulator.dart';
+
+const double metersPerDegree = 111320;
+
+List<LocationData> _trace() {
+  final random = Random(7);
+  final start = DateTime(2024, 5, 1, 9).millisecondsSinceEpoch;
+  var lat = 48.8566;
+  var lng = 2.3522;
+  final fixes = <LocationData>[];
+  for (var second = 0; second < 3600; second++) {
+    final speed =
+        second < 1200
+            ? 1.4 // walking
+            : second < 2400
+            ? 0.0 // standing
+            : 14.0; // driving
+    lat += speed / metersPerDegree;
+    final jitter = (random.nextDouble() - 0.5) * 6 / metersPerDegree;
+    fixes.add(
+      LocationData.fromMap({
+        'latitude': lat + jitter,
+        'longitude': lng + jitter,
+        'time': (start + second * 1000).toDouble(),
+      }),
+    );
+  }
+  return fixes;
+}
+
+void main() {
+  IntegrationTestWidgetsFlutterBinding.ensureInitialized();
+  late FirebaseFirestore db;
+
+  setUpAll(() async {
+    db = await emulatorFirestore();
+  });
+
+  testWidgets('an hour of fixes updates one message', (tester) async {
+    final chatId = 'live_${DateTime.now().microsecondsSinceEpoch}';
+    final trace = _trace();
+    final sharing = LiveLocationSharing(firestore: db);
+    final gps = StreamController<LocationData>();
+
+    final session = await sharing.start(
+      chatId: chatId,
+      senderId: 'sender',
+      first: trace.first,
+      fixes: gps.stream,
+    );
+    trace.skip(1).forEach(gps.add);
+    await gps.close(); // completes once every fix has been delivered
+    await sharing.stop(chatId);
+
+    debugPrint(
+      '${trace.length} fixes -> ${session.writes} writes '
+      '(${(trace.length / session.writes).toStringAsFixed(1)}x fewer)',
+    );
+    expect(session.fixes, trace.length - 1);
+    // 20 min walking at ~30 m per write, one heartbeat a minute while
+    // standing, 20 min driving at one write per 5 s, plus start and stop.
+    expect(session.writes, lessThan(500));
+
+    final messages =
+        await db.collection('messages').doc(chatId).collection('chats').get();
+    expect(messages.docs, hasLength(1));
+    final data = messages.docs.single.data();
+    expect(data[ChatMessage.liveKey], isFalse);
+    // The last write is at most 5 s of driving behind the last fix.
+    expect(data['lat'], closeTo(trace.last.latitude!, 100 / metersPerDegree));
+  });
+}
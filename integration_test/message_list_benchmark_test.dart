@@ -0,0 +1,158 @@
+// Row rebuilds and frame timings when one message arrives in a chat of
+// 5000 messages.
+//
+//     flutter drive --profile \
+//       --driver=test_driver/perf_driver.dart \
+//       --target=integration_test/message_list_benchmark_test.dart
+//
+// `message_arrival_full` re-parses every document into new messages on each
+// snapshot and builds rows from scratch, as the list did before.
+// `message_arrival_incremental` inserts only the new ChatMessage and reuses
+// rows through MessageRowCache, as MessageWindow and the chat screens do now.
+// Row builds per arrival are printed; compare `average_frame_build_time_millis`
+// in build/<name>.timeline_summary.json. Checks that the newest message is on
+// screen and that the incremental list builds only the arriving rows.
+import 'package:TwinBox/services/chat_message.dart';
+import 'package:TwinBox/services/message_window.dart';
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/material.dart';
+import 'package:flutter_test/flutter_test.dart';
+import 'package:integration_test/integration_test.dart';
+
+const int messageCount = 5000;
+const int arrivals = 20;
+
+Map<String, dynamic> _doc(int i) => {
+  'senderId': i.isEven ? 'me' : 'peer',
+  'receiverId': i.isEven ? 'peer' : 'me',
+  'message': 'Message number $i with a bit of text to lay out',
+  'type': 'text',
+  'timestamp': Timestamp.fromMillisecondsSinceEpoch(1700000000000 + i * 1000),
+  'isRead': true,
+};
+
+class _Model extends ChangeNotifier {
+  _Model({required this.incremental})
+    : _docs = [for (var i = 0; i < messageCount; i++) _doc(i)] {
+    messages = [
+      for (var i = 0; i < _docs.length; i++)
+        ChatMessage.fromMap('m$i', _docs[i]),
+    ];
+  }
+
+  final bool incremental;
+  final List<Map<String, dynamic>> _docs;
+  late List<ChatMessage> messages;
+
+  void arrive() {
+    final i = _docs.length;
+    _docs.add(_doc(i));
+    if (incremental) {
+      messages = [...messages, ChatMessage.fromMap('m$i', _docs[i])];
+    } else {
+      messages = [
+        for (var j = 0; j < _docs.length; j++)
+          ChatMessage.fromMap('m$j', _docs[j]),
+      ];
+    }
+    notifyListeners();
+  }
+}
+
+class _Chat extends StatefulWidget {
+  const _Chat({required this.model});
+
+  final _Model model;
+
+  @override
+  State<_Chat> createState() => _ChatState();
+}
+
+class _ChatState extends State<_Chat> {
+  final MessageRowCache _rows = MessageRowCache();
+  int rowBuilds = 0;
+
+  Widget _buildRow(ChatMessage message) {
+    rowBuilds++;
+    final isMe = message.senderId == 'me';
+    return Align(
+      alignment: isMe ? Alignment.centerRight : Alignment.centerLeft,
+      child: Container(
+        margin: const EdgeInsets.symmetric(vertical: 4),
+        padding: const EdgeInsets.symmetric(horizontal: 12, vertical: 8),
+        color: isMe ? const Color(0xFFDCF8C6) : Colors.white,
+        child: Text(message.text),
+      ),
+    );
+  }
+
+  @override
+  Widget build(BuildContext context) {
+    return MaterialApp(
+      home: Scaffold(
+        body: AnimatedBuilder(
+          animation: widget.model,
+          builder: (context, _) {
+            final messages = widget.model.messages;
+            return ListView.builder(
+              reverse: true,
+              itemCount: messages.length,
+              itemBuilder: (context, index) {
+                final message = messages[messages.length - 1 - index];
+                Widget build() => KeyedSubtree(
+                  key: ValueKey(message.id),
+                  child: _buildRow(message),
+                );
+                return widget.model.incremental
+                    ? _rows.row(message, build)
+                    : build();
+              },
+              // Rows are keyed by id, so a new message at the bottom moves
+              // the existing elements instead of rebuilding them.
+              findChildIndexCallback: (key) {
+                final id = (key as ValueKey<String>).value;
+                final i = int.parse(id.substring(1));
+                return i < messages.length ? messages.length - 1 - i : null;
+              },
+            );
+          },
+        ),
+      ),
+    );
+  }
+}
+
+void main() {
+  final binding = IntegrationTestWidgetsFlutterBinding.ensureInitialized();
+
+  for (final incremental in [false, true]) {
+    final name =
+        incremental ? 'message_arrival_incremental' : 'message_arrival_full';
+    testWidgets(name, (tester) async {
+      final model = _Model(incremental: incremental);
+      await tester.pumpWidget(_Chat(model: model));
+      await tester.pumpAndSettle();
+      final state = tester.state<_ChatState>(find.byType(_Chat));
+      state.rowBuilds = 0;
+
+      await binding.traceAction(() async {
+        for (var i = 0; i < arrivals; i++) {
+          model.arrive();
+          await tester.pump();
+        }
+      }, reportKey: name);
+
+      debugPrint(
+        '$name: ${state.rowBuilds / arrivals} row builds per arrival',
+      );
+      final newest = messageCount + arrivals - 1;
+      expect(model.messages.last.id, 'm$newest');
+      expect(find.text(_doc(newest)['message'] as String), findsOneWidget);
+      // Cached rows are reused by identity, so only arrivals are built.
+      expect(
+        state.rowBuilds,
+        incremental ? arrivals : greaterThan(arrivals),
+      );
+    });
+  }
+}
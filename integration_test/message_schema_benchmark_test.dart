@@ -0,0 +1,182 @@
+// Bytes per message and decode time per 1000 messages, legacy documents
+// against the compact `v: 2` format, against the Firestore emulator.
+//
+//     firebase emulators:start --only firestore
+//     flutter test integration_test/message_schema_benchmark_test.dart \
+//       --dart-define=FIRESTORE_EMULATOR_HOST=10.0.2.2   # Android emulator
+//
+// Legacy documents are shaped as the chat screens wrote them before: sender
+// and receiver ids and names, `isRead`, and for images a chatList entry with
+// the peer's name, number and the whole base64 image. Sizes follow
+// Firestore's storage-size rules (FirestoreMetrics.estimateBytes). Decode
+// time is measured twice: ChatMessage.fromMap alone, and a server get of
+// 1000 documents (platform decode plus parse).
+import 'package:TwinBox/services/chat_message.dart';
+import 'package:TwinBox/services/chat_sender.dart';
+import 'package:TwinBox/services/firestore_metrics.dart';
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/foundation.dart';
+import 'package:flutter_test/flutter_test.dart';
+import 'package:integration_test/integration_test.dart';
+
+import 'support/emulator.dart';
+
+const int messageCount = 1000;
+const int parseRounds = 20;
+
+const String me = 'sender_uid_0123456789abcdef';
+const String peer = 'receiver_uid_0123456789abcdef';
+
+String _text(int i) => 'Message number $i with a bit of text to lay out';
+
+Timestamp _at(int i) =>
+    Timestamp.fromMillisecondsSinceEpoch(1700000000000 + i * 1000);
+
+Map<String, dynamic> _legacy(int i) => {
+  'senderId': i.isEven ? me : peer,
+  'receiverId': i.isEven ? peer : me,
+  'message': _text(i),
+  'type': 'text',
+  'timestamp': _at(i),
+  'senderName': i.isEven ? 'Asha Verma' : 'Rahul Mehta',
+  'receiverName': i.isEven ? 'Rahul Mehta' : 'Asha Verma',
+  'isRead': true,
+};
+
+Map<String, dynamic> _compact(int i) => ChatMessage.compact(
+  senderId: i.isEven ? me : peer,
+  text: _text(i),
+  timestamp: _at(i),
+);
+
+int _bytes(String id, Map<String, dynamic> data) =>
+    // Document name, fixed overhead and fields, as Firestore counts them.
+    'messages/${me}_$peer/chats/$id'.length +
+    1 +
+    32 +
+    FirestoreMetrics.estimateBytes(data);
+
+/// Median time to parse all of [docs], in microseconds.
+int _parseMicros(List<Map<String, dynamic>> docs) {
+  final times = <int>[];
+  for (var round = 0; round < parseRounds; round++) {
+    final stopwatch = Stopwatch()..start();
+    for (var i = 0; i < docs.length; i++) {
+      ChatMessage.fromMap('m$i', docs[i]);
+    }
+    times.add(stopwatch.elapsedMicroseconds);
+  }
+  times.sort();
+  return times[times.length ~/ 2];
+}
+
+void main() {
+  IntegrationTestWidgetsFlutterBinding.ensureInitialized();
+  late FirebaseFirestore db;
+
+  setUpAll(() async {
+    db = await emulatorFirestore();
+  });
+
+  testWidgets('compact messages and previews are smaller', (
+    tester,
+  ) async {
+    final legacy = [for (var i = 0; i < messageCount; i++) _legacy(i)];
+    final compact = [for (var i = 0; i < messageCount; i++) _compact(i)];
+
+    // Both formats read back as the same message.
+    for (var i = 0; i < messageCount; i += 97) {
+      final a = ChatMessage.fromMap('m$i', legacy[i]);
+      final b = ChatMessage.fromMap('m$i', compact[i]);
+      expect(b.senderId, a.senderId);
+      expect(b.text, a.text);
+      expect(b.type, a.type);
+      expect(b.timestamp, a.timestamp);
+    }
+
+    final legacyBytes = [
+      for (var i = 0; i < messageCount; i++) _bytes('m$i', legacy[i]),
+    ].reduce((a, b) => a + b);
+    final compactBytes = [
+      for (var i = 0; i < messageCount; i++) _bytes('m$i', compact[i]),
+    ].reduce((a, b) => a + b);
+
+    // An image's chatList entry, with a 60 KB photo.
+    final image = 'A' * 60000;
+    final legacyEntry = {
+      'peerId': peer,
+      'peerName': 'Rahul Mehta',
+      'peerMobile': '+91 9876543210',
+      'lastMessage': '[Image]',
+      'type': 'image',
+      'imageData': image,
+      'timestamp': _at(0),
+      'unreadCount': 3,
+    };
+    final compactEntry = {
+      'peerId': peer,
+      ...ChatSender.summaryFor('image'),
+      'timestamp': _at(0),
+      'unreadCount': 3,
+    };
+    final longText = {
+      'peerId': peer,
+      ...ChatSender.summaryFor('text', 'x' * 5000),
+      'timestamp': _at(0),
+      'unreadCount': 3,
+    };
+
+    final legacyParse = _parseMicros(legacy);
+    final compactParse = _parseMicros(compact);
+
+    // Through the SDK: write both sets, then time a server read of each.
+    final run = DateTime.now().microsecondsSinceEpoch;
+    final timings = <String, int>{};
+    for (final entry in {'legacy': legacy, 'compact': compact}.entries) {
+      final chats = db
+          .collection('messages')
+          .doc('schema_${entry.key}_$run')
+          .collection('chats');
+      final batch = db.batch();
+      for (var i = 0; i < messageCount; i++) {
+        batch.set(
+          chats.doc('m${i.toString().padLeft(4, '0')}'),
+          entry.value[i],
+        );
+      }
+      await batch.commit();
+      final stopwatch = Stopwatch()..start();
+      final snap = await chats
+          .orderBy('timestamp')
+          .get(const GetOptions(source: Source.server));
+      final messages = snap.docs.map(ChatMessage.fromDoc).toList();
+      timings[entry.key] = stopwatch.elapsedMilliseconds;
+      expect(messages, hasLength(messageCount));
+    }
+
+    debugPrint(
+      'Bytes per message: legacy ${legacyBytes ~/ messageCount}, '
+      'compact ${compactBytes ~/ messageCount}',
+    );
+    debugPrint(
+      'Image chatList entry: legacy '
+      '${FirestoreMetrics.estimateBytes(legacyEntry)} B, compact '
+      '${FirestoreMetrics.estimateBytes(compactEntry)} B; 5000-char text '
+      '${FirestoreMetrics.estimateBytes(longText)} B',
+    );
+    debugPrint(
+      'Parse per $messageCount: legacy '
+      '${(legacyParse / 1000).toStringAsFixed(2)} ms, compact '
+      '${(compactParse / 1000).toStringAsFixed(2)} ms '
+      '(median of $parseRounds)',
+    );
+    debugPrint(
+      'Server get + parse of $messageCount: legacy ${timings['legacy']} ms, '
+      'compact ${timings['compact']} ms',
+    );
+
+    expect(compactBytes, lessThan(legacyBytes * 0.75));
+    expect(FirestoreMetrics.estimateBytes(compactEntry), lessThan(200));
+    expect(FirestoreMetrics.estimateBytes(longText), lessThan(200));
+  });
+}
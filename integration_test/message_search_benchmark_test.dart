@@ -0,0 +1,144 @@
+// Query latency of MessageSearch over 1,000,000 indexed messages.
+//
+//     flutter test integration_test/message_search_benchmark_test.dart \
+//       --profile
+//
+// Indexes 1000 chats of 1000 messages each into a separate database file.
+// The messages are 6 to 16 words drawn from a 5000-word vocabulary with a
+// skewed (Zipf-like) frequency, so some words appear in most messages and
+// others in a handful. Then each query runs [runs] times, as typed in the
+// search page: a frequent word, a rare word, a word being typed (prefix), a
+// two-word AND, a phrase, and a frequent word inside one chat. Prints the
+// build time, the median and p95 latency per query, and fails if a query
+// finds nothing, returns hits out of time order or outside its chat, or if
+// any p95 exceeds [budgetMs]. Building the index takes a few minutes on a
+// device.
+import 'dart:math';
+
+import 'package:TwinBox/services/message_search.dart';
+import 'package:flutter/foundation.dart';
+import 'package:flutter_test/flutter_test.dart';
+import 'package:integration_test/integration_test.dart';
+import 'package:path/path.dart' as p;
+import 'package:sqflite/sqflite.dart';
+
+const int chats = 1000;
+const int perChat = 1000;
+const int vocabulary = 5000;
+const int runs = 30;
+const int budgetMs = 50;
+
+final List<String> _syllables =
+    'ka ri mo na te lu shi van po de ra mi to ke ba ni so ga li pu'.split(' ');
+
+/// Word [rank] of the vocabulary; low ranks are the frequent ones.
+String _word(int rank) {
+  final buffer = StringBuffer();
+  var n = rank + _syllables.length;
+  while (n > 0) {
+    buffer.write(_syllables[n % _syllables.length]);
+    n ~/= _syllables.length;
+  }
+  return buffer.toString();
+}
+
+String _chat(int c) => 'messages/bench_$c/chats';
+
+void main() {
+  IntegrationTestWidgetsFlutterBinding.ensureInitialized();
+
+  testWidgets('queries stay fast over 1M messages', (tester) async {
+    const fileName = 'message_search_benchmark.db';
+    await deleteDatabase(p.join(await getDatabasesPath(), fileName));
+    final search = MessageSearch(fileName: fileName);
+    final random = Random(42);
+    final words = [for (var i = 0; i < vocabulary; i++) _word(i)];
+    // Cubing a uniform draw favours low ranks.
+    String pick() {
+      final r = random.nextDouble();
+      return words[(r * r * r * vocabulary).floor()];
+    }
+
+    final start = DateTime(2024).millisecondsSinceEpoch;
+    final build = Stopwatch()..start();
+    for (var c = 0; c < chats; c++) {
+      for (var m = 0; m < perChat; m++) {
+        final length = 6 + random.nextInt(11);
+        search.index(
+          _chat(c),
+          'm$m',
+          [for (var w = 0; w < length; w++) pick()].join(' '),
+          DateTime.fromMillisecondsSinceEpoch(
+            start + (m * chats + c) * 1000,
+          ),
+        );
+      }
+      if (c % 20 == 19) await search.flush();
+    }
+    await search.flush();
+    build.stop();
+
+    final queries = {
+      'frequent word': words[1],
+      'rare word': words[vocabulary - 10],
+      'prefix while typing': words[300].substring(0, 3),
+      'two words': '${words[5]} ${words[40]} ',
+      'phrase': '"${words[0]} ${words[1]}"',
+    };
+    final results = <String, List<int>>{};
+    final found = <String, List<SearchHit>>{};
+    Future<void> measure(String name, String query, {String? chat}) async {
+      final times = <int>[];
+      var hits = const <SearchHit>[];
+      for (var i = 0; i < runs; i++) {
+        final stopwatch = Stopwatch()..start();
+        hits = await search.search(query, chat: chat);
+        times.add(stopwatch.elapsedMicroseconds);
+      }
+      times.sort();
+      results[name] = times;
+      found[name] = hits;
+      debugPrint(
+        '$name ("$query"): ${hits.length} hits, median '
+        '${(times[runs ~/ 2] / 1000).toStringAsFixed(1)} ms, p95 '
+        '${(times[(runs * 0.95).floor()] / 1000).toStringAsFixed(1)} ms',
+      );
+    }
+
+    for (final query in queries.entries) {
+      await measure(query.key, query.value);
+    }
+    await measure('frequent word in one chat', words[1], chat: _chat(7));
+
+    debugPrint(
+      'Indexed ${chats * perChat} messages in '
+      '${(build.elapsedMilliseconds / 1000).toStringAsFixed(0)} s',
+    );
+    for (final result in found.entries) {
+      final hits = result.value;
+      expect(hits, isNotEmpty, reason: result.key);
+      for (var i = 1; i < hits.length; i++) {
+        expect(
+          hits[i].time.isAfter(hits[i - 1].time),
+          isFalse,
+          reason: '${result.key} newest first',
+        );
+      }
+      for (final hit in hits) {
+        expect(hit.snippet, contains(SearchHit.matchStart));
+      }
+    }
+    expect(found['frequent word'], hasLength(50));
+    expect(
+      found['frequent word in one chat']!.map((hit) => hit.chat).toSet(),
+      {_chat(7)},
+    );
+    for (final result in results.entries) {
+      expect(
+        result.value[(runs * 0.95).floor()] / 1000,
+        lessThan(budgetMs),
+        reason: '${result.key} p95',
+      );
+    }
+  }, timeout: const Timeout(Duration(minutes: 30)));
+}
@@ -0,0 +1,154 @@
+// Opening a chat of 20000 messages against the Firestore emulator.
+//
+//     firebase emulators:start --only firestore
+//     flutter test integration_test/message_window_emulator_test.dart \
+//       --dart-define=FIRESTORE_EMULATOR_HOST=10.0.2.2   # Android emulator
+//
+// The chat screen used to listen to the whole history, so opening a chat
+// read every message and kept all of them in memory; this repeats that once
+// and prints documents read, open time and resident memory growth.
+// MessageWindow then opens a chat of 1000 and one of 20000 messages.
+// Checks that both opens read one page and keep one page resident, so open
+// cost does not grow with the history, and that scrolling far up and back
+// down leaves no more than [MessageWindow.maxResidentPages] older pages in
+// memory. The second test reads the chats seeded by the first.
+import 'dart:async';
+import 'dart:io';
+
+import 'package:TwinBox/services/firestore_metrics.dart';
+import 'package:TwinBox/services/message_store.dart';
+import 'package:TwinBox/services/message_window.dart';
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/foundation.dart';
+import 'package:flutter_test/flutter_test.dart';
+import 'package:integration_test/integration_test.dart';
+
+import 'support/emulator.dart';
+
+const int longChat = 20000;
+const int shortChat = 1000;
+const int pageSize = 50;
+
+/// Pages loaded while scrolling up, before returning to the bottom.
+const int scrolledPages = 40;
+
+Future<void> _seed(
+  FirebaseFirestore db,
+  CollectionReference<Map<String, dynamic>> chats,
+  int count,
+) {
+  final start = DateTime(2024).millisecondsSinceEpoch;
+  return commitAll(db, count, (batch, i) {
+    batch.set(chats.doc('m${i.toString().padLeft(6, '0')}'), {
+      'senderId': i.isEven ? 'me' : 'peer',
+      'receiverId': i.isEven ? 'peer' : 'me',
+      'message': 'Support message number $i, with a line of text',
+      'type': 'text',
+      'timestamp': Timestamp.fromMillisecondsSinceEpoch(start + i * 1000),
+    });
+  });
+}
+
+void main() {
+  IntegrationTestWidgetsFlutterBinding.ensureInitialized();
+  late FirebaseFirestore seeder;
+  late FirebaseFirestore db;
+  late FirebaseFirestore old;
+  final run = DateTime.now().microsecondsSinceEpoch;
+
+  setUpAll(() async {
+    await emulatorFirestore();
+    seeder = await emulatorDevice('window_seed_$run');
+    db = await emulatorDevice('window_reader_$run');
+    old = await emulatorDevice('window_old_$run');
+  });
+
+  CollectionReference<Map<String, dynamic>> chat(
+    FirebaseFirestore db,
+    int n,
+  ) => db.collection('messages').doc('window_${run}_$n').collection('chats');
+  var opened = 0;
+
+  /// Opens a window on a chat of [n] messages with an empty cache and
+  /// returns the open time once the first server page is on screen.
+  Future<(MessageWindow, Duration)> open(int n) async {
+    final window = MessageWindow(
+      chatId: 'window_${run}_$n',
+      collection: chat(db, n),
+      store: MessageStore(fileName: 'window_${run}_${opened++}.db'),
+      pageSize: pageSize,
+    );
+    final stopwatch = Stopwatch()..start();
+    window.start();
+    await until(() => window.messages.length >= pageSize);
+    return (window, stopwatch.elapsed);
+  }
+
+  testWidgets('open cost does not grow with the history', (tester) async {
+    await _seed(seeder, chat(seeder, shortChat), shortChat);
+    await _seed(seeder, chat(seeder, longChat), longChat);
+
+    // Before: a listener on the whole history.
+    var rss = ProcessInfo.currentRss;
+    final full = Stopwatch()..start();
+    final everything = Completer<QuerySnapshot<Map<String, dynamic>>>();
+    final sub = chat(old, longChat)
+        .orderBy('timestamp')
+        .snapshots()
+        .listen((snap) {
+          if (!everything.isCompleted) everything.complete(snap);
+        });
+    final snap = await everything.future;
+    full.stop();
+    debugPrint(
+      'Old: ${snap.docs.length} messages read and resident in '
+      '${full.elapsedMilliseconds} ms, '
+      '${mb(ProcessInfo.currentRss - rss).toStringAsFixed(1)} MB '
+      'resident growth',
+    );
+    expect(snap.docs.length, longChat);
+    await sub.cancel();
+
+    // After: the newest page, for a short and a long chat.
+    final opens = <int, Duration>{};
+    for (final n in [shortChat, longChat]) {
+      FirestoreMetrics.instance.reset();
+      rss = ProcessInfo.currentRss;
+      final (window, elapsed) = await open(n);
+      opens[n] = elapsed;
+      final path = FirestoreMetrics.templateOf(chat(db, n).path);
+      final reads = FirestoreMetrics.instance.screens.values.first[path]!;
+      debugPrint(
+        'New, $n messages: ${reads.billedReads} read, '
+        '${window.messages.length} resident, open in '
+        '${elapsed.inMilliseconds} ms, '
+        '${mb(ProcessInfo.currentRss - rss).toStringAsFixed(1)} MB '
+        'resident growth',
+      );
+      expect(reads.billedReads, pageSize);
+      expect(window.messages.length, pageSize);
+      window.dispose();
+    }
+    // Generous, as emulator timings are noisy; the old open is 20000 reads.
+    expect(
+      opens[longChat]!,
+      lessThan(opens[shortChat]! * 3 + const Duration(milliseconds: 500)),
+    );
+  }, timeout: const Timeout(Duration(minutes: 10)));
+
+  testWidgets('scrolled pages are evicted at the bottom', (tester) async {
+    final (window, _) = await open(longChat);
+    for (var i = 0; i < scrolledPages && window.hasMoreOlder; i++) {
+      await window.loadOlder();
+    }
+    final scrolled = window.messages.length;
+    window.evictFarPages();
+    debugPrint(
+      'Scrolled up $scrolledPages pages: $scrolled resident, '
+      '${window.messages.length} after returning to the bottom',
+    );
+    expect(scrolled, (scrolledPages + 1) * pageSize);
+    expect(window.messages.length, (window.maxResidentPages + 1) * pageSize);
+    window.dispose();
+  }, timeout: const Timeout(Duration(minutes: 5)));
+}
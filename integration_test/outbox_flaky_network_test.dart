@@ -0,0 +1,137 @@
+// The outbox on a flaky connection, with the Firestore emulator as the
+// backend.
+//
+//     firebase emulators:start --only firestore
+//     flutter test integration_test/outbox_flaky_network_test.dart \
+//       --dart-define=FIRESTORE_EMULATOR_HOST=10.0.2.2   # Android emulator
+//
+// One sender queues 200 messages in bursts while its app instance drops and
+// regains the connection at random (disableNetwork/enableNetwork), so
+// commits time out, are retried with backoff, and some land after their
+// timeout. Once the connection is stable and the outbox has drained, a
+// second app instance checks that every message was written exactly once
+// and that the receiver's unread count went up once per message. Drops,
+// commits and retried messages are printed; bursts must be coalesced into
+// fewer commits than messages.
+import 'dart:async';
+import 'dart:math';
+
+import 'package:TwinBox/services/chat_message.dart';
+import 'package:TwinBox/services/chat_sender.dart';
+import 'package:TwinBox/services/firestore_metrics.dart';
+import 'package:TwinBox/services/outbox.dart';
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/foundation.dart';
+import 'package:flutter_test/flutter_test.dart';
+import 'package:integration_test/integration_test.dart';
+
+import 'support/emulator.dart';
+
+const int messageCount = 200;
+const int burst = 10;
+
+/// How long the connection keeps dropping.
+const Duration flakyFor = Duration(seconds: 30);
+
+void main() {
+  IntegrationTestWidgetsFlutterBinding.ensureInitialized();
+  late FirebaseFirestore db;
+  late FirebaseFirestore observer;
+  final run = DateTime.now().microsecondsSinceEpoch;
+
+  setUpAll(() async {
+    await emulatorFirestore();
+    db = await emulatorDevice('outbox_sender_$run');
+    observer = await emulatorDevice('outbox_observer_$run');
+  });
+
+  testWidgets('flaky sends land exactly once', (tester) async {
+    final random = Random(4);
+    final sender = 'outbox_sender_$run';
+    final peer = 'outbox_peer_$run';
+    final chatId = '${sender}_$peer';
+    final outbox = Outbox(
+      firestore: db,
+      prefsKey: 'outbox_test_$run',
+      commitTimeout: const Duration(seconds: 2),
+    );
+    await outbox.start();
+    FirestoreMetrics.instance.reset();
+
+    var drops = 0;
+    final stopFlaking = DateTime.now().add(flakyFor);
+    final flaking = () async {
+      var online = true;
+      while (DateTime.now().isBefore(stopFlaking)) {
+        await Future.delayed(
+          Duration(milliseconds: 300 + random.nextInt(1500)),
+        );
+        online = !online;
+        if (online) {
+          await db.enableNetwork();
+        } else {
+          drops++;
+          await db.disableNetwork();
+        }
+      }
+      await db.enableNetwork();
+    }();
+
+    final ids = <String>{};
+    for (var i = 0; i < messageCount; i++) {
+      final text = 'Message $i';
+      final entry = await outbox.enqueue(
+        chatId: chatId,
+        message: ChatMessage.compact(senderId: sender, text: text),
+        senderId: sender,
+        peerId: peer,
+        summary: ChatSender.summaryFor('text', text),
+      );
+      ids.add(entry.id);
+      if (i % burst == burst - 1) {
+        final pause = 100 + random.nextInt(400);
+        await Future.delayed(Duration(milliseconds: pause));
+      }
+    }
+    await flaking;
+
+    // Entries back off for up to a minute after the last drop.
+    final deadline = DateTime.now().add(const Duration(minutes: 3));
+    while (outbox
+            .entriesFor(chatId)
+            .any((e) => e.state != OutboxState.failed) &&
+        DateTime.now().isBefore(deadline)) {
+      await Future.delayed(const Duration(milliseconds: 200));
+    }
+    final failed = outbox.entriesFor(chatId).length;
+    // Writes handed over to Firestore's own queue while offline.
+    await db.waitForPendingWrites();
+
+    final messages =
+        await observer
+            .collection('messages')
+            .doc(chatId)
+            .collection('chats')
+            .get();
+    final entry =
+        await observer
+            .collection('chatList')
+            .doc(peer)
+            .collection('chats')
+            .doc(sender)
+            .get();
+    final screen = FirestoreMetrics.instance.screens.values.first;
+    final writes = screen['messages/*/chats']!;
+    final commits = writes.writeLatency.count;
+    debugPrint(
+      '$drops drops: $messageCount messages in $commits commits, '
+      '${writes.writes ~/ 3 - messageCount} messages retried, $failed '
+      'failed, ${messages.docs.length} written, unread count '
+      '${entry.data()?['unreadCount']}',
+    );
+    expect(failed, 0);
+    expect(messages.docs.map((d) => d.id).toSet(), ids);
+    expect(entry.data()?['unreadCount'], messageCount);
+    expect(commits, lessThan(messageCount));
+  }, timeout: const Timeout(Duration(minutes: 6)));
+}
@@ -0,0 +1,222 @@
+// Profile edits against the Firestore emulator: what a save costs the
+// listeners of the profile document, concurrent edits from two devices and
+// edits made offline.
+//
+//     firebase emulators:start --only firestore
+//     flutter test integration_test/profile_edit_emulator_test.dart \
+//       --dart-define=FIRESTORE_EMULATOR_HOST=10.0.2.2   # Android emulator
+//
+// A second app instance listens to the profile like another device would and
+// counts the snapshots it receives and their approximate size. The old page
+// wrote all nine fields and the discovery fields on every save; this repeats
+// that for ten one-field edits and ten saves without changes, then does the
+// same through ProfileEditor. Checks that unchanged saves cause no event at
+// all, that one-field edits send two fields, that a concurrent edit of the
+// same field is reported instead of overwritten, and that an edit saved
+// offline is written once the network is back.
+import 'dart:async';
+
+import 'package:TwinBox/services/contact_discovery.dart';
+import 'package:TwinBox/services/firestore_metrics.dart';
+import 'package:TwinBox/services/profile_editor.dart';
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/foundation.dart';
+import 'package:flutter_test/flutter_test.dart';
+import 'package:integration_test/integration_test.dart';
+
+import 'support/emulator.dart';
+
+const int edits = 10;
+
+/// Long enough for a write to reach the other app's listener.
+const Duration settle = Duration(seconds: 1);
+
+/// Snapshots of one profile seen by another device.
+class _Observer {
+  _Observer(DocumentReference<Map<String, dynamic>> ref) {
+    _sub = ref.snapshots().listen((snap) {
+      events++;
+      bytes += FirestoreMetrics.estimateBytes(snap.data());
+      latest = snap.data();
+    });
+  }
+
+  late final StreamSubscription<Object?> _sub;
+  int events = 0;
+  int bytes = 0;
+  Map<String, dynamic>? latest;
+
+  void reset() {
+    events = 0;
+    bytes = 0;
+  }
+
+  Future<void> cancel() => _sub.cancel();
+}
+
+Map<String, String> _profile(int i) => {
+  'first_name': 'Ada',
+  'last_name': 'Lovelace',
+  'company_name': 'Analytical Engines',
+  'phone': '+4420700${i.toString().padLeft(5, '0')}',
+  'address': '12 St James Square',
+  'city': 'London',
+  'state': 'Greater London',
+  'zipcode': 'SW1Y 4JH',
+  'status': 'Hey there! I am using the app.',
+};
+
+void main() {
+  IntegrationTestWidgetsFlutterBinding.ensureInitialized();
+  late FirebaseFirestore db;
+  late FirebaseFirestore other;
+  final run = DateTime.now().microsecondsSinceEpoch;
+
+  setUpAll(() async {
+    await emulatorFirestore();
+    db = FirebaseFirestore.instance;
+    db.useFirestoreEmulator(emulatorHost, 8080);
+    other = await emulatorDevice('profile_edit_other_$run');
+  });
+
+  Future<Map<String, dynamic>> seed(String uid, int i) async {
+    final ref = db.collection('client').doc(uid);
+    await ref.set({
+      ..._profile(i),
+      ...ContactDiscovery.fieldsFor(_profile(i)['phone']!),
+    });
+    return (await ref.get()).data()!;
+  }
+
+  testWidgets('one-field edits write one field', (tester) async {
+    final uid = 'profile_$run';
+    final ref = db.collection('client').doc(uid);
+    var base = await seed(uid, 1);
+    final observer = _Observer(other.collection('client').doc(uid));
+    await Future.delayed(settle);
+
+    // Before: every save wrote every field.
+    observer.reset();
+    FirestoreMetrics.instance.reset();
+    for (var i = 0; i < edits; i++) {
+      final edited = {..._profile(1), 'city': 'London $i'};
+      // The edit, then a save without changes.
+      for (var save = 0; save < 2; save++) {
+        await ref.trackedUpdate({
+          ...edited,
+          ...ContactDiscovery.fieldsFor(edited['phone']!),
+        });
+      }
+    }
+    await Future.delayed(settle);
+    final oldEvents = observer.events;
+    final oldBytes = observer.bytes;
+    final oldWritten =
+        FirestoreMetrics.instance.screens.values.first['client']!.bytesWritten;
+    debugPrint(
+      'Old: ${edits * 2} saves ($edits unchanged), $oldEvents listener '
+      'events, $oldBytes bytes delivered, $oldWritten bytes written',
+    );
+
+    // After: the same edits through ProfileEditor.
+    final editor = ProfileEditor(firestore: db, prefsKey: 'drafts_$run');
+    base = (await ref.get()).data()!;
+    observer.reset();
+    FirestoreMetrics.instance.reset();
+    for (var i = 0; i < edits; i++) {
+      final edited = {..._profile(1), 'city': 'Paris $i'};
+      final saved = await editor.save(uid, base: base, edited: edited);
+      expect(saved.status, ProfileSaveStatus.saved);
+      base = (await ref.get()).data()!;
+      final again = await editor.save(uid, base: base, edited: edited);
+      expect(again.status, ProfileSaveStatus.unchanged);
+    }
+    await Future.delayed(settle);
+    final written =
+        FirestoreMetrics.instance.screens.values.first['client']!.bytesWritten;
+    debugPrint(
+      'New: ${edits * 2} saves ($edits unchanged), ${observer.events} '
+      'listener events, ${observer.bytes} bytes delivered, $written bytes '
+      'written, ${editor.stats}',
+    );
+    expect(editor.stats['writes'], edits);
+    expect(observer.events, lessThanOrEqualTo(edits));
+    expect(observer.events, lessThan(oldEvents));
+    expect(observer.bytes, lessThan(oldBytes));
+    expect(written * 3, lessThan(oldWritten));
+    expect(observer.latest?['city'], 'Paris ${edits - 1}');
+    await observer.cancel();
+  }, timeout: const Timeout(Duration(minutes: 2)));
+
+  testWidgets('concurrent edits of a field are reported', (tester) async {
+    final uid = 'profile_conflict_$run';
+    final base = await seed(uid, 2);
+    final here = ProfileEditor(firestore: db, prefsKey: 'here_$run');
+    final there = ProfileEditor(firestore: other, prefsKey: 'there_$run');
+
+    final first = await there.save(
+      uid,
+      base: base,
+      edited: {..._profile(2), 'city': 'Manchester'},
+    );
+    expect(first.status, ProfileSaveStatus.saved);
+
+    // Same starting point, same field: the other device's value is kept.
+    final second = await here.save(
+      uid,
+      base: base,
+      edited: {..._profile(2), 'city': 'Leeds'},
+    );
+    expect(second.status, ProfileSaveStatus.conflict);
+    expect(second.conflicts, {'city': 'Manchester'});
+
+    // A field the other device left alone is written despite the stale base.
+    final third = await here.save(
+      uid,
+      base: base,
+      edited: {..._profile(2), 'last_name': 'King'},
+    );
+    expect(third.status, ProfileSaveStatus.saved);
+
+    final server = (await db.collection('client').doc(uid).get()).data()!;
+    expect(server['city'], 'Manchester');
+    expect(server['last_name'], 'King');
+  });
+
+  testWidgets('edits saved offline are written on reconnect', (tester) async {
+    final uid = 'profile_offline_$run';
+    final base = await seed(uid, 3);
+    final observer = _Observer(other.collection('client').doc(uid));
+    final editor = ProfileEditor(
+      firestore: db,
+      prefsKey: 'offline_$run',
+      saveTimeout: const Duration(seconds: 2),
+    );
+
+    await db.disableNetwork();
+    final result = await editor.save(
+      uid,
+      base: base,
+      edited: {..._profile(3), 'status': 'On a plane'},
+    );
+    expect(result.status, ProfileSaveStatus.queued);
+    expect((await editor.draftFor(uid))?.changes, {'status': 'On a plane'});
+
+    observer.reset();
+    await db.enableNetwork();
+    final deadline = DateTime.now().add(const Duration(seconds: 30));
+    while (await editor.draftFor(uid) != null &&
+        DateTime.now().isBefore(deadline)) {
+      await Future.delayed(const Duration(milliseconds: 200));
+    }
+    await Future.delayed(settle);
+    debugPrint(
+      'Replay: ${observer.events} listener events, ${observer.bytes} bytes '
+      'delivered, ${editor.stats}',
+    );
+    expect(await editor.draftFor(uid), isNull);
+    expect(editor.stats['replayed'], 1);
+    expect(observer.latest?['status'], 'On a plane');
+    await observer.cancel();
+  }, timeout: const Timeout(Duration(minutes: 1)));
+}
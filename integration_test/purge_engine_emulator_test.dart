@@ -0,0 +1,95 @@
+// Purging a 50k-message group against the Firestore emulator.
+//
+//     firebase emulators:start --only firestore
+//     flutter test integration_test/purge_engine_emulator_test.dart \
+//       --dart-define=FIRESTORE_EMULATOR_HOST=10.0.2.2   # Android emulator
+//
+// Prints the total time for deleting the group, and checks that a purge
+// stopped half-way resumes from its checkpoint in a fresh engine (as after
+// the app was killed).
+import 'package:TwinBox/services/purge_engine.dart';
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/foundation.dart';
+import 'package:flutter_test/flutter_test.dart';
+import 'package:integration_test/integration_test.dart';
+
+import 'support/emulator.dart';
+
+const int messageCount = 50000;
+
+Future<void> _seedGroup(FirebaseFirestore db, String groupId, int count) async {
+  final group = db.collection('groups').doc(groupId);
+  await group.set({'groupName': 'Purge benchmark', 'members': []});
+  await commitAll(db, count, (batch, i) {
+    batch.set(group.collection('messages').doc(), {
+      'senderId': 'member${i % 7}',
+      'text': 'Message $i',
+      'timestamp': Timestamp.fromMillisecondsSinceEpoch(i * 1000),
+    });
+  });
+}
+
+void main() {
+  IntegrationTestWidgetsFlutterBinding.ensureInitialized();
+  late FirebaseFirestore db;
+
+  setUpAll(() async {
+    db = await emulatorFirestore();
+  });
+
+  testWidgets('deletes a $messageCount-message group', (tester) async {
+    final groupId = 'purge_${DateTime.now().microsecondsSinceEpoch}';
+    await _seedGroup(db, groupId, messageCount);
+    final collection = 'groups/$groupId/messages';
+
+    final engine = PurgeEngine(firestore: db);
+    var updates = 0;
+    engine.addListener(() => updates++);
+    final stopwatch = Stopwatch()..start();
+    final job = await engine.purge(
+      collection,
+      thenDelete: ['groups/$groupId'],
+    );
+    stopwatch.stop();
+
+    debugPrint(
+      'Purged $messageCount messages in ${stopwatch.elapsedMilliseconds} ms '
+      '(${engine.batchSize} per batch, ${engine.maxInFlight} in flight, '
+      '$updates progress updates)',
+    );
+    expect(job.done, isTrue);
+    expect(job.deleted, messageCount);
+    expect((await db.collection(collection).count().get()).count, 0);
+    expect((await db.collection('groups').doc(groupId).get()).exists, isFalse);
+  });
+
+  testWidgets('resumes a stopped purge from its checkpoint', (tester) async {
+    final groupId = 'purge_resume_${DateTime.now().microsecondsSinceEpoch}';
+    await _seedGroup(db, groupId, 5000);
+    final collection = 'groups/$groupId/messages';
+
+    // Checkpoints are kept per signed-in user.
+    final uid = 'purge_user_${DateTime.now().microsecondsSinceEpoch}';
+    final first = PurgeEngine(firestore: db);
+    await first.start(uid);
+    first.addListener(() {
+      if ((first.jobFor(collection)?.deleted ?? 0) >= 2000) {
+        first.stop(collection);
+      }
+    });
+    final stopped = await first.purge(collection);
+    expect(stopped.done, isFalse);
+    expect(stopped.cursor, isNotNull);
+
+    // A new engine restores the checkpoint, as after a restart.
+    final second = PurgeEngine(firestore: db);
+    await second.start(uid);
+    final resumed = second.jobFor(collection);
+    expect(resumed?.deleted, stopped.deleted);
+    final job = await second.purge(collection);
+
+    expect(job.done, isTrue);
+    expect(job.deleted, 5000);
+    expect((await db.collection(collection).count().get()).count, 0);
+  });
+}
@@ -0,0 +1,112 @@
+// Writes per chat open with read watermarks, against the Firestore emulator.
+//
+//     firebase emulators:start --only firestore
+//     flutter test integration_test/read_receipts_emulator_test.dart \
+//       --dart-define=FIRESTORE_EMULATOR_HOST=10.0.2.2   # Android emulator
+//
+// Seeds chats with 10, 100 and 500 unread messages, replays what the chat
+// screen does on open (one markRead per delivered snapshot) and checks that
+// every open costs exactly one write and leaves the messages untouched.
+import 'package:TwinBox/services/chat_message.dart';
+import 'package:TwinBox/services/read_receipt_migration.dart';
+import 'package:TwinBox/services/read_receipts.dart';
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter_test/flutter_test.dart';
+import 'package:integration_test/integration_test.dart';
+
+import 'support/emulator.dart';
+
+const String me = 'reader';
+const String peer = 'writer';
+
+Future<List<ChatMessage>> _seed(
+  FirebaseFirestore db,
+  String chatId,
+  int count, {
+  Map<String, dynamic> extra = const {},
+}) async {
+  final messages = db.collection('messages').doc(chatId).collection('chats');
+  final start = DateTime(2024).millisecondsSinceEpoch;
+  for (var offset = 0; offset < count; offset += 500) {
+    final batch = db.batch();
+    for (var i = offset; i < count && i < offset + 500; i++) {
+      batch.set(messages.doc('m${i.toString().padLeft(5, '0')}'), {
+        'senderId': peer,
+        'receiverId': me,
+        'message': 'Message $i',
+        'timestamp': Timestamp.fromMillisecondsSinceEpoch(start + i * 1000),
+        ...extra,
+      });
+    }
+    await batch.commit();
+  }
+  final snapshot = await messages.orderBy('timestamp').get();
+  return snapshot.docs.map(ChatMessage.fromDoc).toList();
+}
+
+void main() {
+  IntegrationTestWidgetsFlutterBinding.ensureInitialized();
+  late FirebaseFirestore db;
+
+  setUpAll(() async {
+    db = await emulatorFirestore();
+  });
+
+  for (final unread in [10, 100, 500]) {
+    testWidgets('opening a chat with $unread unread messages writes once', (
+      tester,
+    ) async {
+      final chatId =
+          'receipts_${unread}_${DateTime.now().microsecondsSinceEpoch}';
+      final messages = await _seed(db, chatId, unread);
+      final receipts = ReadReceipts(firestore: db);
+
+      // The window notifies as pages arrive; each notification asks for
+      // the newest message seen so far.
+      for (final message in messages) {
+        receipts.markRead(
+          chatId: chatId,
+          readerId: me,
+          upTo: message.timestamp!,
+          messageId: message.id,
+        );
+      }
+      await receipts.flush(chatId, me);
+
+      expect(receipts.stats['requests'], unread);
+      expect(receipts.stats['writes'], 1);
+
+      final chat = await db.collection('messages').doc(chatId).get();
+      final watermark = ReadReceipts.watermarkOf(chat.data(), me);
+      expect(watermark, messages.last.timestamp);
+      expect(messages.every((m) => ReadReceipts.isRead(m, watermark)), isTrue);
+
+      // No message document was rewritten.
+      final stored =
+          await db
+              .collection('messages')
+              .doc(chatId)
+              .collection('chats')
+              .where('isRead', isEqualTo: true)
+              .get();
+      expect(stored.docs, isEmpty);
+    });
+  }
+
+  testWidgets('migration seeds the watermark from legacy isRead flags', (
+    tester,
+  ) async {
+    final chatId = 'receipts_legacy_${DateTime.now().microsecondsSinceEpoch}';
+    final messages = db.collection('messages').doc(chatId).collection('chats');
+    final seeded = await _seed(db, chatId, 20, extra: {'isRead': true});
+    for (final message in seeded.skip(15)) {
+      await messages.doc(message.id).update({'isRead': false});
+    }
+
+    final migration = ReadReceiptMigration(firestore: db);
+    expect(await migration.migrateChat(chatId, me), isTrue);
+
+    final chat = await db.collection('messages').doc(chatId).get();
+    expect(ReadReceipts.watermarkOf(chat.data(), me), seeded[14].timestamp);
+  });
+}
@@ -0,0 +1,66 @@
+// Helpers shared by the emulator tests and benchmarks in integration_test/.
+import 'package:TwinBox/firebase_options.dart';
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:firebase_core/firebase_core.dart';
+import 'package:flutter_test/flutter_test.dart';
+
+/// Where the Firestore emulator runs, e.g. `10.0.2.2` from an Android
+/// emulator (`--dart-define=FIRESTORE_EMULATOR_HOST=...`).
+const String emulatorHost = String.fromEnvironment(
+  'FIRESTORE_EMULATOR_HOST',
+  defaultValue: 'localhost',
+);
+
+/// Initializes the default app and points its Firestore at the emulator.
+Future<FirebaseFirestore> emulatorFirestore() async {
+  await Firebase.initializeApp(options: DefaultFirebaseOptions.currentPlatform);
+  return FirebaseFirestore.instance..useFirestoreEmulator(emulatorHost, 8080);
+}
+
+/// Firestore of a separate app instance named [name], with its own
+/// connection and no local cache, standing in for another device.
+Future<FirebaseFirestore> emulatorDevice(String name) async {
+  final app = await Firebase.initializeApp(
+    name: name,
+    options: DefaultFirebaseOptions.currentPlatform,
+  );
+  return FirebaseFirestore.instanceFor(app: app)
+    ..settings = const Settings(persistenceEnabled: false)
+    ..useFirestoreEmulator(emulatorHost, 8080);
+}
+
+/// Calls [write] for 0 until [count] in batches of 500, committing up to 8
+/// batches at a time.
+Future<void> commitAll(
+  FirebaseFirestore db,
+  int count,
+  void Function(WriteBatch batch, int i) write,
+) async {
+  final commits = <Future<void>>[];
+  for (var offset = 0; offset < count; offset += 500) {
+    final batch = db.batch();
+    for (var i = offset; i < count && i < offset + 500; i++) {
+      write(batch, i);
+    }
+    commits.add(batch.commit());
+    if (commits.length == 8) {
+      await Future.wait(commits);
+      commits.clear();
+    }
+  }
+  await Future.wait(commits);
+}
+
+/// Polls [done] until it holds; fails the test after [timeout].
+Future<void> until(
+  bool Function() done, {
+  Duration timeout = const Duration(seconds: 30),
+}) async {
+  final deadline = DateTime.now().add(timeout);
+  while (!done()) {
+    if (DateTime.now().isAfter(deadline)) fail('timed out');
+    await Future.delayed(const Duration(milliseconds: 10));
+  }
+}
+
+double mb(int bytes) => bytes / (1024 * 1024);
@@ -1,4 +1,3 @@
-import 'dart:convert';
 import 'dart:io';
 
 import 'package:cloud_firestore/cloud_firestore.dart';
@@ -12,6 +11,10 @@ import 'package:share_plus/share_plus.dart';
 
 import '../PAGES/chats/Chat_page.dart';
 import '../loadingindicator.dart';
+import '../services/contact_discovery.dart';
+import '../services/contact_index.dart';
+import '../services/firestore_metrics.dart';
+import '../services/media_workers.dart';
 
 class ContactListPage extends StatefulWidget {
   @override
@@ -23,16 +26,36 @@ class _ContactListPageState extends State<ContactListPage> {
   final userPhone = FirebaseAuth.instance.currentUser?.phoneNumber ?? '';
 
   List<Contact> _contacts = [];
-  List<String> _registeredNumbers = [];
   TextEditingController _searchController = TextEditingController();
   String _searchQuery = '';
   final isloading = false;
   @override
   void initState() {
     super.initState();
+    ContactIndex.instance.addListener(_onContactIndexChanged);
+    ContactDiscovery.instance.addListener(_onDiscoveryChanged);
     _loadContacts();
   }
 
+  @override
+  void dispose() {
+    ContactIndex.instance.removeListener(_onContactIndexChanged);
+    ContactDiscovery.instance.removeListener(_onDiscoveryChanged);
+    super.dispose();
+  }
+
+  /// Picks up address-book edits (e.g. a contact added from this page).
+  void _onContactIndexChanged() {
+    if (!mounted) return;
+    setState(() => _contacts = ContactIndex.instance.contacts);
+    // Only numbers that were not checked before cost a lookup.
+    ContactDiscovery.instance.discover(ContactIndex.instance.numbers);
+  }
+
+  void _onDiscoveryChanged() {
+    if (mounted) setState(() {});
+  }
+
   Future<void> _loadContacts() async {
     var permissionStatus = await Permission.contacts.status;
     if (!permissionStatus.isGranted) {
@@ -52,37 +75,39 @@ class _ContactListPageState extends State<ContactListPage> {
       setState(() => isLoading = false);
     }
 
-    if (await FlutterContacts.requestPermission()) {
-      List<Contact> contacts = await FlutterContacts.getContacts(
-        withProperties: true,
-      );
-      setState(() {
-        _contacts = contacts;
-      });
-
-      QuerySnapshot snapshot =
-          await FirebaseFirestore.instance
-              .collection("client")
-              .where('isUsingApp', isEqualTo: true)
-              .get();
-
-      List<String> activeUsers =
-          snapshot.docs
-              .map(
-                (doc) =>
-                    doc['phone'].toString().replaceAll(RegExp(r'\s+|-'), ''),
-              )
-              .toList();
-
+    // Answers from the last session show right away.
+    await Future.wait([
+      ContactIndex.instance.ensureLoaded(),
+      ContactDiscovery.instance.load(),
+    ]);
+    if (ContactIndex.instance.isLoaded) {
       setState(() {
-        _registeredNumbers = activeUsers;
+        _contacts = ContactIndex.instance.contacts;
       });
+      await ContactDiscovery.instance.discover(ContactIndex.instance.numbers);
     }
   }
 
-  bool _isRegistered(String number) {
-    String cleaned = number.replaceAll(RegExp(r'\s+|-'), '');
-    return _registeredNumbers.contains(cleaned);
+  bool _isRegistered(String number) =>
+      ContactDiscovery.instance.isRegistered(number);
+
+  /// Opens the chat with the account registered under [phoneNumber].
+  void _openChat(Contact contact, String phoneNumber) {
+    final peerId = ContactDiscovery.instance.uidFor(phoneNumber);
+    if (peerId == null) return;
+    Navigator.push(
+      context,
+      MaterialPageRoute(
+        builder:
+            (_) => ChatScreen(
+              currentUserId: currentUser!.uid,
+              peerId: peerId,
+              peerName: contact.displayName,
+              PeerMobile: phoneNumber,
+              contacts: [],
+            ),
+      ),
+    );
   }
 
   Future<void> _addNewContact() async {
@@ -147,10 +172,11 @@ class _ContactListPageState extends State<ContactListPage> {
 
   Future<void> _refreshData() async {
     setState(() => isLoading = true);
-    await Future.delayed(
-      const Duration(seconds: 2),
-    ); // fetch from API/Firestore
-    setState(() => isLoading = false);
+    await ContactDiscovery.instance.discover(
+      ContactIndex.instance.numbers,
+      force: true,
+    );
+    if (mounted) setState(() => isLoading = false);
   }
 
   @override
@@ -272,34 +298,8 @@ class _ContactListPageState extends State<ContactListPage> {
                     final isRegistered = _isRegistered(phoneNumber);
 
                     return GestureDetector(
-                      onTap: () async {
-                        if (isRegistered) {
-                          final snapshot =
-                              await FirebaseFirestore.instance
-                                  .collection('client')
-                                  .where('phone', isEqualTo: phoneNumber)
-                                  .get();
-
-                          if (snapshot.docs.isNotEmpty) {
-                            final doc = snapshot.docs.first;
-                            final peerId = doc.id;
-                            final peerMobile = doc['phone'];
-
-                            Navigator.push(
-                              context,
-                              MaterialPageRoute(
-                                builder:
-                                    (_) => ChatScreen(
-                                      currentUserId: currentUser!.uid,
-                                      peerId: peerId,
-                                      peerName: contact.displayName,
-                                      PeerMobile: peerMobile,
-                                      contacts: [],
-                                    ),
-                              ),
-                            );
-                          }
-                        }
+                      onTap: () {
+                        if (isRegistered) _openChat(contact, phoneNumber);
                       },
                       child: Container(
                         margin: const EdgeInsets.only(bottom: 16),
@@ -349,36 +349,8 @@ class _ContactListPageState extends State<ContactListPage> {
                             ),
                             isRegistered
                                 ? ElevatedButton(
-                                  onPressed: () async {
-                                    final snapshot =
-                                        await FirebaseFirestore.instance
-                                            .collection('client')
-                                            .where(
-                                              'phone',
-                                              isEqualTo: phoneNumber,
-                                            )
-                                            .get();
-
-                                    if (snapshot.docs.isNotEmpty) {
-                                      final doc = snapshot.docs.first;
-                                      final peerId = doc.id;
-                                      final peerMobile = doc['phone'];
-
-                                      Navigator.push(
-                                        context,
-                                        MaterialPageRoute(
-                                          builder:
-                                              (_) => ChatScreen(
-                                                currentUserId: currentUser!.uid,
-                                                peerId: peerId,
-                                                peerName: contact.displayName,
-                                                PeerMobile: peerMobile,
-                                                contacts: [],
-                                              ),
-                                        ),
-                                      );
-                                    }
-                                  },
+                                  onPressed:
+                                      () => _openChat(contact, phoneNumber),
                                   style: ElevatedButton.styleFrom(
                                     backgroundColor: Colors.blueAccent,
                                     foregroundColor: Colors.white,
@@ -737,7 +709,9 @@ class _NewGroupPageState extends State<NewGroupPage> {
         );
 
         if (compressedBytes != null && compressedBytes.length < 950000) {
-          groupImageBase64 = base64Encode(compressedBytes);
+          groupImageBase64 = await MediaWorkers.instance.encodeBase64(
+            compressedBytes,
+          );
         } else {
           _showSnackBar('Image too large to upload. Try another.');
           setState(() => _isUploading = false);
@@ -745,7 +719,7 @@ class _NewGroupPageState extends State<NewGroupPage> {
         }
       }
 
-      await FirebaseFirestore.instance.collection('groups').add({
+      await FirebaseFirestore.instance.collection('groups').trackedAdd({
         'name': groupName,
         'members': uniqueMemberPhones,
         'created_by':
@@ -1,11 +1,10 @@
-import 'dart:async';
-
 import 'package:TwinBox/LoginPages/phone_auth.dart';
 import 'package:TwinBox/profile_card.dart';
-import 'package:firebase_messaging/firebase_messaging.dart';
 import 'package:flutter/material.dart';
 import 'package:shared_preferences/shared_preferences.dart';
 
+import '../services/chat_list_cache.dart';
+
 class SplashScreen extends StatefulWidget {
   const SplashScreen({super.key});
 
@@ -19,8 +18,7 @@ class SplashScreenState extends State<SplashScreen> {
   @override
   void initState() {
     super.initState();
-    setupFCM(); // ✅ Add this to initialize FCM
-    whereToGo(); // Then navigate
+    whereToGo();
   }
 
   @override
@@ -62,37 +60,24 @@ class SplashScreenState extends State<SplashScreen> {
     );
   }
 
+  /// Leaves as soon as the login flag is known and, for a signed-in user,
+  /// the cached chat list is loaded, so the home screen opens populated.
   Future<void> whereToGo() async {
     final sharedPref = await SharedPreferences.getInstance();
     final isLoggedIn = sharedPref.getBool(KEYLOGIN);
+    if (isLoggedIn == true) await ChatListCache.instance.load();
+    if (!mounted) return;
 
-    Timer(const Duration(seconds: 2), () {
-      if (isLoggedIn == true) {
-        Navigator.pushReplacement(
-          context,
-          MaterialPageRoute(builder: (_) => ProfileCardPage()),
-        );
-      } else {
-        Navigator.pushReplacement(
-          context,
-          MaterialPageRoute(builder: (_) => const PhoneInputPage()),
-        );
-      }
-    });
-  }
-
-  /// 🔔 Push Notification Setup Function
-  Future<void> setupFCM() async {
-    FirebaseMessaging messaging = FirebaseMessaging.instance;
-
-    // Request permissions
-    NotificationSettings settings = await messaging.requestPermission();
-    print('🔔 Notification permission: ${settings.authorizationStatus}');
-
-    // Get the FCM token
-    String? token = await messaging.getToken();
-    print('📲 FCM Token: $token');
-
-    // TODO: Save token to Firestore under user ID if needed
+    if (isLoggedIn == true) {
+      Navigator.pushReplacement(
+        context,
+        MaterialPageRoute(builder: (_) => ProfileCardPage()),
+      );
+    } else {
+      Navigator.pushReplacement(
+        context,
+        MaterialPageRoute(builder: (_) => const PhoneInputPage()),
+      );
+    }
   }
 }
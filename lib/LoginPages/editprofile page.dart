@@ -1,11 +1,12 @@
-import 'dart:convert';
 import 'dart:io';
 
-import 'package:cloud_firestore/cloud_firestore.dart';
 import 'package:flutter/material.dart';
 import 'package:get/get.dart';
 import 'package:image_picker/image_picker.dart';
 
+import '../services/profile_editor.dart';
+import '../services/profile_photos.dart';
+
 class EditProfilePage extends StatefulWidget {
   final String docId;
   final Map<String, dynamic> userData;
@@ -33,9 +34,26 @@ class _EditProfilePageState extends State<EditProfilePage> {
   late TextEditingController zipController;
   late TextEditingController bioController;
 
-  String? profileBase64;
+  ImageProvider? _profileImage;
   final ImagePicker _picker = ImagePicker();
 
+  /// The profile the edits are made against; see [ProfileEditor.save].
+  late final Map<String, dynamic> _base = Map.of(widget.userData);
+  bool _saving = false;
+
+  /// Field name → its text field, for [ProfileEditor.fields].
+  late final Map<String, TextEditingController> _controllers = {
+    'first_name': firstNameController,
+    'last_name': lastNameController,
+    'company_name': companyController,
+    'phone': phoneController,
+    'address': addressController,
+    'city': cityController,
+    'state': stateController,
+    'zipcode': zipController,
+    'status': bioController,
+  };
+
   @override
   void initState() {
     super.initState();
@@ -64,7 +82,25 @@ class _EditProfilePageState extends State<EditProfilePage> {
     bioController = TextEditingController(
       text: widget.userData['status'] ?? 'Hey there! I am using the app.',
     );
-    profileBase64 = widget.userData['profile_photo_base64'];
+    _profileImage = ProfilePhotos.instance.peek(
+      widget.userData,
+      size: ProfilePhotos.medium,
+    );
+    ProfilePhotos.instance
+        .load(widget.userData, size: ProfilePhotos.medium)
+        .then((image) {
+          if (image != null && mounted) setState(() => _profileImage = image);
+        });
+    _restoreDraft();
+  }
+
+  /// Shows edits saved offline and not written yet.
+  Future<void> _restoreDraft() async {
+    final draft = await ProfileEditor.instance.draftFor(widget.docId);
+    if (draft == null || !mounted) return;
+    for (final change in draft.changes.entries) {
+      _controllers[change.key]?.text = '${change.value}';
+    }
   }
 
   @override
@@ -85,8 +121,7 @@ class _EditProfilePageState extends State<EditProfilePage> {
     try {
       final XFile? pickedImage = await _picker.pickImage(
         source: ImageSource.gallery,
-        imageQuality: 60, // Compress image
-        maxWidth: 512, // Resize image
+        maxWidth: ProfilePhotos.full.toDouble(), // Re-encoded on upload
       );
 
       if (pickedImage != null) {
@@ -103,16 +138,11 @@ class _EditProfilePageState extends State<EditProfilePage> {
           return;
         }
 
-        final base64Image = base64Encode(bytes);
-
-        await FirebaseFirestore.instance
-            .collection('client')
-            .doc(widget.docId)
-            .update({'profile_photo_base64': base64Image});
+        await ProfilePhotos.instance.setPhoto(widget.docId, bytes);
 
         if (!mounted) return;
         setState(() {
-          profileBase64 = base64Image;
+          _profileImage = MemoryImage(bytes);
         });
 
         Get.snackbar(
@@ -134,55 +164,60 @@ class _EditProfilePageState extends State<EditProfilePage> {
     }
   }
 
-  ImageProvider? _getProfileImage() {
+  void _updateProfile() async {
+    if (_saving || !_formKey.currentState!.validate()) return;
+    setState(() => _saving = true);
     try {
-      if (profileBase64 != null && profileBase64!.isNotEmpty) {
-        return MemoryImage(base64Decode(profileBase64!));
+      final result = await ProfileEditor.instance.save(
+        widget.docId,
+        base: _base,
+        edited: {
+          for (final field in ProfileEditor.fields)
+            field: _controllers[field]!.text,
+        },
+      );
+      switch (result.status) {
+        case ProfileSaveStatus.saved:
+          Get.back();
+          Get.snackbar(
+            'Success',
+            'Profile updated successfully',
+            snackPosition: SnackPosition.TOP,
+            backgroundColor: Colors.green,
+            colorText: Colors.white,
+          );
+        case ProfileSaveStatus.unchanged:
+          Get.back();
+        case ProfileSaveStatus.queued:
+          Get.back();
+          Get.snackbar(
+            'Saved offline',
+            'Your changes will be saved when you are back online.',
+            snackPosition: SnackPosition.TOP,
+          );
+        case ProfileSaveStatus.conflict:
+          // Saving again keeps these edits over the other device's.
+          _base.addAll(result.conflicts);
+          Get.snackbar(
+            'Changed on another device',
+            [
+              for (final entry in result.conflicts.entries)
+                '${entry.key.replaceAll('_', ' ')}: ${entry.value ?? ''}',
+            ].join('\n'),
+            snackPosition: SnackPosition.TOP,
+            duration: const Duration(seconds: 6),
+          );
       }
     } catch (e) {
-      debugPrint('Base64 decode error: $e');
-      FirebaseFirestore.instance.collection('client').doc(widget.docId).update({
-        'profile_photo_base64': '',
-      });
-    }
-    return null;
-  }
-
-  void _updateProfile() async {
-    if (_formKey.currentState!.validate()) {
-      try {
-        await FirebaseFirestore.instance
-            .collection('client')
-            .doc(widget.docId)
-            .update({
-              'first_name': firstNameController.text,
-              'last_name': lastNameController.text,
-              'company_name': companyController.text,
-              'phone': phoneController.text,
-              'address': addressController.text,
-              'city': cityController.text,
-              'state': stateController.text,
-              'zipcode': zipController.text,
-              'status': bioController.text,
-            });
-
-        Get.back();
-        Get.snackbar(
-          'Success',
-          'Profile updated successfully',
-          snackPosition: SnackPosition.TOP,
-          backgroundColor: Colors.green,
-          colorText: Colors.white,
-        );
-      } catch (e) {
-        debugPrint('Update error: $e');
-        Get.snackbar(
-          'Error',
-          'Failed to update profile.',
-          backgroundColor: Colors.red,
-          colorText: Colors.white,
-        );
-      }
+      debugPrint('Update error: $e');
+      Get.snackbar(
+        'Error',
+        'Failed to update profile.',
+        backgroundColor: Colors.red,
+        colorText: Colors.white,
+      );
+    } finally {
+      if (mounted) setState(() => _saving = false);
     }
   }
 
@@ -215,9 +250,9 @@ class _EditProfilePageState extends State<EditProfilePage> {
                 child: CircleAvatar(
                   radius: 60,
                   backgroundColor: Colors.grey[300],
-                  backgroundImage: _getProfileImage(),
+                  backgroundImage: _profileImage,
                   child:
-                      (profileBase64 == null || profileBase64!.isEmpty)
+                      _profileImage == null
                           ? const Icon(
                             Icons.person,
                             size: 60,
@@ -245,7 +280,7 @@ class _EditProfilePageState extends State<EditProfilePage> {
               _buildTextField(bioController, 'Bio'),
               const SizedBox(height: 20),
               ElevatedButton(
-                onPressed: _updateProfile,
+                onPressed: _saving ? null : _updateProfile,
                 style: ElevatedButton.styleFrom(
                   backgroundColor: Colors.green,
                   padding: const EdgeInsets.symmetric(vertical: 20),
@@ -253,14 +288,23 @@ class _EditProfilePageState extends State<EditProfilePage> {
                     borderRadius: BorderRadius.circular(16),
                   ),
                 ),
-                child: const Text(
-                  'SAVE CHANGES',
-                  style: TextStyle(
-                    fontSize: 20,
-                    fontWeight: FontWeight.bold,
-                    color: Color(0xffFFFFFF),
-                  ),
-                ),
+                child:
+                    _saving
+                        ? const SizedBox.square(
+                          dimension: 24,
+                          child: CircularProgressIndicator(
+                            color: Colors.white,
+                            strokeWidth: 3,
+                          ),
+                        )
+                        : const Text(
+                          'SAVE CHANGES',
+                          style: TextStyle(
+                            fontSize: 20,
+                            fontWeight: FontWeight.bold,
+                            color: Color(0xffFFFFFF),
+                          ),
+                        ),
               ),
             ],
           ),
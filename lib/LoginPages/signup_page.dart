@@ -1,5 +1,5 @@
-import 'dart:convert';
 import 'dart:io';
+import 'dart:typed_data';
 
 import 'package:TwinBox/LoginPages/phone_auth.dart';
 import 'package:TwinBox/profile_card.dart';
@@ -9,6 +9,9 @@ import 'package:flutter/services.dart';
 import 'package:get/get.dart';
 import 'package:image_picker/image_picker.dart';
 
+import '../services/contact_discovery.dart';
+import '../services/profile_photos.dart';
+
 class CreateAccountPage extends StatefulWidget {
   final String uid;
 
@@ -32,7 +35,7 @@ class _CreateAccountPageState extends State<CreateAccountPage> {
   final TextEditingController _zipcodeController = TextEditingController();
 
   File? _selectedImage;
-  String? _base64Image;
+  Uint8List? _imageBytes;
   final ImagePicker _picker = ImagePicker();
   bool _isSubmitting = false;
 
@@ -54,8 +57,7 @@ class _CreateAccountPageState extends State<CreateAccountPage> {
     try {
       final XFile? pickedFile = await _picker.pickImage(
         source: ImageSource.gallery,
-        imageQuality: 40,
-        maxWidth: 512,
+        maxWidth: ProfilePhotos.full.toDouble(),
       );
 
       if (pickedFile != null) {
@@ -66,7 +68,7 @@ class _CreateAccountPageState extends State<CreateAccountPage> {
 
         setState(() {
           _selectedImage = file;
-          _base64Image = base64Encode(bytes);
+          _imageBytes = bytes;
         });
       }
     } catch (e) {
@@ -306,6 +308,12 @@ class _CreateAccountPageState extends State<CreateAccountPage> {
                                         if (_formKey.currentState!.validate()) {
                                           setState(() => _isSubmitting = true);
 
+                                          final photo =
+                                              _imageBytes == null
+                                                  ? null
+                                                  : await ProfilePhotos.instance
+                                                      .upload(_imageBytes!);
+
                                           await FirebaseFirestore.instance
                                               .collection('client')
                                               .doc(widget.uid)
@@ -317,14 +325,17 @@ class _CreateAccountPageState extends State<CreateAccountPage> {
                                                 'company_name':
                                                     _companyController.text,
                                                 'phone': _phoneController.text,
+                                                ...ContactDiscovery.fieldsFor(
+                                                  _phoneController.text,
+                                                ),
                                                 'address':
                                                     _address1Controller.text,
                                                 'city': _cityController.text,
                                                 'state': _stateController.text,
                                                 'zipcode':
                                                     _zipcodeController.text,
-                                                'profile_photo_base64':
-                                                    _base64Image ?? '',
+                                                if (photo != null)
+                                                  ProfilePhotos.field: photo,
                                                 'createdAt':
                                                     FieldValue.serverTimestamp(),
                                                 'isUsingApp': true,
@@ -1,10 +1,11 @@
-import 'dart:convert';
 import 'dart:io';
 
 import 'package:cloud_firestore/cloud_firestore.dart';
 import 'package:firebase_auth/firebase_auth.dart';
 import 'package:flutter/material.dart';
-import 'package:flutter_image_compress/flutter_image_compress.dart'; // ✅ Added
+
+import '../../services/contact_index.dart';
+import '../../services/media_workers.dart';
 
 class StatusPreviewPage extends StatefulWidget {
   final File imageFile;
@@ -20,16 +21,16 @@ class _StatusPreviewPageState extends State<StatusPreviewPage> {
 
   // ✅ Compress the image before uploading
   Future<String> _compressAndEncode(File file) async {
-    final compressedBytes = await FlutterImageCompress.compressWithFile(
-      file.absolute.path,
+    final encoded = await MediaWorkers.instance.compressToBase64(
+      file,
       minWidth: 720,
       minHeight: 720,
       quality: 70,
     );
-    if (compressedBytes == null) {
+    if (encoded == null) {
       throw Exception("❌ Compression failed");
     }
-    return base64Encode(compressedBytes);
+    return encoded;
   }
 
   Future<void> _uploadStatus(BuildContext context) async {
@@ -60,6 +61,8 @@ class _StatusPreviewPageState extends State<StatusPreviewPage> {
 
       await docRef.collection('statuses').add({
         "phone": user.phoneNumber ?? "unknown",
+        // Contacts find the status by this; see StatusFeed.
+        'phone10': ContactIndex.normalize(user.phoneNumber ?? ''),
         'image': base64Image,
         'timestamp': DateTime.now().millisecondsSinceEpoch,
         'views': [],
@@ -1,11 +1,10 @@
-import 'dart:convert';
 import 'dart:io';
 
 import 'package:TwinBox/loadingindicator.dart';
-import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:TwinBox/services/contact_index.dart';
+import 'package:TwinBox/services/status_feed.dart';
 import 'package:firebase_auth/firebase_auth.dart';
 import 'package:flutter/material.dart';
-import 'package:flutter_contacts/flutter_contacts.dart';
 import 'package:image_picker/image_picker.dart';
 
 import 'PREVIEW.dart';
@@ -19,91 +18,63 @@ class StatusScreen extends StatefulWidget {
 }
 
 class _StatusScreenState extends State<StatusScreen> {
+  /// Avatar thumbnails are decoded at this width in physical pixels.
+  static const int _thumbWidth = 180;
+
   final currentUser = FirebaseAuth.instance.currentUser;
+  final StatusFeed _feed = StatusFeed.instance;
   Map<String, String> myContactsMap = {}; // mobile → name
   bool isLoading = false;
 
   @override
   void initState() {
     super.initState();
+    _feed.addListener(_prefetch);
     WidgetsBinding.instance.addPostFrameCallback((_) async {
-      setState(() => isLoading = true);
-      await Future.wait([fetchStatuses(), _loadMyContacts()]);
-      setState(() => isLoading = false);
+      // The cached feed shows at once; only the refresh hits the network.
+      await _feed.load();
+      if (!mounted) return;
+      _prefetch();
+      if (_feed.stories.isEmpty) setState(() => isLoading = true);
+      await _loadMyContacts();
+      await _refreshFeed();
+      if (mounted) setState(() => isLoading = false);
     });
   }
 
+  @override
+  void dispose() {
+    _feed.removeListener(_prefetch);
+    super.dispose();
+  }
+
   Future<void> _refreshData() async {
     setState(() => isLoading = true);
-    await Future.delayed(const Duration(seconds: 2));
-    setState(() => isLoading = false);
+    await _refreshFeed(full: true);
+    if (mounted) setState(() => isLoading = false);
   }
 
   Future<void> _loadMyContacts() async {
-    if (await FlutterContacts.requestPermission()) {
-      final contacts = await FlutterContacts.getContacts(withProperties: true);
-      for (final contact in contacts) {
-        for (final phone in contact.phones) {
-          final normalized = phone.number.replaceAll(RegExp(r'\D'), '');
-          if (normalized.length >= 10) {
-            final last10 = normalized.substring(normalized.length - 10);
-            myContactsMap[last10] = contact.displayName;
-          }
-        }
-      }
-      setState(() {});
-    }
+    await ContactIndex.instance.ensureLoaded();
+    if (!mounted) return;
+    setState(() {
+      myContactsMap = ContactIndex.instance.namesByNumber;
+    });
   }
 
-  Future<List<Map<String, dynamic>>> fetchStatuses() async {
-    final user = FirebaseAuth.instance.currentUser!;
-    final List<Map<String, dynamic>> allStatuses = [];
-
-    final snapshot =
-        await FirebaseFirestore.instance.collection('whatsappstatus').get();
-
-    print("📂 Total users with status: ${snapshot.docs.length}");
-
-    final futures =
-        snapshot.docs.map((doc) async {
-          final uploaderId = doc.id;
-          final statusSnap =
-              await doc.reference
-                  .collection('statuses')
-                  .orderBy('timestamp', descending: true)
-                  .get();
-
-          final statuses = statusSnap.docs.map((d) => d.data()).toList();
-
-          if (statuses.isEmpty) {
-            print("❌ No statuses for $uploaderId");
-            return null;
-          }
-
-          final firstStatus = statuses.first;
-          final phone = (firstStatus['phone'] ?? "").replaceAll(
-            RegExp(r'\D'),
-            '',
-          );
-          final last10 =
-              phone.length >= 10 ? phone.substring(phone.length - 10) : phone;
-
-          final contactName =
-              uploaderId == user.uid ? "You" : myContactsMap[last10] ?? last10;
-
-          return {
-            'uploaderId': uploaderId,
-            'phone': last10,
-            'contactName': contactName,
-            'statuses': statuses,
-          };
-        }).toList();
-
-    final results = await Future.wait(futures);
-    allStatuses.addAll(results.whereType<Map<String, dynamic>>());
-
-    print("✅ Total fetched statuses: ${allStatuses.length}");
-    return allStatuses;
+  Future<void> _refreshFeed({bool full = false}) => _feed.refresh(
+    selfUid: currentUser!.uid,
+    phones: myContactsMap.keys,
+    full: full,
+  );
+
+  /// Decodes the item each story opens on, so tapping a story shows it
+  /// without waiting.
+  void _prefetch() {
+    if (!mounted) return;
+    for (final story in _feed.stories) {
+      precacheImage(story.first.imageProvider(), context);
+    }
   }
 
   Future<void> _pickImage() async {
@@ -133,27 +104,20 @@ class _StatusScreenState extends State<StatusScreen> {
       body: LoadingWrapper(
         isLoading: isLoading,
         onRefresh: _refreshData,
-        child: FutureBuilder<List<Map<String, dynamic>>>(
-          future: fetchStatuses(),
-          builder: (context, snapshot) {
-            if (!snapshot.hasData) {
-              return const Center(child: CircularProgressIndicator());
-            }
-
-            final all = snapshot.data!;
-            final myStatus = all.firstWhere(
-              (s) => s['uploaderId'] == currentUser!.uid,
-              orElse: () => {},
-            );
+        child: AnimatedBuilder(
+          animation: _feed,
+          builder: (context, _) {
+            final all = _feed.stories;
+            final myStatus = _feed.storyOf(currentUser!.uid);
             final others =
-                all.where((s) => s['uploaderId'] != currentUser!.uid).toList();
+                all.where((s) => s.uploaderId != currentUser!.uid).toList();
 
             return ListView.builder(
-              itemCount: others.length + 2,
+              itemCount: others.isEmpty ? 1 : others.length + 2,
               itemBuilder: (context, index) {
                 if (index == 0) {
                   return _buildMyStatusTile(myStatus);
-                } else if (index == 1 && others.isNotEmpty) {
+                } else if (index == 1) {
                   return const Padding(
                     padding: EdgeInsets.all(10),
                     child: Text(
@@ -173,20 +137,15 @@ class _StatusScreenState extends State<StatusScreen> {
     );
   }
 
-  Widget _buildMyStatusTile(Map<String, dynamic> myStatus) {
-    final hasStatus =
-        myStatus.isNotEmpty && (myStatus['statuses']?.isNotEmpty ?? false);
-    final latestImage =
-        hasStatus ? base64Decode(myStatus['statuses'].last['image']) : null;
-
+  Widget _buildMyStatusTile(StatusStory? myStatus) {
     return ListTile(
       leading: Stack(
         children: [
           CircleAvatar(
             radius: 30,
             backgroundImage:
-                hasStatus
-                    ? MemoryImage(latestImage!)
+                myStatus != null
+                    ? myStatus.latest.imageProvider(targetWidth: _thumbWidth)
                     : const NetworkImage(
                           'https://cdn-icons-png.flaticon.com/512/149/149071.png',
                         )
@@ -208,21 +167,25 @@ class _StatusScreenState extends State<StatusScreen> {
         ],
       ),
       title: Text(
-        myStatus['contactName'] ?? "My Status",
+        myStatus != null ? "You" : "My Status",
         style: const TextStyle(color: Colors.white),
       ),
       subtitle: Text(
-        hasStatus
-            ? "${myStatus['statuses'].length} status update${myStatus['statuses'].length > 1 ? 's' : ''}"
+        myStatus != null
+            ? "${myStatus.items.length} status update${myStatus.items.length > 1 ? 's' : ''}"
             : "Tap to add status",
         style: const TextStyle(color: Colors.white70),
       ),
       onTap: () {
-        if (hasStatus) {
+        if (myStatus != null) {
           Navigator.push(
             context,
             MaterialPageRoute(
-              builder: (_) => StatusViewerPage(uploaderId: currentUser!.uid),
+              builder:
+                  (_) => StatusViewerPage(
+                    uploaderId: currentUser!.uid,
+                    story: myStatus,
+                  ),
             ),
           );
         } else {
@@ -232,17 +195,13 @@ class _StatusScreenState extends State<StatusScreen> {
     );
   }
 
-  Widget _buildOtherStatusTile(Map<String, dynamic> status) {
-    final statuses = status['statuses'] ?? [];
-    if (statuses.isEmpty) return const SizedBox.shrink();
-
-    final imageBytes = base64Decode(statuses.last['image']);
-    final contactName = status['contactName'] ?? status['phone'];
+  Widget _buildOtherStatusTile(StatusStory status) {
+    final contactName = myContactsMap[status.phone] ?? status.phone;
 
     return ListTile(
       leading: CircleAvatar(
         radius: 30,
-        backgroundImage: MemoryImage(imageBytes),
+        backgroundImage: status.latest.imageProvider(targetWidth: _thumbWidth),
       ),
       title: Text(contactName, style: const TextStyle(color: Colors.white)),
       subtitle: const Text(
@@ -253,7 +212,13 @@ class _StatusScreenState extends State<StatusScreen> {
         Navigator.push(
           context,
           MaterialPageRoute(
-            builder: (_) => StatusViewerPage(uploaderId: status['uploaderId']),
+            builder:
+                (_) => StatusViewerPage(
+                  uploaderId: status.uploaderId,
+                  phoneToNameMap: myContactsMap,
+                  uploaderPhone: status.phone,
+                  story: status,
+                ),
           ),
         );
       },
@@ -1,22 +1,27 @@
 import 'dart:async';
-import 'dart:convert';
-import 'dart:typed_data';
 
 import 'package:cloud_firestore/cloud_firestore.dart';
 import 'package:firebase_auth/firebase_auth.dart';
 import 'package:flutter/material.dart';
-import 'package:flutter_image_compress/flutter_image_compress.dart';
+
+import '../../services/firestore_metrics.dart';
+import '../../services/status_feed.dart';
+import '../../services/user_directory.dart';
 
 class StatusViewerPage extends StatefulWidget {
   final String uploaderId;
   final Map<String, String>? phoneToNameMap;
   final String? uploaderPhone;
 
+  /// The uploader's story from [StatusFeed], shown without a round trip.
+  final StatusStory? story;
+
   const StatusViewerPage({
     Key? key,
     required this.uploaderId,
     this.phoneToNameMap,
     this.uploaderPhone,
+    this.story,
   }) : super(key: key);
 
   @override
@@ -47,15 +52,6 @@ class _StatusViewerPageState extends State<StatusViewerPage> {
   }
 
   Future<void> _loadStatuses() async {
-    final snap =
-        await FirebaseFirestore.instance
-            .collection('whatsappstatus')
-            .doc(widget.uploaderId)
-            .collection('statuses')
-            .orderBy('timestamp')
-            .get();
-
-    final now = DateTime.now();
     final user = FirebaseAuth.instance.currentUser!;
     isMyStatus = widget.uploaderId == user.uid;
 
@@ -68,60 +64,91 @@ class _StatusViewerPageState extends State<StatusViewerPage> {
       }
     }
 
-    List<Map<String, dynamic>> list = [];
-
-    for (var doc in snap.docs) {
-      final ts = doc['timestamp'];
-      if (now.difference(DateTime.fromMillisecondsSinceEpoch(ts)).inHours >= 24)
-        continue;
-
-      final base64Img = doc['image'];
-      final decoded = base64Decode(base64Img);
-      final compressed = await FlutterImageCompress.compressWithList(
-        decoded,
-        quality: 50,
-      );
-
-      list.add({
-        'id': doc.id,
-        'image': compressed ?? decoded,
-        'views': List<String>.from(doc['views'] ?? []),
-        'timestamp': ts,
-      });
-    }
+    // Opened from the feed, the first image is already decoded.
+    final items = widget.story?.items ?? await _fetchItems();
+    final list = [
+      for (final item in items)
+        {
+          'id': item.id,
+          'image': item.imageProvider(),
+          'views': List<String>.of(item.views),
+          'timestamp': item.timestamp,
+        },
+    ];
+    if (!mounted) return;
 
     if (list.isNotEmpty) {
-      // Fetch phone numbers for all viewers
-      final allViewers = list.expand((s) => s['views']).toSet();
-      for (final uid in allViewers) {
-        if (!uidToPhoneMap.containsKey(uid)) {
-          final userDoc =
-              await FirebaseFirestore.instance
-                  .collection('client')
-                  .doc(uid)
-                  .get();
-          final phone = userDoc.data()?['mobile']?.replaceAll(
-            RegExp(r'\D'),
-            '',
-          );
-          if (phone != null && phone.length >= 10) {
-            final last10 = phone.substring(phone.length - 10);
-            uidToPhoneMap[uid] = last10;
-          }
-        }
-      }
-
       setState(() {
         statuses = list;
         isLoading = false;
       });
       _markViewed(list[0]);
+      _prefetchNext();
       _startTimer();
+      if (isMyStatus && widget.story != null) {
+        // The cached feed does not follow views; fetch them for the sheet.
+        _fetchItems().then(_refreshViews);
+      } else if (isMyStatus) {
+        _resolveViewers();
+      }
     } else {
       Navigator.pop(context);
     }
   }
 
+  /// Looks up the phone numbers of everyone in the "Viewed by" sheet.
+  Future<void> _resolveViewers() async {
+    final pending =
+        statuses
+            .expand((s) => s['views'] as List<String>)
+            .where((uid) => !uidToPhoneMap.containsKey(uid))
+            .toSet();
+    final users = await Future.wait(pending.map(UserDirectory.instance.user));
+    if (!mounted) return;
+    setState(() {
+      for (final (i, uid) in pending.indexed) {
+        final phone = users[i]?['mobile']?.replaceAll(RegExp(r'\D'), '');
+        if (phone != null && phone.length >= 10) {
+          uidToPhoneMap[uid] = phone.substring(phone.length - 10);
+        }
+      }
+    });
+  }
+
+  Future<List<StatusItem>> _fetchItems() async {
+    final cutoff =
+        DateTime.now().millisecondsSinceEpoch -
+        const Duration(hours: 24).inMilliseconds;
+    final snap =
+        await FirebaseFirestore.instance
+            .collection('whatsappstatus')
+            .doc(widget.uploaderId)
+            .collection('statuses')
+            .where('timestamp', isGreaterThan: cutoff)
+            .orderBy('timestamp')
+            .trackedGet(path: 'whatsappstatus/*/statuses');
+    return snap.docs.map(StatusItem.fromDoc).toList();
+  }
+
+  void _refreshViews(List<StatusItem> fresh) {
+    if (!mounted) return;
+    final viewsById = {for (final item in fresh) item.id: item.views};
+    setState(() {
+      for (final status in statuses) {
+        final views = viewsById[status['id']];
+        if (views != null) status['views'] = List<String>.of(views);
+      }
+    });
+    _resolveViewers();
+  }
+
+  /// Decodes the next status while the current one is on screen.
+  void _prefetchNext() {
+    if (currentIndex + 1 < statuses.length) {
+      precacheImage(statuses[currentIndex + 1]['image'], context);
+    }
+  }
+
   void _startTimer() {
     progress = 0.0;
     _timer?.cancel();
@@ -145,12 +172,13 @@ class _StatusViewerPageState extends State<StatusViewerPage> {
     final views = status['views'];
     if (!views.contains(userId)) {
       views.add(userId);
+      StatusFeed.instance.markViewed(status['id'], userId);
       await FirebaseFirestore.instance
           .collection('whatsappstatus')
           .doc(widget.uploaderId)
           .collection('statuses')
           .doc(status['id'])
-          .update({'views': views});
+          .trackedUpdate({'views': views});
     }
   }
 
@@ -162,6 +190,7 @@ class _StatusViewerPageState extends State<StatusViewerPage> {
         showViews = false;
       });
       _markViewed(statuses[currentIndex]);
+      _prefetchNext();
       _resetTimer();
     } else {
       WidgetsBinding.instance.addPostFrameCallback((_) {
@@ -189,7 +218,8 @@ class _StatusViewerPageState extends State<StatusViewerPage> {
         .doc(widget.uploaderId)
         .collection('statuses')
         .doc(id)
-        .delete();
+        .trackedDelete();
+    StatusFeed.instance.remove(id);
 
     setState(() {
       statuses.removeAt(currentIndex);
@@ -256,8 +286,8 @@ class _StatusViewerPageState extends State<StatusViewerPage> {
         child: Stack(
           children: [
             Positioned.fill(
-              child: Image.memory(
-                status['image'] as Uint8List,
+              child: Image(
+                image: status['image'] as ImageProvider,
                 fit: BoxFit.contain,
               ),
             ),
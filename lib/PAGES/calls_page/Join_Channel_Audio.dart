@@ -1,5 +1,4 @@
 import 'dart:async';
-import 'dart:convert';
 import 'dart:ui';
 
 import 'package:agora_rtc_engine/agora_rtc_engine.dart';
@@ -9,6 +8,7 @@ import 'package:flutter/foundation.dart';
 import 'package:flutter/material.dart';
 import 'package:permission_handler/permission_handler.dart';
 
+import '../../services/profile_photos.dart';
 import '../chats/Chat_page.dart';
 
 class JoinChannelAudio extends StatefulWidget {
@@ -40,8 +40,8 @@ class _JoinChannelAudioState extends State<JoinChannelAudio> {
   Timer? _timer;
   int _seconds = 0;
 
-  Uint8List? peerProfileImage;
-  Uint8List? callerProfileImage;
+  ImageProvider? peerProfileImage;
+  ImageProvider? callerProfileImage;
 
   @override
   void initState() {
@@ -51,32 +51,18 @@ class _JoinChannelAudioState extends State<JoinChannelAudio> {
   }
 
   Future<void> _loadProfileImages() async {
-    try {
-      final peerDoc =
-          await FirebaseFirestore.instance
-              .collection("client")
-              .doc(widget.peerId)
-              .get();
-      final callerDoc =
-          await FirebaseFirestore.instance
-              .collection("client")
-              .doc(widget.currentUserId)
-              .get();
-
-      if (peerDoc.exists) {
-        final base64 = peerDoc['profile_photo_base64'] ?? "";
-        if (base64.isNotEmpty) peerProfileImage = base64Decode(base64);
-      }
-
-      if (callerDoc.exists) {
-        final base64 = callerDoc['profile_photo_base64'] ?? "";
-        if (base64.isNotEmpty) callerProfileImage = base64Decode(base64);
-      }
-
-      setState(() {});
-    } catch (e) {
-      print("Error loading profile images: $e");
-    }
+    final images = await Future.wait([
+      ProfilePhotos.instance.forUser(widget.peerId, size: ProfilePhotos.medium),
+      ProfilePhotos.instance.forUser(
+        widget.currentUserId,
+        size: ProfilePhotos.medium,
+      ),
+    ]);
+    if (!mounted) return;
+    setState(() {
+      peerProfileImage = images[0];
+      callerProfileImage = images[1];
+    });
   }
 
   String get callStatusText {
@@ -253,10 +239,8 @@ class _JoinChannelAudioState extends State<JoinChannelAudio> {
                     CircleAvatar(
                       radius: 30,
                       backgroundImage:
-                          callerProfileImage != null
-                              ? MemoryImage(callerProfileImage!)
-                              : const AssetImage("assets/Images/myavator.png")
-                                  as ImageProvider,
+                          callerProfileImage ??
+                          const AssetImage("assets/Images/myavator.png"),
                     ),
                     const SizedBox(width: 20),
                     const Icon(Icons.double_arrow, color: Colors.white),
@@ -264,10 +248,8 @@ class _JoinChannelAudioState extends State<JoinChannelAudio> {
                     CircleAvatar(
                       radius: 30,
                       backgroundImage:
-                          peerProfileImage != null
-                              ? MemoryImage(peerProfileImage!)
-                              : const AssetImage("assets/Images/peeravator.png")
-                                  as ImageProvider,
+                          peerProfileImage ??
+                          const AssetImage("assets/Images/peeravator.png"),
                     ),
                   ],
                 ),
@@ -1,13 +1,11 @@
-import 'dart:convert';
-import 'dart:typed_data';
-
-import 'package:cloud_firestore/cloud_firestore.dart';
 import 'package:firebase_auth/firebase_auth.dart';
 import 'package:flutter/material.dart';
 import 'package:flutter_contacts/flutter_contacts.dart';
 import 'package:intl/intl.dart';
 
 import '../../loadingindicator.dart';
+import '../../services/call_log.dart';
+import '../../services/phone_avatars.dart';
 
 class CallHistoryPage extends StatefulWidget {
   final List<Contact> phoneContacts;
@@ -21,7 +19,8 @@ class CallHistoryPage extends StatefulWidget {
 class _CallHistoryPageState extends State<CallHistoryPage> {
   List<Contact> phoneContacts = [];
   String? currentUserId;
-  final Map<String, Uint8List?> profileCache = {};
+  CallLog? _log;
+  final Map<String, String> _names = {};
   bool isLoading = false;
 
   @override
@@ -29,6 +28,23 @@ class _CallHistoryPageState extends State<CallHistoryPage> {
     super.initState();
     _getCurrentUser();
     phoneContacts = widget.phoneContacts;
+    final uid = currentUserId;
+    if (uid != null) _log = CallLog(uid: uid)..loadMore();
+  }
+
+  @override
+  void didUpdateWidget(CallHistoryPage oldWidget) {
+    super.didUpdateWidget(oldWidget);
+    if (oldWidget.phoneContacts != widget.phoneContacts) {
+      phoneContacts = widget.phoneContacts;
+      _names.clear();
+    }
+  }
+
+  @override
+  void dispose() {
+    _log?.dispose();
+    super.dispose();
   }
 
   void _getCurrentUser() {
@@ -58,120 +74,82 @@ class _CallHistoryPageState extends State<CallHistoryPage> {
     return status == 'missed' ? Colors.red : Colors.green;
   }
 
-  Future<Uint8List?> fetchProfileImage(String phone) async {
-    if (profileCache.containsKey(phone)) return profileCache[phone];
-
-    try {
-      final query =
-          await FirebaseFirestore.instance
-              .collection('client')
-              .where('phone', isEqualTo: phone)
-              .limit(1)
-              .get();
-
-      if (query.docs.isNotEmpty) {
-        final data = query.docs.first.data();
-        final base64String = data['profile_photo_base64'];
-        if (base64String != null &&
-            base64String is String &&
-            base64String.isNotEmpty) {
-          final imageBytes = base64Decode(base64String);
-          profileCache[phone] = imageBytes;
-          return imageBytes;
-        }
-      }
-    } catch (e) {
-      print('Error fetching profile image: $e');
-    }
-
-    profileCache[phone] = null;
-    return null;
-  }
-
-  Widget buildCallTile(Map<String, dynamic> call) {
-    final rawPhone = call['receiverPhone'];
-    final callerPhone = call['callerPhone'];
-    final phone = rawPhone?.toString() ?? '';
-    final name = getContactName(phone);
-    final type = call['type'] ?? 'voice';
-    final time = (call['startTime'] as Timestamp?)?.toDate() ?? DateTime.now();
-    final duration = call['duration'] ?? 0;
-    final status = call['status'] ?? 'ended';
-    final callerId = call['callerId'];
-
-    final isOutgoing = callerId == currentUserId;
-    final directionIcon = isOutgoing ? Icons.call_made : Icons.call_received;
-    final directionColor = isOutgoing ? Colors.blue : Colors.orange;
-
-    final otherPersonPhone = isOutgoing ? phone : callerPhone;
-
-    return FutureBuilder<Uint8List?>(
-      future: fetchProfileImage(otherPersonPhone ?? ""),
-      builder: (context, snapshot) {
-        final profileImage = snapshot.data;
-
-        return Padding(
-          padding: const EdgeInsets.symmetric(horizontal: 8, vertical: 4),
-          child: Card(
-            elevation: 2,
-            shape: RoundedRectangleBorder(
-              borderRadius: BorderRadius.circular(12),
-            ),
-            child: ListTile(
-              leading: CircleAvatar(
-                radius: 24,
-                backgroundColor: Colors.grey.shade200,
-                backgroundImage:
-                    profileImage != null ? MemoryImage(profileImage) : null,
-                child:
-                    profileImage == null
-                        ? Text(
-                          name.isNotEmpty ? name[0].toUpperCase() : '',
-                          style: const TextStyle(
-                            fontSize: 20,
-                            fontWeight: FontWeight.bold,
-                          ),
-                        )
-                        : null,
-              ),
-              title: Row(
-                children: [
-                  const SizedBox(width: 8),
-                  Expanded(
-                    child: Text(
-                      name,
+  Widget buildCallTile(CallGroup group) {
+    final call = group.latest;
+    final phone = group.peer;
+    // The contact scan runs once per number, not once per row build.
+    final name = _names[phone] ??= getContactName(phone);
+    final time = call.time ?? DateTime.now();
+
+    final directionIcon =
+        call.isOutgoing ? Icons.call_made : Icons.call_received;
+    final directionColor = call.isOutgoing ? Colors.blue : Colors.orange;
+
+    final profileImage = PhoneAvatars.instance.photoFor(phone);
+
+    return Padding(
+      padding: const EdgeInsets.symmetric(horizontal: 8, vertical: 4),
+      child: Card(
+        elevation: 2,
+        shape: RoundedRectangleBorder(borderRadius: BorderRadius.circular(12)),
+        child: ListTile(
+          leading: CircleAvatar(
+            radius: 24,
+            backgroundColor: Colors.grey.shade200,
+            backgroundImage: profileImage,
+            child:
+                profileImage == null
+                    ? Text(
+                      name.isNotEmpty ? name[0].toUpperCase() : '',
                       style: const TextStyle(
+                        fontSize: 20,
                         fontWeight: FontWeight.bold,
-                        fontSize: 16,
                       ),
-                      overflow: TextOverflow.ellipsis,
-                    ),
+                    )
+                    : null,
+          ),
+          title: Row(
+            children: [
+              const SizedBox(width: 8),
+              Expanded(
+                child: Text(
+                  group.calls.length > 1
+                      ? '$name (${group.calls.length})'
+                      : name,
+                  style: const TextStyle(
+                    fontWeight: FontWeight.bold,
+                    fontSize: 16,
                   ),
-                  const SizedBox(width: 6),
-                  Icon(directionIcon, size: 18, color: directionColor),
-                ],
-              ),
-              subtitle: Text(
-                "${DateFormat.yMMMd().add_jm().format(time)} • ${duration}s",
-                style: const TextStyle(fontSize: 13),
+                  overflow: TextOverflow.ellipsis,
+                ),
               ),
-              trailing: Icon(getCallIcon(type), color: getCallColor(status)),
-            ),
+              const SizedBox(width: 6),
+              Icon(directionIcon, size: 18, color: directionColor),
+            ],
           ),
-        );
-      },
+          subtitle: Text(
+            "${DateFormat.yMMMd().add_jm().format(time)} • ${call.duration}s",
+            style: const TextStyle(fontSize: 13),
+          ),
+          trailing: Icon(
+            getCallIcon(call.type),
+            color: getCallColor(call.status),
+          ),
+        ),
+      ),
     );
   }
 
   Future<void> _refreshData() async {
     setState(() => isLoading = true);
-    await Future.delayed(const Duration(seconds: 2));
-    setState(() => isLoading = false);
+    await _log?.refresh();
+    if (mounted) setState(() => isLoading = false);
   }
 
   @override
   Widget build(BuildContext context) {
-    if (currentUserId == null) {
+    final log = _log;
+    if (log == null) {
       return const Scaffold(body: Center(child: CircularProgressIndicator()));
     }
 
@@ -184,25 +162,19 @@ class _CallHistoryPageState extends State<CallHistoryPage> {
           style: TextStyle(color: Colors.white, fontSize: 23),
         ),
       ),
-      body: StreamBuilder<QuerySnapshot>(
-        stream:
-            FirebaseFirestore.instance
-                .collection('calls')
-                .where('callerId', isEqualTo: currentUserId)
-                .orderBy('startTime', descending: true)
-                .snapshots(),
-        builder: (context, snapshot) {
-          if (snapshot.hasError) {
-            return Center(child: Text('Firestore error: ${snapshot.error}'));
+      body: ListenableBuilder(
+        listenable: Listenable.merge([log, PhoneAvatars.instance]),
+        builder: (context, _) {
+          final groups = log.groups;
+          if (groups.isEmpty && log.error != null) {
+            return Center(child: Text('Firestore error: ${log.error}'));
           }
 
-          if (snapshot.connectionState == ConnectionState.waiting) {
+          if (!log.hasLoaded) {
             return const Center(child: CircularProgressIndicator());
           }
 
-          final docs = snapshot.data?.docs ?? [];
-
-          if (docs.isEmpty) {
+          if (groups.isEmpty && !log.hasMore) {
             return const Center(child: Text('No call history found.'));
           }
 
@@ -210,10 +182,24 @@ class _CallHistoryPageState extends State<CallHistoryPage> {
             isLoading: isLoading,
             onRefresh: _refreshData,
             child: ListView.builder(
-              itemCount: docs.length,
+              itemCount: groups.length + (log.hasMore ? 1 : 0),
               itemBuilder: (context, index) {
-                final data = docs[index].data() as Map<String, dynamic>;
-                return buildCallTile(data);
+                if (index < groups.length) return buildCallTile(groups[index]);
+                // The end of what is loaded came into view.
+                if (log.error != null) {
+                  return TextButton(
+                    onPressed: log.loadMore,
+                    child: const Text(
+                      'Could not load older calls. Retry',
+                      style: TextStyle(color: Colors.white),
+                    ),
+                  );
+                }
+                log.loadMore();
+                return const Padding(
+                  padding: EdgeInsets.all(16),
+                  child: Center(child: CircularProgressIndicator()),
+                );
               },
             ),
           );
@@ -1,26 +1,41 @@
-import 'dart:convert';
+import 'dart:async';
 import 'dart:io';
 
 import 'package:TwinBox/PAGES/chats/profile_show.dart';
 import 'package:cloud_firestore/cloud_firestore.dart';
 import 'package:firebase_auth/firebase_auth.dart';
 import 'package:flutter/material.dart';
-import 'package:flutter_contacts/flutter_contacts.dart';
-import 'package:flutter_image_compress/flutter_image_compress.dart';
+import 'package:flutter_easyloading/flutter_easyloading.dart';
 import 'package:fluttertoast/fluttertoast.dart';
 import 'package:get/get.dart';
 import 'package:image_picker/image_picker.dart';
 import 'package:intl/intl.dart';
-import 'package:permission_handler/permission_handler.dart';
 import 'package:url_launcher/url_launcher.dart';
 
 import '../../loadingindicator.dart';
 import '../../profile_card.dart';
+import '../../services/base64_image.dart';
+import '../../services/block_list.dart';
+import '../../services/chat_message.dart';
+import '../../services/chat_sender.dart';
+import '../../services/contact_index.dart';
+import '../../services/firestore_metrics.dart';
+import '../../services/media_workers.dart';
+import '../../services/message_search.dart';
+import '../../services/message_store.dart';
+import '../../services/message_window.dart';
+import '../../services/outbox.dart';
+import '../../services/profile_photos.dart';
+import '../../services/purge_engine.dart';
+import '../../services/read_receipts.dart';
+import '../../services/typing_presence.dart';
+import '../../services/user_directory.dart';
 import '../calls_page/Join_Channel_Audio.dart';
 import '../calls_page/join_channel_video.dart';
 import '../map_page/map.dart';
 import 'camera_in_chat.dart';
 import 'image_preview_page.dart';
+import 'message_search_page.dart';
 
 class ChatScreen extends StatefulWidget {
   final String currentUserId;
@@ -54,7 +69,7 @@ class ChatScreen extends StatefulWidget {
         .doc(currentUserId)
         .collection('chats')
         .doc(peerId) // or correct chatId based on your logic
-        .update({'lastRead': FieldValue.serverTimestamp()});
+        .trackedUpdate({'lastRead': FieldValue.serverTimestamp()});
   }
 
   void initState() {
@@ -68,6 +83,7 @@ class ChatScreen extends StatefulWidget {
 class _ChatScreenState extends State<ChatScreen> {
   bool isLoading = false;
   final FirebaseFirestore _firestore = FirebaseFirestore.instance;
+  final ChatSender _chatSender = ChatSender();
   final currentUser = FirebaseAuth.instance.currentUser;
   final currentUserId = FirebaseAuth.instance.currentUser!.uid;
   late var chatId = getChatId(
@@ -75,14 +91,21 @@ class _ChatScreenState extends State<ChatScreen> {
     widget.peerId,
   ); // however you build it// should already be available in ChatScreen
   final TextEditingController _messageController = TextEditingController();
+  final ScrollController _scrollController = ScrollController();
+  late final MessageWindow _messageWindow;
+  final MessageRowCache _rows = MessageRowCache();
+  final RowRevealer _revealer = RowRevealer();
+  late final ComposerPresence _composer;
+  late final PeerTyping _peerTyping;
   List<File> selectedImages = [];
-  String? currentUserName;
-  String? currentUserMobile;
   String? nameSavedByPeer;
   String? localContactName;
   String peerStatus = 'offline'; // default offline
+  StreamSubscription<Map<String, dynamic>?>? _peerStatusSub;
+  StreamSubscription<Map<String, dynamic>?>? _peerReadSub;
+  Timestamp? _peerReadUpTo;
   String? localContactMobile;
-  bool isBlocked = false;
+  bool get isBlocked => BlockList.instance.isBlocked(widget.peerId);
   bool isGroupChat = false; // set to true manually if this is a group chat
   ImageProvider? peerProfileImage;
 
@@ -213,158 +236,374 @@ class _ChatScreenState extends State<ChatScreen> {
     final currentUserId = FirebaseAuth.instance.currentUser!.uid;
     final peerId = widget.peerId; // assuming peerId is passed via constructor
     chatId = getChatId(currentUserId, peerId);
-    _loadCurrentUserData();
+    _messageWindow = MessageWindow(
+      chatId: chatId,
+      collection: _firestore
+          .collection('messages')
+          .doc(chatId)
+          .collection('chats'),
+    )..start();
+    _messageWindow.addListener(_markRead);
+    _scrollController.addListener(_onScroll);
     _loadNameSavedByPeer();
     _loadLocalContactDetails();
     _loadPeerStatus();
-    _checkIfBlocked();
+    _loadPeerReadWatermark();
+    BlockList.instance.addListener(_onBlockListChanged);
     _loadPeerProfilePhoto();
-    markMessagesAsRead();
     _firestore
         .collection('chatList')
         .doc(widget.currentUserId)
         .collection('chats')
         .doc(widget.peerId)
-        .update({'unreadCount': 0})
+        .trackedUpdate({'unreadCount': 0})
         .catchError((_) {});
 
-    _messageController.addListener(() {
-      setState(() {});
-    });
+    // Keystrokes rebuild the input row only; see ComposerPresence.
+    _composer = ComposerPresence(
+      chatId: chatId,
+      uid: widget.currentUserId,
+      controller: _messageController,
+    );
+    _peerTyping = TypingPresence.instance.watch(chatId, widget.peerId);
+  }
+
+  @override
+  void dispose() {
+    BlockList.instance.removeListener(_onBlockListChanged);
+    _peerStatusSub?.cancel();
+    _peerReadSub?.cancel();
+    ReadReceipts.instance.flush(chatId, widget.currentUserId);
+    _scrollController.dispose();
+    _messageWindow.removeListener(_markRead);
+    _messageWindow.dispose();
+    _composer.dispose();
+    _peerTyping.dispose();
+    _messageController.dispose();
+    super.dispose();
+  }
+
+  /// The list is reversed, so the top of the history is at max extent.
+  void _onScroll() {
+    final position = _scrollController.position;
+    if (position.pixels >= position.maxScrollExtent - 300) {
+      _messageWindow.loadOlder();
+    } else if (position.pixels <= 0) {
+      _messageWindow.evictFarPages();
+    }
   }
 
   void _loadPeerStatus() {
-    _firestore.collection('client').doc(widget.peerId).snapshots().listen((
-      doc,
+    _peerStatusSub = UserDirectory.instance
+        .watch('client/${widget.peerId}')
+        .listen((data) {
+          final status = data?['status'];
+          if (status != null && status != peerStatus && mounted) {
+            setState(() {
+              peerStatus = status; // "online" or "offline"
+              _rows.clear(); // ticks depend on it
+            });
+          }
+        });
+  }
+
+  /// Moves our read watermark up to the newest message from the peer.
+  void _markRead() {
+    final messages = _messageWindow.messages;
+    for (var i = messages.length - 1; i >= 0; i--) {
+      final message = messages[i];
+      final ts = message.timestamp;
+      if (message.senderId != widget.peerId || ts == null) continue;
+      ReadReceipts.instance.markRead(
+        chatId: chatId,
+        readerId: widget.currentUserId,
+        upTo: ts,
+        messageId: message.id,
+      );
+      return;
+    }
+  }
+
+  void _loadPeerReadWatermark() {
+    _peerReadSub = UserDirectory.instance.watch('messages/$chatId').listen((
+      data,
     ) {
-      if (doc.exists && doc.data()!.containsKey('status')) {
+      final upTo = ReadReceipts.watermarkOf(data, widget.peerId);
+      if (upTo != _peerReadUpTo && mounted) {
         setState(() {
-          peerStatus = doc['status']; // "online" or "offline"
+          _peerReadUpTo = upTo;
+          _rows.clear(); // ticks depend on it
         });
       }
     });
   }
 
-  void markMessagesAsRead() async {
-    final chatId = getChatId(widget.currentUserId, widget.peerId);
-    final unreadMessages =
-        await _firestore
-            .collection('messages')
-            .doc(chatId)
-            .collection('chats')
-            .where('receiverId', isEqualTo: widget.currentUserId)
-            .where('isRead', isEqualTo: false)
-            .get();
-
-    for (var doc in unreadMessages.docs) {
-      await doc.reference.update({'isRead': true});
+  void _loadNameSavedByPeer() async {
+    final data = await UserDirectory.instance.doc(
+      'client/${widget.peerId}/contacts/${widget.currentUserId}',
+    );
+    if (data != null && mounted) {
+      setState(() {
+        nameSavedByPeer = data['name']?.toString();
+      });
     }
   }
 
-  void _loadCurrentUserData() async {
-    final userDoc =
-        await _firestore.collection('client').doc(widget.currentUserId).get();
-    if (userDoc.exists) {
-      final data = userDoc.data()!;
+  void _loadLocalContactDetails() async {
+    await ContactIndex.instance.ensureLoaded();
+    final match = ContactIndex.instance.lookup(widget.PeerMobile);
+    if (match != null && mounted) {
       setState(() {
-        currentUserName = "${data['first_name']} ${data['last_name']}".trim();
-        currentUserMobile = data['phone'] ?? '';
+        localContactName = match.displayName;
+        localContactMobile = match.number;
       });
     }
   }
 
-  void _loadNameSavedByPeer() async {
-    final contactDoc =
-        await _firestore
-            .collection('client')
-            .doc(widget.peerId)
-            .collection('contacts')
-            .doc(widget.currentUserId)
-            .get();
-
-    if (contactDoc.exists) {
+  void _loadPeerProfilePhoto() async {
+    final photo = await ProfilePhotos.instance.forUser(
+      widget.peerId,
+      size: ProfilePhotos.medium,
+    );
+    if (photo != null && mounted) {
       setState(() {
-        nameSavedByPeer = contactDoc.data()?['name']?.toString();
+        peerProfileImage = photo;
       });
     }
   }
 
-  void _loadLocalContactDetails() async {
-    if (await Permission.contacts.request().isGranted) {
-      final contacts = await FlutterContacts.getContacts(withProperties: true);
-      String peerPhone = widget.PeerMobile.replaceAll(RegExp(r'\D'), '');
-      if (peerPhone.length > 10) {
-        peerPhone = peerPhone.substring(peerPhone.length - 10);
-      }
+  /// Physical width to decode a bubble image of [logicalWidth] to.
+  int _decodeWidth(double logicalWidth) =>
+      (logicalWidth * MediaQuery.devicePixelRatioOf(context)).round();
+
+  /// One bubble. Built once per [ChatMessage] instance and reused through
+  /// [_rows] until the message changes.
+  Widget _buildMessageRow(ChatMessage message) {
+    final isMe = message.senderId == widget.currentUserId;
+
+    final timestamp = message.timestamp;
+    final isRead = ReadReceipts.isRead(message, _peerReadUpTo);
+    final timeStr =
+        timestamp != null
+            ? DateFormat('hh:mm a').format(timestamp.toDate())
+            : '';
+
+    final Icon tickIcon =
+        isMe && message.isFailed
+            ? const Icon(Icons.error_outline, size: 14, color: Colors.red)
+            : isMe && message.isPending
+            ? const Icon(Icons.access_time, size: 14, color: Colors.grey)
+            : isMe
+            ? Icon(
+              isRead
+                  ? Icons.done_all
+                  : peerStatus == 'online'
+                  ? Icons.done_all
+                  : Icons.check,
+              size: 14,
+              color: isRead ? Colors.blue : Colors.grey,
+            )
+            : const Icon(null);
+
+    return Align(
+      alignment: isMe ? Alignment.centerRight : Alignment.centerLeft,
+      child: Container(
+        constraints: const BoxConstraints(maxWidth: 280),
+        margin: const EdgeInsets.symmetric(vertical: 4),
+        padding: const EdgeInsets.symmetric(horizontal: 12, vertical: 8),
+        decoration: BoxDecoration(
+          color: isMe ? const Color(0xFFDCF8C6) : Colors.white,
+          borderRadius: BorderRadius.only(
+            topLeft: const Radius.circular(16),
+            topRight: const Radius.circular(16),
+            bottomLeft: isMe ? const Radius.circular(16) : Radius.zero,
+            bottomRight: isMe ? Radius.zero : const Radius.circular(16),
+          ),
+        ),
+        child: Column(
+          crossAxisAlignment: CrossAxisAlignment.start,
+          children: [
+            if (!isMe && isGroupChat)
+              Padding(
+                padding: const EdgeInsets.only(bottom: 4),
+                child: Text(
+                  message.senderName ?? '',
+                  style: const TextStyle(
+                    fontWeight: FontWeight.bold,
+                    color: Colors.black54,
+                    fontSize: 13,
+                  ),
+                ),
+              ),
 
-      for (var contact in contacts) {
-        for (var phone in contact.phones) {
-          String contactPhone = phone.number.replaceAll(RegExp(r'\D'), '');
-          if (contactPhone.length > 10) {
-            contactPhone = contactPhone.substring(contactPhone.length - 10);
-          }
+            // Handle message types
+            if (message.isImage)
+              GestureDetector(
+                onTap: () {
+                  Navigator.push(
+                    context,
+                    MaterialPageRoute(
+                      builder:
+                          (_) => ImagePreviewPage2(
+                            base64ImageData: message.imageData!,
+                            messageId: message.id,
+                          ),
+                    ),
+                  );
+                },
+                child: ClipRRect(
+                  borderRadius: BorderRadius.circular(10),
+                  child: Image(
+                    image: Base64Image(
+                      message.imageData!,
+                      cacheKey: message.id,
+                      targetWidth: _decodeWidth(200),
+                    ),
+                    width: 200,
+                    fit: BoxFit.cover,
+                    gaplessPlayback: true,
+                  ),
+                ),
+              )
+            else if (message.isLocation)
+              GestureDetector(
+                onTap: () async {
+                  final lat = message.lat;
+                  final lng = message.lng;
+                  // Once a live share has ended its last position is shown
+                  // like a shared one.
+                  final isLive = message.isLiveNow;
+                  final peerId = widget.peerId ?? '';
+                  final sharedAt = message.locationSharedAt;
+
+                  if (lat == null || lng == null || sharedAt == null) {
+                    ScaffoldMessenger.of(context).showSnackBar(
+                      const SnackBar(
+                        content: Text('Location data is missing.'),
+                      ),
+                    );
+                    return;
+                  }
+
+                  final diff = DateTime.now().difference(sharedAt.toDate());
+                  if (message.liveUntil == null && diff.inHours >= 8) {
+                    ScaffoldMessenger.of(context).showSnackBar(
+                      const SnackBar(
+                        content: Text('This location has expired.'),
+                      ),
+                    );
+                    return;
+                  }
+
+                  if (isLive) {
+                    Navigator.push(
+                      context,
+                      MaterialPageRoute(
+                        builder:
+                            (_) => GoogleMapScreen(
+                              isSharedLocationViewOnly: true,
+                              sharedLat: lat,
+                              sharedLng: lng,
+                              chatId: chatId,
+                              receiverId: peerId,
+                              liveMessageId: message.id,
+                            ),
+                      ),
+                    );
+                  } else {
+                    final googleMapsUrl = Uri.parse(
+                      "https://www.google.com/maps/search/?api=1&query=$lat,$lng",
+                    );
+                    if (await canLaunchUrl(googleMapsUrl)) {
+                      await launchUrl(
+                        googleMapsUrl,
+                        mode: LaunchMode.externalApplication,
+                      );
+                    } else {
+                      ScaffoldMessenger.of(context).showSnackBar(
+                        const SnackBar(
+                          content: Text('Could not open Google Maps'),
+                        ),
+                      );
+                    }
+                  }
+                },
+                child: Container(
+                  decoration: BoxDecoration(
+                    color: Colors.lightBlue[50],
+                    borderRadius: BorderRadius.circular(12),
+                  ),
+                  padding: const EdgeInsets.all(12),
+                  child: Row(
+                    mainAxisSize: MainAxisSize.min,
+                    children: [
+                      const Icon(Icons.location_on, color: Colors.red),
+                      const SizedBox(width: 8),
+                      Text(
+                        message.isLiveNow
+                            ? 'Live Location'
+                            : message.liveUntil != null
+                            ? 'Live location ended'
+                            : 'Shared Location',
+                        style: const TextStyle(
+                          fontSize: 15,
+                          fontWeight: FontWeight.w500,
+                        ),
+                      ),
+                    ],
+                  ),
+                ),
+              )
+            else
+              Text(message.text, style: const TextStyle(fontSize: 15)),
+
+            const SizedBox(height: 4),
+            Row(
+              mainAxisSize: MainAxisSize.min,
+              mainAxisAlignment: MainAxisAlignment.end,
+              children: [
+                Text(
+                  timeStr,
+                  style: const TextStyle(fontSize: 11, color: Colors.grey),
+                ),
+                const SizedBox(width: 4),
+                if (isMe)
+                  GestureDetector(
+                    // Tap a failed message to resend it.
+                    onTap:
+                        message.isFailed
+                            ? () => Outbox.instance.retry(message.id)
+                            : null,
+                    child: tickIcon,
+                  ),
+              ],
+            ),
+          ],
+        ),
+      ),
+    );
+  }
 
-          if (peerPhone == contactPhone) {
-            setState(() {
-              localContactName = contact.displayName;
-              localContactMobile = phone.number;
-            });
-            return;
-          }
-        }
-      }
-    }
+  void _onBlockListChanged() {
+    if (mounted) setState(() {});
   }
 
-  void _loadPeerProfilePhoto() async {
+  Future<void> _blockUser() async {
     try {
-      final peerDoc =
-          await _firestore.collection('client').doc(widget.peerId).get();
-      if (peerDoc.exists) {
-        final base64Str = peerDoc.data()?['profile_photo_base64'];
-        if (base64Str != null && base64Str is String && base64Str.isNotEmpty) {
-          final bytes = base64Decode(base64Str);
-          setState(() {
-            peerProfileImage = MemoryImage(bytes);
-          });
-        }
-      }
+      await BlockList.instance.block(widget.peerId);
+      Fluttertoast.showToast(msg: "User blocked");
     } catch (e) {
-      debugPrint("Error loading profile photo: $e");
+      Fluttertoast.showToast(msg: "Failed to block user");
     }
   }
 
-  Future<void> _checkIfBlocked() async {
-    final blockDoc =
-        await _firestore
-            .collection('client')
-            .doc(widget.currentUserId)
-            .collection('blocked')
-            .doc(widget.peerId)
-            .get();
-    setState(() => isBlocked = blockDoc.exists);
-  }
-
-  Future<void> _blockUser() async {
-    await _firestore
-        .collection('client')
-        .doc(widget.currentUserId)
-        .collection('blocked')
-        .doc(widget.peerId)
-        .set({'blockedAt': FieldValue.serverTimestamp()});
-    setState(() => isBlocked = true);
-    Fluttertoast.showToast(msg: "User blocked");
-  }
-
   Future<void> _unblockUser() async {
-    await _firestore
-        .collection('client')
-        .doc(widget.currentUserId)
-        .collection('blocked')
-        .doc(widget.peerId)
-        .delete();
-    setState(() => isBlocked = false);
-    Fluttertoast.showToast(msg: "User unblocked");
+    try {
+      await BlockList.instance.unblock(widget.peerId);
+      Fluttertoast.showToast(msg: "User unblocked");
+    } catch (e) {
+      Fluttertoast.showToast(msg: "Failed to unblock user");
+    }
   }
 
   String getChatId(String uid1, String uid2) {
@@ -379,7 +618,7 @@ class _ChatScreenState extends State<ChatScreen> {
     setState(() => isLoading = false);
   }
 
-  void sendMessage() async {
+  void sendMessage() {
     if (isBlocked) {
       Fluttertoast.showToast(msg: "You have blocked this user");
       return;
@@ -391,58 +630,20 @@ class _ChatScreenState extends State<ChatScreen> {
     String messageText = _messageController.text.trim();
     _messageController.clear();
 
-    final timestamp = FieldValue.serverTimestamp();
-
-    final messageData = {
-      'senderId': widget.currentUserId,
-      'receiverId': widget.peerId,
-      'message': messageText,
-      'timestamp': timestamp,
-      'isRead': false,
-      'senderName': currentUserName,
-      'receiverName': widget.peerName,
-    };
-
-    await _firestore
-        .collection('messages')
-        .doc(chatId)
-        .collection('chats')
-        .add(messageData);
-
-    await _firestore
-        .collection('chatList')
-        .doc(widget.currentUserId)
-        .collection('chats')
-        .doc(widget.peerId)
-        .set({
-          'peerId': widget.peerId,
-          'peerName': widget.peerName,
-          'peerMobile': widget.PeerMobile,
-          'lastMessage': messageText,
-          'timestamp': timestamp,
-          'unreadCount': 0,
-        });
-
-    final receiverRef = _firestore
-        .collection('chatList')
-        .doc(widget.peerId)
-        .collection('chats')
-        .doc(widget.currentUserId);
-
-    final receiverSnapshot = await receiverRef.get();
-    int unreadCount = 1;
-    if (receiverSnapshot.exists) {
-      unreadCount = (receiverSnapshot.data()?['unreadCount'] ?? 0) + 1;
-    }
+    final messageData = ChatMessage.compact(
+      senderId: widget.currentUserId,
+      text: messageText,
+    );
 
-    await receiverRef.set({
-      'peerId': widget.currentUserId,
-      'peerName': currentUserName,
-      'peerMobile': currentUserMobile,
-      'lastMessage': messageText,
-      'timestamp': timestamp,
-      'unreadCount': unreadCount,
-    });
+    // Queued durably and flushed in the background; the list shows it as
+    // queued/failed until Firestore reports the committed message.
+    Outbox.instance.enqueue(
+      chatId: chatId,
+      message: messageData,
+      senderId: widget.currentUserId,
+      peerId: widget.peerId,
+      summary: ChatSender.summaryFor('text', messageText),
+    );
   }
 
   @override
@@ -511,14 +712,34 @@ class _ChatScreenState extends State<ChatScreen> {
                         ),
                         const SizedBox(width: 10),
                         Expanded(
-                          child: Text(
-                            localContactName ?? widget.peerName,
-                            maxLines: 1,
-                            overflow: TextOverflow.ellipsis,
-                            style: const TextStyle(
-                              fontSize: 16,
-                              fontWeight: FontWeight.bold,
-                            ),
+                          child: Column(
+                            crossAxisAlignment: CrossAxisAlignment.start,
+                            mainAxisSize: MainAxisSize.min,
+                            children: [
+                              Text(
+                                localContactName ?? widget.peerName,
+                                maxLines: 1,
+                                overflow: TextOverflow.ellipsis,
+                                style: const TextStyle(
+                                  fontSize: 16,
+                                  fontWeight: FontWeight.bold,
+                                ),
+                              ),
+                              ValueListenableBuilder<bool>(
+                                valueListenable: _peerTyping,
+                                builder:
+                                    (context, typing, _) =>
+                                        typing
+                                            ? const Text(
+                                              'typing…',
+                                              style: TextStyle(
+                                                fontSize: 12,
+                                                color: Colors.green,
+                                              ),
+                                            )
+                                            : const SizedBox.shrink(),
+                              ),
+                            ],
                           ),
                         ),
                         IconButton(
@@ -554,7 +775,9 @@ class _ChatScreenState extends State<ChatScreen> {
                         PopupMenuButton<String>(
                           icon: const Icon(Icons.more_vert),
                           onSelected: (value) async {
-                            if (value == 'clear_chat') {
+                            if (value == 'search') {
+                              await _openSearch();
+                            } else if (value == 'clear_chat') {
                               await _clearChat();
                             } else if (value == 'block') {
                               await _blockUser();
@@ -564,6 +787,10 @@ class _ChatScreenState extends State<ChatScreen> {
                           },
                           itemBuilder:
                               (context) => [
+                                const PopupMenuItem(
+                                  value: 'search',
+                                  child: Text('Search'),
+                                ),
                                 const PopupMenuItem(
                                   value: 'clear_chat',
                                   child: Text('Clear Chat'),
@@ -582,260 +809,57 @@ class _ChatScreenState extends State<ChatScreen> {
 
               /// Messages List
               Expanded(
-                child: StreamBuilder<QuerySnapshot>(
-                  stream:
-                      _firestore
-                          .collection('messages')
-                          .doc(chatId)
-                          .collection('chats')
-                          .orderBy('timestamp')
-                          .snapshots(),
-                  builder: (context, snapshot) {
-                    if (!snapshot.hasData) {
+                child: AnimatedBuilder(
+                  animation: _messageWindow,
+                  builder: (context, _) {
+                    if (!_messageWindow.hasLoaded) {
                       return const Center(
                         child: CircularProgressIndicator(color: Colors.white),
                       );
                     }
 
-                    final messages = snapshot.data!.docs;
+                    final messages = _messageWindow.messages;
+                    final showOlderLoader = _messageWindow.isLoadingOlder;
                     return ListView.builder(
+                      controller: _scrollController,
+                      reverse: true,
                       padding: const EdgeInsets.all(12),
-                      itemCount: messages.length,
+                      itemCount: messages.length + (showOlderLoader ? 1 : 0),
                       itemBuilder: (context, index) {
-                        final msg = messages[index];
-                        final data = msg.data() as Map<String, dynamic>;
-                        final isMe = data['senderId'] == widget.currentUserId;
-                        final isImage = data['type'] == 'image';
-                        final isLocation = data['type'] == 'location';
-
-                        final timestamp = data['timestamp'] as Timestamp?;
-                        final timeStr =
-                            timestamp != null
-                                ? DateFormat(
-                                  'hh:mm a',
-                                ).format(timestamp.toDate())
-                                : '';
-
-                        final Icon tickIcon =
-                            isMe
-                                ? Icon(
-                                  data['isRead'] == true
-                                      ? Icons.done_all
-                                      : peerStatus == 'online'
-                                      ? Icons.done_all
-                                      : Icons.check,
-                                  size: 14,
-                                  color:
-                                      data['isRead'] == true
-                                          ? Colors.blue
-                                          : Colors.grey,
-                                )
-                                : const Icon(null);
-
-                        return Align(
-                          alignment:
-                              isMe
-                                  ? Alignment.centerRight
-                                  : Alignment.centerLeft,
-                          child: Container(
-                            constraints: const BoxConstraints(maxWidth: 280),
-                            margin: const EdgeInsets.symmetric(vertical: 4),
-                            padding: const EdgeInsets.symmetric(
-                              horizontal: 12,
-                              vertical: 8,
-                            ),
-                            decoration: BoxDecoration(
-                              color:
-                                  isMe ? const Color(0xFFDCF8C6) : Colors.white,
-                              borderRadius: BorderRadius.only(
-                                topLeft: const Radius.circular(16),
-                                topRight: const Radius.circular(16),
-                                bottomLeft:
-                                    isMe
-                                        ? const Radius.circular(16)
-                                        : Radius.zero,
-                                bottomRight:
-                                    isMe
-                                        ? Radius.zero
-                                        : const Radius.circular(16),
+                        if (index == messages.length) {
+                          return const Padding(
+                            padding: EdgeInsets.all(8),
+                            child: Center(
+                              child: CircularProgressIndicator(
+                                color: Colors.white,
                               ),
                             ),
-                            child: Column(
-                              crossAxisAlignment: CrossAxisAlignment.start,
-                              children: [
-                                if (!isMe && isGroupChat)
-                                  Padding(
-                                    padding: const EdgeInsets.only(bottom: 4),
-                                    child: Text(
-                                      data['senderName'] ?? '',
-                                      style: const TextStyle(
-                                        fontWeight: FontWeight.bold,
-                                        color: Colors.black54,
-                                        fontSize: 13,
-                                      ),
-                                    ),
-                                  ),
-
-                                // Handle message types
-                                if (isImage)
-                                  GestureDetector(
-                                    onTap: () {
-                                      Navigator.push(
-                                        context,
-                                        MaterialPageRoute(
-                                          builder:
-                                              (_) => ImagePreviewPage2(
-                                                base64ImageData:
-                                                    data['imageData'],
-                                              ),
-                                        ),
-                                      );
-                                    },
-                                    child: ClipRRect(
-                                      borderRadius: BorderRadius.circular(10),
-                                      child: Image.memory(
-                                        base64Decode(data['imageData']),
-                                        width: 200,
-                                        fit: BoxFit.cover,
-                                      ),
-                                    ),
-                                  )
-                                else if (isLocation)
-                                  GestureDetector(
-                                    onTap: () async {
-                                      final lat = data['lat'] as double?;
-                                      final lng = data['lng'] as double?;
-                                      final isLive = data['isLive'] == true;
-                                      final peerId = widget.peerId ?? '';
-                                      final sharedAt =
-                                          data['locationSharedAt']
-                                              as Timestamp?;
-
-                                      if (lat == null ||
-                                          lng == null ||
-                                          sharedAt == null) {
-                                        ScaffoldMessenger.of(
-                                          context,
-                                        ).showSnackBar(
-                                          const SnackBar(
-                                            content: Text(
-                                              'Location data is missing.',
-                                            ),
-                                          ),
-                                        );
-                                        return;
-                                      }
-
-                                      final now = DateTime.now();
-                                      final diff = now.difference(
-                                        sharedAt.toDate(),
-                                      );
-
-                                      if (diff.inHours >= 8) {
-                                        ScaffoldMessenger.of(
-                                          context,
-                                        ).showSnackBar(
-                                          const SnackBar(
-                                            content: Text(
-                                              'This location has expired.',
-                                            ),
-                                          ),
-                                        );
-                                        return;
-                                      }
-
-                                      if (isLive) {
-                                        Navigator.push(
-                                          context,
-                                          MaterialPageRoute(
-                                            builder:
-                                                (_) => GoogleMapScreen(
-                                                  isSharedLocationViewOnly:
-                                                      true,
-                                                  sharedLat: lat,
-                                                  sharedLng: lng,
-                                                  chatId: chatId,
-                                                  receiverId: peerId,
-                                                ),
-                                          ),
-                                        );
-                                      } else {
-                                        final googleMapsUrl = Uri.parse(
-                                          "https://www.google.com/maps/search/?api=1&query=$lat,$lng",
-                                        );
-                                        if (await canLaunchUrl(googleMapsUrl)) {
-                                          await launchUrl(
-                                            googleMapsUrl,
-                                            mode:
-                                                LaunchMode.externalApplication,
-                                          );
-                                        } else {
-                                          ScaffoldMessenger.of(
-                                            context,
-                                          ).showSnackBar(
-                                            const SnackBar(
-                                              content: Text(
-                                                'Could not open Google Maps',
-                                              ),
-                                            ),
-                                          );
-                                        }
-                                      }
-                                    },
-                                    child: Container(
-                                      decoration: BoxDecoration(
-                                        color: Colors.lightBlue[50],
-                                        borderRadius: BorderRadius.circular(12),
-                                      ),
-                                      padding: const EdgeInsets.all(12),
-                                      child: Row(
-                                        mainAxisSize: MainAxisSize.min,
-                                        children: [
-                                          const Icon(
-                                            Icons.location_on,
-                                            color: Colors.red,
-                                          ),
-                                          const SizedBox(width: 8),
-                                          Text(
-                                            data['isLive'] == true
-                                                ? 'Live Location'
-                                                : 'Shared Location',
-                                            style: const TextStyle(
-                                              fontSize: 15,
-                                              fontWeight: FontWeight.w500,
-                                            ),
-                                          ),
-                                        ],
-                                      ),
-                                    ),
-                                  )
-                                else
-                                  Text(
-                                    data['message'] ?? '',
-                                    style: const TextStyle(fontSize: 15),
-                                  ),
-
-                                const SizedBox(height: 4),
-                                Row(
-                                  mainAxisSize: MainAxisSize.min,
-                                  mainAxisAlignment: MainAxisAlignment.end,
-                                  children: [
-                                    Text(
-                                      timeStr,
-                                      style: const TextStyle(
-                                        fontSize: 11,
-                                        color: Colors.grey,
-                                      ),
-                                    ),
-                                    const SizedBox(width: 4),
-                                    if (isMe) tickIcon,
-                                  ],
-                                ),
-                              ],
-                            ),
+                          );
+                        }
+                        final message =
+                            messages[messages.length - 1 - index];
+                        _revealer.built(index);
+                        if (message.id == _revealer.id) {
+                          return KeyedSubtree(
+                            key: ValueKey(message.id),
+                            child: _revealer.wrap(_buildMessageRow(message)),
+                          );
+                        }
+                        return _rows.row(
+                          message,
+                          () => KeyedSubtree(
+                            key: ValueKey(message.id),
+                            child: _buildMessageRow(message),
                           ),
                         );
                       },
+                      findChildIndexCallback: (key) {
+                        final id = (key as ValueKey<String>).value;
+                        final index = _messageWindow.indexOf(id);
+                        return index == null
+                            ? null
+                            : messages.length - 1 - index;
+                      },
                     );
                   },
                 ),
@@ -951,11 +975,13 @@ class _ChatScreenState extends State<ChatScreen> {
                             shape: BoxShape.circle,
                           ),
                           padding: const EdgeInsets.all(12),
-                          child: Icon(
-                            _messageController.text.trim().isEmpty
-                                ? Icons.mic
-                                : Icons.send,
-                            color: Colors.white,
+                          child: ValueListenableBuilder<bool>(
+                            valueListenable: _composer.hasText,
+                            builder:
+                                (context, hasText, _) => Icon(
+                                  hasText ? Icons.send : Icons.mic,
+                                  color: Colors.white,
+                                ),
                           ),
                         ),
                       ),
@@ -969,33 +995,71 @@ class _ChatScreenState extends State<ChatScreen> {
     );
   }
 
-  Future<void> _clearChat() async {
-    try {
-      final chatId = getChatId(widget.currentUserId, widget.peerId);
-      final chatRef = FirebaseFirestore.instance
-          .collection('messages')
-          .doc(chatId)
-          .collection('chats');
-
-      final messagesSnapshot = await chatRef.get();
-      final batch = FirebaseFirestore.instance.batch();
+  /// Searches this chat and scrolls to the message picked, loading the
+  /// history up to it if needed.
+  Future<void> _openSearch() async {
+    final hit = await Navigator.push<SearchHit>(
+      context,
+      MaterialPageRoute(
+        builder:
+            (_) => MessageSearchPage(
+              chat: _messageWindow.collection.path,
+              title: localContactName ?? widget.peerName,
+            ),
+      ),
+    );
+    if (hit == null || !mounted) return;
+    final found = await _messageWindow.reveal(
+      hit.id,
+      Timestamp.fromDate(hit.time),
+    );
+    final index = _messageWindow.indexOf(hit.id);
+    if (!mounted) return;
+    if (!found || index == null) {
+      Fluttertoast.showToast(msg: 'Message is no longer available');
+      return;
+    }
+    setState(() => _revealer.id = hit.id);
+    final count = _messageWindow.messages.length;
+    // The list is reversed: scroll order runs from the newest message.
+    await _revealer.reveal(
+      _scrollController,
+      index: count - 1 - index,
+      count: count,
+    );
+    await Future<void>.delayed(const Duration(seconds: 2));
+    if (mounted) setState(() => _revealer.id = null);
+  }
 
-      for (final doc in messagesSnapshot.docs) {
-        batch.delete(doc.reference);
+  Future<void> _clearChat() async {
+    final chatId = getChatId(widget.currentUserId, widget.peerId);
+    final collection = 'messages/$chatId/chats';
+    final engine = PurgeEngine.instance;
+    void showProgress() {
+      final progress = engine.jobFor(collection)?.progress;
+      if (progress != null) {
+        EasyLoading.showProgress(progress, status: 'Clearing chat...');
       }
+    }
 
-      final senderChatRef = FirebaseFirestore.instance
-          .collection('chatList')
-          .doc(widget.currentUserId)
-          .collection('chats')
-          .doc(widget.peerId);
-      batch.delete(senderChatRef);
-
-      await batch.commit();
-      Navigator.of(context).pop();
+    engine.addListener(showProgress);
+    try {
+      await engine.purge(
+        collection,
+        thenDelete: [
+          'chatList/${widget.currentUserId}/chats/${widget.peerId}',
+        ],
+      );
+      await MessageStore.instance.clear(chatId);
+      await MessageSearch.instance.removeChat(collection);
+      EasyLoading.dismiss();
+      if (mounted) Navigator.of(context).pop();
       Fluttertoast.showToast(msg: 'Chat cleared');
     } catch (e) {
+      EasyLoading.dismiss();
       Fluttertoast.showToast(msg: 'Error clearing chat: $e');
+    } finally {
+      engine.removeListener(showProgress);
     }
   }
 
@@ -1021,125 +1085,42 @@ class _ChatScreenState extends State<ChatScreen> {
     }
   }
 
-  Future<void> _updateChatList(String lastMessage, FieldValue timestamp) async {
-    await _firestore
-        .collection('chatList')
-        .doc(widget.currentUserId)
-        .collection('chats')
-        .doc(widget.peerId)
-        .set({
-          'peerId': widget.peerId,
-          'peerName': widget.peerName,
-          'peerMobile': widget.PeerMobile,
-          'lastMessage': lastMessage,
-          'timestamp': timestamp,
-          'unreadCount': 0,
-        });
-
-    final receiverRef = _firestore
-        .collection('chatList')
-        .doc(widget.peerId)
-        .collection('chats')
-        .doc(widget.currentUserId);
-
-    final receiverSnapshot = await receiverRef.get();
-    int unreadCount = 1;
-    if (receiverSnapshot.exists) {
-      unreadCount = (receiverSnapshot.data()?['unreadCount'] ?? 0) + 1;
-    }
-
-    await receiverRef.set({
-      'peerId': widget.currentUserId,
-      'peerName': currentUserName,
-      'peerMobile': currentUserMobile,
-      'lastMessage': lastMessage,
-      'timestamp': timestamp,
-      'unreadCount': unreadCount,
-    });
-  }
-
   Future<void> _sendImageMessage(File imageFile) async {
+    if (isBlocked) {
+      Fluttertoast.showToast(msg: "You have blocked this user");
+      return;
+    }
     try {
-      //  Compress image
-      final compressedBytes = await FlutterImageCompress.compressWithFile(
-        imageFile.absolute.path,
-        minWidth: 640,
-        minHeight: 640,
-        quality: 50, // adjust if needed
+      //  Compress natively, encode to base64 on a worker isolate
+      final base64Image = await MediaWorkers.instance.compressToBase64(
+        imageFile,
       );
 
-      if (compressedBytes == null) {
+      if (base64Image == null) {
         Fluttertoast.showToast(msg: "Image compression failed");
         return;
       }
 
-      //  Encode to base64
-      final base64Image = base64Encode(compressedBytes);
-
       // Optional: print length (Firestore doc must be <1MB)
       print("Base64 size = ${base64Image.length} chars");
 
       final chatId = getChatId(widget.currentUserId, widget.peerId);
-      final timestamp = FieldValue.serverTimestamp();
-
-      final messageData = {
-        'senderId': widget.currentUserId,
-        'receiverId': widget.peerId,
-        'imageData': base64Image,
-        'type': 'image',
-        'timestamp': timestamp,
-        'isRead': false,
-        'senderName': currentUserName,
-        'receiverName': widget.peerName,
-        'locationSharedAt': FieldValue.serverTimestamp(),
-      };
-
-      // /messages/chatId/chats
-      await _firestore
-          .collection('messages')
-          .doc(chatId)
-          .collection('chats')
-          .add(messageData);
-
-      //  Update chatList (sender)
-      await _firestore
-          .collection('chatList')
-          .doc(widget.currentUserId)
-          .collection('chats')
-          .doc(widget.peerId)
-          .set({
-            'peerId': widget.peerId,
-            'peerName': widget.peerName,
-            'peerMobile': widget.PeerMobile,
-            'lastMessage': '[Image]',
-            'type': 'image',
-            'imageData': base64Image,
-            'timestamp': timestamp,
-            'unreadCount': 0,
-          });
-
-      // Update chatList (receiver)
-      final receiverRef = _firestore
-          .collection('chatList')
-          .doc(widget.peerId)
-          .collection('chats')
-          .doc(widget.currentUserId);
-      final snapshot = await receiverRef.get();
-      int unreadCount = 1;
-      if (snapshot.exists) {
-        unreadCount = (snapshot['unreadCount'] ?? 0) + 1;
-      }
 
-      await receiverRef.set({
-        'peerId': widget.currentUserId,
-        'peerName': currentUserName,
-        'peerMobile': currentUserMobile,
-        'lastMessage': '[Image]',
-        'type': 'image',
-        'imageData': base64Image,
-        'timestamp': timestamp,
-        'unreadCount': unreadCount,
-      });
+      final messageData = ChatMessage.compact(
+        senderId: widget.currentUserId,
+        type: 'image',
+        imageData: base64Image,
+        timestamp: FieldValue.serverTimestamp(),
+      );
+
+      // /messages/chatId/chats and both chatList entries in one commit
+      await _chatSender.send(
+        chatId: chatId,
+        message: messageData,
+        senderId: widget.currentUserId,
+        peerId: widget.peerId,
+        summary: ChatSender.summaryFor('image'),
+      );
 
       Fluttertoast.showToast(msg: "Image sent successfully");
     } catch (e, stack) {
@@ -1152,9 +1133,13 @@ class _ChatScreenState extends State<ChatScreen> {
 
 class ImagePreviewPage2 extends StatefulWidget {
   final String base64ImageData;
+  final String? messageId;
 
-  const ImagePreviewPage2({Key? key, required this.base64ImageData})
-    : super(key: key);
+  const ImagePreviewPage2({
+    Key? key,
+    required this.base64ImageData,
+    this.messageId,
+  }) : super(key: key);
 
   @override
   State<ImagePreviewPage2> createState() => _ImagePreviewPage2State();
@@ -1163,7 +1148,10 @@ class ImagePreviewPage2 extends StatefulWidget {
 class _ImagePreviewPage2State extends State<ImagePreviewPage2> {
   @override
   Widget build(BuildContext context) {
-    final imageBytes = base64Decode(widget.base64ImageData);
+    final image = Base64Image(
+      widget.base64ImageData,
+      cacheKey: widget.messageId ?? '${widget.base64ImageData.hashCode}',
+    );
 
     return Scaffold(
       backgroundColor: Colors.black,
@@ -1175,7 +1163,7 @@ class _ImagePreviewPage2State extends State<ImagePreviewPage2> {
               minScale: 0.8,
               maxScale: 4.0,
               child: Center(
-                child: Image.memory(imageBytes, fit: BoxFit.contain),
+                child: Image(image: image, fit: BoxFit.contain),
               ),
             ),
           ),
@@ -1,22 +1,19 @@
-import 'dart:convert';
-
 import 'package:cloud_firestore/cloud_firestore.dart';
-import 'package:collection/collection.dart';
 import 'package:firebase_auth/firebase_auth.dart';
 import 'package:flutter/material.dart';
-import 'package:flutter_contacts/flutter_contacts.dart';
 
+import '../../services/chat_sender.dart';
+import '../../services/contact_index.dart';
+import '../../services/profile_photos.dart';
 import '../chats/Chat_page.dart';
 
 class ArchivedChatsPage extends StatelessWidget {
   final List<QueryDocumentSnapshot> archivedChats;
-  final List<Contact>? phoneContacts;
   final User currentUser;
 
   const ArchivedChatsPage({
     super.key,
     required this.archivedChats,
-    required this.phoneContacts,
     required this.currentUser,
   });
 
@@ -33,56 +30,27 @@ class ArchivedChatsPage extends StatelessWidget {
           final doc = archivedChats[index];
           final chatData = doc.data() as Map<String, dynamic>;
           final peerId = chatData['peerId'];
-          final peerName = chatData['peerName'] ?? '';
-          final peerMobile = chatData['peerMobile'] ?? '';
           final lastMessage = chatData['lastMessage'] ?? '';
 
-          String displayName = '';
-          if (phoneContacts != null) {
-            final matchedContact = phoneContacts!.firstWhereOrNull((contact) {
-              return contact.phones.any((phone) {
-                final contactNum = phone.number
-                    .replaceAll(RegExp(r'\D'), '')
-                    .replaceAll('91', '');
-                final firebaseNum = peerMobile
-                    .replaceAll(RegExp(r'\D'), '')
-                    .replaceAll('91', '');
-                return contactNum.endsWith(firebaseNum) ||
-                    firebaseNum.endsWith(contactNum);
-              });
-            });
-
-            if (matchedContact != null) {
-              displayName = matchedContact.displayName;
-            }
-          }
-
-          if (displayName.isEmpty) {
-            displayName =
-                peerName.isNotEmpty
-                    ? peerName
-                    : (peerMobile.startsWith('+91')
-                        ? peerMobile.substring(3)
-                        : peerMobile);
-          }
-
-          return FutureBuilder<DocumentSnapshot>(
-            future:
-                FirebaseFirestore.instance
-                    .collection('client')
-                    .doc(peerId)
-                    .get(),
+          return FutureBuilder<ImageProvider?>(
+            future: ProfilePhotos.instance.forUser(peerId),
+            initialData: ProfilePhotos.instance.peekUser(peerId),
             builder: (context, snapshot) {
-              ImageProvider? avatar;
-              if (snapshot.hasData && snapshot.data!.exists) {
-                final clientData =
-                    snapshot.data!.data() as Map<String, dynamic>;
-                final profileBase64 = clientData['profile_photo_base64'] ?? '';
-                if (profileBase64.isNotEmpty) {
-                  try {
-                    avatar = MemoryImage(base64Decode(profileBase64));
-                  } catch (_) {}
-                }
+              final avatar = snapshot.data;
+              // Older entries carry the peer's name and number; newer ones
+              // are resolved from client/{peerId}, which forUser has just
+              // loaded for the avatar.
+              final peerName = ChatSender.peerNameOf(chatData);
+              final peerMobile = ChatSender.peerMobileOf(chatData);
+              var displayName =
+                  ContactIndex.instance.lookup(peerMobile)?.displayName ?? '';
+              if (displayName.isEmpty) {
+                displayName =
+                    peerName.isNotEmpty
+                        ? peerName
+                        : (peerMobile.startsWith('+91')
+                            ? peerMobile.substring(3)
+                            : peerMobile);
               }
 
               return GestureDetector(
@@ -0,0 +1,200 @@
+import 'dart:async';
+
+import 'package:flutter/material.dart';
+import 'package:intl/intl.dart';
+
+import '../../services/message_search.dart';
+
+/// Searches the messages of one chat and pops with the [SearchHit] the user
+/// taps, for the chat screen to scroll to.
+class MessageSearchPage extends StatefulWidget {
+  const MessageSearchPage({super.key, required this.chat, required this.title});
+
+  /// The chat's messages collection path, as indexed by [MessageSearch].
+  final String chat;
+  final String title;
+
+  @override
+  State<MessageSearchPage> createState() => _MessageSearchPageState();
+}
+
+class _MessageSearchPageState extends State<MessageSearchPage> {
+  final TextEditingController _query = TextEditingController();
+  Timer? _debounce;
+  List<SearchHit> _hits = const [];
+
+  @override
+  void dispose() {
+    _debounce?.cancel();
+    _query.dispose();
+    super.dispose();
+  }
+
+  void _onChanged(String text) {
+    _debounce?.cancel();
+    _debounce = Timer(const Duration(milliseconds: 150), () => _run(text));
+  }
+
+  Future<void> _run(String text) async {
+    final hits = await MessageSearch.instance.search(text, chat: widget.chat);
+    // A slower query for older text must not replace newer results.
+    if (!mounted || text != _query.text) return;
+    setState(() => _hits = hits);
+  }
+
+  /// The snippet with matched words in bold.
+  Widget _snippet(String snippet) {
+    final spans = <TextSpan>[];
+    var bold = false;
+    final marks = RegExp('[${SearchHit.matchStart}${SearchHit.matchEnd}]');
+    for (final part in snippet.split(marks)) {
+      if (part.isNotEmpty) {
+        spans.add(
+          TextSpan(
+            text: part,
+            style: bold ? const TextStyle(fontWeight: FontWeight.bold) : null,
+          ),
+        );
+      }
+      bold = !bold;
+    }
+    return Text.rich(
+      TextSpan(children: spans),
+      maxLines: 2,
+      overflow: TextOverflow.ellipsis,
+    );
+  }
+
+  @override
+  Widget build(BuildContext context) {
+    return Scaffold(
+      appBar: AppBar(
+        title: TextField(
+          controller: _query,
+          autofocus: true,
+          textInputAction: TextInputAction.search,
+          onChanged: _onChanged,
+          decoration: InputDecoration(
+            hintText: 'Search ${widget.title}',
+            border: InputBorder.none,
+          ),
+        ),
+      ),
+      body:
+          _hits.isEmpty
+              ? Center(
+                child: Text(
+                  _query.text.trim().isEmpty ? '' : 'No messages found',
+                  style: const TextStyle(color: Colors.grey),
+                ),
+              )
+              : ListView.separated(
+                itemCount: _hits.length,
+                separatorBuilder: (_, __) => const Divider(height: 1),
+                itemBuilder: (context, index) {
+                  final hit = _hits[index];
+                  return ListTile(
+                    title: _snippet(hit.snippet),
+                    subtitle: Text(
+                      DateFormat('dd MMM yyyy, hh:mm a').format(hit.time),
+                    ),
+                    onTap: () => Navigator.pop(context, hit),
+                  );
+                },
+              ),
+    );
+  }
+}
+
+/// Scrolls a lazily built message list to one row and marks it.
+///
+/// Rows far from the viewport have no element yet, so the row cannot be
+/// looked up directly. [reveal] jumps to an estimate from the row's index,
+/// then steps a viewport at a time towards it, using the indices the list
+/// reported through [built], until the row exists and can be centred.
+class RowRevealer {
+  /// Carried by the highlighted row only.
+  final GlobalKey key = GlobalKey();
+
+  /// The message to highlight, while one is.
+  String? id;
+
+  int? _min;
+  int? _max;
+  int _lastDirection = 1;
+
+  /// The list built the row at [index]; called from its item builder.
+  void built(int index) {
+    final min = _min;
+    final max = _max;
+    if (min == null || index < min) _min = index;
+    if (max == null || index > max) _max = index;
+  }
+
+  /// [row] marked as the highlighted one.
+  Widget wrap(Widget row) {
+    return DecoratedBox(
+      key: key,
+      decoration: BoxDecoration(
+        color: Colors.amber.withOpacity(0.35),
+        borderRadius: BorderRadius.circular(12),
+      ),
+      child: row,
+    );
+  }
+
+  /// Which way the row at [index] lies from the rows built since the last
+  /// call: 1 towards larger scroll offsets, -1 smaller, 0 if it should have
+  /// been built.
+  int _directionTo(int index) {
+    final min = _min;
+    final max = _max;
+    _min = _max = null;
+    if (min == null || max == null) return _lastDirection;
+    if (index > max) return _lastDirection = 1;
+    if (index < min) return _lastDirection = -1;
+    return 0;
+  }
+
+  /// Scrolls [controller] until the row at [index] of [count], in scroll
+  /// order, is built, then centres it. Its item builder must [wrap] the row
+  /// whose message is [id].
+  Future<bool> reveal(
+    ScrollController controller, {
+    required int index,
+    required int count,
+    int maxSteps = 60,
+  }) async {
+    if (!controller.hasClients || count == 0) return false;
+    var position = controller.position;
+    _min = _max = null;
+    position.jumpTo(
+      (position.maxScrollExtent * index / count).clamp(
+        position.minScrollExtent,
+        position.maxScrollExtent,
+      ),
+    );
+    for (var step = 0; step < maxSteps; step++) {
+      await WidgetsBinding.instance.endOfFrame;
+      final context = key.currentContext;
+      if (context != null && context.mounted) {
+        await Scrollable.ensureVisible(
+          context,
+          alignment: 0.5,
+          duration: const Duration(milliseconds: 250),
+        );
+        return true;
+      }
+      if (!controller.hasClients) return false;
+      position = controller.position;
+      final direction = _directionTo(index);
+      if (direction == 0) return false;
+      final next = (position.pixels +
+              direction * position.viewportDimension * 0.8)
+          .clamp(position.minScrollExtent, position.maxScrollExtent);
+      if (next == position.pixels) return false;
+      position.jumpTo(next);
+    }
+    return false;
+  }
+}
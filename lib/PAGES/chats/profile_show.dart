@@ -3,6 +3,9 @@ import 'dart:convert';
 import 'package:cloud_firestore/cloud_firestore.dart';
 import 'package:flutter/material.dart';
 
+import '../../services/chat_message.dart';
+import '../../services/profile_photos.dart';
+import '../../services/user_directory.dart';
 import '../calls_page/Join_Channel_Audio.dart';
 import '../calls_page/join_channel_video.dart';
 
@@ -72,18 +75,17 @@ class UserProfilePage extends StatelessWidget {
         title: Text(userName, style: const TextStyle(color: Colors.white)),
         iconTheme: const IconThemeData(color: Colors.white),
       ),
-      body: FutureBuilder<DocumentSnapshot>(
-        future:
-            FirebaseFirestore.instance.collection('client').doc(userId).get(),
+      body: FutureBuilder<Map<String, dynamic>?>(
+        future: UserDirectory.instance.user(userId),
         builder: (context, snapshot) {
-          if (!snapshot.hasData) {
+          if (snapshot.connectionState != ConnectionState.done) {
             return const Center(
               child: CircularProgressIndicator(color: Colors.white),
             );
           }
 
-          final rawData = snapshot.data!.data();
-          if (rawData == null || rawData is! Map<String, dynamic>) {
+          final rawData = snapshot.data;
+          if (rawData == null) {
             return const Center(
               child: Text(
                 "User data not found",
@@ -92,7 +94,6 @@ class UserProfilePage extends StatelessWidget {
             );
           }
 
-          final String? base64Image = rawData['profile_photo_base64'];
           final String company = rawData['company_name'] ?? '';
           final String address = rawData['address'] ?? '';
           final String city = rawData['city'] ?? '';
@@ -108,21 +109,29 @@ class UserProfilePage extends StatelessWidget {
             padding: const EdgeInsets.symmetric(horizontal: 20, vertical: 16),
             child: Column(
               children: [
-                CircleAvatar(
-                  radius: 60,
-                  backgroundImage:
-                      base64Image != null
-                          ? MemoryImage(base64Decode(base64Image))
-                          : null,
-                  backgroundColor: Colors.white24,
-                  child:
-                      base64Image == null
-                          ? const Icon(
-                            Icons.person,
-                            size: 60,
-                            color: Colors.white,
-                          )
-                          : null,
+                FutureBuilder<ImageProvider?>(
+                  future: ProfilePhotos.instance.load(
+                    rawData,
+                    size: ProfilePhotos.medium,
+                  ),
+                  initialData: ProfilePhotos.instance.peek(
+                    rawData,
+                    size: ProfilePhotos.medium,
+                  ),
+                  builder:
+                      (context, photo) => CircleAvatar(
+                        radius: 60,
+                        backgroundImage: photo.data,
+                        backgroundColor: Colors.white24,
+                        child:
+                            photo.data == null
+                                ? const Icon(
+                                  Icons.person,
+                                  size: 60,
+                                  color: Colors.white,
+                                )
+                                : null,
+                      ),
                 ),
                 const SizedBox(height: 16),
                 Text(
@@ -300,7 +309,15 @@ class _MediaPreviewSection extends StatelessWidget {
               .collection('messages')
               .doc(userId)
               .collection('chats')
-              .where('type', isEqualTo: 'image')
+              .where(
+                Filter.or(
+                  Filter('type', isEqualTo: 'image'),
+                  Filter(
+                    ChatMessage.kindKey,
+                    isEqualTo: ChatMessage.kindTag('image'),
+                  ),
+                ),
+              )
               .limit(10)
               .get(),
       builder: (context, snapshot) {
@@ -312,8 +329,10 @@ class _MediaPreviewSection extends StatelessWidget {
             snapshot.data!.docs
                 .map(
                   (doc) =>
-                      (doc.data() as Map<String, dynamic>)['imageData']
-                          as String?,
+                      ChatMessage.fromMap(
+                        doc.id,
+                        doc.data() as Map<String, dynamic>,
+                      ).imageData,
                 )
                 .where((img) => img != null)
                 .toList();
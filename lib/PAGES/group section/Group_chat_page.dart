@@ -1,16 +1,25 @@
-import 'dart:convert';
 import 'dart:io';
 
 import 'package:cloud_firestore/cloud_firestore.dart';
 import 'package:flutter/material.dart';
 import 'package:flutter_contacts/contact.dart';
-import 'package:flutter_image_compress/flutter_image_compress.dart';
+import 'package:flutter_easyloading/flutter_easyloading.dart';
 import 'package:fluttertoast/fluttertoast.dart';
 import 'package:get/get.dart';
-import 'package:intl/intl.dart';
 
+import '../../services/base64_image.dart';
+import '../../services/firestore_metrics.dart';
+import '../../services/group_fanout.dart';
+import '../../services/group_preview.dart';
+import '../../services/group_timeline.dart';
+import '../../services/media_workers.dart';
+import '../../services/message_search.dart';
+import '../../services/purge_engine.dart';
+import '../../services/user_directory.dart';
 import '../chats/camera_in_chat.dart';
 import '../chats/group_info.dart';
+import '../chats/message_search_page.dart';
+import 'group_timeline_view.dart';
 import 'group_video_call.dart';
 import 'group_voice_call.dart';
 import 'groupimagesend.dart';
@@ -38,6 +47,9 @@ class GroupChatScreen extends StatefulWidget {
 class _GroupChatScreenState extends State<GroupChatScreen> {
   final TextEditingController _messageController = TextEditingController();
   final FirebaseFirestore _firestore = FirebaseFirestore.instance;
+  final GroupTimeline _timeline = GroupTimeline();
+  final ScrollController _scrollController = ScrollController();
+  final RowRevealer _revealer = RowRevealer();
   String? groupImageBase64;
   bool isTyping = false;
   String? senderPhoneNumber;
@@ -45,6 +57,12 @@ class _GroupChatScreenState extends State<GroupChatScreen> {
   @override
   void initState() {
     super.initState();
+    _timeline.listen(
+      _firestore
+          .collection('groups')
+          .doc(widget.groupId)
+          .collection('messages'),
+    );
     _loadGroupImage();
     _loadSenderPhone();
     _messageController.addListener(() {
@@ -54,8 +72,20 @@ class _GroupChatScreenState extends State<GroupChatScreen> {
     });
   }
 
+  @override
+  void dispose() {
+    _timeline.dispose();
+    _scrollController.dispose();
+    _messageController.dispose();
+    super.dispose();
+  }
+
   void _loadGroupImage() async {
-    final doc = await _firestore.collection('groups').doc(widget.groupId).get();
+    final doc =
+        await _firestore
+            .collection('groups')
+            .doc(widget.groupId)
+            .trackedGet();
     if (doc.exists) {
       final data = doc.data()!;
       setState(() {
@@ -65,10 +95,11 @@ class _GroupChatScreenState extends State<GroupChatScreen> {
   }
 
   void _loadSenderPhone() async {
-    final userDoc =
-        await _firestore.collection('users').doc(widget.currentUserId).get();
-    if (userDoc.exists && userDoc.data()!.containsKey('phoneNumber')) {
-      senderPhoneNumber = userDoc['phoneNumber'];
+    final user = await UserDirectory.instance.doc(
+      'users/${widget.currentUserId}',
+    );
+    if (user != null && user.containsKey('phoneNumber')) {
+      senderPhoneNumber = user['phoneNumber'];
     }
   }
 
@@ -76,39 +107,47 @@ class _GroupChatScreenState extends State<GroupChatScreen> {
     final text = _messageController.text.trim();
     if (text.isEmpty) return;
 
-    final userDoc =
-        await _firestore.collection('client').doc(widget.currentUserId).get();
-    final firstName = userDoc['first_name'] ?? widget.currentUserName;
-    final phone = userDoc['phone'] ?? "";
+    final user = await UserDirectory.instance.user(widget.currentUserId);
+    final firstName = user?['first_name'] ?? widget.currentUserName;
+    final phone = user?['phone'] ?? "";
 
-    await _firestore
-        .collection('groups')
-        .doc(widget.groupId)
-        .collection('messages')
-        .add({
-          'text': text,
-          'senderName': firstName,
-          'senderId': widget.currentUserId,
-          'senderPhone': phone,
-          'timestamp': FieldValue.serverTimestamp(),
-        });
+    final sent = await _sendToGroup(
+      {
+        'text': text,
+        'senderName': firstName,
+        'senderId': widget.currentUserId,
+        'senderPhone': phone,
+        'timestamp': FieldValue.serverTimestamp(),
+      },
+      preview: text,
+    );
+    if (!sent) {
+      Fluttertoast.showToast(msg: "Failed to send message");
+      return;
+    }
 
     _messageController.clear();
   }
 
-  String _getFormattedDate(DateTime timestamp) {
-    final now = DateTime.now();
-    if (timestamp.year == now.year &&
-        timestamp.month == now.month &&
-        timestamp.day == now.day) {
-      return "Today";
-    } else if (timestamp.year == now.year &&
-        timestamp.month == now.month &&
-        timestamp.day == now.day - 1) {
-      return "Yesterday";
-    } else {
-      return DateFormat('dd MMM yyyy').format(timestamp);
-    }
+  /// Writes [message] through [GroupFanout], which retries the commit if it
+  /// fails, then hands [preview] to [GroupPreview]; the group doc is not
+  /// part of the message batch.
+  Future<bool> _sendToGroup(
+    Map<String, dynamic> message, {
+    required String preview,
+  }) async {
+    final messageRef = _firestore
+        .collection('groups')
+        .doc(widget.groupId)
+        .collection('messages')
+        .doc();
+    final report = await GroupFanout.instance.fanOut(
+      path: 'groups/*/messages',
+      headWrites: 1,
+      head: (batch) => batch.set(messageRef, message),
+    );
+    if (report.ok) GroupPreview.instance.update(widget.groupId, preview);
+    return report.ok;
   }
 
   String getDisplayName(String senderPhone, String? fallbackName) {
@@ -138,7 +177,7 @@ class _GroupChatScreenState extends State<GroupChatScreen> {
     }
   }
 
-  Widget buildMessageBubble(Map<String, dynamic> data, bool isMe) {
+  Widget buildMessageBubble(String id, Map<String, dynamic> data, bool isMe) {
     String displayName = 'You';
 
     if (!isMe) {
@@ -170,11 +209,17 @@ class _GroupChatScreenState extends State<GroupChatScreen> {
               const SizedBox(height: 5),
               ClipRRect(
                 borderRadius: BorderRadius.circular(12),
-                child: Image.memory(
-                  base64Decode(data['imageData']),
+                child: Image(
+                  image: Base64Image(
+                    data['imageData'],
+                    cacheKey: id,
+                    targetWidth:
+                        (180 * MediaQuery.devicePixelRatioOf(context)).round(),
+                  ),
                   width: 180,
                   height: 180,
                   fit: BoxFit.cover,
+                  gaplessPlayback: true,
                 ),
               ),
             ],
@@ -215,32 +260,76 @@ class _GroupChatScreenState extends State<GroupChatScreen> {
     );
   }
 
-  Future<void> clearGroupChat() async {
-    final ref = _firestore
-        .collection('groups')
-        .doc(widget.groupId)
-        .collection('messages');
-    final snapshot = await ref.get();
-    final batch = _firestore.batch();
-    for (var doc in snapshot.docs) {
-      batch.delete(doc.reference);
+  String get _messagesPath => 'groups/${widget.groupId}/messages';
+
+  /// Searches this group's messages and scrolls to the one picked.
+  Future<void> _openSearch() async {
+    final hit = await Navigator.push<SearchHit>(
+      context,
+      MaterialPageRoute(
+        builder:
+            (_) => MessageSearchPage(
+              chat: _messagesPath,
+              title: widget.groupName,
+            ),
+      ),
+    );
+    final index = hit == null ? null : _timeline.positionOf(hit.id);
+    if (hit == null || !mounted) return;
+    if (index == null) {
+      Fluttertoast.showToast(msg: 'Message is no longer available');
+      return;
+    }
+    setState(() => _revealer.id = hit.id);
+    await _revealer.reveal(
+      _scrollController,
+      index: index,
+      count: _timeline.length,
+    );
+    await Future<void>.delayed(const Duration(seconds: 2));
+    if (mounted) setState(() => _revealer.id = null);
+  }
+
+  /// Runs a purge of this group's messages with a progress overlay.
+  Future<bool> _purgeMessages({List<String> thenDelete = const []}) async {
+    final collection = _messagesPath;
+    final engine = PurgeEngine.instance;
+    void showProgress() {
+      final progress = engine.jobFor(collection)?.progress;
+      if (progress != null) {
+        EasyLoading.showProgress(progress, status: 'Deleting messages...');
+      }
+    }
+
+    engine.addListener(showProgress);
+    try {
+      await engine.purge(collection, thenDelete: thenDelete);
+      EasyLoading.dismiss();
+      return true;
+    } catch (e) {
+      EasyLoading.dismiss();
+      Fluttertoast.showToast(msg: 'Error deleting messages: $e');
+      return false;
+    } finally {
+      engine.removeListener(showProgress);
     }
-    await batch.commit();
+  }
+
+  Future<void> clearGroupChat() async {
+    if (!await _purgeMessages()) return;
+    MessageSearch.instance.removeChat(_messagesPath);
+    if (!mounted) return;
     ScaffoldMessenger.of(
       context,
     ).showSnackBar(const SnackBar(content: Text("Group chat cleared")));
   }
 
   Future<void> deleteGroup() async {
-    final ref = _firestore.collection('groups').doc(widget.groupId);
-    final messages = await ref.collection('messages').get();
-    final batch = _firestore.batch();
-    for (final doc in messages.docs) {
-      batch.delete(doc.reference);
-    }
-    batch.delete(ref);
-    await batch.commit();
-    if (mounted) {
+    final deleted = await _purgeMessages(
+      thenDelete: ['groups/${widget.groupId}'],
+    );
+    if (deleted) MessageSearch.instance.removeChat(_messagesPath);
+    if (deleted && mounted) {
       Navigator.pop(context);
       ScaffoldMessenger.of(
         context,
@@ -250,27 +339,41 @@ class _GroupChatScreenState extends State<GroupChatScreen> {
 
   Future<void> startGroupCall({required bool isVideo}) async {
     final groupDoc =
-        await _firestore.collection('groups').doc(widget.groupId).get();
+        await _firestore
+            .collection('groups')
+            .doc(widget.groupId)
+            .trackedGet();
     if (!groupDoc.exists) return;
     final data = groupDoc.data()!;
     final List members = data['members'] ?? [];
 
-    for (String uid in members) {
-      if (uid != widget.currentUserId) {
-        await _firestore
-            .collection('users')
-            .doc(uid)
-            .collection('incomingCalls')
-            .add({
-              'groupId': widget.groupId,
-              'groupName': widget.groupName,
-              'callerId': widget.currentUserId,
-              'callerName': widget.currentUserName,
-              'isVideo': isVideo,
-              'timestamp': FieldValue.serverTimestamp(),
-            });
-      }
-    }
+    // One id for the whole call, so a retried chunk rewrites the same
+    // invitation. Invitations keep going out in the background while the
+    // call screen opens.
+    final callId = _firestore.collection('groups').doc().id;
+    final invite = {
+      'groupId': widget.groupId,
+      'groupName': widget.groupName,
+      'callerId': widget.currentUserId,
+      'callerName': widget.currentUserName,
+      'isVideo': isVideo,
+      'timestamp': FieldValue.serverTimestamp(),
+    };
+    GroupFanout.instance.fanOut(
+      path: 'users/*/incomingCalls',
+      recipients: members.whereType<String>().where(
+        (uid) => uid != widget.currentUserId,
+      ),
+      write:
+          (batch, uid) => batch.set(
+            _firestore
+                .collection('users')
+                .doc(uid)
+                .collection('incomingCalls')
+                .doc(callId),
+            invite,
+          ),
+    );
 
     if (isVideo) {
       Get.to(() => JoinChannelGroupVideo(groupName: widget.groupName));
@@ -281,31 +384,24 @@ class _GroupChatScreenState extends State<GroupChatScreen> {
 
   Future<void> sendGroupImageMessage(File imageFile) async {
     try {
-      // Compress
-      final compressedBytes = await FlutterImageCompress.compressWithFile(
-        imageFile.absolute.path,
-        minWidth: 640,
-        minHeight: 640,
-        quality: 50,
+      // Compress natively, base64 encode on a worker isolate
+      final base64Image = await MediaWorkers.instance.compressToBase64(
+        imageFile,
       );
 
-      if (compressedBytes == null) {
+      if (base64Image == null) {
         Fluttertoast.showToast(msg: "Image compression failed");
         return;
       }
-
-      // Base64 encode
-      final base64Image = base64Encode(compressedBytes);
       if (base64Image.length > 1000000) {
         Fluttertoast.showToast(msg: "Image too large. Try smaller image.");
         return;
       }
 
       // Get user data from `client`
-      final userDoc =
-          await _firestore.collection('client').doc(widget.currentUserId).get();
-      final senderName = userDoc['first_name'] ?? widget.currentUserName;
-      final senderPhone = userDoc['phone'] ?? '';
+      final user = await UserDirectory.instance.user(widget.currentUserId);
+      final senderName = user?['first_name'] ?? widget.currentUserName;
+      final senderPhone = user?['phone'] ?? '';
 
       final imageMessage = {
         'senderId': widget.currentUserId,
@@ -317,11 +413,10 @@ class _GroupChatScreenState extends State<GroupChatScreen> {
       };
 
       // Save in Firestore
-      await _firestore
-          .collection('groups')
-          .doc(widget.groupId)
-          .collection('messages')
-          .add(imageMessage);
+      if (!await _sendToGroup(imageMessage, preview: '[Image]')) {
+        Fluttertoast.showToast(msg: "Failed to send group image");
+        return;
+      }
 
       Fluttertoast.showToast(msg: "Image sent to group");
     } catch (e) {
@@ -367,8 +462,12 @@ class _GroupChatScreenState extends State<GroupChatScreen> {
                             groupImageBase64!.isNotEmpty)
                           CircleAvatar(
                             radius: 20,
-                            backgroundImage: MemoryImage(
-                              base64Decode(groupImageBase64!),
+                            backgroundImage: Base64Image(
+                              groupImageBase64!,
+                              cacheKey:
+                                  'group:${widget.groupId}:'
+                                  '${groupImageBase64!.hashCode}',
+                              targetWidth: 128,
                             ),
                           )
                         else
@@ -406,11 +505,16 @@ class _GroupChatScreenState extends State<GroupChatScreen> {
 
                   PopupMenuButton<String>(
                     onSelected: (value) async {
+                      if (value == 'search') await _openSearch();
                       if (value == 'clear') await clearGroupChat();
                       if (value == 'delete') await deleteGroup();
                     },
                     itemBuilder:
                         (ctx) => const [
+                          PopupMenuItem(
+                            value: 'search',
+                            child: Text("Search"),
+                          ),
                           PopupMenuItem(
                             value: 'clear',
                             child: Text("Clear Chat"),
@@ -428,57 +532,16 @@ class _GroupChatScreenState extends State<GroupChatScreen> {
 
           // Messages
           Expanded(
-            child: StreamBuilder<QuerySnapshot>(
-              stream:
-                  _firestore
-                      .collection('groups')
-                      .doc(widget.groupId)
-                      .collection('messages')
-                      .orderBy('timestamp', descending: false)
-                      .snapshots(),
-              builder: (context, snapshot) {
-                if (!snapshot.hasData)
-                  return const Center(child: CircularProgressIndicator());
-
-                final docs = snapshot.data!.docs;
-                Map<String, List<DocumentSnapshot>> grouped = {};
-
-                for (final doc in docs) {
-                  final ts =
-                      (doc['timestamp'] as Timestamp?)?.toDate() ??
-                      DateTime.now();
-                  final dateKey = _getFormattedDate(ts);
-                  grouped.putIfAbsent(dateKey, () => []).add(doc);
-                }
-
-                return ListView(
-                  padding: const EdgeInsets.all(12),
-                  children:
-                      grouped.entries.map((entry) {
-                        return Column(
-                          crossAxisAlignment: CrossAxisAlignment.center,
-                          children: [
-                            Padding(
-                              padding: const EdgeInsets.symmetric(vertical: 8),
-                              child: Text(
-                                entry.key,
-                                style: const TextStyle(
-                                  color: Colors.white70,
-                                  fontWeight: FontWeight.bold,
-                                ),
-                              ),
-                            ),
-                            ...entry.value.map((doc) {
-                              final data = doc.data()! as Map<String, dynamic>;
-                              final isMe =
-                                  data['senderId'] == widget.currentUserId;
-                              return buildMessageBubble(data, isMe);
-                            }).toList(),
-                          ],
-                        );
-                      }).toList(),
-                );
-              },
+            child: GroupTimelineView(
+              timeline: _timeline,
+              controller: _scrollController,
+              revealer: _revealer,
+              buildMessage:
+                  (message) => buildMessageBubble(
+                    message.id,
+                    message.data,
+                    message.data['senderId'] == widget.currentUserId,
+                  ),
             ),
           ),
 
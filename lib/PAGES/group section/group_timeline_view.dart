@@ -0,0 +1,196 @@
+import 'package:flutter/material.dart';
+import 'package:intl/intl.dart';
+
+import '../../services/group_timeline.dart';
+import '../../services/message_window.dart' show MessageRowCache;
+import '../chats/message_search_page.dart' show RowRevealer;
+
+/// Lazily built group chat timeline: one sliver group per day with a date
+/// header pinned at the top while that day is on screen.
+///
+/// Rows are built only when they scroll into view and are reused per
+/// message instance, so a group with thousands of messages costs what the
+/// visible rows cost. The list opens at the newest message and follows new
+/// ones while the user is at the bottom; when they have scrolled up,
+/// arrivals below do not move what they are reading.
+class GroupTimelineView extends StatefulWidget {
+  const GroupTimelineView({
+    super.key,
+    required this.timeline,
+    required this.buildMessage,
+    this.controller,
+    this.revealer,
+  });
+
+  final GroupTimeline timeline;
+  final Widget Function(GroupTimelineMessage message) buildMessage;
+  final ScrollController? controller;
+
+  /// Scrolls to and marks a search hit; rows report their position across
+  /// all sections (see [GroupTimeline.positionOf]).
+  final RowRevealer? revealer;
+
+  /// "Today", "Yesterday" or the date of [day].
+  static String dayLabel(DateTime day, [DateTime? now]) {
+    final today = DateUtils.dateOnly(now ?? DateTime.now());
+    // Rounded, as a day across a DST change is 23 or 25 hours long.
+    final days =
+        (today.difference(DateUtils.dateOnly(day)).inHours / 24).round();
+    if (days == 0) return 'Today';
+    if (days == 1) return 'Yesterday';
+    return DateFormat('dd MMM yyyy').format(day);
+  }
+
+  @override
+  State<GroupTimelineView> createState() => _GroupTimelineViewState();
+}
+
+class _GroupTimelineViewState extends State<GroupTimelineView> {
+  /// Distance from the bottom within which new messages are followed.
+  static const double _followSlack = 120;
+
+  final MessageRowCache _rows = MessageRowCache();
+  ScrollController? _ownController;
+  bool _openedAtBottom = false;
+
+  ScrollController get _controller =>
+      widget.controller ?? (_ownController ??= ScrollController());
+
+  @override
+  void initState() {
+    super.initState();
+    widget.timeline.addListener(_onTimelineChanged);
+    if (widget.timeline.hasLoaded) {
+      WidgetsBinding.instance.addPostFrameCallback((_) => _jumpToBottom());
+    }
+  }
+
+  @override
+  void didUpdateWidget(GroupTimelineView oldWidget) {
+    super.didUpdateWidget(oldWidget);
+    if (oldWidget.timeline != widget.timeline) {
+      oldWidget.timeline.removeListener(_onTimelineChanged);
+      widget.timeline.addListener(_onTimelineChanged);
+      _rows.clear();
+    }
+  }
+
+  @override
+  void dispose() {
+    widget.timeline.removeListener(_onTimelineChanged);
+    _ownController?.dispose();
+    super.dispose();
+  }
+
+  void _onTimelineChanged() {
+    // Decided before the rebuild, against the extent the user was looking
+    // at.
+    final follow =
+        !_openedAtBottom ||
+        !_controller.hasClients ||
+        _controller.position.extentAfter <= _followSlack;
+    setState(() {});
+    if (follow) {
+      WidgetsBinding.instance.addPostFrameCallback((_) => _jumpToBottom());
+    }
+  }
+
+  /// Jumps to the newest message. Rows near the end are laid out for the
+  /// first time by the jump and replace the list's estimated extent, so
+  /// this repeats for a few frames until the end stays put.
+  void _jumpToBottom([int attempts = 5]) {
+    if (!mounted || !_controller.hasClients) return;
+    final position = _controller.position;
+    if (position.extentAfter == 0 || attempts == 0) {
+      _openedAtBottom = true;
+      return;
+    }
+    position.jumpTo(position.maxScrollExtent);
+    WidgetsBinding.instance.addPostFrameCallback(
+      (_) => _jumpToBottom(attempts - 1),
+    );
+  }
+
+  Widget _header(DateTime day) {
+    return Center(
+      child: Container(
+        margin: const EdgeInsets.symmetric(vertical: 6),
+        padding: const EdgeInsets.symmetric(horizontal: 10, vertical: 4),
+        decoration: BoxDecoration(
+          color: Colors.black26,
+          borderRadius: BorderRadius.circular(12),
+        ),
+        child: Text(
+          GroupTimelineView.dayLabel(day),
+          style: const TextStyle(
+            color: Colors.white,
+            fontWeight: FontWeight.bold,
+          ),
+        ),
+      ),
+    );
+  }
+
+  Widget _section(TimelineSection section, int before) {
+    final messages = section.messages;
+    final revealer = widget.revealer;
+    return SliverMainAxisGroup(
+      key: ValueKey(section.day),
+      slivers: [
+        PinnedHeaderSliver(child: _header(section.day)),
+        SliverPadding(
+          padding: const EdgeInsets.symmetric(horizontal: 12),
+          sliver: SliverList.builder(
+            itemCount: messages.length,
+            itemBuilder: (context, index) {
+              final message = messages[index];
+              revealer?.built(before + index);
+              if (revealer != null && message.id == revealer.id) {
+                return KeyedSubtree(
+                  key: ValueKey(message.id),
+                  child: revealer.wrap(widget.buildMessage(message)),
+                );
+              }
+              return _rows.row(
+                message,
+                () => KeyedSubtree(
+                  key: ValueKey(message.id),
+                  child: widget.buildMessage(message),
+                ),
+              );
+            },
+            // Rows are keyed by id, so an insertion moves the existing
+            // elements instead of rebuilding them.
+            findChildIndexCallback: (key) {
+              final id = (key as ValueKey<String>).value;
+              final message = widget.timeline[id];
+              if (message == null) return null;
+              final index = section.indexOf(message);
+              return index < 0 ? null : index;
+            },
+          ),
+        ),
+      ],
+    );
+  }
+
+  @override
+  Widget build(BuildContext context) {
+    if (!widget.timeline.hasLoaded) {
+      return const Center(child: CircularProgressIndicator());
+    }
+    final slivers = <Widget>[];
+    var before = 0;
+    for (final section in widget.timeline.sections) {
+      slivers.add(_section(section, before));
+      before += section.length;
+    }
+    return CustomScrollView(
+      controller: _controller,
+      slivers: [
+        ...slivers,
+        const SliverPadding(padding: EdgeInsets.only(bottom: 12)),
+      ],
+    );
+  }
+}
@@ -7,6 +7,9 @@ import 'package:google_maps_flutter/google_maps_flutter.dart';
 import 'package:location/location.dart';
 import 'package:permission_handler/permission_handler.dart';
 
+import '../../services/chat_message.dart';
+import '../../services/live_location.dart';
+
 class GoogleMapScreen extends StatefulWidget {
   final String chatId;
   final String receiverId;
@@ -14,6 +17,9 @@ class GoogleMapScreen extends StatefulWidget {
   final double? sharedLat;
   final double? sharedLng;
 
+  /// The live location message to follow while viewing a live share.
+  final String? liveMessageId;
+
   GoogleMapScreen({
     Key? key,
     required this.chatId,
@@ -21,6 +27,7 @@ class GoogleMapScreen extends StatefulWidget {
     this.isSharedLocationViewOnly = false,
     this.sharedLat,
     this.sharedLng,
+    this.liveMessageId,
   }) : super(key: key);
 
   final currentUser = FirebaseAuth.instance.currentUser;
@@ -33,8 +40,9 @@ class _GoogleMapScreenState extends State<GoogleMapScreen> {
   GoogleMapController? mapController;
   final Location _location = Location();
   LatLng? _currentLatLng;
-  StreamSubscription<LocationData>? _liveLocationSubscription;
-  bool _isSharingLiveLocation = false;
+  StreamSubscription<DocumentSnapshot<Map<String, dynamic>>>? _liveViewSub;
+  bool get _isSharingLiveLocation =>
+      LiveLocationSharing.instance.isSharing(widget.chatId);
   final Set<Marker> _markers = {};
   bool _mapReady = false;
 
@@ -51,6 +59,7 @@ class _GoogleMapScreenState extends State<GoogleMapScreen> {
       _currentLatLng = LatLng(widget.sharedLat!, widget.sharedLng!);
       _updateMarker(_currentLatLng!, 'shared', 'Shared Location');
       setState(() {});
+      _followLiveMessage();
       return;
     }
 
@@ -76,6 +85,37 @@ class _GoogleMapScreenState extends State<GoogleMapScreen> {
     setState(() {});
   }
 
+  /// Moves the marker as the sender's live share updates its message.
+  void _followLiveMessage() {
+    final id = widget.liveMessageId;
+    if (id == null) return;
+    _liveViewSub = FirebaseFirestore.instance
+        .collection('messages')
+        .doc(widget.chatId)
+        .collection('chats')
+        .doc(id)
+        .snapshots()
+        .listen((doc) {
+          if (!doc.exists) return;
+          final message = ChatMessage.fromDoc(doc);
+          final lat = message.lat;
+          final lng = message.lng;
+          if (lat == null || lng == null || !mounted) return;
+          final latLng = LatLng(lat, lng);
+          setState(() {
+            _currentLatLng = latLng;
+            _updateMarker(
+              latLng,
+              'shared',
+              message.isLiveNow ? 'Live Location' : 'Last Location',
+            );
+          });
+          if (_mapReady && mapController != null) {
+            mapController!.animateCamera(CameraUpdate.newLatLng(latLng));
+          }
+        });
+  }
+
   void _onMapCreated(GoogleMapController controller) {
     mapController = controller;
     _mapReady = true;
@@ -108,16 +148,15 @@ class _GoogleMapScreenState extends State<GoogleMapScreen> {
           .collection('messages')
           .doc(widget.chatId)
           .collection('chats')
-          .add({
-            'type': 'location',
-            'lat': _currentLatLng!.latitude,
-            'lng': _currentLatLng!.longitude,
-            'isLive': false,
-            'senderId': FirebaseAuth.instance.currentUser!.uid,
-            'receiverId': widget.receiverId,
-            'timestamp': FieldValue.serverTimestamp(),
-            'locationSharedAt': FieldValue.serverTimestamp(), // ✅ ADDED
-          });
+          .add(
+            ChatMessage.compact(
+              senderId: FirebaseAuth.instance.currentUser!.uid,
+              type: 'location',
+              lat: _currentLatLng!.latitude,
+              lng: _currentLatLng!.longitude,
+              timestamp: FieldValue.serverTimestamp(),
+            ),
+          );
 
       ScaffoldMessenger.of(context).showSnackBar(
         const SnackBar(content: Text("📍 Sent Current Location!")),
@@ -128,9 +167,11 @@ class _GoogleMapScreenState extends State<GoogleMapScreen> {
   }
 
   void _toggleLiveLocation() async {
+    final sharing = LiveLocationSharing.instance;
     if (_isSharingLiveLocation) {
-      await _liveLocationSubscription?.cancel();
-      setState(() => _isSharingLiveLocation = false);
+      await sharing.stop(widget.chatId);
+      if (!mounted) return;
+      setState(() {});
       Navigator.pop(context); // 👈 Navigate back to chat
       return;
     }
@@ -138,49 +179,26 @@ class _GoogleMapScreenState extends State<GoogleMapScreen> {
     final permission = await Permission.locationAlways.request();
     if (!permission.isGranted) return;
 
-    _liveLocationSubscription = _location.onLocationChanged.listen((
-      locationData,
-    ) async {
-      if (locationData.latitude == null || locationData.longitude == null)
-        return;
-
-      LatLng liveLatLng = LatLng(
-        locationData.latitude!,
-        locationData.longitude!,
-      );
-      _currentLatLng = liveLatLng;
-
-      _updateMarker(liveLatLng, 'live', 'Live Location');
+    // Let the platform batch fixes too; the session throttles writes.
+    await _location.changeSettings(interval: 5000, distanceFilter: 10);
+    final first = await _location.getLocation();
+    if (first.latitude == null || first.longitude == null) return;
 
-      if (_mapReady && mapController != null) {
-        mapController!.animateCamera(CameraUpdate.newLatLng(liveLatLng));
-      }
-
-      await FirebaseFirestore.instance
-          .collection('messages')
-          .doc(widget.chatId)
-          .collection('chats')
-          .add({
-            'type': 'location',
-            'lat': liveLatLng.latitude,
-            'lng': liveLatLng.longitude,
-            'isLive': true,
-            'senderId': FirebaseAuth.instance.currentUser!.uid,
-            'receiverId': widget.receiverId,
-            'timestamp': FieldValue.serverTimestamp(),
-            'locationSharedAt': FieldValue.serverTimestamp(), // ✅ ADDED
-          });
-
-      setState(() {});
-    });
+    await sharing.start(
+      chatId: widget.chatId,
+      senderId: FirebaseAuth.instance.currentUser!.uid,
+      first: first,
+      fixes: _location.onLocationChanged,
+    );
 
-    setState(() => _isSharingLiveLocation = true);
+    if (!mounted) return;
+    setState(() {});
     Navigator.pop(context); // 👈 After starting live, navigate back to chat
   }
 
   @override
   void dispose() {
-    _liveLocationSubscription?.cancel();
+    _liveViewSub?.cancel();
     super.dispose();
   }
 
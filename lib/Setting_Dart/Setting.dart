@@ -1,12 +1,11 @@
-import 'dart:convert';
-
-import 'package:cloud_firestore/cloud_firestore.dart';
 import 'package:firebase_auth/firebase_auth.dart';
 import 'package:flutter/material.dart';
 import 'package:get/get.dart';
 
 import '../LoginPages/editprofile page.dart';
 import '../LoginPages/phone_auth.dart';
+import '../services/profile_photos.dart';
+import '../services/user_directory.dart';
 
 class SettingsPage extends StatefulWidget {
   const SettingsPage({super.key, required Map<String, dynamic> client});
@@ -17,6 +16,7 @@ class SettingsPage extends StatefulWidget {
 
 class _SettingsPageState extends State<SettingsPage> {
   Map<String, dynamic>? userData;
+  ImageProvider? _photo;
   String? userUID;
   bool isLoading = true;
   final user = FirebaseAuth.instance.currentUser;
@@ -30,18 +30,27 @@ class _SettingsPageState extends State<SettingsPage> {
     final user = FirebaseAuth.instance.currentUser;
     if (user != null) {
       final uid = user.uid;
-      final doc =
-          await FirebaseFirestore.instance.collection('client').doc(uid).get();
+      final data = await UserDirectory.instance.user(uid);
+      if (!mounted) return;
 
-      if (doc.exists) {
+      if (data != null) {
         setState(() {
           userUID = uid;
-          userData = doc.data();
+          userData = data;
+          _photo = ProfilePhotos.instance.peek(
+            data,
+            size: ProfilePhotos.medium,
+          );
           isLoading = false;
         });
       } else {
         setState(() => isLoading = false);
       }
+      final photo = await ProfilePhotos.instance.load(
+        data,
+        size: ProfilePhotos.medium,
+      );
+      if (photo != null && mounted) setState(() => _photo = photo);
     }
   }
 
@@ -91,15 +100,8 @@ class _SettingsPageState extends State<SettingsPage> {
                         radius: 40,
                         backgroundColor: Colors.white,
                         backgroundImage:
-                            userData!['profile_photo_base64'] != null &&
-                                    userData!['profile_photo_base64'] != ''
-                                ? MemoryImage(
-                                  base64Decode(
-                                    userData!['profile_photo_base64'],
-                                  ),
-                                )
-                                : const AssetImage('assets/default_profile.png')
-                                    as ImageProvider,
+                            _photo ??
+                            const AssetImage('assets/default_profile.png'),
                       ),
                       const SizedBox(width: 16),
                       Expanded(
@@ -1,4 +1,5 @@
 import 'package:TwinBox/LoginPages/SPlash_screen.dart';
+import 'package:firebase_auth/firebase_auth.dart';
 import 'package:firebase_core/firebase_core.dart';
 import 'package:firebase_messaging/firebase_messaging.dart';
 import 'package:flutter/material.dart';
@@ -6,12 +7,37 @@ import 'package:flutter_easyloading/flutter_easyloading.dart';
 import 'package:get/get.dart';
 
 import 'firebase_options.dart';
+import 'services/block_list.dart';
+import 'services/chat_list_cache.dart';
+import 'services/contact_discovery.dart';
+import 'services/firestore_metrics.dart';
+import 'services/firestore_metrics_overlay.dart';
+import 'services/profile_editor.dart';
+import 'services/profile_photo_migration.dart';
+import 'services/purge_engine.dart';
+import 'services/read_receipt_migration.dart';
+import 'services/startup_metrics.dart';
 
 Future<void> main() async {
   WidgetsFlutterBinding.ensureInitialized();
+  StartupMetrics.instance.start();
+  // The cached chat list is read while Firebase starts, so the home screen
+  // can show it on its first frame.
+  ChatListCache.instance.load();
   await Firebase.initializeApp(options: DefaultFirebaseOptions.currentPlatform);
-  await setupFCM();
   runApp(const MyApp());
+  // Nothing below is needed for the first frame; it starts once that frame
+  // is on screen.
+  WidgetsBinding.instance.addPostFrameCallback((_) => _startBackgroundWork());
+}
+
+/// Listeners, migrations and push setup, started after the first frame.
+void _startBackgroundWork() {
+  BlockList.instance.start();
+  _startSignedInWork();
+  setupFCM().catchError((e) {
+    debugPrint('FCM setup failed: $e');
+  });
 }
 
 class MyApp extends StatelessWidget {
@@ -24,11 +50,40 @@ class MyApp extends StatelessWidget {
       title: 'TwinBox',
       theme: ThemeData(),
       home: const SplashScreen(),
-      builder: EasyLoading.init(),
+      navigatorObservers: [FirestoreMetricsObserver()],
+      builder: (context, child) {
+        child = EasyLoading.init()(context, child);
+        return kDebugMode ? FirestoreMetricsOverlay(child: child) : child;
+      },
     );
   }
 }
 
+/// Per-user start-up work, run once for the first signed-in user:
+/// migrating an inline profile photo to Storage and legacy read flags to
+/// watermarks, making the user findable by number, replaying profile edits
+/// saved offline in an earlier session and resuming the user's unfinished
+/// chat deletions. Each service's `start(uid)`
+/// runs on its own; one failing does not hold up the others.
+void _startSignedInWork() {
+  final services = <String, Future<void> Function(String uid)>{
+    'Profile photo migration': ProfilePhotoMigration().start,
+    'Read watermark migration': ReadReceiptMigration().start,
+    'Publishing own number': ContactDiscovery.instance.start,
+    'Profile draft replay': ProfileEditor.instance.start,
+    'Resuming purges': PurgeEngine.instance.start,
+  };
+  FirebaseAuth.instance.authStateChanges().firstWhere((u) => u != null).then((
+    user,
+  ) {
+    services.forEach((name, start) {
+      start(user!.uid).catchError((e) {
+        debugPrint('$name failed: $e');
+      });
+    });
+  });
+}
+
 /// 🔔 Firebase Messaging Setup
 Future<void> setupFCM() async {
   FirebaseMessaging messaging = FirebaseMessaging.instance;
@@ -46,6 +101,8 @@ Future<void> setupFCM() async {
     print('🔔 Title: ${message.notification?.title}');
     print('📝 Body: ${message.notification?.body}');
 
+    if (BlockList.instance.isBlocked(_senderOf(message))) return;
+
     Get.snackbar(
       message.notification?.title ?? 'New Notification',
       message.notification?.body ?? '',
@@ -55,3 +112,20 @@ Future<void> setupFCM() async {
     );
   });
 }
+
+/// The uid a chat push message came from. Nothing in the app builds push
+/// payloads; whatever sends them must put the sender's uid under
+/// `senderId` in the data payload. Payloads that only carry the
+/// conversation's `chatId` (`<uid>_<uid>`, see ChatPage.getChatId) are
+/// resolved to the participant who is not the signed-in user. Returns null
+/// when neither is present, and such messages are always shown.
+String? _senderOf(RemoteMessage message) {
+  final senderId = message.data['senderId'];
+  if (senderId is String && senderId.isNotEmpty) return senderId;
+  final chatId = message.data['chatId'];
+  final me = FirebaseAuth.instance.currentUser?.uid;
+  if (chatId is! String || me == null) return null;
+  final members = chatId.split('_');
+  if (members.length != 2 || !members.contains(me)) return null;
+  return members.first == me ? members.last : members.first;
+}
@@ -1,5 +1,3 @@
-import 'dart:convert';
-
 import 'package:cloud_firestore/cloud_firestore.dart';
 import 'package:firebase_auth/firebase_auth.dart';
 import 'package:flutter/material.dart';
@@ -13,6 +11,15 @@ import 'PAGES/chats/Chat_page.dart';
 import 'PAGES/group section/Group_chat_page.dart';
 import 'Setting_Dart/Setting.dart' show SettingsPage;
 import 'loadingindicator.dart';
+import 'services/base64_image.dart';
+import 'services/block_list.dart';
+import 'services/chat_list_cache.dart';
+import 'services/chat_sender.dart';
+import 'services/contact_index.dart';
+import 'services/firestore_metrics.dart';
+import 'services/profile_photos.dart';
+import 'services/startup_metrics.dart';
+import 'services/user_directory.dart';
 
 class ProfileCardPage extends StatefulWidget {
   const ProfileCardPage({Key? key, this.phoneContacts}) : super(key: key);
@@ -32,6 +39,26 @@ class _ProfileCardPageState extends State<ProfileCardPage>
   }
 
   final userPhone = FirebaseAuth.instance.currentUser?.phoneNumber ?? '';
+
+  /// Created once: a new stream per build would re-run the query. Each
+  /// server snapshot is saved to [ChatListCache] as it arrives, once, not on
+  /// every rebuild of the list.
+  late final Stream<QuerySnapshot<Map<String, dynamic>>> _chatListStream =
+      FirebaseFirestore.instance
+          .collection('chatList')
+          .doc(currentUser?.uid)
+          .collection('chats')
+          .orderBy('timestamp', descending: true)
+          .trackedSnapshots(path: 'chatList/*/chats')
+          .map((snap) {
+            final uid = currentUser?.uid;
+            if (!snap.metadata.isFromCache && uid != null) {
+              ChatListCache.instance.save(uid, [
+                for (final doc in snap.docs) doc.data(),
+              ]);
+            }
+            return snap;
+          });
   late AnimationController _fabController;
   late Animation<double> _fabAnimation;
   int _currentBottomIndex = 0;
@@ -53,6 +80,7 @@ class _ProfileCardPageState extends State<ProfileCardPage>
     super.initState();
     loadPhoneContacts();
     _fetchContacts();
+    BlockList.instance.addListener(_onBlockListChanged);
     _fabController = AnimationController(
       vsync: this,
       duration: const Duration(milliseconds: 200),
@@ -74,13 +102,22 @@ class _ProfileCardPageState extends State<ProfileCardPage>
     });
   }
 
+  void _onBlockListChanged() {
+    if (mounted) setState(() {});
+  }
+
+  /// Unread badges of blocked peers are hidden; their messages never notify.
+  int _unreadCount(Map<String, dynamic> chatData) {
+    if (BlockList.instance.isBlocked(chatData['peerId'])) return 0;
+    return chatData['unreadCount'] ?? 0;
+  }
+
   void loadPhoneContacts() async {
-    if (await FlutterContacts.requestPermission()) {
-      final contacts = await FlutterContacts.getContacts(withProperties: true);
-      setState(() {
-        phoneContacts = contacts;
-      });
-    }
+    await ContactIndex.instance.ensureLoaded();
+    if (!mounted || !ContactIndex.instance.isLoaded) return;
+    setState(() {
+      phoneContacts = ContactIndex.instance.contacts;
+    });
   }
 
   Future<void> _refreshData() async {
@@ -93,6 +130,7 @@ class _ProfileCardPageState extends State<ProfileCardPage>
 
   @override
   void dispose() {
+    BlockList.instance.removeListener(_onBlockListChanged);
     _fabController.dispose();
     _pageController.dispose();
     super.dispose();
@@ -108,12 +146,11 @@ class _ProfileCardPageState extends State<ProfileCardPage>
   }
 
   Future<void> _fetchContacts() async {
-    if (await FlutterContacts.requestPermission()) {
-      final fetched = await FlutterContacts.getContacts(withProperties: true);
-      setState(() {
-        _contacts = fetched;
-      });
-    }
+    await ContactIndex.instance.ensureLoaded();
+    if (!mounted || !ContactIndex.instance.isLoaded) return;
+    setState(() {
+      _contacts = ContactIndex.instance.contacts;
+    });
   }
 
   Widget _buildCustomTabBar() {
@@ -218,7 +255,7 @@ class _ProfileCardPageState extends State<ProfileCardPage>
             FirebaseFirestore.instance
                 .collection('groups')
                 .where('members', arrayContains: currentUserPhone)
-                .snapshots(),
+                .trackedSnapshots(path: 'groups'),
         builder: (context, snapshot) {
           if (snapshot.connectionState == ConnectionState.waiting) {
             return const Center(
@@ -242,13 +279,14 @@ class _ProfileCardPageState extends State<ProfileCardPage>
               final groupData = groupDoc.data() as Map<String, dynamic>;
               final groupName = groupData['name'] ?? 'Unnamed Group';
               final base64Image = groupData['groupImageBase64'] ?? '';
-              ImageProvider? imageProvider;
-
-              if (base64Image.isNotEmpty) {
-                try {
-                  imageProvider = MemoryImage(base64Decode(base64Image));
-                } catch (_) {}
-              }
+              final ImageProvider? imageProvider =
+                  base64Image.isEmpty
+                      ? null
+                      : Base64Image(
+                        base64Image,
+                        cacheKey: 'group:${groupDoc.id}:${base64Image.hashCode}',
+                        targetWidth: 128,
+                      );
 
               return GestureDetector(
                 onTap: () {
@@ -286,12 +324,24 @@ class _ProfileCardPageState extends State<ProfileCardPage>
                       ),
                       const SizedBox(width: 12),
                       Expanded(
-                        child: Text(
-                          groupName,
-                          style: const TextStyle(
-                            fontSize: 16,
-                            fontWeight: FontWeight.bold,
-                          ),
+                        child: Column(
+                          crossAxisAlignment: CrossAxisAlignment.start,
+                          children: [
+                            Text(
+                              groupName,
+                              style: const TextStyle(
+                                fontSize: 16,
+                                fontWeight: FontWeight.bold,
+                              ),
+                            ),
+                            if (groupData['lastMessage'] != null)
+                              Text(
+                                groupData['lastMessage'].toString(),
+                                maxLines: 1,
+                                overflow: TextOverflow.ellipsis,
+                                style: const TextStyle(color: Colors.grey),
+                              ),
+                          ],
                         ),
                       ),
                     ],
@@ -304,31 +354,32 @@ class _ProfileCardPageState extends State<ProfileCardPage>
       );
     }
 
-    return StreamBuilder<QuerySnapshot>(
-      stream:
-          FirebaseFirestore.instance
-              .collection('chatList')
-              .doc(currentUser?.uid)
-              .collection('chats')
-              .orderBy('timestamp', descending: true)
-              .snapshots(),
+    return StreamBuilder<QuerySnapshot<Map<String, dynamic>>>(
+      stream: _chatListStream,
       builder: (context, snapshot) {
-        if (!snapshot.hasData) {
+        final uid = currentUser?.uid;
+        final live = snapshot.data;
+        // Until the first snapshot arrives, the list saved by the last
+        // session is shown (see ChatListCache).
+        var chats = ChatListCache.instance.entriesFor(uid);
+        if (live != null) {
+          chats = [for (final doc in live.docs) doc.data()];
+        }
+        if (chats == null) {
           return const Center(child: CircularProgressIndicator());
         }
-
-        List<QueryDocumentSnapshot> chatDocs = snapshot.data!.docs;
+        StartupMetrics.instance.chatListShown(
+          fromCache: live == null || live.metadata.isFromCache,
+        );
 
         // Filter by tab
         if (_selectedTab == 'Unread') {
-          chatDocs =
-              chatDocs.where((doc) => (doc['unreadCount'] ?? 0) > 0).toList();
+          chats = chats.where((chat) => _unreadCount(chat) > 0).toList();
         } else if (_selectedTab == 'Read') {
-          chatDocs =
-              chatDocs.where((doc) => (doc['unreadCount'] ?? 0) == 0).toList();
+          chats = chats.where((chat) => _unreadCount(chat) == 0).toList();
         }
 
-        if (chatDocs.isEmpty) {
+        if (chats.isEmpty) {
           return const Center(
             child: Text(
               'No chats found.',
@@ -337,55 +388,28 @@ class _ProfileCardPageState extends State<ProfileCardPage>
           );
         }
 
+        final shown = chats;
         return ListView.builder(
-          itemCount: chatDocs.length,
+          itemCount: shown.length,
           itemBuilder: (context, index) {
-            final chatData = chatDocs[index].data() as Map<String, dynamic>;
+            final chatData = shown[index];
             final peerId = chatData['peerId'];
-            final peerName = chatData['peerName'] ?? '';
-            final peerMobile = chatData['peerMobile'] ?? '';
             final lastMessage = chatData['lastMessage'] ?? '';
-            final unreadCount = chatData['unreadCount'] ?? 0;
-
-            String displayName = peerName;
-            if (widget.phoneContacts != null) {
-              final matchedContact = widget.phoneContacts!.firstWhereOrNull((
-                contact,
-              ) {
-                return contact.phones.any((phone) {
-                  final contactNum = phone.number
-                      .replaceAll(RegExp(r'\D'), '')
-                      .replaceAll('91', '');
-                  final firebaseNum = peerMobile
-                      .replaceAll(RegExp(r'\D'), '')
-                      .replaceAll('91', '');
-                  return contactNum.endsWith(firebaseNum) ||
-                      firebaseNum.endsWith(contactNum);
-                });
-              });
-              if (matchedContact != null) {
-                displayName = matchedContact.displayName;
-              }
-            }
+            final unreadCount = _unreadCount(chatData);
 
-            return FutureBuilder<DocumentSnapshot>(
-              future:
-                  FirebaseFirestore.instance
-                      .collection('client')
-                      .doc(peerId)
-                      .get(),
+            return FutureBuilder<ImageProvider?>(
+              future: ProfilePhotos.instance.forUser(peerId),
+              initialData: ProfilePhotos.instance.peekUser(peerId),
               builder: (context, snapshot) {
-                ImageProvider? avatar;
-                if (snapshot.hasData && snapshot.data!.exists) {
-                  final clientData =
-                      snapshot.data!.data() as Map<String, dynamic>;
-                  final base64Img = clientData['profile_photo_base64'] ?? '';
-                  if (base64Img.isNotEmpty) {
-                    try {
-                      avatar = MemoryImage(base64Decode(base64Img));
-                    } catch (_) {}
-                  }
-                }
+                final avatar = snapshot.data;
+                // Older entries carry the peer's name and number; newer
+                // ones are resolved from client/{peerId}, which forUser
+                // has just loaded for the avatar.
+                final peerMobile = ChatSender.peerMobileOf(chatData);
+                var displayName =
+                    ContactIndex.instance.lookup(peerMobile)?.displayName ??
+                    ChatSender.peerNameOf(chatData);
+                if (displayName.isEmpty) displayName = peerMobile;
 
                 return GestureDetector(
                   onTap: () {
@@ -470,6 +494,7 @@ class _ProfileCardPageState extends State<ProfileCardPage>
 
   String _getFormattedLastMessage(String message) {
     if (message == '[Image]') return '📷 Photo';
+    if (message == '[Location]') return '📍 Location';
     if (message == '[Video]') return '🎥 Video';
     if (message == '[Audio]') return '🎵 Audio';
     if (message == '[File]') return '📎 File';
@@ -554,13 +579,11 @@ class _ProfileCardPageState extends State<ProfileCardPage>
                                   final user =
                                       FirebaseAuth.instance.currentUser;
                                   if (user != null) {
-                                    final userDoc =
-                                        await FirebaseFirestore.instance
-                                            .collection('client')
-                                            .doc(user.uid)
-                                            .get();
-                                    if (userDoc.exists) {
-                                      final userData = userDoc.data()!;
+                                    final cached = await UserDirectory
+                                        .instance
+                                        .user(user.uid);
+                                    if (cached != null) {
+                                      final userData = {...cached};
                                       userData['uid'] = user.uid;
                                       Get.to(
                                         () => SettingsPage(client: userData),
@@ -767,10 +790,10 @@ Future<void> deleteChat(String currentUserId, String peerId) async {
             .collection('messages')
             .doc(chatId)
             .collection('chats')
-            .get();
+            .trackedGet();
 
     for (var doc in messages.docs) {
-      await doc.reference.delete();
+      await doc.reference.trackedDelete();
     }
 
     // Delete from chatList
@@ -779,7 +802,7 @@ Future<void> deleteChat(String currentUserId, String peerId) async {
         .doc(currentUserId)
         .collection('chats')
         .doc(peerId)
-        .delete();
+        .trackedDelete();
 
     // Optionally delete from peer's chat list too
     await FirebaseFirestore.instance
@@ -787,7 +810,7 @@ Future<void> deleteChat(String currentUserId, String peerId) async {
         .doc(peerId)
         .collection('chats')
         .doc(currentUserId)
-        .delete();
+        .trackedDelete();
   } catch (e) {
     print("Error deleting chat: $e");
   }
@@ -0,0 +1,81 @@
+import 'dart:async';
+import 'dart:ui' as ui;
+
+import 'package:flutter/foundation.dart';
+import 'package:flutter/painting.dart';
+
+import 'media_workers.dart';
+
+/// Image provider for a base64 payload stored in a message document.
+///
+/// The base64 decode runs on [MediaWorkers] and the image decode in the
+/// engine codec, so building a bubble never decodes on the UI isolate.
+/// Results live in Flutter's [ImageCache] under [cacheKey] (the message id),
+/// so scrolling back to a bubble reuses the decoded image.
+///
+/// With [targetWidth] the image is decoded straight to that width in
+/// physical pixels, which keeps large photos in small bubbles cheap.
+@immutable
+class Base64Image extends ImageProvider<Base64Image> {
+  const Base64Image(
+    this.data, {
+    required this.cacheKey,
+    this.targetWidth,
+    this.scale = 1.0,
+  });
+
+  final String data;
+  final String cacheKey;
+  final int? targetWidth;
+  final double scale;
+
+  @override
+  Future<Base64Image> obtainKey(ImageConfiguration configuration) =>
+      SynchronousFuture(this);
+
+  @override
+  ImageStreamCompleter loadImage(Base64Image key, ImageDecoderCallback decode) {
+    return MultiFrameImageStreamCompleter(
+      codec: _loadAsync(key, decode),
+      scale: key.scale,
+      debugLabel: 'Base64Image(${key.cacheKey})',
+    );
+  }
+
+  Future<ui.Codec> _loadAsync(
+    Base64Image key,
+    ImageDecoderCallback decode,
+  ) async {
+    // Bubbles scrolled past quickly are the first to go under pressure.
+    final bytes = await MediaWorkers.instance.decodeBase64(
+      key.data,
+      discardable: true,
+    );
+    final buffer = await ui.ImmutableBuffer.fromUint8List(bytes);
+    return decode(
+      buffer,
+      getTargetSize: (width, height) {
+        final target = key.targetWidth;
+        if (target == null || width <= target) {
+          return ui.TargetImageSize(width: width, height: height);
+        }
+        return ui.TargetImageSize(width: target);
+      },
+    );
+  }
+
+  @override
+  bool operator ==(Object other) =>
+      other is Base64Image &&
+      other.cacheKey == cacheKey &&
+      other.targetWidth == targetWidth &&
+      other.scale == scale;
+
+  @override
+  int get hashCode => Object.hash(cacheKey, targetWidth, scale);
+
+  @override
+  String toString() =>
+      '${objectRuntimeType(this, 'Base64Image')}($cacheKey, '
+      'targetWidth: $targetWidth, scale: $scale)';
+}
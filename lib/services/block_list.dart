@@ -0,0 +1,93 @@
+import 'dart:async';
+
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:firebase_auth/firebase_auth.dart';
+import 'package:flutter/foundation.dart';
+
+import 'firestore_metrics.dart';
+
+/// The signed-in user's blocked uids, mirrored from `client/{me}/blocked`.
+///
+/// One snapshot listener keeps the set current for the whole app, so chat
+/// screens, the chat list and notification handling can all ask
+/// [isBlocked] without a read. [block] and [unblock] update the set
+/// immediately and roll back if the write is rejected.
+class BlockList extends ChangeNotifier {
+  BlockList._({FirebaseFirestore? firestore, FirebaseAuth? auth})
+    : _firestore = firestore ?? FirebaseFirestore.instance,
+      _auth = auth ?? FirebaseAuth.instance;
+
+  static final BlockList instance = BlockList._();
+
+  final FirebaseFirestore _firestore;
+  final FirebaseAuth _auth;
+
+  StreamSubscription<User?>? _authSub;
+  StreamSubscription<QuerySnapshot<Map<String, dynamic>>>? _blockedSub;
+  String? _uid;
+  Set<String> _blocked = {};
+
+  /// Optimistic changes not yet reflected by the listener: uid → blocked.
+  final Map<String, bool> _pending = {};
+
+  bool _loaded = false;
+
+  /// True once the first snapshot of the blocked collection has arrived.
+  bool get isLoaded => _loaded;
+
+  /// Follows the signed-in user and listens to their blocked collection.
+  /// Safe to call more than once.
+  void start() {
+    _authSub ??= _auth.authStateChanges().listen(_onUser);
+  }
+
+  void _onUser(User? user) {
+    if (user?.uid == _uid) return;
+    _blockedSub?.cancel();
+    _blockedSub = null;
+    _uid = user?.uid;
+    _blocked = {};
+    _pending.clear();
+    _loaded = false;
+    notifyListeners();
+    if (_uid == null) return;
+
+    _blockedSub = _blockedRef(_uid!).trackedSnapshots().listen((snapshot) {
+      _blocked = snapshot.docs.map((d) => d.id).toSet();
+      _pending.removeWhere((uid, blocked) => _blocked.contains(uid) == blocked);
+      _loaded = true;
+      notifyListeners();
+    }, onError: (e) => debugPrint('Blocked list listener failed: $e'));
+  }
+
+  CollectionReference<Map<String, dynamic>> _blockedRef(String uid) =>
+      _firestore.collection('client').doc(uid).collection('blocked');
+
+  bool isBlocked(String? uid) {
+    if (uid == null) return false;
+    return _pending[uid] ?? _blocked.contains(uid);
+  }
+
+  Future<void> block(String uid) => _set(uid, true);
+
+  Future<void> unblock(String uid) => _set(uid, false);
+
+  Future<void> _set(String uid, bool blocked) async {
+    final me = _uid ?? _auth.currentUser?.uid;
+    if (me == null) return;
+    _pending[uid] = blocked;
+    notifyListeners();
+    try {
+      final ref = _blockedRef(me).doc(uid);
+      if (blocked) {
+        await ref.trackedSet({'blockedAt': FieldValue.serverTimestamp()});
+      } else {
+        await ref.trackedDelete();
+      }
+    } catch (e) {
+      _pending.remove(uid);
+      notifyListeners();
+      rethrow;
+    }
+  }
+}
@@ -0,0 +1,194 @@
+import 'dart:async';
+
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/foundation.dart';
+
+import 'firestore_metrics.dart';
+
+/// One `calls` document.
+@immutable
+class CallRecord {
+  const CallRecord(this.id, this.data, {required this.uid});
+
+  final String id;
+  final Map<String, dynamic> data;
+
+  /// The signed-in user the log belongs to.
+  final String uid;
+
+  bool get isOutgoing => data['callerId'] == uid;
+
+  /// The other party's number as stored on the call.
+  String get peer =>
+      (isOutgoing ? data['receiverPhone'] : data['callerPhone'])?.toString() ??
+      '';
+
+  String get type => data['type'] as String? ?? 'voice';
+  String get status => data['status'] as String? ?? 'ended';
+  int get duration => (data['duration'] as num?)?.toInt() ?? 0;
+
+  /// Null while a server timestamp is pending.
+  DateTime? get time => (data['startTime'] as Timestamp?)?.toDate();
+}
+
+/// Consecutive calls with the same peer on the same day, newest first; one
+/// row of the call log.
+class CallGroup {
+  CallGroup(CallRecord first) : calls = [first];
+
+  final List<CallRecord> calls;
+
+  CallRecord get latest => calls.first;
+  String get peer => latest.peer;
+
+  bool _accepts(CallRecord call) {
+    if (call.peer != peer) return false;
+    final a = calls.last.time;
+    final b = call.time;
+    if (a == null || b == null) return a == b;
+    return a.year == b.year && a.month == b.month && a.day == b.day;
+  }
+}
+
+/// The signed-in user's call log, read a page at a time.
+///
+/// [loadMore] reads the next [pageSize] calls after the last one shown,
+/// newest first, so opening the screen costs one page however long the
+/// history is. Calls made after the first page was read arrive through a
+/// listener bounded to newer start times, which never overlaps the pages.
+/// Consecutive calls with the same peer on the same day are shown as one
+/// [CallGroup].
+///
+/// Needs the composite index on `calls` (`callerId` ascending, `startTime`
+/// descending) that the unpaged query already used.
+class CallLog extends ChangeNotifier {
+  CallLog({required this.uid, FirebaseFirestore? firestore, this.pageSize = 50})
+    : _firestore = firestore ?? FirebaseFirestore.instance;
+
+  final String uid;
+  final int pageSize;
+  final FirebaseFirestore _firestore;
+
+  /// Calls from the listener, newest first, then the pages.
+  final List<CallRecord> _recent = [];
+  final List<CallRecord> _paged = [];
+  List<CallGroup> _groups = [];
+
+  DocumentSnapshot<Map<String, dynamic>>? _cursor;
+  StreamSubscription<QuerySnapshot<Map<String, dynamic>>>? _live;
+  Future<void>? _loading;
+  bool _hasMore = true;
+  bool _hasLoaded = false;
+  int _generation = 0;
+  Object? _error;
+
+  List<CallGroup> get groups => _groups;
+
+  /// Whether older calls remain to be read.
+  bool get hasMore => _hasMore;
+  bool get hasLoaded => _hasLoaded;
+
+  /// The last failed read, until a read succeeds.
+  Object? get error => _error;
+
+  int get length => _recent.length + _paged.length;
+
+  Query<Map<String, dynamic>> get _query => _firestore
+      .collection('calls')
+      .where('callerId', isEqualTo: uid)
+      .orderBy('startTime', descending: true);
+
+  /// Reads the next page. Concurrent callers share the same read.
+  Future<void> loadMore() {
+    if (!_hasMore) return Future.value();
+    final pending = _loading;
+    if (pending != null) return pending;
+    late final Future<void> loading;
+    // A refresh may have started another read in the meantime.
+    loading = _loadPage().whenComplete(() {
+      if (identical(_loading, loading)) _loading = null;
+    });
+    return _loading = loading;
+  }
+
+  Future<void> _loadPage() async {
+    final generation = _generation;
+    var query = _query.limit(pageSize);
+    final cursor = _cursor;
+    if (cursor != null) query = query.startAfterDocument(cursor);
+    try {
+      final snap = await query.trackedGet(path: 'calls');
+      if (generation != _generation) return;
+      _error = null;
+      final calls = [
+        for (final doc in snap.docs) CallRecord(doc.id, doc.data(), uid: uid),
+      ];
+      if (cursor == null) _listen(calls.isEmpty ? null : calls.first.time);
+      if (snap.docs.isNotEmpty) _cursor = snap.docs.last;
+      _hasMore = snap.docs.length == pageSize;
+      _paged.addAll(calls);
+      _group(calls);
+    } catch (e) {
+      if (generation != _generation) return;
+      debugPrint('Call log page failed: $e');
+      _error = e;
+    }
+    _hasLoaded = true;
+    notifyListeners();
+  }
+
+  /// Listens for calls newer than [after], the newest call of the first
+  /// page (everything, when the log was empty).
+  void _listen(DateTime? after) {
+    final query =
+        after == null
+            ? _query
+            : _query.where(
+              'startTime',
+              isGreaterThan: Timestamp.fromDate(after),
+            );
+    _live = query.trackedSnapshots(path: 'calls').listen((snap) {
+      _recent
+        ..clear()
+        ..addAll([
+          for (final doc in snap.docs) CallRecord(doc.id, doc.data(), uid: uid),
+        ]);
+      _groups = [];
+      _group(_recent);
+      _group(_paged);
+      notifyListeners();
+    }, onError: (e) => debugPrint('Call log listener failed: $e'));
+  }
+
+  /// Appends [calls], which are older than every call grouped so far.
+  void _group(List<CallRecord> calls) {
+    for (final call in calls) {
+      if (_groups.isNotEmpty && _groups.last._accepts(call)) {
+        _groups.last.calls.add(call);
+      } else {
+        _groups.add(CallGroup(call));
+      }
+    }
+  }
+
+  /// Drops everything and reads the first page again.
+  Future<void> refresh() {
+    _generation++;
+    _live?.cancel();
+    _live = null;
+    _loading = null;
+    _cursor = null;
+    _hasMore = true;
+    _recent.clear();
+    _paged.clear();
+    _groups = [];
+    return loadMore();
+  }
+
+  @override
+  void dispose() {
+    _generation++;
+    _live?.cancel();
+    super.dispose();
+  }
+}
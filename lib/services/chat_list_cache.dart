@@ -0,0 +1,98 @@
+import 'dart:async';
+import 'dart:convert';
+import 'dart:io';
+
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/foundation.dart';
+import 'package:path/path.dart' as p;
+import 'package:path_provider/path_provider.dart';
+
+import 'chat_sender.dart';
+
+/// The signed-in user's chat list as last seen, kept in a JSON file so the
+/// home screen can show it right after a cold start, before Firestore has
+/// delivered a snapshot. The live listener then replaces it.
+///
+/// Only what a chat list row shows is kept: the peer's id, name and number
+/// (resolved as in [ChatSender.peerNameOf]), the preview, the unread count
+/// and the time. Entries belong to one uid, so another account signing in on
+/// the device never sees them.
+class ChatListCache {
+  ChatListCache._();
+
+  static final ChatListCache instance = ChatListCache._();
+
+  String? _uid;
+  List<Map<String, dynamic>>? _entries;
+  Future<void>? _loading;
+  Timer? _writeTimer;
+  File? _file;
+
+  /// Reads the file saved by the last session. Concurrent callers share the
+  /// same read.
+  Future<void> load() => _loading ??= _read();
+
+  /// The cached chat list of [uid], newest first, or null if there is none.
+  List<Map<String, dynamic>>? entriesFor(String? uid) =>
+      uid != null && uid == _uid ? _entries : null;
+
+  /// Replaces the cached list of [uid] with [chats] (chatList documents,
+  /// newest first) and writes it shortly after.
+  void save(String uid, List<Map<String, dynamic>> chats) {
+    _uid = uid;
+    _entries = [for (final chat in chats) _compact(chat)];
+    _writeTimer?.cancel();
+    _writeTimer = Timer(const Duration(seconds: 1), _write);
+  }
+
+  static Map<String, dynamic> _compact(Map<String, dynamic> chat) {
+    final ts = chat['timestamp'];
+    final name = ChatSender.peerNameOf(chat);
+    final mobile = ChatSender.peerMobileOf(chat);
+    return {
+      'peerId': chat['peerId'],
+      if (name.isNotEmpty) 'peerName': name,
+      if (mobile.isNotEmpty) 'peerMobile': mobile,
+      'lastMessage': chat['lastMessage'] ?? '',
+      if (chat['type'] != null) 'type': chat['type'],
+      'unreadCount': chat['unreadCount'] is int ? chat['unreadCount'] : 0,
+      if (ts is Timestamp) 'timestamp': ts.millisecondsSinceEpoch,
+      if (ts is int) 'timestamp': ts,
+    };
+  }
+
+  Future<File> _cacheFile() async {
+    if (_file != null) return _file!;
+    final docs = await getApplicationDocumentsDirectory();
+    return _file = File(p.join(docs.path, 'chat_list.json'));
+  }
+
+  Future<void> _read() async {
+    try {
+      final file = await _cacheFile();
+      if (!await file.exists()) return;
+      final json =
+          jsonDecode(await file.readAsString()) as Map<String, dynamic>;
+      // A save from this session is newer than the file.
+      if (_entries != null) return;
+      _uid = json['uid'] as String?;
+      _entries = [
+        for (final raw in (json['chats'] as List? ?? const []))
+          Map<String, dynamic>.from(raw as Map),
+      ];
+    } catch (e) {
+      debugPrint('Chat list cache unreadable, resetting: $e');
+      _uid = null;
+      _entries = null;
+    }
+  }
+
+  Future<void> _write() async {
+    try {
+      final file = await _cacheFile();
+      await file.writeAsString(jsonEncode({'uid': _uid, 'chats': _entries}));
+    } catch (e) {
+      debugPrint('Chat list cache write failed: $e');
+    }
+  }
+}
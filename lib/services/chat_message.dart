@@ -0,0 +1,273 @@
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/foundation.dart';
+
+/// One message of a one-to-one chat, parsed once from its document.
+///
+/// Instances are immutable: a changed document produces a new instance, so
+/// identity tells whether a row has to be rebuilt. [toMap] gives back the
+/// document shape (plus `id`) that [MessageStore] persists.
+///
+/// New messages are written in the compact format built by [compact]
+/// (`v: 2`): one-letter keys, a one-letter kind tag, and nothing that can
+/// be derived. The receiver follows from the chat id, names from
+/// `client/{uid}`, read state from the chat's watermarks (see
+/// ReadReceipts), and the location share time from `timestamp`. Older
+/// documents carry no `v` and keep their long keys. [ChatMessage.fromMap]
+/// reads both, so the two can sit side by side in one chat. `timestamp`
+/// keeps its name in both because every chat query orders by it.
+@immutable
+class ChatMessage {
+  const ChatMessage({
+    required this.id,
+    required this.senderId,
+    this.receiverId,
+    this.text = '',
+    this.type = 'text',
+    this.timestamp,
+    this.isRead = false,
+    this.senderName,
+    this.receiverName,
+    this.imageData,
+    this.lat,
+    this.lng,
+    this.isLive = false,
+    this.locationSharedAt,
+    this.liveUntil,
+    this.isPending = false,
+    this.outboxState,
+    Map<String, dynamic>? extra,
+  }) : _extra = extra;
+
+  final String id;
+  final String senderId;
+  final String? receiverId;
+  final String text;
+  final String type;
+
+  /// Null until the server has assigned the timestamp.
+  final Timestamp? timestamp;
+  final bool isRead;
+  final String? senderName;
+  final String? receiverName;
+  final String? imageData;
+  final double? lat;
+  final double? lng;
+  final bool isLive;
+  final Timestamp? locationSharedAt;
+
+  /// End of a live location share; the bubble stops updating after it.
+  final Timestamp? liveUntil;
+
+  /// A live share that has not reached [liveUntil] yet. A share whose
+  /// sender's app was killed is never stopped and keeps [isLive], so the
+  /// end time decides.
+  bool get isLiveNow =>
+      isLive &&
+      (liveUntil == null || DateTime.now().isBefore(liveUntil!.toDate()));
+
+  /// The write has not been acknowledged by the server yet.
+  final bool isPending;
+
+  /// `queued`, `sending` or `failed` while the message sits in the outbox.
+  final String? outboxState;
+
+  /// Fields this class does not model, kept so [toMap] round-trips.
+  final Map<String, dynamic>? _extra;
+
+  static const int schemaVersion = 2;
+
+  static const String versionKey = 'v';
+  static const String senderKey = 's';
+  static const String kindKey = 'k';
+  static const String textKey = 'b';
+  static const String imageKey = 'img';
+  static const String latKey = 'lat';
+  static const String lngKey = 'lng';
+  static const String liveKey = 'live';
+  static const String liveUntilKey = 'lu';
+
+  static const Map<String, String> _kindTags = {
+    'text': 't',
+    'image': 'i',
+    'location': 'l',
+  };
+  static final Map<String, String> _kindsByTag = {
+    for (final entry in _kindTags.entries) entry.value: entry.key,
+  };
+
+  /// The value of [kindKey] for messages of [type].
+  static String kindTag(String type) => _kindTags[type] ?? type;
+
+  /// A new message document in the compact format. [timestamp] is usually
+  /// `FieldValue.serverTimestamp()`; the outbox adds it when it flushes.
+  static Map<String, dynamic> compact({
+    required String senderId,
+    String type = 'text',
+    String text = '',
+    Object? timestamp,
+    String? imageData,
+    double? lat,
+    double? lng,
+    bool isLive = false,
+    Object? liveUntil,
+  }) => {
+    versionKey: schemaVersion,
+    senderKey: senderId,
+    kindKey: kindTag(type),
+    if (text.isNotEmpty) textKey: text,
+    if (timestamp != null) 'timestamp': timestamp,
+    if (imageData != null) imageKey: imageData,
+    if (lat != null) latKey: lat,
+    if (lng != null) lngKey: lng,
+    if (isLive) liveKey: true,
+    if (liveUntil != null) liveUntilKey: liveUntil,
+  };
+
+  bool get isImage => type == 'image';
+  bool get isLocation => type == 'location';
+  bool get isFailed => outboxState == 'failed';
+
+  static const _known = {
+    'id',
+    'senderId',
+    'receiverId',
+    'message',
+    'type',
+    'timestamp',
+    'isRead',
+    'senderName',
+    'receiverName',
+    'imageData',
+    'lat',
+    'lng',
+    'isLive',
+    'locationSharedAt',
+    'liveUntil',
+    'pending',
+    'outboxState',
+  };
+
+  static const _compactKnown = {
+    'id',
+    versionKey,
+    senderKey,
+    kindKey,
+    textKey,
+    'timestamp',
+    imageKey,
+    latKey,
+    lngKey,
+    liveKey,
+    liveUntilKey,
+    'pending',
+    'outboxState',
+  };
+
+  factory ChatMessage.fromMap(String id, Map<String, dynamic> data) {
+    if (data[versionKey] == schemaVersion) {
+      return ChatMessage._fromCompact(id, data);
+    }
+    final extra = <String, dynamic>{
+      for (final entry in data.entries)
+        if (!_known.contains(entry.key)) entry.key: entry.value,
+    };
+    final ts = data['timestamp'];
+    final sharedAt = data['locationSharedAt'];
+    final liveUntil = data['liveUntil'];
+    return ChatMessage(
+      id: id,
+      senderId: data['senderId'] as String? ?? '',
+      receiverId: data['receiverId'] as String?,
+      text: data['message']?.toString() ?? '',
+      type: data['type'] as String? ?? 'text',
+      timestamp: ts is Timestamp ? ts : null,
+      isRead: data['isRead'] == true,
+      senderName: data['senderName'] as String?,
+      receiverName: data['receiverName'] as String?,
+      imageData: data['imageData'] as String?,
+      lat: (data['lat'] as num?)?.toDouble(),
+      lng: (data['lng'] as num?)?.toDouble(),
+      isLive: data['isLive'] == true,
+      locationSharedAt: sharedAt is Timestamp ? sharedAt : null,
+      liveUntil: liveUntil is Timestamp ? liveUntil : null,
+      isPending: data['pending'] == true,
+      outboxState: data['outboxState'] as String?,
+      extra: extra.isEmpty ? null : extra,
+    );
+  }
+
+  factory ChatMessage._fromCompact(String id, Map<String, dynamic> data) {
+    final extra = <String, dynamic>{
+      for (final entry in data.entries)
+        if (!_compactKnown.contains(entry.key)) entry.key: entry.value,
+    };
+    final ts = data['timestamp'];
+    final timestamp = ts is Timestamp ? ts : null;
+    final tag = data[kindKey] as String? ?? 't';
+    final type = _kindsByTag[tag] ?? tag;
+    final liveUntil = data[liveUntilKey];
+    return ChatMessage(
+      id: id,
+      senderId: data[senderKey] as String? ?? '',
+      text: data[textKey]?.toString() ?? '',
+      type: type,
+      timestamp: timestamp,
+      imageData: data[imageKey] as String?,
+      lat: (data[latKey] as num?)?.toDouble(),
+      lng: (data[lngKey] as num?)?.toDouble(),
+      isLive: data[liveKey] == true,
+      locationSharedAt: type == 'location' ? timestamp : null,
+      liveUntil: liveUntil is Timestamp ? liveUntil : null,
+      isPending: data['pending'] == true,
+      outboxState: data['outboxState'] as String?,
+      extra: extra.isEmpty ? null : extra,
+    );
+  }
+
+  factory ChatMessage.fromDoc(DocumentSnapshot<Map<String, dynamic>> doc) =>
+      ChatMessage.fromMap(doc.id, {
+        ...?doc.data(),
+        if (doc.metadata.hasPendingWrites) 'pending': true,
+      });
+
+  Map<String, dynamic> toMap() => {
+    ...?_extra,
+    'id': id,
+    'senderId': senderId,
+    if (receiverId != null) 'receiverId': receiverId,
+    'message': text,
+    'type': type,
+    if (timestamp != null) 'timestamp': timestamp,
+    'isRead': isRead,
+    if (senderName != null) 'senderName': senderName,
+    if (receiverName != null) 'receiverName': receiverName,
+    if (imageData != null) 'imageData': imageData,
+    if (lat != null) 'lat': lat,
+    if (lng != null) 'lng': lng,
+    if (isLive) 'isLive': isLive,
+    if (locationSharedAt != null) 'locationSharedAt': locationSharedAt,
+    if (liveUntil != null) 'liveUntil': liveUntil,
+    if (isPending) 'pending': true,
+    if (outboxState != null) 'outboxState': outboxState,
+  };
+
+  /// Whether [other] renders identically. Snapshots re-deliver unchanged
+  /// documents (e.g. when only metadata flips); those keep the old instance.
+  bool sameContent(ChatMessage other) =>
+      id == other.id &&
+      senderId == other.senderId &&
+      text == other.text &&
+      type == other.type &&
+      timestamp == other.timestamp &&
+      isRead == other.isRead &&
+      senderName == other.senderName &&
+      (identical(imageData, other.imageData) ||
+          imageData == other.imageData) &&
+      lat == other.lat &&
+      lng == other.lng &&
+      isLive == other.isLive &&
+      locationSharedAt == other.locationSharedAt &&
+      liveUntil == other.liveUntil &&
+      isPending == other.isPending &&
+      outboxState == other.outboxState;
+}
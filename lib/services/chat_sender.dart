@@ -0,0 +1,128 @@
+import 'package:cloud_firestore/cloud_firestore.dart';
+
+import 'firestore_metrics.dart';
+import 'user_directory.dart';
+
+/// Writes a one-to-one message and both chatList summaries in a single
+/// atomic batch.
+///
+/// The receiver's `unreadCount` is bumped with a server-side increment, so
+/// concurrent senders never overwrite each other's counts and the send path
+/// costs one commit instead of a read plus three writes. The message id is
+/// generated on the client, which lets the sender show the message right
+/// away and lets retries reuse the same document.
+///
+/// ChatList entries hold the peer's uid and a bounded preview from
+/// [summaryFor], not the peer's name or number: those are read from
+/// `client/{peerId}` (see [peerNameOf] and [peerMobileOf]), which the chat
+/// list loads for the avatar anyway.
+class ChatSender {
+  ChatSender({FirebaseFirestore? firestore})
+    : _firestore = firestore ?? FirebaseFirestore.instance;
+
+  final FirebaseFirestore _firestore;
+
+  /// Longest `lastMessage` kept in a chatList entry, in characters.
+  static const int previewLength = 60;
+
+  /// The chatList preview of a message of [type]: its text cut to
+  /// [previewLength], or a placeholder for media, and the type.
+  static Map<String, dynamic> summaryFor(String type, [String text = '']) {
+    final String preview;
+    switch (type) {
+      case 'image':
+        preview = '[Image]';
+      case 'location':
+        preview = '[Location]';
+      default:
+        final runes = text.runes;
+        preview =
+            runes.length <= previewLength
+                ? text
+                : '${String.fromCharCodes(runes.take(previewLength - 1))}…';
+    }
+    return {'lastMessage': preview, 'type': type};
+  }
+
+  /// The peer's name for a chatList [entry], from entries written before
+  /// names were dropped from them or else from the cached `client/{peerId}`.
+  static String peerNameOf(Map<String, dynamic> entry) {
+    final legacy = entry['peerName'];
+    if (legacy is String && legacy.isNotEmpty) return legacy;
+    final user = UserDirectory.instance.peek('client/${entry['peerId']}');
+    return '${user?['first_name'] ?? ''} ${user?['last_name'] ?? ''}'.trim();
+  }
+
+  /// The peer's number for a chatList [entry]; see [peerNameOf].
+  static String peerMobileOf(Map<String, dynamic> entry) {
+    final legacy = entry['peerMobile'];
+    if (legacy is String && legacy.isNotEmpty) return legacy;
+    final user = UserDirectory.instance.peek('client/${entry['peerId']}');
+    return user?['phone'] as String? ?? '';
+  }
+
+  DocumentReference<Map<String, dynamic>> newMessageRef(String chatId) =>
+      _firestore.collection('messages').doc(chatId).collection('chats').doc();
+
+  /// Adds the message and both chatList updates to [batch].
+  ///
+  /// [summary] is the preview from [summaryFor], shared by the sender's
+  /// and the receiver's entry.
+  void addToBatch(
+    WriteBatch batch, {
+    required DocumentReference<Map<String, dynamic>> messageRef,
+    required Map<String, dynamic> message,
+    required String senderId,
+    required String peerId,
+    required Map<String, dynamic> summary,
+  }) {
+    final timestamp = message['timestamp'] ?? FieldValue.serverTimestamp();
+
+    batch.set(messageRef, message);
+
+    batch.set(_chatListRef(senderId, peerId), {
+      'peerId': peerId,
+      ...summary,
+      'timestamp': timestamp,
+      'unreadCount': 0,
+    });
+
+    batch.set(_chatListRef(peerId, senderId), {
+      'peerId': senderId,
+      ...summary,
+      'timestamp': timestamp,
+      'unreadCount': FieldValue.increment(1),
+    }, SetOptions(merge: true));
+  }
+
+  /// Sends [message] in one commit. The returned future completes when the
+  /// server acknowledges the write; the local snapshot shows it immediately.
+  Future<void> send({
+    required String chatId,
+    required Map<String, dynamic> message,
+    required String senderId,
+    required String peerId,
+    required Map<String, dynamic> summary,
+    DocumentReference<Map<String, dynamic>>? messageRef,
+  }) {
+    final batch = _firestore.batch();
+    addToBatch(
+      batch,
+      messageRef: messageRef ?? newMessageRef(chatId),
+      message: message,
+      senderId: senderId,
+      peerId: peerId,
+      summary: summary,
+    );
+    return batch.trackedCommit('messages/$chatId/chats', writes: 3);
+  }
+
+  DocumentReference<Map<String, dynamic>> _chatListRef(
+    String ownerId,
+    String peerId,
+  ) => _firestore
+      .collection('chatList')
+      .doc(ownerId)
+      .collection('chats')
+      .doc(peerId);
+}
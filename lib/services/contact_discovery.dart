@@ -0,0 +1,264 @@
+import 'dart:async';
+import 'dart:convert';
+import 'dart:math';
+
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/foundation.dart';
+import 'package:shared_preferences/shared_preferences.dart';
+
+import 'contact_index.dart';
+import 'firestore_metrics.dart';
+import 'user_directory.dart';
+
+/// Finds which of the user's contacts have an account, without reading the
+/// user base.
+///
+/// Every `client` document carries [field], the owner's number normalized
+/// by [ContactIndex.normalize], and [stampField], the server time it was
+/// last written. [discover] sends only the user's own contact numbers, in
+/// `whereIn` chunks of [chunkSize] with up to [maxInFlight] queries at a
+/// time, and keeps the answer on the device as number → uid, plus the set
+/// of numbers known not to be registered. Lookups are a map access.
+///
+/// Numbers already checked are not asked again. Every [refreshInterval] the
+/// registered numbers are re-checked in full (they are few) and the rest
+/// only for accounts published since the last refresh, which finds people
+/// who joined in the meantime at the cost of near-empty queries.
+///
+/// Accounts get [field] from [publish] when their owner starts the app, and
+/// from a one-off `DiscoveryBackfill` run for everyone else. The delta query
+/// needs a composite index on `client` ([field] ascending, [stampField]
+/// ascending), defined in firestore.indexes.json.
+class ContactDiscovery extends ChangeNotifier {
+  ContactDiscovery({
+    FirebaseFirestore? firestore,
+    this.chunkSize = 30,
+    this.maxInFlight = 8,
+    this.refreshInterval = const Duration(hours: 6),
+    this.prefsKey = 'contact_discovery_v1',
+  }) : _firestore = firestore ?? FirebaseFirestore.instance;
+
+  static final ContactDiscovery instance = ContactDiscovery();
+
+  static const String field = 'phone10';
+  static const String stampField = 'discoverableAt';
+
+  /// Allowance for clock skew between this device and the server stamps.
+  static const Duration _overlap = Duration(minutes: 10);
+
+  final FirebaseFirestore _firestore;
+
+  /// Values per `whereIn`; Firestore's limit is 30.
+  final int chunkSize;
+  final int maxInFlight;
+  final Duration refreshInterval;
+  final String prefsKey;
+
+  final Map<String, String> _uidByNumber = {};
+  final Set<String> _unregistered = {};
+  DateTime? _syncedAt;
+  Future<void>? _loading;
+  Future<void>? _discovering;
+
+  int _queries = 0;
+  int _docs = 0;
+
+  Map<String, int> get stats => {
+    'queries': _queries,
+    'docs': _docs,
+    'registered': _uidByNumber.length,
+    'unregistered': _unregistered.length,
+  };
+
+  /// The fields that make `client/{uid}` discoverable under [phone].
+  static Map<String, dynamic> fieldsFor(String phone) => {
+    field: ContactIndex.normalize(phone),
+    stampField: FieldValue.serverTimestamp(),
+  };
+
+  /// The uid registered under [number], if any.
+  String? uidFor(String number) => _uidByNumber[ContactIndex.normalize(number)];
+
+  bool isRegistered(String number) => uidFor(number) != null;
+
+  /// Restores the answers saved by the last session. Concurrent callers
+  /// share the same read.
+  Future<void> load() => _loading ??= _restore();
+
+  /// Checks [numbers] that have not been checked yet and, once
+  /// [refreshInterval] has passed (or with [force]), refreshes the rest.
+  /// Answers for numbers no longer in [numbers] are dropped.
+  Future<void> discover(Iterable<String> numbers, {bool force = false}) {
+    final pending = _discovering;
+    if (pending != null) return pending;
+    final wanted = {
+      for (final number in numbers) ContactIndex.normalize(number),
+    }..remove('');
+    return _discovering = _discover(wanted, force).whenComplete(
+      () => _discovering = null,
+    );
+  }
+
+  Future<void> _discover(Set<String> wanted, bool force) async {
+    await load();
+    final startedAt = DateTime.now();
+    _uidByNumber.removeWhere((number, _) => !wanted.contains(number));
+    _unregistered.removeWhere((number) => !wanted.contains(number));
+
+    final unchecked =
+        wanted
+            .where(
+              (n) => !_uidByNumber.containsKey(n) && !_unregistered.contains(n),
+            )
+            .toList();
+    final syncedAt = _syncedAt;
+    final due =
+        force ||
+        syncedAt == null ||
+        startedAt.difference(syncedAt) >= refreshInterval;
+
+    final lookups = <_Lookup>[
+      for (final chunk in _chunks(unchecked)) _Lookup(chunk),
+      if (due) ...[
+        for (final chunk in _chunks(_uidByNumber.keys.toList()))
+          _Lookup(chunk),
+        for (final chunk in _chunks(_unregistered.toList()))
+          _Lookup(chunk, since: syncedAt?.subtract(_overlap)),
+      ],
+    ];
+    if (lookups.isEmpty) return;
+
+    var next = 0;
+    var failed = false;
+    Future<void> worker() async {
+      while (next < lookups.length) {
+        final lookup = lookups[next++];
+        if (!await _run(lookup)) failed = true;
+      }
+    }
+
+    await Future.wait(
+      List.generate(min(maxInFlight, lookups.length), (_) => worker()),
+    );
+    // A refresh with a failed chunk is repeated next time from the same
+    // point, so nobody who joined in between is missed.
+    if (due && !failed) _syncedAt = startedAt;
+    notifyListeners();
+    await _save();
+  }
+
+  Future<bool> _run(_Lookup lookup) async {
+    Query<Map<String, dynamic>> query = _firestore
+        .collection('client')
+        .where(field, whereIn: lookup.numbers);
+    final since = lookup.since;
+    if (since != null) {
+      query = query.where(
+        stampField,
+        isGreaterThan: Timestamp.fromDate(since),
+      );
+    }
+    _queries++;
+    final QuerySnapshot<Map<String, dynamic>> snap;
+    try {
+      snap = await query.trackedGet(path: 'client');
+    } catch (e) {
+      debugPrint('Contact discovery lookup failed: $e');
+      return false;
+    }
+    _docs += snap.docs.length;
+
+    final found = <String, String>{};
+    for (final doc in snap.docs) {
+      final data = doc.data();
+      final number = data[field];
+      if (number is! String || data['isUsingApp'] != true) continue;
+      found.putIfAbsent(number, () => doc.id);
+    }
+    for (final number in lookup.numbers) {
+      final uid = found[number];
+      if (uid != null) {
+        _uidByNumber[number] = uid;
+        _unregistered.remove(number);
+      } else if (lookup.since == null) {
+        // A full lookup is authoritative; a delta only reports joiners.
+        _uidByNumber.remove(number);
+        _unregistered.add(number);
+      }
+    }
+    return true;
+  }
+
+  Iterable<List<String>> _chunks(List<String> numbers) sync* {
+    for (var i = 0; i < numbers.length; i += chunkSize) {
+      yield numbers.sublist(i, min(i + chunkSize, numbers.length));
+    }
+  }
+
+  /// The signed-in start-up hook: [publish].
+  Future<void> start(String uid) => publish(uid);
+
+  /// Makes `client/{uid}` discoverable if it predates [field] or its number
+  /// changed.
+  Future<void> publish(String uid) async {
+    final data = await UserDirectory.instance.user(uid);
+    final phone = data?['phone'];
+    if (phone is! String || phone.isEmpty) return;
+    if (data![field] == ContactIndex.normalize(phone)) return;
+    await _firestore
+        .collection('client')
+        .doc(uid)
+        .trackedUpdate(fieldsFor(phone));
+    UserDirectory.instance.invalidate('client/$uid');
+  }
+
+  Future<void> _restore() async {
+    try {
+      final prefs = await SharedPreferences.getInstance();
+      final raw = prefs.getString(prefsKey);
+      if (raw == null) return;
+      final json = jsonDecode(raw) as Map<String, dynamic>;
+      final syncedAt = json['syncedAt'];
+      if (syncedAt is int) {
+        _syncedAt = DateTime.fromMillisecondsSinceEpoch(syncedAt);
+      }
+      _uidByNumber.addAll(
+        Map<String, String>.from(json['registered'] as Map? ?? const {}),
+      );
+      _unregistered.addAll(
+        List<String>.from(json['unregistered'] as List? ?? const []),
+      );
+      notifyListeners();
+    } catch (e) {
+      debugPrint('Contact discovery cache unreadable, resetting: $e');
+      _uidByNumber.clear();
+      _unregistered.clear();
+      _syncedAt = null;
+    }
+  }
+
+  Future<void> _save() async {
+    try {
+      final prefs = await SharedPreferences.getInstance();
+      await prefs.setString(
+        prefsKey,
+        jsonEncode({
+          'syncedAt': _syncedAt?.millisecondsSinceEpoch,
+          'registered': _uidByNumber,
+          'unregistered': _unregistered.toList(),
+        }),
+      );
+    } catch (e) {
+      debugPrint('Contact discovery cache write failed: $e');
+    }
+  }
+}
+
+/// One `whereIn` query: a full lookup, or with [since] only accounts
+/// published after it.
+class _Lookup {
+  _Lookup(this.numbers, {this.since});
+
+  final List<String> numbers;
+  final DateTime? since;
+}
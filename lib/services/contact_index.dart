@@ -0,0 +1,130 @@
+import 'dart:async';
+
+import 'package:flutter/foundation.dart';
+import 'package:flutter_contacts/flutter_contacts.dart';
+
+/// A device contact reachable under one normalized number.
+class IndexedContact {
+  const IndexedContact({
+    required this.contactId,
+    required this.displayName,
+    required this.number,
+  });
+
+  final String contactId;
+  final String displayName;
+
+  /// The number as stored in the address book.
+  final String number;
+}
+
+/// App-wide index of device contacts keyed by the last ten digits of each
+/// phone number.
+///
+/// The address book is read once; normalizing and indexing the numbers runs
+/// on a background isolate. The index is rebuilt in the background whenever
+/// the platform reports a contacts change, and lookups are a single map
+/// access.
+class ContactIndex extends ChangeNotifier {
+  ContactIndex._();
+
+  static final ContactIndex instance = ContactIndex._();
+
+  List<Contact> _contacts = const [];
+  Map<String, IndexedContact> _byNumber = const {};
+  Future<void>? _loading;
+  Timer? _refreshDebounce;
+  bool _listening = false;
+  bool _loaded = false;
+
+  /// All device contacts, as returned by the last load.
+  List<Contact> get contacts => _contacts;
+
+  bool get isLoaded => _loaded;
+
+  /// Normalizes a phone number to its last ten digits.
+  static String normalize(String number) {
+    final digits = number.replaceAll(RegExp(r'\D'), '');
+    return digits.length > 10 ? digits.substring(digits.length - 10) : digits;
+  }
+
+  /// Loads the index if it has not been loaded yet. Concurrent callers share
+  /// the same load.
+  Future<void> ensureLoaded() => _loading ??= _load();
+
+  Future<void> _load() async {
+    if (!await FlutterContacts.requestPermission()) {
+      _loading = null;
+      return;
+    }
+    await _rebuild();
+    if (!_listening) {
+      _listening = true;
+      FlutterContacts.addListener(_onContactsChanged);
+    }
+  }
+
+  void _onContactsChanged() {
+    // The platform fires several events for a single edit; fold them.
+    _refreshDebounce?.cancel();
+    _refreshDebounce = Timer(const Duration(milliseconds: 500), _rebuild);
+  }
+
+  Future<void> _rebuild() async {
+    await indexContacts(
+      await FlutterContacts.getContacts(withProperties: true),
+    );
+  }
+
+  /// Replaces the index with [contacts], normalized on a background
+  /// isolate. Loads from the address book go through here; benchmarks call
+  /// it with generated contacts.
+  @visibleForTesting
+  Future<void> indexContacts(List<Contact> contacts) async {
+    final rows = [
+      for (final contact in contacts)
+        [contact.id, contact.displayName, ...contact.phones.map((p) => p.number)],
+    ];
+    final index = await compute(_buildIndex, rows);
+    _contacts = contacts;
+    _byNumber = {
+      for (final entry in index.entries)
+        entry.key: IndexedContact(
+          contactId: entry.value[0],
+          displayName: entry.value[1],
+          number: entry.value[2],
+        ),
+    };
+    _loaded = true;
+    notifyListeners();
+  }
+
+  /// The contact saved under [number], if any.
+  IndexedContact? lookup(String? number) {
+    if (number == null || number.isEmpty) return null;
+    return _byNumber[normalize(number)];
+  }
+
+  /// Every normalized number in the address book.
+  Iterable<String> get numbers => _byNumber.keys;
+
+  /// Normalized number → display name, for screens that keep their own map.
+  Map<String, String> get namesByNumber => {
+    for (final entry in _byNumber.entries) entry.key: entry.value.displayName,
+  };
+}
+
+/// Runs on a background isolate. Each row is `[id, displayName, ...numbers]`;
+/// the result maps a normalized number to `[id, displayName, rawNumber]`.
+/// The first contact seen for a number wins, matching the old linear scans.
+Map<String, List<String>> _buildIndex(List<List<String>> rows) {
+  final index = <String, List<String>>{};
+  for (final row in rows) {
+    for (var i = 2; i < row.length; i++) {
+      final key = ContactIndex.normalize(row[i]);
+      if (key.isEmpty) continue;
+      index.putIfAbsent(key, () => [row[0], row[1], row[i]]);
+    }
+  }
+  return index;
+}
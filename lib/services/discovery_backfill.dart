@@ -0,0 +1,73 @@
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/foundation.dart';
+
+import 'contact_discovery.dart';
+import 'contact_index.dart';
+
+/// Outcome of a [DiscoveryBackfill] run.
+class DiscoveryBackfillReport {
+  int scanned = 0;
+  int updated = 0;
+  int withoutPhone = 0;
+
+  @override
+  String toString() =>
+      'scanned $scanned, updated $updated, $withoutPhone without a number';
+}
+
+/// Writes [ContactDiscovery.field] and [ContactDiscovery.stampField] on
+/// every `client` document that lacks them or carries a stale number.
+///
+/// [ContactDiscovery.publish] does this for the signed-in user at start-up,
+/// so accounts whose owners have not opened a release with discovery yet
+/// are not found by anyone until this has run once. The fresh stamp makes
+/// devices that already cached such a number as unregistered pick the
+/// account up on their next delta refresh.
+class DiscoveryBackfill {
+  DiscoveryBackfill({FirebaseFirestore? firestore})
+    : _firestore = firestore ?? FirebaseFirestore.instance;
+
+  final FirebaseFirestore _firestore;
+
+  /// Walks `client` by document id, [pageSize] documents at a time, and
+  /// updates each page that needs it in one batch. With [dryRun] nothing is
+  /// written; the report shows what would be.
+  Future<DiscoveryBackfillReport> backfillAll({
+    int pageSize = 400,
+    bool dryRun = false,
+  }) async {
+    final report = DiscoveryBackfillReport();
+    final query = _firestore
+        .collection('client')
+        .orderBy(FieldPath.documentId)
+        .limit(pageSize);
+    String? after;
+    while (true) {
+      final page =
+          await (after == null ? query : query.startAfter([after])).get();
+      final batch = _firestore.batch();
+      var writes = 0;
+      for (final doc in page.docs) {
+        report.scanned++;
+        final data = doc.data();
+        final phone = data['phone'];
+        if (phone is! String || ContactIndex.normalize(phone).isEmpty) {
+          report.withoutPhone++;
+          continue;
+        }
+        if (data[ContactDiscovery.field] == ContactIndex.normalize(phone) &&
+            data[ContactDiscovery.stampField] != null) {
+          continue;
+        }
+        batch.update(doc.reference, ContactDiscovery.fieldsFor(phone));
+        writes++;
+      }
+      if (writes > 0 && !dryRun) await batch.commit();
+      report.updated += writes;
+      debugPrint('Discovery backfill: $report');
+      if (page.docs.length < pageSize) break;
+      after = page.docs.last.id;
+    }
+    return report;
+  }
+}
@@ -0,0 +1,435 @@
+import 'dart:async';
+import 'dart:convert';
+import 'dart:math';
+
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/widgets.dart';
+
+/// Latency histogram with fixed, roughly logarithmic buckets. Percentiles
+/// are reported as the upper bound of the bucket they fall in, which is
+/// precise enough to tell a 20 ms path from a 500 ms one at constant memory.
+class LatencyHistogram {
+  /// Upper bounds in milliseconds; the last bucket is open-ended.
+  static const List<int> bounds = [
+    1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000,
+  ];
+
+  final List<int> _counts = List.filled(bounds.length + 1, 0);
+  int count = 0;
+  int _totalMicros = 0;
+  int _maxMicros = 0;
+
+  void add(Duration latency) {
+    final ms = latency.inMicroseconds / 1000;
+    var bucket = 0;
+    while (bucket < bounds.length && ms > bounds[bucket]) {
+      bucket++;
+    }
+    _counts[bucket]++;
+    count++;
+    _totalMicros += latency.inMicroseconds;
+    _maxMicros = max(_maxMicros, latency.inMicroseconds);
+  }
+
+  /// Upper bound in ms of the bucket holding the [p]th percentile
+  /// (0 < p <= 100), or the maximum seen for the open-ended bucket.
+  double percentile(double p) {
+    if (count == 0) return 0;
+    final rank = (count * p / 100).ceil();
+    var seen = 0;
+    for (var i = 0; i < _counts.length; i++) {
+      seen += _counts[i];
+      if (seen >= rank) {
+        return i < bounds.length ? bounds[i].toDouble() : _maxMicros / 1000;
+      }
+    }
+    return _maxMicros / 1000;
+  }
+
+  Map<String, dynamic> toJson() => {
+    'count': count,
+    if (count > 0) ...{
+      'meanMs': double.parse((_totalMicros / count / 1000).toStringAsFixed(1)),
+      'p50Ms': percentile(50),
+      'p95Ms': percentile(95),
+      'p99Ms': percentile(99),
+      'maxMs': _maxMicros / 1000,
+    },
+  };
+}
+
+/// Counters for one collection path (document ids replaced by `*`).
+class PathMetrics {
+  /// Documents read by one-off gets and queries; what Firestore bills.
+  int reads = 0;
+
+  /// Get and query calls.
+  int gets = 0;
+
+  /// Documents served from the local cache instead of the server.
+  int cacheReads = 0;
+
+  /// Listener snapshots, and documents they delivered (billed as reads
+  /// when they come from the server).
+  int listenerEvents = 0;
+  int listenerReads = 0;
+
+  int writes = 0;
+  int bytesRead = 0;
+  int bytesWritten = 0;
+
+  final LatencyHistogram readLatency = LatencyHistogram();
+  final LatencyHistogram writeLatency = LatencyHistogram();
+
+  int get billedReads => reads + listenerReads;
+
+  Map<String, dynamic> toJson() => {
+    'reads': reads,
+    'gets': gets,
+    'cacheReads': cacheReads,
+    'listenerEvents': listenerEvents,
+    'listenerReads': listenerReads,
+    'writes': writes,
+    'bytesRead': bytesRead,
+    'bytesWritten': bytesWritten,
+    'readLatency': readLatency.toJson(),
+    'writeLatency': writeLatency.toJson(),
+  };
+}
+
+/// Process-wide record of Firestore traffic, per screen and per collection
+/// path.
+///
+/// Call sites go through the `tracked*` extensions below instead of the
+/// plain `get`/`snapshots`/`set`/`update`/`delete`/`commit`, which record
+/// document counts, approximate document bytes and latency. Traffic is
+/// attributed to [screen], kept current by [FirestoreMetricsObserver], or to
+/// the screen given to [runAs] for everything started inside it.
+///
+/// [toJson] is the export format; [FirestoreMetricsOverlay] shows the same
+/// data in debug builds.
+class FirestoreMetrics {
+  FirestoreMetrics._();
+
+  static final FirestoreMetrics instance = FirestoreMetrics._();
+
+  static const Symbol _zoneKey = #firestoreMetricsScreen;
+
+  /// Set to false to make recording a no-op.
+  bool enabled = true;
+
+  /// Screen that traffic outside [runAs] is attributed to.
+  String screen = 'app';
+
+  final Map<String, Map<String, PathMetrics>> _screens = {};
+  DateTime _since = DateTime.now();
+
+  /// Screen name → path template → metrics.
+  Map<String, Map<String, PathMetrics>> get screens => _screens;
+
+  /// Runs [body] with all traffic it starts, including listeners and
+  /// timers, attributed to [name].
+  Future<T> runAs<T>(String name, Future<T> Function() body) =>
+      runZoned(body, zoneValues: {_zoneKey: name});
+
+  String get _currentScreen => (Zone.current[_zoneKey] as String?) ?? screen;
+
+  PathMetrics _metrics(String path) => _screens
+      .putIfAbsent(_currentScreen, () => {})
+      .putIfAbsent(templateOf(path), PathMetrics.new);
+
+  /// `messages/abc_def/chats/xyz` → `messages/*/chats`. Paths of documents
+  /// are reported under their collection.
+  static String templateOf(String path) {
+    final segments = path.split('/');
+    if (segments.length.isEven) segments.removeLast();
+    for (var i = 1; i < segments.length; i += 2) {
+      segments[i] = '*';
+    }
+    return segments.join('/');
+  }
+
+  void recordRead(
+    String path, {
+    required int docs,
+    required int bytes,
+    required Duration latency,
+    bool fromCache = false,
+  }) {
+    if (!enabled) return;
+    final metrics = _metrics(path)..gets++;
+    if (fromCache) {
+      metrics.cacheReads += docs;
+    } else {
+      // An empty result is still billed as one read.
+      metrics.reads += max(docs, 1);
+    }
+    metrics.bytesRead += bytes;
+    metrics.readLatency.add(latency);
+  }
+
+  void recordListenerEvent(
+    String path, {
+    required int docs,
+    required int bytes,
+    required bool fromCache,
+    Duration? latency,
+  }) {
+    if (!enabled) return;
+    final metrics = _metrics(path)..listenerEvents++;
+    if (fromCache) {
+      metrics.cacheReads += docs;
+    } else {
+      metrics.listenerReads += docs;
+    }
+    metrics.bytesRead += bytes;
+    if (latency != null) metrics.readLatency.add(latency);
+  }
+
+  void recordWrite(
+    String path, {
+    int writes = 1,
+    int bytes = 0,
+    required Duration latency,
+  }) {
+    if (!enabled) return;
+    final metrics = _metrics(path);
+    metrics.writes += writes;
+    metrics.bytesWritten += bytes;
+    metrics.writeLatency.add(latency);
+  }
+
+  /// Times [write] and records it against [path].
+  Future<T> timeWrite<T>(
+    String path,
+    Future<T> write, {
+    int writes = 1,
+    Map<String, dynamic>? data,
+  }) {
+    final stopwatch = Stopwatch()..start();
+    final bytes = data == null ? 0 : estimateBytes(data);
+    // Record in the caller's zone even if the future completes elsewhere.
+    final record = Zone.current.bindUnaryCallback((Object? _) {
+      recordWrite(
+        path,
+        writes: writes,
+        bytes: bytes,
+        latency: stopwatch.elapsed,
+      );
+    });
+    return write.whenComplete(() => record(null));
+  }
+
+  /// Sums per screen, for budget checks.
+  Map<String, Map<String, int>> totalsByScreen() => {
+    for (final entry in _screens.entries)
+      entry.key: {
+        'reads': entry.value.values.fold(0, (a, m) => a + m.billedReads),
+        'writes': entry.value.values.fold(0, (a, m) => a + m.writes),
+        'bytesRead': entry.value.values.fold(0, (a, m) => a + m.bytesRead),
+      },
+  };
+
+  Map<String, dynamic> toJson() => {
+    'since': _since.toIso8601String(),
+    'until': DateTime.now().toIso8601String(),
+    'totals': totalsByScreen(),
+    'screens': {
+      for (final screen in _screens.entries)
+        screen.key: {
+          for (final path in screen.value.entries)
+            path.key: path.value.toJson(),
+        },
+    },
+  };
+
+  String exportJson() => const JsonEncoder.withIndent('  ').convert(toJson());
+
+  void reset() {
+    _screens.clear();
+    _since = DateTime.now();
+  }
+
+  /// Approximate stored size of a Firestore value, following the documented
+  /// storage-size rules (strings and keys are UTF-8 length + 1, numbers and
+  /// timestamps 8, booleans and null 1).
+  static int estimateBytes(Object? value) {
+    if (value == null || value is bool) return 1;
+    if (value is num || value is Timestamp || value is DateTime) return 8;
+    if (value is String) return value.length + 1;
+    if (value is GeoPoint) return 16;
+    if (value is DocumentReference) return value.path.length + 1;
+    if (value is Blob) return value.bytes.length;
+    if (value is List) {
+      return value.fold(0, (sum, item) => sum + estimateBytes(item));
+    }
+    if (value is Map) {
+      var sum = 0;
+      for (final entry in value.entries) {
+        sum += entry.key.toString().length + 1 + estimateBytes(entry.value);
+      }
+      return sum;
+    }
+    return 8; // sentinels such as FieldValue.serverTimestamp()
+  }
+
+  static int _docBytes(DocumentSnapshot<Map<String, dynamic>> doc) =>
+      doc.reference.path.length + 1 + 32 + estimateBytes(doc.data());
+}
+
+/// Keeps [FirestoreMetrics.screen] on the name of the top route. Routes
+/// opened with `Get.to` are named after their page class; plain
+/// [MaterialPageRoute]s without a name keep the previous screen.
+class FirestoreMetricsObserver extends NavigatorObserver {
+  final List<String> _stack = [];
+
+  void _update() {
+    FirestoreMetrics.instance.screen = _stack.isEmpty ? 'app' : _stack.last;
+  }
+
+  String? _name(Route<dynamic>? route) => route?.settings.name;
+
+  @override
+  void didPush(Route<dynamic> route, Route<dynamic>? previousRoute) {
+    final name = _name(route);
+    _stack.add(name ?? (_stack.isEmpty ? 'app' : _stack.last));
+    _update();
+  }
+
+  @override
+  void didPop(Route<dynamic> route, Route<dynamic>? previousRoute) {
+    if (_stack.isNotEmpty) _stack.removeLast();
+    _update();
+  }
+
+  @override
+  void didRemove(Route<dynamic> route, Route<dynamic>? previousRoute) =>
+      didPop(route, previousRoute);
+
+  @override
+  void didReplace({Route<dynamic>? newRoute, Route<dynamic>? oldRoute}) {
+    if (_stack.isNotEmpty) _stack.removeLast();
+    _stack.add(_name(newRoute) ?? (_stack.isEmpty ? 'app' : _stack.last));
+    _update();
+  }
+}
+
+extension TrackedQuery on Query<Map<String, dynamic>> {
+  String _pathOr(String? path) =>
+      path ??
+      (this is CollectionReference
+          ? (this as CollectionReference).path
+          : 'query');
+
+  /// [get], recorded against [path] (defaults to the collection's path;
+  /// pass it for filtered queries and collection groups).
+  Future<QuerySnapshot<Map<String, dynamic>>> trackedGet({
+    String? path,
+    GetOptions? options,
+  }) async {
+    final stopwatch = Stopwatch()..start();
+    final snap = await get(options);
+    FirestoreMetrics.instance.recordRead(
+      _pathOr(path),
+      docs: snap.docs.length,
+      bytes: snap.docs.fold(
+        0,
+        (sum, doc) => sum + FirestoreMetrics._docBytes(doc),
+      ),
+      latency: stopwatch.elapsed,
+      fromCache: snap.metadata.isFromCache,
+    );
+    return snap;
+  }
+
+  /// [snapshots], recorded against [path]. Each event counts the documents
+  /// that changed, which is what a listener is billed for.
+  Stream<QuerySnapshot<Map<String, dynamic>>> trackedSnapshots({
+    String? path,
+    bool includeMetadataChanges = false,
+  }) {
+    final label = _pathOr(path);
+    final stopwatch = Stopwatch()..start();
+    var first = true;
+    return snapshots(includeMetadataChanges: includeMetadataChanges).map((
+      snap,
+    ) {
+      final changes = snap.docChanges;
+      FirestoreMetrics.instance.recordListenerEvent(
+        label,
+        docs: changes.length,
+        bytes: changes.fold(
+          0,
+          (sum, change) => sum + FirestoreMetrics._docBytes(change.doc),
+        ),
+        fromCache: snap.metadata.isFromCache,
+        latency: first ? stopwatch.elapsed : null,
+      );
+      first = false;
+      return snap;
+    });
+  }
+}
+
+extension TrackedCollection on CollectionReference<Map<String, dynamic>> {
+  Future<DocumentReference<Map<String, dynamic>>> trackedAdd(
+    Map<String, dynamic> data,
+  ) => FirestoreMetrics.instance.timeWrite(path, add(data), data: data);
+}
+
+extension TrackedDocument on DocumentReference<Map<String, dynamic>> {
+  Future<DocumentSnapshot<Map<String, dynamic>>> trackedGet([
+    GetOptions? options,
+  ]) async {
+    final stopwatch = Stopwatch()..start();
+    final snap = await get(options);
+    FirestoreMetrics.instance.recordRead(
+      path,
+      docs: 1,
+      bytes: FirestoreMetrics._docBytes(snap),
+      latency: stopwatch.elapsed,
+      fromCache: snap.metadata.isFromCache,
+    );
+    return snap;
+  }
+
+  Stream<DocumentSnapshot<Map<String, dynamic>>> trackedSnapshots({
+    bool includeMetadataChanges = false,
+  }) {
+    final stopwatch = Stopwatch()..start();
+    var first = true;
+    return snapshots(includeMetadataChanges: includeMetadataChanges).map((
+      snap,
+    ) {
+      FirestoreMetrics.instance.recordListenerEvent(
+        path,
+        docs: 1,
+        bytes: FirestoreMetrics._docBytes(snap),
+        fromCache: snap.metadata.isFromCache,
+        latency: first ? stopwatch.elapsed : null,
+      );
+      first = false;
+      return snap;
+    });
+  }
+
+  Future<void> trackedSet(Map<String, dynamic> data, [SetOptions? options]) =>
+      FirestoreMetrics.instance.timeWrite(
+        path,
+        set(data, options),
+        data: data,
+      );
+
+  Future<void> trackedUpdate(Map<String, dynamic> data) =>
+      FirestoreMetrics.instance.timeWrite(path, update(data), data: data);
+
+  Future<void> trackedDelete() =>
+      FirestoreMetrics.instance.timeWrite(path, delete());
+}
+
+extension TrackedBatch on WriteBatch {
+  /// [commit], recorded as [writes] writes against [path] (the collection
+  /// most of the batch goes to).
+  Future<void> trackedCommit(String path, {required int writes}) =>
+      FirestoreMetrics.instance.timeWrite(path, commit(), writes: writes);
+}
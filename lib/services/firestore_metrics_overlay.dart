@@ -0,0 +1,144 @@
+import 'dart:async';
+
+import 'package:flutter/material.dart';
+import 'package:flutter/services.dart';
+
+import 'firestore_metrics.dart';
+
+/// Debug-build badge over the whole app with the current screen's Firestore
+/// reads and writes. Tapping it opens the per-path table for every screen
+/// seen so far; "Export" copies [FirestoreMetrics.exportJson] to the
+/// clipboard and prints it to the log.
+class FirestoreMetricsOverlay extends StatefulWidget {
+  const FirestoreMetricsOverlay({super.key, required this.child});
+
+  final Widget child;
+
+  @override
+  State<FirestoreMetricsOverlay> createState() =>
+      _FirestoreMetricsOverlayState();
+}
+
+class _FirestoreMetricsOverlayState extends State<FirestoreMetricsOverlay> {
+  final FirestoreMetrics _metrics = FirestoreMetrics.instance;
+  Timer? _poll;
+  bool _expanded = false;
+  Offset _position = const Offset(8, 96);
+
+  @override
+  void initState() {
+    super.initState();
+    // Polled rather than notified: recording must stay cheap on hot paths.
+    _poll = Timer.periodic(const Duration(seconds: 1), (_) {
+      if (mounted) setState(() {});
+    });
+  }
+
+  @override
+  void dispose() {
+    _poll?.cancel();
+    super.dispose();
+  }
+
+  Future<void> _export() async {
+    final json = _metrics.exportJson();
+    debugPrint(json);
+    await Clipboard.setData(ClipboardData(text: json));
+  }
+
+  Widget _badge() {
+    final totals = _metrics.totalsByScreen()[_metrics.screen];
+    return Text(
+      '${_metrics.screen}  R ${totals?['reads'] ?? 0}  '
+      'W ${totals?['writes'] ?? 0}',
+      style: const TextStyle(color: Colors.white, fontSize: 11),
+    );
+  }
+
+  Widget _table() {
+    final rows = <Widget>[];
+    for (final screen in _metrics.screens.entries) {
+      rows.add(
+        Padding(
+          padding: const EdgeInsets.only(top: 6),
+          child: Text(
+            screen.key,
+            style: const TextStyle(
+              color: Colors.amber,
+              fontWeight: FontWeight.bold,
+            ),
+          ),
+        ),
+      );
+      for (final path in screen.value.entries) {
+        final m = path.value;
+        rows.add(
+          Text(
+            '${path.key}\n'
+            '  reads ${m.billedReads} (cache ${m.cacheReads}) '
+            'events ${m.listenerEvents} writes ${m.writes}\n'
+            '  ${(m.bytesRead / 1024).toStringAsFixed(1)} KB in, '
+            '${(m.bytesWritten / 1024).toStringAsFixed(1)} KB out, '
+            'p50/95/99 ${m.readLatency.percentile(50)}/'
+            '${m.readLatency.percentile(95)}/'
+            '${m.readLatency.percentile(99)} ms',
+            style: const TextStyle(color: Colors.white, fontSize: 10),
+          ),
+        );
+      }
+    }
+    return ConstrainedBox(
+      constraints: const BoxConstraints(maxWidth: 320, maxHeight: 360),
+      child: Column(
+        mainAxisSize: MainAxisSize.min,
+        crossAxisAlignment: CrossAxisAlignment.start,
+        children: [
+          _badge(),
+          Flexible(
+            child: SingleChildScrollView(
+              child: Column(
+                crossAxisAlignment: CrossAxisAlignment.start,
+                children: rows,
+              ),
+            ),
+          ),
+          Row(
+            children: [
+              TextButton(onPressed: _export, child: const Text('Export')),
+              TextButton(
+                onPressed: () => setState(_metrics.reset),
+                child: const Text('Reset'),
+              ),
+            ],
+          ),
+        ],
+      ),
+    );
+  }
+
+  @override
+  Widget build(BuildContext context) {
+    return Stack(
+      children: [
+        widget.child,
+        Positioned(
+          left: _position.dx,
+          top: _position.dy,
+          child: GestureDetector(
+            onTap: () => setState(() => _expanded = !_expanded),
+            onPanUpdate:
+                (details) => setState(() => _position += details.delta),
+            child: Material(
+              color: Colors.black87,
+              borderRadius: BorderRadius.circular(6),
+              child: Padding(
+                padding: const EdgeInsets.all(6),
+                child: _expanded ? _table() : _badge(),
+              ),
+            ),
+          ),
+        ),
+      ],
+    );
+  }
+}
@@ -0,0 +1,149 @@
+import 'dart:async';
+import 'dart:math';
+
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/foundation.dart';
+
+import 'firestore_metrics.dart';
+
+/// Outcome of one [GroupFanout.fanOut].
+class FanoutReport {
+  int recipients = 0;
+  int chunks = 0;
+  int retries = 0;
+
+  /// Recipients whose chunk still failed after the last attempt.
+  final List<String> failed = [];
+
+  /// The head writes (in the first chunk) did not land.
+  bool headFailed = false;
+
+  Duration elapsed = Duration.zero;
+
+  bool get ok => failed.isEmpty && !headFailed;
+
+  @override
+  String toString() =>
+      '$recipients recipients in $chunks chunks, $retries retries, '
+      '${failed.length} failed, ${elapsed.inMilliseconds} ms';
+}
+
+/// Writes one record per group member (call invitations, group events) in
+/// chunked batch commits that run concurrently, instead of one awaited write
+/// per member.
+///
+/// Recipients are split into chunks of [chunkSize] writes and up to
+/// [maxConcurrent] chunks are committed at a time. A chunk that fails is
+/// retried on its own with backoff, so members already notified are not
+/// written again. Writes should use client-chosen document ids, which makes
+/// a retry of a commit that did land overwrite rather than duplicate.
+/// Callers that should not wait (e.g. opening the call screen) can leave the
+/// returned future running.
+class GroupFanout {
+  GroupFanout({
+    FirebaseFirestore? firestore,
+    this.chunkSize = 400,
+    this.maxConcurrent = 8,
+    this.maxAttempts = 4,
+  }) : _firestore = firestore ?? FirebaseFirestore.instance;
+
+  static final GroupFanout instance = GroupFanout();
+
+  final FirebaseFirestore _firestore;
+
+  /// Writes per batch; Firestore caps a batch at 500.
+  final int chunkSize;
+  final int maxConcurrent;
+  final int maxAttempts;
+
+  final Random _random = Random();
+
+  /// Adds [write] for every recipient to batches and commits them. [head]
+  /// writes (e.g. the group message itself), [headWrites] of them, go into
+  /// the first chunk so they land atomically with the first recipients.
+  /// [path] names the collection the writes go to in [FirestoreMetrics].
+  Future<FanoutReport> fanOut({
+    Iterable<String> recipients = const [],
+    void Function(WriteBatch batch, String recipient)? write,
+    void Function(WriteBatch batch)? head,
+    int headWrites = 0,
+    String path = 'fanout',
+  }) async {
+    final stopwatch = Stopwatch()..start();
+    final report = FanoutReport();
+    final all = recipients.toSet().toList();
+    report.recipients = all.length;
+
+    final chunks = <List<String>>[];
+    final firstSize = max(1, chunkSize - headWrites);
+    if (all.isEmpty) {
+      if (head != null) chunks.add(const []);
+    } else {
+      chunks.add(all.sublist(0, min(firstSize, all.length)));
+      for (var i = firstSize; i < all.length; i += chunkSize) {
+        chunks.add(all.sublist(i, min(i + chunkSize, all.length)));
+      }
+    }
+    report.chunks = chunks.length;
+
+    var next = 0;
+    Future<void> worker() async {
+      while (next < chunks.length) {
+        final index = next++;
+        final chunk = chunks[index];
+        final ok = await _commit(
+          chunk,
+          write,
+          index == 0 ? head : null,
+          index == 0 ? headWrites : 0,
+          path,
+          report,
+        );
+        if (!ok) {
+          report.failed.addAll(chunk);
+          if (index == 0 && head != null) report.headFailed = true;
+        }
+      }
+    }
+
+    await Future.wait(
+      List.generate(min(maxConcurrent, chunks.length), (_) => worker()),
+    );
+    report.elapsed = stopwatch.elapsed;
+    if (!report.ok) debugPrint('Group fan-out incomplete: $report');
+    return report;
+  }
+
+  Future<bool> _commit(
+    List<String> chunk,
+    void Function(WriteBatch batch, String recipient)? write,
+    void Function(WriteBatch batch)? head,
+    int headWrites,
+    String path,
+    FanoutReport report,
+  ) async {
+    for (var attempt = 1; ; attempt++) {
+      // A fresh batch per attempt: a committed batch cannot be reused.
+      final batch = _firestore.batch();
+      head?.call(batch);
+      for (final recipient in chunk) {
+        write?.call(batch, recipient);
+      }
+      try {
+        await batch.trackedCommit(
+          path,
+          writes: chunk.length + headWrites,
+        );
+        return true;
+      } catch (e) {
+        if (attempt >= maxAttempts) {
+          debugPrint('Group fan-out chunk failed: $e');
+          return false;
+        }
+        report.retries++;
+        final backoff = 200 * pow(2, attempt - 1) + _random.nextInt(100);
+        await Future.delayed(Duration(milliseconds: backoff.toInt()));
+      }
+    }
+  }
+}
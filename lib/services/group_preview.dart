@@ -0,0 +1,79 @@
+import 'dart:async';
+
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/foundation.dart';
+
+import 'firestore_metrics.dart';
+
+/// The last-message preview of a group in the groups tab, `lastMessage` and
+/// `lastMessageAt` on `groups/{groupId}`.
+///
+/// Every member's groups tab listens to the group docs, so each write to one
+/// is read again by every member. Sends therefore do not touch the group
+/// doc: the message batch holds only the message, and the preview is written
+/// here on its own, at most once per [interval] per group. The first send
+/// after a quiet period is written straight away; later ones within the
+/// interval are coalesced and the newest is written when it ends, so the
+/// tab settles on the last message a few seconds late at worst.
+class GroupPreview {
+  GroupPreview({
+    FirebaseFirestore? firestore,
+    this.interval = const Duration(seconds: 10),
+  }) : _firestore = firestore ?? FirebaseFirestore.instance;
+
+  static final GroupPreview instance = GroupPreview();
+
+  final FirebaseFirestore _firestore;
+  final Duration interval;
+
+  final Map<String, _Preview> _groups = {};
+
+  int _updates = 0;
+  int _writes = 0;
+
+  Map<String, int> get stats => {'updates': _updates, 'writes': _writes};
+
+  /// Records [preview] as the newest message of [groupId].
+  void update(String groupId, String preview) {
+    _updates++;
+    final group = _groups.putIfAbsent(groupId, _Preview.new);
+    group.pending = preview;
+    if (group.timer != null) return; // written when the interval ends
+    final last = group.lastWrite;
+    final wait =
+        last == null
+            ? Duration.zero
+            : interval - DateTime.now().difference(last);
+    if (wait <= Duration.zero) {
+      _flush(groupId);
+    } else {
+      group.timer = Timer(wait, () => _flush(groupId));
+    }
+  }
+
+  void _flush(String groupId) {
+    final group = _groups[groupId];
+    if (group == null) return;
+    group.timer = null;
+    final preview = group.pending;
+    if (preview == null) return;
+    group.pending = null;
+    group.lastWrite = DateTime.now();
+    _writes++;
+    // Not awaited: the message itself has already landed.
+    _firestore
+        .collection('groups')
+        .doc(groupId)
+        .trackedUpdate({
+          'lastMessage': preview,
+          'lastMessageAt': FieldValue.serverTimestamp(),
+        })
+        .catchError((e) => debugPrint('Group preview update failed: $e'));
+  }
+}
+
+class _Preview {
+  DateTime? lastWrite;
+  String? pending;
+  Timer? timer;
+}
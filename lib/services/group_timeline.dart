@@ -0,0 +1,254 @@
+import 'dart:async';
+import 'dart:collection';
+
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/widgets.dart';
+
+import 'firestore_metrics.dart';
+import 'message_search.dart';
+
+/// One message of a group chat. Immutable: an edit replaces the instance,
+/// so rows can be cached per instance with `MessageRowCache`.
+class GroupTimelineMessage {
+  GroupTimelineMessage(this.id, this.data, this.time);
+
+  final String id;
+  final Map<String, dynamic> data;
+
+  /// The message's `timestamp`, or the time it was seen while its server
+  /// timestamp is still pending.
+  final DateTime time;
+
+  /// Firestore's order for `orderBy('timestamp')`: time, then document id.
+  int compareTo(GroupTimelineMessage other) {
+    final byTime = time.compareTo(other.time);
+    return byTime != 0 ? byTime : id.compareTo(other.id);
+  }
+}
+
+/// The messages of one calendar day (local time), oldest first.
+class TimelineSection {
+  TimelineSection(this.day);
+
+  /// Local midnight of the day.
+  final DateTime day;
+
+  final List<GroupTimelineMessage> _messages = [];
+
+  List<GroupTimelineMessage> get messages => UnmodifiableListView(_messages);
+
+  int get length => _messages.length;
+
+  /// Position of [message] in this section, or -1.
+  int indexOf(GroupTimelineMessage message) {
+    final i = _lowerBound(message);
+    return i < _messages.length && _messages[i].id == message.id ? i : -1;
+  }
+
+  /// First position whose message does not sort before [message].
+  int _lowerBound(GroupTimelineMessage message) {
+    var low = 0;
+    var high = _messages.length;
+    while (low < high) {
+      final mid = (low + high) >> 1;
+      if (_messages[mid].compareTo(message) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  void _insert(GroupTimelineMessage message) {
+    // New messages almost always sort last.
+    if (_messages.isEmpty || _messages.last.compareTo(message) < 0) {
+      _messages.add(message);
+    } else {
+      _messages.insert(_lowerBound(message), message);
+    }
+  }
+}
+
+/// A group's messages bucketed by day, kept up to date from the
+/// `groups/{groupId}/messages` listener started by [listen].
+///
+/// Only the documents in each snapshot's `docChanges` are touched: a new
+/// message is appended to its day (usually the last one), an edit replaces
+/// one entry, and a deletion removes it and drops its day once empty.
+/// Nothing is regrouped per snapshot, so the cost of a change does not grow
+/// with the length of the group's history.
+class GroupTimeline extends ChangeNotifier {
+  final List<TimelineSection> _sections = [];
+  final Map<String, GroupTimelineMessage> _byId = {};
+  StreamSubscription<QuerySnapshot<Map<String, dynamic>>>? _sub;
+  bool _hasLoaded = false;
+  bool _disposed = false;
+
+  /// True once the first snapshot has been applied.
+  bool get hasLoaded => _hasLoaded;
+
+  /// Days with at least one message, oldest first.
+  List<TimelineSection> get sections => UnmodifiableListView(_sections);
+
+  int get length => _byId.length;
+
+  GroupTimelineMessage? operator [](String id) => _byId[id];
+
+  /// Follows [collection], a group's `messages` subcollection.
+  void listen(CollectionReference<Map<String, dynamic>> collection) {
+    _sub ??= collection
+        .orderBy('timestamp')
+        .trackedSnapshots(path: 'groups/*/messages')
+        .listen((snapshot) {
+          _index(collection.path, snapshot.docChanges);
+          apply([
+            for (final change in snapshot.docChanges)
+              (
+                id: change.doc.id,
+                data:
+                    change.type == DocumentChangeType.removed
+                        ? null
+                        : change.doc.data(),
+              ),
+          ]);
+        }, onError: (e) => debugPrint('Group timeline listener failed: $e'));
+  }
+
+  /// Hands acknowledged text messages to [MessageSearch].
+  static void _index(
+    String chat,
+    List<DocumentChange<Map<String, dynamic>>> changes,
+  ) {
+    final removed = <String>[];
+    for (final change in changes) {
+      if (change.type == DocumentChangeType.removed) {
+        removed.add(change.doc.id);
+        continue;
+      }
+      final data = change.doc.data();
+      final ts = data?['timestamp'];
+      final text = data?['text'];
+      if (ts is! Timestamp || text is! String) continue;
+      MessageSearch.instance.index(
+        chat,
+        change.doc.id,
+        text,
+        ts.toDate(),
+        edited: change.type == DocumentChangeType.modified,
+      );
+    }
+    if (removed.isNotEmpty) MessageSearch.instance.remove(chat, removed);
+  }
+
+  /// Applies added or modified messages, and removals (null `data`), then
+  /// notifies once.
+  void apply(List<({String id, Map<String, dynamic>? data})> changes) {
+    for (final change in changes) {
+      final previous = _byId.remove(change.id);
+      final data = change.data;
+      if (data == null) {
+        if (previous != null) _remove(previous);
+        continue;
+      }
+      final ts = data['timestamp'];
+      final time =
+          ts is Timestamp
+              ? ts.toDate()
+              // Pending server timestamp: keep where it was first seen.
+              : previous?.time ?? DateTime.now();
+      final message = GroupTimelineMessage(change.id, data, time);
+      _byId[change.id] = message;
+      if (previous != null &&
+          previous.time == time &&
+          _replace(previous, message)) {
+        continue;
+      }
+      if (previous != null) _remove(previous);
+      _sectionFor(time)._insert(message);
+    }
+    _hasLoaded = true;
+    if (!_disposed) notifyListeners();
+  }
+
+  static DateTime _dayOf(DateTime time) =>
+      DateTime(time.year, time.month, time.day);
+
+  /// Index of the section for [day], or where it would be inserted.
+  int _sectionIndex(DateTime day) {
+    var low = 0;
+    var high = _sections.length;
+    while (low < high) {
+      final mid = (low + high) >> 1;
+      if (_sections[mid].day.isBefore(day)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  TimelineSection? _existingSection(DateTime time) {
+    final day = _dayOf(time);
+    final i = _sectionIndex(day);
+    return i < _sections.length && _sections[i].day == day
+        ? _sections[i]
+        : null;
+  }
+
+  TimelineSection _sectionFor(DateTime time) {
+    final day = _dayOf(time);
+    if (_sections.isNotEmpty && _sections.last.day == day) {
+      return _sections.last;
+    }
+    final i = _sectionIndex(day);
+    if (i < _sections.length && _sections[i].day == day) return _sections[i];
+    final section = TimelineSection(day);
+    _sections.insert(i, section);
+    return section;
+  }
+
+  /// Position of message [id] counted across all sections, oldest first.
+  int? positionOf(String id) {
+    final message = _byId[id];
+    if (message == null) return null;
+    var before = 0;
+    for (final section in _sections) {
+      if (section.day == _dayOf(message.time)) {
+        final i = section.indexOf(message);
+        return i < 0 ? null : before + i;
+      }
+      before += section.length;
+    }
+    return null;
+  }
+
+  /// The section holding [message], if any.
+  TimelineSection? sectionOf(GroupTimelineMessage message) =>
+      _existingSection(message.time);
+
+  bool _replace(GroupTimelineMessage previous, GroupTimelineMessage next) {
+    final section = _existingSection(previous.time);
+    final i = section?.indexOf(previous) ?? -1;
+    if (i < 0) return false;
+    section!._messages[i] = next;
+    return true;
+  }
+
+  void _remove(GroupTimelineMessage message) {
+    final section = _existingSection(message.time);
+    if (section == null) return;
+    final i = section.indexOf(message);
+    if (i < 0) return;
+    section._messages.removeAt(i);
+    if (section._messages.isEmpty) _sections.remove(section);
+  }
+
+  @override
+  void dispose() {
+    _disposed = true;
+    _sub?.cancel();
+    super.dispose();
+  }
+}
@@ -0,0 +1,188 @@
+import 'dart:async';
+import 'dart:math';
+
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/foundation.dart';
+import 'package:location/location.dart';
+
+import 'chat_message.dart';
+import 'firestore_metrics.dart';
+
+/// Decides which GPS fixes of a live share are worth a write.
+///
+/// A fix is sent once the sender has moved at least [minDistanceMeters]
+/// from the last sent position and [minInterval] has passed, or once
+/// [maxInterval] has passed without a write so viewers can tell the share is
+/// still alive. Fixes are judged by their own time, which keeps replays of
+/// recorded traces deterministic.
+class LocationThrottle {
+  LocationThrottle({
+    this.minDistanceMeters = 30,
+    this.minInterval = const Duration(seconds: 5),
+    this.maxInterval = const Duration(seconds: 60),
+  });
+
+  final double minDistanceMeters;
+  final Duration minInterval;
+  final Duration maxInterval;
+
+  double? _lat;
+  double? _lng;
+  DateTime? _at;
+
+  bool shouldSend(double lat, double lng, DateTime at) {
+    final lastAt = _at;
+    if (lastAt == null) return _accept(lat, lng, at);
+    final elapsed = at.difference(lastAt);
+    if (elapsed >= maxInterval) return _accept(lat, lng, at);
+    if (elapsed < minInterval) return false;
+    if (distanceMeters(_lat!, _lng!, lat, lng) < minDistanceMeters) {
+      return false;
+    }
+    return _accept(lat, lng, at);
+  }
+
+  bool _accept(double lat, double lng, DateTime at) {
+    _lat = lat;
+    _lng = lng;
+    _at = at;
+    return true;
+  }
+
+  /// Great-circle distance in meters.
+  static double distanceMeters(
+    double lat1,
+    double lng1,
+    double lat2,
+    double lng2,
+  ) {
+    const earthRadius = 6371000.0;
+    double rad(double deg) => deg * pi / 180;
+    final dLat = rad(lat2 - lat1);
+    final dLng = rad(lng2 - lng1);
+    final a =
+        sin(dLat / 2) * sin(dLat / 2) +
+        cos(rad(lat1)) * cos(rad(lat2)) * sin(dLng / 2) * sin(dLng / 2);
+    return 2 * earthRadius * asin(sqrt(a));
+  }
+}
+
+/// One live share: a single `type: 'location'` message that is updated in
+/// place until it is stopped or [expiresAt] passes.
+class LiveLocationSession {
+  LiveLocationSession._(this.chatId, this.message, this.expiresAt);
+
+  final String chatId;
+  final DocumentReference<Map<String, dynamic>> message;
+  final DateTime expiresAt;
+
+  StreamSubscription<LocationData>? _fixes;
+  Timer? _expiry;
+  int fixes = 0;
+  int writes = 0;
+}
+
+/// Live location sharing, one session per chat.
+///
+/// Starting a share writes one compact location message (see
+/// [ChatMessage.compact]) that is live until its `liveUntil`; later fixes
+/// only update its `lat`/`lng`, throttled by
+/// [LocationThrottle]. The chat therefore shows a single bubble that moves,
+/// instead of a new message per GPS fix. Sessions live here rather than in
+/// the map screen, so they keep running after the user goes back to the
+/// chat.
+class LiveLocationSharing extends ChangeNotifier {
+  LiveLocationSharing({FirebaseFirestore? firestore})
+    : _firestore = firestore ?? FirebaseFirestore.instance;
+
+  static final LiveLocationSharing instance = LiveLocationSharing();
+
+  static const Duration defaultDuration = Duration(hours: 1);
+
+  final FirebaseFirestore _firestore;
+  final Map<String, LiveLocationSession> _sessions = {};
+
+  bool isSharing(String chatId) => _sessions.containsKey(chatId);
+
+  LiveLocationSession? sessionFor(String chatId) => _sessions[chatId];
+
+  /// Starts sharing [first] and every throttled fix from [fixes] to
+  /// [chatId] for [duration]. Replaces a share already running there.
+  Future<LiveLocationSession> start({
+    required String chatId,
+    required String senderId,
+    required LocationData first,
+    required Stream<LocationData> fixes,
+    Duration duration = defaultDuration,
+    LocationThrottle? throttle,
+  }) async {
+    await stop(chatId);
+    final gate = throttle ?? LocationThrottle();
+    final expiresAt = DateTime.now().add(duration);
+    final ref =
+        _firestore
+            .collection('messages')
+            .doc(chatId)
+            .collection('chats')
+            .doc();
+    final session = LiveLocationSession._(chatId, ref, expiresAt);
+    _sessions[chatId] = session;
+
+    gate.shouldSend(first.latitude!, first.longitude!, _timeOf(first));
+    session.writes++;
+    // Not awaited: offline, the write only resolves once reconnected.
+    ref
+        .trackedSet(
+          ChatMessage.compact(
+            senderId: senderId,
+            type: 'location',
+            lat: first.latitude,
+            lng: first.longitude,
+            isLive: true,
+            liveUntil: Timestamp.fromDate(expiresAt),
+            timestamp: FieldValue.serverTimestamp(),
+          ),
+        )
+        .catchError((e) => debugPrint('Live location start failed: $e'));
+
+    session._fixes = fixes.listen((fix) {
+      final lat = fix.latitude;
+      final lng = fix.longitude;
+      if (lat == null || lng == null) return;
+      session.fixes++;
+      if (!gate.shouldSend(lat, lng, _timeOf(fix))) return;
+      session.writes++;
+      ref
+          .trackedUpdate({ChatMessage.latKey: lat, ChatMessage.lngKey: lng})
+          .catchError((e) => debugPrint('Live location update failed: $e'));
+    });
+    session._expiry = Timer(duration, () => stop(chatId));
+    notifyListeners();
+    return session;
+  }
+
+  /// Ends the share in [chatId]; the bubble then shows it as ended.
+  Future<void> stop(String chatId) async {
+    final session = _sessions.remove(chatId);
+    if (session == null) return;
+    session._expiry?.cancel();
+    await session._fixes?.cancel();
+    notifyListeners();
+    session.writes++;
+    try {
+      await session.message.trackedUpdate({
+        ChatMessage.liveKey: false,
+        ChatMessage.liveUntilKey: FieldValue.serverTimestamp(),
+      });
+    } catch (e) {
+      debugPrint('Ending live location failed: $e');
+    }
+  }
+
+  static DateTime _timeOf(LocationData fix) {
+    final time = fix.time;
+    return time == null
+        ? DateTime.now()
+        : DateTime.fromMillisecondsSinceEpoch(time.toInt());
+  }
+}
@@ -0,0 +1,201 @@
+import 'dart:async';
+import 'dart:collection';
+import 'dart:convert';
+import 'dart:io';
+import 'dart:isolate';
+import 'dart:math';
+import 'dart:typed_data';
+
+import 'package:crypto/crypto.dart';
+import 'package:flutter/foundation.dart';
+import 'package:flutter_image_compress/flutter_image_compress.dart';
+
+/// A unit of CPU-bound work run on a [MediaWorkers] isolate. Subclasses must
+/// only hold sendable fields (strings, numbers, typed data).
+abstract class MediaJob<R> {
+  const MediaJob();
+
+  R run();
+}
+
+class Base64EncodeJob extends MediaJob<String> {
+  Base64EncodeJob(Uint8List bytes)
+    : _bytes = TransferableTypedData.fromList([bytes]);
+
+  final TransferableTypedData _bytes;
+
+  @override
+  String run() => base64Encode(_bytes.materialize().asUint8List());
+}
+
+class Base64DecodeJob extends MediaJob<TransferableTypedData> {
+  const Base64DecodeJob(this.data);
+
+  final String data;
+
+  @override
+  TransferableTypedData run() =>
+      TransferableTypedData.fromList([base64Decode(data)]);
+}
+
+class Sha256Job extends MediaJob<String> {
+  Sha256Job(Uint8List bytes)
+    : _bytes = TransferableTypedData.fromList([bytes]);
+
+  final TransferableTypedData _bytes;
+
+  @override
+  String run() => sha256.convert(_bytes.materialize().asUint8List()).toString();
+}
+
+/// Thrown for a discardable job that was pushed out of a full queue.
+class MediaJobDiscarded implements Exception {
+  const MediaJobDiscarded();
+
+  @override
+  String toString() => 'MediaJobDiscarded';
+}
+
+/// Pool of long-lived worker isolates for media work that would otherwise
+/// stall the UI isolate: base64 encode/decode of image payloads and content
+/// hashing. Image compression and thumbnails go through the native
+/// compressor and decoding to `ui.Image` through the engine codec (see
+/// `Base64Image`), so neither runs Dart code on the UI isolate either.
+///
+/// Back-pressure: at most [maxQueued] jobs wait for a worker. Once the queue
+/// is full, [run] waits for room, except for `discardable` jobs (bubble
+/// decodes while scrolling) which instead push out the oldest queued
+/// discardable job, failing it with [MediaJobDiscarded].
+class MediaWorkers {
+  MediaWorkers._({int? size, this.maxQueued = 64})
+    : size = size ?? max(1, min(3, Platform.numberOfProcessors - 1));
+
+  static final MediaWorkers instance = MediaWorkers._();
+
+  final int size;
+  final int maxQueued;
+
+  final List<_Worker> _idle = [];
+  final Queue<_QueuedJob> _queue = Queue();
+  final Queue<Completer<void>> _waitingForRoom = Queue();
+  Future<void>? _starting;
+
+  Future<void> _start() => _starting ??= Future.wait(
+    List.generate(size, (i) => _Worker.spawn('media-worker-$i')),
+  ).then(_idle.addAll);
+
+  /// Runs [job] on a worker and completes with its result.
+  Future<R> run<R>(MediaJob<R> job, {bool discardable = false}) async {
+    while (_queue.length >= maxQueued) {
+      if (discardable) {
+        final oldest = _queue.where((q) => q.discardable).firstOrNull;
+        if (oldest != null) {
+          _queue.remove(oldest);
+          oldest.completer.completeError(const MediaJobDiscarded());
+          break;
+        }
+      }
+      final room = Completer<void>();
+      _waitingForRoom.add(room);
+      await room.future;
+    }
+
+    final queued = _QueuedJob(job, discardable);
+    _queue.add(queued);
+    await _start();
+    _pump();
+    return (await queued.completer.future) as R;
+  }
+
+  void _pump() {
+    while (_idle.isNotEmpty && _queue.isNotEmpty) {
+      final worker = _idle.removeLast();
+      final next = _queue.removeFirst();
+      if (_waitingForRoom.isNotEmpty) _waitingForRoom.removeFirst().complete();
+      worker
+          .run(next.job)
+          .then(
+            next.completer.complete,
+            onError: next.completer.completeError,
+          )
+          .whenComplete(() {
+            _idle.add(worker);
+            _pump();
+          });
+    }
+  }
+
+  Future<String> encodeBase64(Uint8List bytes) => run(Base64EncodeJob(bytes));
+
+  Future<Uint8List> decodeBase64(
+    String data, {
+    bool discardable = false,
+  }) async {
+    final result = await run(Base64DecodeJob(data), discardable: discardable);
+    return result.materialize().asUint8List();
+  }
+
+  Future<String> sha256Of(Uint8List bytes) => run(Sha256Job(bytes));
+
+  /// Compresses [file] with the native encoder and base64-encodes the result
+  /// on a worker. Returns null if the compressor produced nothing.
+  Future<String?> compressToBase64(
+    File file, {
+    int minWidth = 640,
+    int minHeight = 640,
+    int quality = 50,
+  }) async {
+    final compressed = await FlutterImageCompress.compressWithFile(
+      file.absolute.path,
+      minWidth: minWidth,
+      minHeight: minHeight,
+      quality: quality,
+    );
+    if (compressed == null) return null;
+    return encodeBase64(compressed);
+  }
+}
+
+class _QueuedJob {
+  _QueuedJob(this.job, this.discardable);
+
+  final MediaJob job;
+  final bool discardable;
+  final Completer<Object?> completer = Completer();
+}
+
+class _Worker {
+  _Worker._(this._commands, this._responses);
+
+  final SendPort _commands;
+  final Stream<dynamic> _responses;
+
+  static Future<_Worker> spawn(String name) async {
+    final port = ReceivePort();
+    await Isolate.spawn(_main, port.sendPort, debugName: name);
+    final responses = port.asBroadcastStream();
+    final commands = await responses.first as SendPort;
+    return _Worker._(commands, responses);
+  }
+
+  /// One job at a time; the pool never hands a busy worker another job.
+  Future<Object?> run(MediaJob job) async {
+    _commands.send(job);
+    final response = await _responses.first as List;
+    if (response[0] == true) return response[1];
+    throw RemoteError(response[1] as String, response[2] as String);
+  }
+
+  static void _main(SendPort results) {
+    final commands = ReceivePort();
+    results.send(commands.sendPort);
+    commands.listen((message) {
+      try {
+        results.send([true, (message as MediaJob).run()]);
+      } catch (e, stack) {
+        debugPrint('Media job failed: $e');
+        results.send([false, '$e', '$stack']);
+      }
+    });
+  }
+}
@@ -0,0 +1,310 @@
+import 'dart:async';
+
+import 'package:flutter/foundation.dart';
+import 'package:path/path.dart' as p;
+import 'package:sqflite/sqflite.dart';
+
+/// A message that matched a [MessageSearch] query.
+@immutable
+class SearchHit {
+  const SearchHit({
+    required this.chat,
+    required this.id,
+    required this.time,
+    required this.snippet,
+  });
+
+  /// Marks the matched words in [snippet].
+  static const String matchStart = '\u0002';
+  static const String matchEnd = '\u0003';
+
+  /// The messages collection the message lives in, e.g.
+  /// `messages/{chatId}/chats` or `groups/{groupId}/messages`.
+  final String chat;
+  final String id;
+  final DateTime time;
+
+  /// Text around the match, with matched words between [matchStart] and
+  /// [matchEnd].
+  final String snippet;
+}
+
+/// On-device full-text index over the text of one-to-one and group
+/// messages, in SQLite FTS4 (available in the platform SQLite on Android and
+/// iOS, unlike FTS5):
+///
+///     messages      docid, chat, id, ts, body, scope
+///     messages_fts  external-content FTS4 over body and scope
+///
+/// The chat screens feed it from the same snapshots they render
+/// (`MessageWindow`, `GroupTimeline`): [index] and [remove] only queue, and
+/// the queue is written in one batch shortly after. Per chat, the ids
+/// already indexed are loaded once per session so reopening a chat does
+/// not rewrite its history.
+///
+/// `docid` is derived from the message time, and the FTS table is stored
+/// in descending docid order, so "newest first" is the index's own order
+/// and a query stops after [search]'s limit instead of sorting every
+/// match. `scope` holds one opaque token per chat to restrict a query to a
+/// chat inside the same MATCH.
+class MessageSearch {
+  MessageSearch({this.fileName = 'message_search.db'});
+
+  static final MessageSearch instance = MessageSearch();
+
+  final String fileName;
+
+  Future<Database>? _db;
+  final Map<String, Map<String, _Pending>> _pending = {};
+  final Map<String, Set<String>> _known = {};
+  Timer? _flushTimer;
+  Future<void> _flushing = Future.value();
+
+  int _indexed = 0;
+  int _queries = 0;
+
+  Map<String, int> get stats => {'indexed': _indexed, 'queries': _queries};
+
+  Future<Database> _open() => _db ??= _openDatabase();
+
+  Future<Database> _openDatabase() async {
+    final path = p.join(await getDatabasesPath(), fileName);
+    return openDatabase(
+      path,
+      version: 1,
+      onCreate: (db, version) async {
+        await db.execute('''
+          CREATE TABLE messages(
+            docid INTEGER PRIMARY KEY,
+            chat TEXT NOT NULL,
+            id TEXT NOT NULL,
+            ts INTEGER NOT NULL,
+            body TEXT NOT NULL,
+            scope TEXT NOT NULL,
+            UNIQUE(chat, id)
+          )''');
+        await db.execute('''
+          CREATE VIRTUAL TABLE messages_fts USING fts4(
+            content="messages", body, scope, order=DESC, prefix="2,3"
+          )''');
+        // Keeps the external-content index in step with the table.
+        await db.execute('''
+          CREATE TRIGGER messages_bu BEFORE UPDATE ON messages BEGIN
+            DELETE FROM messages_fts WHERE docid = old.docid;
+          END''');
+        await db.execute('''
+          CREATE TRIGGER messages_bd BEFORE DELETE ON messages BEGIN
+            DELETE FROM messages_fts WHERE docid = old.docid;
+          END''');
+        await db.execute('''
+          CREATE TRIGGER messages_au AFTER UPDATE ON messages BEGIN
+            INSERT INTO messages_fts(docid, body, scope)
+            VALUES (new.docid, new.body, new.scope);
+          END''');
+        await db.execute('''
+          CREATE TRIGGER messages_ai AFTER INSERT ON messages BEGIN
+            INSERT INTO messages_fts(docid, body, scope)
+            VALUES (new.docid, new.body, new.scope);
+          END''');
+      },
+    );
+  }
+
+  /// Queues message [id] of [chat] with its [text]. Already indexed
+  /// messages are skipped unless [edited].
+  void index(
+    String chat,
+    String id,
+    String text,
+    DateTime time, {
+    bool edited = false,
+  }) {
+    if (text.trim().isEmpty) return;
+    (_pending[chat] ??= {})[id] = _Pending(text, time, edited);
+    _scheduleFlush();
+  }
+
+  /// Queues the removal of [ids] from [chat].
+  void remove(String chat, Iterable<String> ids) {
+    final pending = _pending[chat] ??= {};
+    for (final id in ids) {
+      pending[id] = const _Pending.removed();
+    }
+    _scheduleFlush();
+  }
+
+  /// Drops everything indexed for [chat], e.g. after the chat is cleared.
+  Future<void> removeChat(String chat) async {
+    await flush();
+    _pending.remove(chat);
+    _known.remove(chat);
+    final db = await _open();
+    await db.rawDelete('DELETE FROM messages WHERE chat = ?', [chat]);
+  }
+
+  void _scheduleFlush() {
+    _flushTimer ??= Timer(const Duration(milliseconds: 500), flush);
+  }
+
+  /// Writes everything queued so far.
+  Future<void> flush() {
+    _flushTimer?.cancel();
+    _flushTimer = null;
+    if (_pending.isEmpty) return _flushing;
+    final pending = Map.of(_pending);
+    _pending.clear();
+    return _flushing = _flushing.then((_) => _write(pending)).catchError((e) {
+      debugPrint('Message search index write failed: $e');
+    });
+  }
+
+  Future<void> _write(Map<String, Map<String, _Pending>> pending) async {
+    final db = await _open();
+    final batch = db.batch();
+    for (final chat in pending.entries) {
+      final known = await _knownIds(db, chat.key);
+      final scope = scopeToken(chat.key);
+      for (final entry in chat.value.entries) {
+        final id = entry.key;
+        final message = entry.value;
+        if (message.text == null) {
+          if (known.remove(id)) {
+            batch.rawDelete('DELETE FROM messages WHERE chat = ? AND id = ?', [
+              chat.key,
+              id,
+            ]);
+          }
+          continue;
+        }
+        if (known.contains(id) && !message.edited) continue;
+        final ts = message.time!.millisecondsSinceEpoch;
+        batch.rawInsert(
+          'INSERT OR IGNORE INTO messages(docid, chat, id, ts, body, scope) '
+          'VALUES (?, ?, ?, ?, ?, ?)',
+          [docIdFor(id, ts), chat.key, id, ts, message.text, scope],
+        );
+        if (message.edited) {
+          batch.rawUpdate(
+            'UPDATE messages SET body = ? '
+            'WHERE chat = ? AND id = ? AND body != ?',
+            [message.text, chat.key, id, message.text],
+          );
+        }
+        known.add(id);
+        _indexed++;
+      }
+    }
+    await batch.commit(noResult: true);
+  }
+
+  Future<Set<String>> _knownIds(Database db, String chat) async {
+    final cached = _known[chat];
+    if (cached != null) return cached;
+    final rows = await db.rawQuery('SELECT id FROM messages WHERE chat = ?', [
+      chat,
+    ]);
+    return _known[chat] = {for (final row in rows) row['id'] as String};
+  }
+
+  /// Messages matching [query], newest first, in [chat] or in every chat.
+  ///
+  /// Words must all appear; the last word also matches as a prefix while
+  /// it is being typed, as does any word ending in `*`. Text in double
+  /// quotes must appear as a phrase.
+  Future<List<SearchHit>> search(
+    String query, {
+    String? chat,
+    int limit = 50,
+  }) async {
+    final match = matchQuery(query, chat: chat);
+    if (match == null) return const [];
+    await flush();
+    final db = await _open();
+    _queries++;
+    final rows = await db.rawQuery(
+      'SELECT m.chat, m.id, m.ts, '
+      "snippet(messages_fts, ?, ?, '…', 0, 12) AS snippet "
+      'FROM messages_fts JOIN messages m ON m.docid = messages_fts.docid '
+      'WHERE messages_fts MATCH ? '
+      'ORDER BY messages_fts.docid DESC LIMIT ?',
+      [SearchHit.matchStart, SearchHit.matchEnd, match, limit],
+    );
+    return [
+      for (final row in rows)
+        SearchHit(
+          chat: row['chat'] as String,
+          id: row['id'] as String,
+          time: DateTime.fromMillisecondsSinceEpoch(row['ts'] as int),
+          snippet: row['snippet'] as String? ?? '',
+        ),
+    ];
+  }
+
+  /// Orders by time; the low digits keep two messages of the same
+  /// millisecond apart (a clash of both is ignored, not overwritten).
+  static int docIdFor(String id, int ts) => ts * 1000 + _fnv(id) % 1000;
+
+  /// The single token that stands for [chat] in the `scope` column.
+  static String scopeToken(String chat) => 'c${_fnv(chat).toRadixString(16)}';
+
+  /// Non-negative 63-bit FNV-1a hash; stable across runs, unlike hashCode.
+  static int _fnv(String value) {
+    var hash = 0xcbf29ce484222325;
+    for (final unit in value.codeUnits) {
+      hash = (hash ^ unit) * 0x100000001b3;
+    }
+    return hash & 0x7fffffffffffffff;
+  }
+
+  /// Words as the FTS "simple" tokenizer sees them: split on ASCII
+  /// punctuation and space, ASCII letters lowercased.
+  static List<String> _words(String text) => [
+    for (final word in text.split(_separators))
+      if (word.isNotEmpty)
+        word.replaceAllMapped(_upper, (m) => m[0]!.toLowerCase()),
+  ];
+
+  static final RegExp _separators = RegExp(
+    r'[\x00-\x2f\x3a-\x40\x5b-\x60\x7b-\x7f]+',
+  );
+  static final RegExp _upper = RegExp('[A-Z]');
+
+  /// The FTS MATCH expression for what the user typed, or null if it has
+  /// no words. Only the `body` column is searched; [chat] adds its scope.
+  static String? matchQuery(String input, {String? chat}) {
+    final terms = <String>[];
+    final phrase = RegExp(r'"([^"]*)"?');
+    for (final match in phrase.allMatches(input)) {
+      final words = _words(match[1]!);
+      if (words.isNotEmpty) terms.add('body:"${words.join(' ')}"');
+    }
+    final bare = input.replaceAll(phrase, ' ').trim().split(RegExp(r'\s+'));
+    final typing = !input.endsWith(' ') && !input.trimRight().endsWith('"');
+    for (var i = 0; i < bare.length; i++) {
+      final words = _words(bare[i]);
+      if (words.isEmpty) continue;
+      final prefix =
+          bare[i].endsWith('*') || (typing && i == bare.length - 1);
+      final star = prefix ? '*' : '';
+      terms.add(
+        words.length == 1
+            ? 'body:${words.single}$star'
+            : 'body:"${words.join(' ')}$star"',
+      );
+    }
+    if (terms.isEmpty) return null;
+    if (chat != null) terms.add('scope:${scopeToken(chat)}');
+    return terms.join(' ');
+  }
+}
+
+class _Pending {
+  const _Pending(String this.text, DateTime this.time, this.edited);
+
+  const _Pending.removed() : text = null, time = null, edited = false;
+
+  /// Null for a removal.
+  final String? text;
+  final DateTime? time;
+  final bool edited;
+}
@@ -0,0 +1,328 @@
+import 'dart:async';
+import 'dart:convert';
+import 'dart:io';
+
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/foundation.dart';
+import 'package:path/path.dart' as p;
+import 'package:path_provider/path_provider.dart';
+import 'package:sqflite/sqflite.dart';
+
+/// On-device copy of chat messages, keyed by `chatId`, in SQLite:
+///
+///     messages  chat, ts, id, data, image  primary key (chat, ts, id)
+///     chats     chat, synced_up_to
+///
+/// `data` is the message as JSON without its inline image; `image` marks
+/// messages whose base64 image is kept as a file under `message_media/`,
+/// read only for the messages being loaded. Every change writes just the
+/// rows it touches, so neither writes nor opening a chat get slower as the
+/// history grows. `synced_up_to` is the newest server timestamp persisted.
+/// Screens render from here first and then only ask Firestore for
+/// documents newer than that cursor.
+///
+/// Messages are plain maps carrying their document id under `id`, the same
+/// shape [MessageWindow] hands to the chat list.
+class MessageStore {
+  MessageStore({this.fileName = 'message_store.db'});
+
+  static final MessageStore instance = MessageStore();
+
+  /// Upper bound of messages kept per chat; older ones are paged from the
+  /// server on demand.
+  static const int maxMessagesPerChat = 2000;
+
+  static const String _imageField = 'imageData';
+
+  final String fileName;
+
+  Future<Database>? _db;
+  Directory? _media;
+  Future<void> _tail = Future.value();
+
+  Future<Database> _open() => _db ??= _openDatabase();
+
+  Future<Database> _openDatabase() async {
+    final docs = await getApplicationDocumentsDirectory();
+    _media = Directory(
+      p.join(docs.path, 'message_media', p.basenameWithoutExtension(fileName)),
+    );
+    // The JSON files of the previous format; the cache refills itself.
+    final legacy = Directory(p.join(docs.path, 'message_store'));
+    if (await legacy.exists()) await legacy.delete(recursive: true);
+
+    final path = p.join(await getDatabasesPath(), fileName);
+    return openDatabase(
+      path,
+      version: 1,
+      onCreate: (db, version) async {
+        await db.execute('''
+          CREATE TABLE messages(
+            chat TEXT NOT NULL,
+            ts INTEGER NOT NULL,
+            id TEXT NOT NULL,
+            data TEXT NOT NULL,
+            image INTEGER NOT NULL DEFAULT 0,
+            PRIMARY KEY(chat, ts, id)
+          ) WITHOUT ROWID''');
+        await db.execute(
+          'CREATE UNIQUE INDEX messages_by_id ON messages(chat, id)',
+        );
+        await db.execute('''
+          CREATE TABLE chats(
+            chat TEXT PRIMARY KEY,
+            synced_up_to INTEGER
+          )''');
+      },
+    );
+  }
+
+  /// Runs [op] after every operation started before it. Writes are not
+  /// awaited by their callers, so this is what lets a later read see them,
+  /// image files included.
+  Future<T> _run<T>(Future<T> Function(Database db) op) {
+    final result = _tail.then((_) async => op(await _open()));
+    _tail = result.then<void>((_) {}, onError: (_) {});
+    return result;
+  }
+
+  /// Like [_run], for writes: failures are logged, the cache is only a
+  /// cache.
+  Future<void> _write(Future<void> Function(Database db) op) =>
+      _run(op).catchError((Object e) {
+        debugPrint('Failed to persist message cache: $e');
+      });
+
+  File _imageFile(String chatId, String id) =>
+      File(p.join(_media!.path, chatId, id));
+
+  /// The newest [limit] cached messages of [chatId], oldest first.
+  Future<List<Map<String, dynamic>>> latest(String chatId, int limit) =>
+      _run(
+        (db) async => _decodeRows(
+          chatId,
+          await db.rawQuery(
+            'SELECT id, data, image FROM messages WHERE chat = ? '
+            'ORDER BY ts DESC, id DESC LIMIT ?',
+            [chatId, limit],
+          ),
+        ),
+      );
+
+  /// Up to [limit] cached messages strictly older than [before].
+  Future<List<Map<String, dynamic>>> olderThan(
+    String chatId,
+    Timestamp before,
+    int limit,
+  ) => _run(
+    (db) async => _decodeRows(
+      chatId,
+      await db.rawQuery(
+        'SELECT id, data, image FROM messages WHERE chat = ? AND ts < ? '
+        'ORDER BY ts DESC, id DESC LIMIT ?',
+        [chatId, before.microsecondsSinceEpoch, limit],
+      ),
+    ),
+  );
+
+  /// Newest server timestamp persisted for [chatId], if any.
+  Future<Timestamp?> syncedUpTo(String chatId) => _run((db) async {
+    final rows = await db.rawQuery(
+      'SELECT synced_up_to FROM chats WHERE chat = ?',
+      [chatId],
+    );
+    final micros = rows.isEmpty ? null : rows.first['synced_up_to'] as int?;
+    return micros == null ? null : Timestamp.fromMicrosecondsSinceEpoch(micros);
+  });
+
+  /// Inserts or replaces [messages]. Pending local writes are skipped; they
+  /// are stored once the server has acknowledged them.
+  Future<void> upsert(
+    String chatId,
+    Iterable<Map<String, dynamic>> messages,
+  ) {
+    final rows = messages.where(_isPersistable).toList();
+    if (rows.isEmpty) return Future.value();
+    return _write((db) async {
+      final batch = db.batch();
+      await _put(batch, chatId, rows);
+      await batch.commit(noResult: true);
+    });
+  }
+
+  static bool _isPersistable(Map<String, dynamic> message) =>
+      message['timestamp'] is Timestamp && message['pending'] != true;
+
+  /// Adds the writes for [messages] to [batch] and stores their images.
+  Future<void> _put(
+    Batch batch,
+    String chatId,
+    List<Map<String, dynamic>> messages,
+  ) async {
+    var newest = 0;
+    for (final message in messages) {
+      final id = message['id'] as String;
+      final ts = (message['timestamp'] as Timestamp).microsecondsSinceEpoch;
+      final image = message[_imageField];
+      if (image is String) {
+        // Images never change once sent; write each file once.
+        final file = _imageFile(chatId, id);
+        if (!await file.exists()) {
+          await file.create(recursive: true);
+          await file.writeAsString(image);
+        }
+      }
+      batch.rawInsert(
+        'INSERT OR REPLACE INTO messages(chat, ts, id, data, image) '
+        'VALUES (?, ?, ?, ?, ?)',
+        [chatId, ts, id, jsonEncode(_encode(message)), image is String ? 1 : 0],
+      );
+      if (ts > newest) newest = ts;
+    }
+    batch.rawInsert('INSERT OR IGNORE INTO chats(chat) VALUES (?)', [chatId]);
+    batch.rawUpdate(
+      'UPDATE chats SET synced_up_to = ? '
+      'WHERE chat = ? AND (synced_up_to IS NULL OR synced_up_to < ?)',
+      [newest, chatId, newest],
+    );
+  }
+
+  Future<void> remove(String chatId, Iterable<String> ids) {
+    final list = ids.toList();
+    if (list.isEmpty) return Future.value();
+    return _write((db) async {
+      final batch = db.batch();
+      for (final id in list) {
+        batch.rawDelete('DELETE FROM messages WHERE chat = ? AND id = ?', [
+          chatId,
+          id,
+        ]);
+      }
+      await batch.commit(noResult: true);
+      await _deleteImages(chatId, list);
+    });
+  }
+
+  /// Drops every cached message of [chatId], e.g. after the chat is cleared.
+  Future<void> clear(String chatId) => _write((db) async {
+    final batch = db.batch()
+      ..rawDelete('DELETE FROM messages WHERE chat = ?', [chatId])
+      ..rawDelete('DELETE FROM chats WHERE chat = ?', [chatId]);
+    await batch.commit(noResult: true);
+    final dir = Directory(p.join(_media!.path, chatId));
+    if (await dir.exists()) await dir.delete(recursive: true);
+  });
+
+  /// Reconciles the cache against an authoritative server page that covers
+  /// everything from [page]'s first timestamp onwards: cached messages in
+  /// that range which the server no longer returns were deleted or cleared.
+  /// Also trims the chat to [maxMessagesPerChat]; this runs once per open,
+  /// which keeps the trim off the path of every incoming message.
+  Future<void> reconcileTail(
+    String chatId,
+    List<Map<String, dynamic>> page, {
+    required bool isCompleteHistory,
+  }) => _write((db) async {
+    final ids = page.map((m) => m['id'] as String).toSet();
+    final from = page.isEmpty ? null : page.first['timestamp'];
+    final List<Map<String, Object?>> inRange;
+    if (isCompleteHistory) {
+      inRange = await db.rawQuery('SELECT id FROM messages WHERE chat = ?', [
+        chatId,
+      ]);
+    } else if (from is Timestamp) {
+      inRange = await db.rawQuery(
+        'SELECT id FROM messages WHERE chat = ? AND ts >= ?',
+        [chatId, from.microsecondsSinceEpoch],
+      );
+    } else {
+      inRange = const [];
+    }
+    final stale = [
+      for (final row in inRange)
+        if (!ids.contains(row['id'])) row['id'] as String,
+    ];
+
+    final batch = db.batch();
+    for (final id in stale) {
+      batch.rawDelete('DELETE FROM messages WHERE chat = ? AND id = ?', [
+        chatId,
+        id,
+      ]);
+    }
+    final rows = page.where(_isPersistable).toList();
+    if (rows.isNotEmpty) await _put(batch, chatId, rows);
+    await batch.commit(noResult: true);
+    await _deleteImages(chatId, stale);
+    await _trim(db, chatId);
+  });
+
+  Future<void> _trim(Database db, String chatId) async {
+    final excess = await db.rawQuery(
+      'SELECT id FROM messages WHERE chat = ? '
+      'ORDER BY ts DESC, id DESC LIMIT -1 OFFSET ?',
+      [chatId, maxMessagesPerChat],
+    );
+    if (excess.isEmpty) return;
+    final ids = [for (final row in excess) row['id'] as String];
+    final batch = db.batch();
+    for (final id in ids) {
+      batch.rawDelete('DELETE FROM messages WHERE chat = ? AND id = ?', [
+        chatId,
+        id,
+      ]);
+    }
+    await batch.commit(noResult: true);
+    await _deleteImages(chatId, ids);
+  }
+
+  Future<void> _deleteImages(String chatId, Iterable<String> ids) async {
+    for (final id in ids) {
+      final file = _imageFile(chatId, id);
+      if (await file.exists()) await file.delete();
+    }
+  }
+
+  /// Decodes rows read newest first, oldest first, with their images.
+  Future<List<Map<String, dynamic>>> _decodeRows(
+    String chatId,
+    List<Map<String, Object?>> rows,
+  ) async {
+    final messages = <Map<String, dynamic>>[];
+    for (final row in rows.reversed) {
+      final message = _decode(
+        jsonDecode(row['data'] as String) as Map<String, dynamic>,
+      );
+      if (row['image'] == 1) {
+        final file = _imageFile(chatId, row['id'] as String);
+        try {
+          message[_imageField] = await file.readAsString();
+        } on FileSystemException {
+          // Removed behind our back. Leaving the message out makes the page
+          // short, so the window reads that page from the server instead.
+          continue;
+        }
+      }
+      messages.add(message);
+    }
+    return messages;
+  }
+
+  static Map<String, dynamic> _encode(Map<String, dynamic> message) => {
+    for (final entry in message.entries)
+      if (entry.key != _imageField)
+        entry.key:
+            entry.value is Timestamp
+                ? {'__ts': (entry.value as Timestamp).microsecondsSinceEpoch}
+                : entry.value,
+  };
+
+  static Map<String, dynamic> _decode(Map<String, dynamic> raw) => raw.map(
+    (k, v) => MapEntry(
+      k,
+      v is Map && v['__ts'] is int
+          ? Timestamp.fromMicrosecondsSinceEpoch(v['__ts'] as int)
+          : v,
+    ),
+  );
+}
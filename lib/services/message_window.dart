@@ -0,0 +1,535 @@
+import 'dart:async';
+import 'dart:collection';
+
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/widgets.dart';
+
+import 'chat_message.dart';
+import 'firestore_metrics.dart';
+import 'message_search.dart';
+import 'message_store.dart';
+import 'outbox.dart';
+
+/// What the last notification of a [MessageWindow] changed.
+///
+/// [changedIndices] are positions in [MessageWindow.messages] whose message
+/// instance was replaced or inserted. When [structural] is false no message
+/// moved, so every other row can be reused as it is.
+class MessageListDelta {
+  const MessageListDelta({
+    this.changedIndices = const [],
+    this.structural = true,
+  });
+
+  final List<int> changedIndices;
+  final bool structural;
+
+  static const MessageListDelta none = MessageListDelta(structural: false);
+}
+
+/// Caches one built row per message instance (a [ChatMessage], or a
+/// `GroupTimelineMessage` in group chats). Because messages are immutable,
+/// handing the list the same widget instance again makes Flutter skip that
+/// row entirely; only rows whose message was replaced rebuild.
+class MessageRowCache {
+  Expando<Widget> _rows = Expando('message rows');
+
+  Widget row(Object message, Widget Function() build) =>
+      _rows[message] ??= build();
+
+  /// Drops every cached row, e.g. when something all rows show has changed.
+  void clear() => _rows = Expando('message rows');
+}
+
+/// Windowed view over a `messages/{chatId}/chats` collection.
+///
+/// Only the newest [pageSize] messages are live-listened to. Older history is
+/// fetched page by page with cursor queries when the user scrolls up, and
+/// those pages are dropped again once the user is back at the bottom so that
+/// memory stays bounded no matter how long the chat is.
+///
+/// The window is backed by [MessageStore]: cached messages are shown before
+/// the first snapshot arrives, and on open only documents newer than the last
+/// persisted timestamp are requested from the server.
+///
+/// Text messages pass through to [MessageSearch] as they are loaded, so
+/// search covers whatever history has been on screen.
+///
+/// Messages still waiting in the [Outbox] are appended after the resident
+/// messages until Firestore reports them, carrying their `outboxState`.
+///
+/// Live snapshots are applied through `docChanges`: only added or modified
+/// documents are parsed into [ChatMessage]s, metadata-only events that change
+/// nothing visible are dropped, and [lastDelta] says which rows changed.
+class MessageWindow extends ChangeNotifier {
+  MessageWindow({
+    required this.chatId,
+    required this.collection,
+    MessageStore? store,
+    Outbox? outbox,
+    MessageSearch? search,
+    this.pageSize = 50,
+    this.maxResidentPages = 4,
+    this.maxGapSync = 500,
+    this.maxReveal = 2000,
+  }) : _store = store ?? MessageStore.instance,
+       _outbox = outbox ?? Outbox.instance,
+       _search = search ?? MessageSearch.instance;
+
+  final String chatId;
+  final CollectionReference<Map<String, dynamic>> collection;
+  final MessageStore _store;
+  final Outbox _outbox;
+  final MessageSearch _search;
+  final int pageSize;
+
+  /// How many pages of older history may stay in memory once the user
+  /// scrolls back down to the newest messages.
+  final int maxResidentPages;
+
+  /// Largest number of missed messages fetched on open to close the gap
+  /// between the cache and the live page. Bigger gaps drop the cache.
+  final int maxGapSync;
+
+  /// Most messages loaded at once to bring a search hit into the window.
+  final int maxReveal;
+
+  StreamSubscription<QuerySnapshot<Map<String, dynamic>>>? _liveSub;
+  final List<ChatMessage> _live = [];
+  final List<ChatMessage> _older = [];
+
+  /// [messages] and the id → index map, rebuilt only after structural
+  /// changes.
+  List<ChatMessage>? _view;
+  Map<String, int>? _indexById;
+  MessageListDelta _lastDelta = MessageListDelta.none;
+
+  bool _hasLoadedLive = false;
+  bool _hasReconciled = false;
+  bool _hasCached = false;
+  bool _hasMoreOlder = true;
+  bool _isLoadingOlder = false;
+  bool _disposed = false;
+
+  /// Live changes go to the store only once it has caught up; see
+  /// [_catchUp].
+  bool _isPersisting = false;
+
+  /// True once there is something to render, from cache or from the server.
+  bool get hasLoaded => _hasLoadedLive || _hasCached;
+  bool get hasMoreOlder => _hasMoreOlder;
+  bool get isLoadingOlder => _isLoadingOlder;
+
+  /// All resident messages, oldest first, followed by unsent outbox entries.
+  List<ChatMessage> get messages {
+    final cached = _view;
+    if (cached != null) return UnmodifiableListView(cached);
+    final outgoing = _outbox.entriesFor(chatId);
+    final liveIds =
+        outgoing.isEmpty ? const <String>{} : _live.map((m) => m.id).toSet();
+    return UnmodifiableListView(_view = [
+      ..._older,
+      ..._live,
+      for (final entry in outgoing)
+        if (!liveIds.contains(entry.id))
+          ChatMessage.fromMap(entry.id, entry.toDisplayMessage()),
+    ]);
+  }
+
+  /// Position of message [id] in [messages], if resident.
+  int? indexOf(String id) {
+    final view = messages;
+    final index = _indexById ??= {
+      for (var i = 0; i < view.length; i++) view[i].id: i,
+    };
+    return index[id];
+  }
+
+  /// What changed with the most recent notification.
+  MessageListDelta get lastDelta => _lastDelta;
+
+  void start() {
+    if (_liveSub != null) return;
+    _outbox.addListener(_onOutboxChanged);
+    _outbox.start();
+    _store.latest(chatId, maxResidentPages * pageSize).then((cached) {
+      if (_disposed || _hasLoadedLive || cached.isEmpty) return;
+      _older.addAll(cached.map((m) => ChatMessage.fromMap(m['id'], m)));
+      _index(_older);
+      _hasCached = true;
+      _notifyStructural();
+    });
+    _liveSub = collection
+        .orderBy('timestamp')
+        .limitToLast(pageSize)
+        .trackedSnapshots(
+          path: collection.path,
+          includeMetadataChanges: true,
+        )
+        .listen(_onLiveSnapshot);
+  }
+
+  static List<Map<String, dynamic>> _toMaps(Iterable<ChatMessage> messages) =>
+      messages.map((m) => m.toMap()).toList();
+
+  /// Hands acknowledged text messages to the search index.
+  void _index(Iterable<ChatMessage> messages, {bool edited = false}) {
+    for (final message in messages) {
+      final ts = message.timestamp;
+      if (message.type != 'text' || ts == null || message.isPending) continue;
+      _search.index(
+        collection.path,
+        message.id,
+        message.text,
+        ts.toDate(),
+        edited: edited,
+      );
+    }
+  }
+
+  void _onLiveSnapshot(QuerySnapshot<Map<String, dynamic>> snapshot) {
+    final changes = snapshot.docChanges;
+    if (!_hasLoadedLive) _dropCachedOverlap(snapshot.docs);
+    if (!_hasReconciled && !snapshot.metadata.isFromCache) {
+      // A snapshot served from Firestore's own cache is not authoritative
+      // enough to tell which cached messages were deleted server-side.
+      _hasReconciled = true;
+      _applyChanges(changes, snapshot.docs);
+      _markLoaded();
+      _onFirstLiveSnapshot(List.of(_live));
+      return;
+    }
+    if (changes.isEmpty && _hasLoadedLive) {
+      // Metadata-only event (e.g. isFromCache flipped): nothing to render.
+      return;
+    }
+
+    final (:changed, :delta) = _applyChanges(changes, snapshot.docs);
+    if (_isPersisting && changed.isNotEmpty) {
+      _store.upsert(chatId, _toMaps(changed));
+    }
+    if (_hasReconciled && changed.isNotEmpty) _index(changed, edited: true);
+    if (!_hasLoadedLive) {
+      _markLoaded();
+      _notifyStructural();
+    } else if (delta.structural) {
+      _notifyStructural();
+    } else if (delta.changedIndices.isNotEmpty) {
+      _notify(delta);
+    }
+  }
+
+  /// Drops cached messages the live page also covers: everything at or
+  /// after its oldest message. Runs on the first live snapshot, also when
+  /// Firestore serves it from its own cache, so opening a chat offline does
+  /// not show the newest messages twice.
+  void _dropCachedOverlap(
+    List<QueryDocumentSnapshot<Map<String, dynamic>>> docs,
+  ) {
+    if (docs.isEmpty || _older.isEmpty) return;
+    final ids = {for (final doc in docs) doc.id};
+    final firstLive = docs.first.data()['timestamp'];
+    _older.removeWhere((m) {
+      if (ids.contains(m.id)) return true;
+      final ts = m.timestamp;
+      return firstLive is Timestamp &&
+          ts != null &&
+          ts.compareTo(firstLive) >= 0;
+    });
+  }
+
+  void _markLoaded() {
+    _hasLoadedLive = true;
+    if (_live.length < pageSize && _older.isEmpty) {
+      _hasMoreOlder = false;
+    }
+  }
+
+  /// Applies [changes] to the live page in order, parsing only documents
+  /// that were added or modified. Returns the messages that are new or have
+  /// new content, and what that means for [messages].
+  ({List<ChatMessage> changed, MessageListDelta delta}) _applyChanges(
+    List<DocumentChange<Map<String, dynamic>>> changes,
+    List<QueryDocumentSnapshot<Map<String, dynamic>>> docs,
+  ) {
+    if (changes.isEmpty) {
+      return (changed: const [], delta: MessageListDelta.none);
+    }
+    final firstLive = docs.isEmpty ? null : docs.first.data()['timestamp'];
+    final changed = <ChatMessage>[];
+    final deleted = <String>[];
+    var structural = false;
+    final modifiedLiveIndices = <int>[];
+
+    for (final change in changes) {
+      switch (change.type) {
+        case DocumentChangeType.added:
+          final message = ChatMessage.fromDoc(change.doc);
+          _live.insert(change.newIndex, message);
+          changed.add(message);
+          structural = true;
+        case DocumentChangeType.removed:
+          final removed = _live.removeAt(change.oldIndex);
+          structural = true;
+          // When a new message arrives the oldest live message slides out
+          // of the `limitToLast` window. Keep it resident so there is no gap
+          // between the live page and the older pages loaded with cursors.
+          final ts = removed.timestamp;
+          if (ts != null &&
+              firstLive is Timestamp &&
+              ts.compareTo(firstLive) <= 0) {
+            _older.add(removed);
+          } else {
+            deleted.add(removed.id);
+          }
+        case DocumentChangeType.modified:
+          final previous = _live[change.oldIndex];
+          final next = ChatMessage.fromDoc(change.doc);
+          final message = previous.sameContent(next) ? previous : next;
+          if (!identical(message, previous)) changed.add(message);
+          if (change.oldIndex == change.newIndex) {
+            _live[change.oldIndex] = message;
+            if (!identical(message, previous)) {
+              modifiedLiveIndices.add(change.newIndex);
+            }
+          } else {
+            _live
+              ..removeAt(change.oldIndex)
+              ..insert(change.newIndex, message);
+            structural = true;
+          }
+      }
+    }
+
+    if (deleted.isNotEmpty) {
+      _store.remove(chatId, deleted);
+      _search.remove(collection.path, deleted);
+    }
+    if (structural) {
+      return (changed: changed, delta: const MessageListDelta());
+    }
+
+    // Nothing moved: patch the cached view in place.
+    final indices = [for (final i in modifiedLiveIndices) _older.length + i];
+    final view = _view;
+    if (view != null) {
+      for (final i in modifiedLiveIndices) {
+        view[_older.length + i] = _live[i];
+      }
+    }
+    return (
+      changed: changed,
+      delta: MessageListDelta(changedIndices: indices, structural: false),
+    );
+  }
+
+  /// Reconciles the cache with the first authoritative page and pulls only
+  /// the messages that arrived between the cached tail and that page.
+  void _onFirstLiveSnapshot(List<ChatMessage> live) {
+    final isCompleteHistory = live.length < pageSize;
+    final liveIds = live.map((m) => m.id).toSet();
+    final firstLive = live.isEmpty ? null : live.first.timestamp;
+
+    // Anything cached at or after the live page that the server no longer
+    // returns was edited away or deleted (e.g. by "Clear Chat").
+    _older.removeWhere((m) {
+      if (liveIds.contains(m.id) || isCompleteHistory) return true;
+      final ts = m.timestamp;
+      return firstLive != null && ts != null && ts.compareTo(firstLive) >= 0;
+    });
+    _index(live);
+    _notifyStructural();
+    _catchUp(firstLive, isCompleteHistory);
+  }
+
+  /// Fills the store up to the live page, then reconciles it with that page.
+  ///
+  /// The gap is read against the store's cursor as it was before this
+  /// session, and nothing that moves the cursor is persisted until the gap
+  /// is filled: otherwise the live page would put the cursor past the gap
+  /// and older pages would be served from a cache with a hole in it. If the
+  /// gap cannot be fetched, nothing is persisted this session and the next
+  /// open tries again.
+  Future<void> _catchUp(Timestamp? firstLive, bool isCompleteHistory) async {
+    try {
+      final syncedUpTo = await _store.syncedUpTo(chatId);
+      if (firstLive != null &&
+          !isCompleteHistory &&
+          syncedUpTo != null &&
+          syncedUpTo.compareTo(firstLive) < 0) {
+        await _syncGap(syncedUpTo, firstLive);
+      }
+      if (_disposed) return;
+      // Messages that slid out of the live page meanwhile belong to it too.
+      final page = [
+        if (firstLive != null)
+          for (final m in _older)
+            if (m.timestamp != null && m.timestamp!.compareTo(firstLive) >= 0)
+              m,
+        ..._live,
+      ];
+      await _store.reconcileTail(
+        chatId,
+        _toMaps(page),
+        isCompleteHistory: isCompleteHistory && _live.length < pageSize,
+      );
+      _isPersisting = true;
+    } catch (e) {
+      debugPrint('Error syncing missed messages: $e');
+    }
+  }
+
+  Future<void> _syncGap(Timestamp syncedUpTo, Timestamp firstLive) async {
+    final gap = await collection
+        .orderBy('timestamp')
+        .where('timestamp', isGreaterThan: syncedUpTo)
+        .endBefore([firstLive])
+        .limit(maxGapSync)
+        .trackedGet(path: collection.path);
+    if (_disposed) return;
+    final missed = gap.docs.map(ChatMessage.fromDoc).toList();
+    if (missed.length >= maxGapSync) {
+      // Too far behind to stitch; fall back to plain cursor paging.
+      await _store.clear(chatId);
+      _older.removeRange(0, _older.length - _slidOut(firstLive));
+      _hasMoreOlder = true;
+    } else {
+      await _store.upsert(chatId, _toMaps(missed));
+      _older.insertAll(_older.length - _slidOut(firstLive), missed);
+      _index(missed);
+    }
+    _notifyStructural();
+  }
+
+  /// How many messages at the end of [_older] slid out of the live page,
+  /// i.e. are at or after [firstLive].
+  int _slidOut(Timestamp firstLive) {
+    var count = 0;
+    for (var i = _older.length - 1; i >= 0; i--) {
+      final ts = _older[i].timestamp;
+      if (ts == null || ts.compareTo(firstLive) < 0) break;
+      count++;
+    }
+    return count;
+  }
+
+  /// Fetches the page of messages immediately preceding the oldest resident
+  /// message, from the local store when it has them and from the server
+  /// otherwise. Safe to call repeatedly while a page is already loading.
+  Future<void> loadOlder() async {
+    if (_isLoadingOlder || !_hasMoreOlder || !_hasLoadedLive) return;
+    final oldest = _older.isNotEmpty
+        ? _older.first
+        : (_live.isNotEmpty ? _live.first : null);
+    final cursor = oldest?.timestamp;
+    if (cursor == null) {
+      _hasMoreOlder = false;
+      _notify(MessageListDelta.none);
+      return;
+    }
+
+    _isLoadingOlder = true;
+    _notify(MessageListDelta.none);
+    try {
+      final cached = await _store.olderThan(chatId, cursor, pageSize);
+      List<ChatMessage> page;
+      if (cached.length < pageSize) {
+        final remote = await collection
+            .orderBy('timestamp')
+            .endBefore([cursor])
+            .limitToLast(pageSize)
+            .trackedGet(path: collection.path);
+        page = remote.docs.map(ChatMessage.fromDoc).toList();
+        _store.upsert(chatId, _toMaps(page));
+        if (page.length < pageSize) _hasMoreOlder = false;
+      } else {
+        page = [for (final m in cached) ChatMessage.fromMap(m['id'], m)];
+      }
+      _older.insertAll(0, page);
+      _index(page);
+    } catch (e) {
+      debugPrint('Error loading older messages: $e');
+    } finally {
+      _isLoadingOlder = false;
+      _notifyStructural();
+    }
+  }
+
+  /// Makes message [id], sent at [at], resident by loading everything
+  /// between it and the oldest resident message, so the list stays
+  /// contiguous. Returns false if the message is gone or more than
+  /// [maxReveal] messages back.
+  Future<bool> reveal(String id, Timestamp at) async {
+    if (indexOf(id) != null) return true;
+    if (_isLoadingOlder || !_hasLoadedLive) return false;
+    final oldest = _older.isNotEmpty
+        ? _older.first
+        : (_live.isNotEmpty ? _live.first : null);
+    final cursor = oldest?.timestamp;
+    if (cursor == null || at.compareTo(cursor) >= 0) return false;
+
+    _isLoadingOlder = true;
+    _notify(MessageListDelta.none);
+    try {
+      final cached = await _store.olderThan(chatId, cursor, maxReveal);
+      final first = cached.isEmpty ? null : cached.first['timestamp'];
+      List<ChatMessage> page;
+      if (first is Timestamp && first.compareTo(at) <= 0) {
+        page = [
+          for (final m in cached)
+            if ((m['timestamp'] as Timestamp).compareTo(at) >= 0)
+              ChatMessage.fromMap(m['id'], m),
+        ];
+      } else {
+        final remote = await collection
+            .orderBy('timestamp')
+            .where('timestamp', isGreaterThanOrEqualTo: at)
+            .endBefore([cursor])
+            .limit(maxReveal)
+            .trackedGet(path: collection.path);
+        if (remote.docs.length >= maxReveal) return false;
+        page = remote.docs.map(ChatMessage.fromDoc).toList();
+        _store.upsert(chatId, _toMaps(page));
+      }
+      _older.insertAll(0, page);
+      _index(page);
+    } catch (e) {
+      debugPrint('Error loading messages up to a search hit: $e');
+    } finally {
+      _isLoadingOlder = false;
+      _notifyStructural();
+    }
+    return indexOf(id) != null;
+  }
+
+  /// Drops the oldest resident pages beyond [maxResidentPages]. Call this
+  /// when the user has scrolled back to the newest messages.
+  void evictFarPages() {
+    final keep = maxResidentPages * pageSize;
+    if (_older.length <= keep) return;
+    _older.removeRange(0, _older.length - keep);
+    _hasMoreOlder = true;
+    _notifyStructural();
+  }
+
+  void _onOutboxChanged() => _notifyStructural();
+
+  void _notifyStructural() {
+    _view = null;
+    _indexById = null;
+    _notify(const MessageListDelta());
+  }
+
+  void _notify(MessageListDelta delta) {
+    _lastDelta = delta;
+    if (!_disposed) notifyListeners();
+  }
+
+  @override
+  void dispose() {
+    _disposed = true;
+    _outbox.removeListener(_onOutboxChanged);
+    _liveSub?.cancel();
+    super.dispose();
+  }
+}
@@ -0,0 +1,331 @@
+import 'dart:async';
+import 'dart:convert';
+import 'dart:math';
+
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/foundation.dart';
+import 'package:shared_preferences/shared_preferences.dart';
+
+import 'chat_sender.dart';
+import 'firestore_metrics.dart';
+
+enum OutboxState { queued, sending, failed }
+
+/// A message waiting to be committed. [id] is generated on the client and
+/// becomes the Firestore document id, so retries always target the same
+/// document.
+class OutboxEntry {
+  OutboxEntry({
+    required this.id,
+    required this.chatId,
+    required this.message,
+    required this.senderId,
+    required this.peerId,
+    required this.summary,
+    required this.createdAt,
+    this.attempts = 0,
+    this.nextAttemptAt,
+    this.state = OutboxState.queued,
+  });
+
+  final String id;
+  final String chatId;
+  final Map<String, dynamic> message;
+  final String senderId;
+  final String peerId;
+  final Map<String, dynamic> summary;
+  final DateTime createdAt;
+  int attempts;
+  DateTime? nextAttemptAt;
+  OutboxState state;
+
+  /// The entry rendered like a message from the live window.
+  Map<String, dynamic> toDisplayMessage() => {
+    ...message,
+    'id': id,
+    'timestamp': Timestamp.fromDate(createdAt),
+    'pending': true,
+    'outboxState': state.name,
+  };
+
+  Map<String, dynamic> toJson() => {
+    'id': id,
+    'chatId': chatId,
+    'message': message,
+    'senderId': senderId,
+    'peerId': peerId,
+    'summary': summary,
+    'createdAt': createdAt.millisecondsSinceEpoch,
+    'attempts': attempts,
+    'state': state == OutboxState.failed ? 'failed' : 'queued',
+  };
+
+  factory OutboxEntry.fromJson(Map<String, dynamic> json) => OutboxEntry(
+    id: json['id'],
+    chatId: json['chatId'],
+    message: Map<String, dynamic>.from(json['message']),
+    senderId: json['senderId'],
+    peerId: json['peerId'],
+    summary: Map<String, dynamic>.from(json['summary']),
+    createdAt: DateTime.fromMillisecondsSinceEpoch(json['createdAt']),
+    attempts: json['attempts'] ?? 0,
+    state: json['state'] == 'failed' ? OutboxState.failed : OutboxState.queued,
+  );
+}
+
+/// Persistent queue of outgoing one-to-one messages.
+///
+/// Sends are appended locally (surviving app restarts) and flushed by a
+/// scheduler that coalesces whatever is queued into batched commits. Failed
+/// flushes back off exponentially; entries that keep failing are marked
+/// [OutboxState.failed] until the user retries them.
+class Outbox extends ChangeNotifier {
+  Outbox({
+    FirebaseFirestore? firestore,
+    this.prefsKey = 'outbox_v1',
+    this.commitTimeout = const Duration(seconds: 10),
+  }) : _firestore = firestore ?? FirebaseFirestore.instance,
+       _sender = ChatSender(firestore: firestore);
+
+  static final Outbox instance = Outbox();
+
+  /// Time given to a burst of sends to pile up before they are flushed.
+  static const Duration coalesceWindow = Duration(milliseconds: 250);
+  static const int maxAttempts = 8;
+
+  /// Messages per commit; each message is three writes and a batch is
+  /// capped at 500.
+  static const int maxMessagesPerCommit = 150;
+
+  final String prefsKey;
+
+  /// While offline a commit only resolves once the device reconnects.
+  /// After this long the write is left to Firestore's own queue and the
+  /// entry is re-checked on the next retry instead of blocking the flush.
+  final Duration commitTimeout;
+
+  final FirebaseFirestore _firestore;
+  final ChatSender _sender;
+  final List<OutboxEntry> _entries = [];
+  final Random _random = Random();
+  Future<void>? _restoring;
+  Timer? _flushTimer;
+  bool _flushing = false;
+
+  /// Loads entries left over from a previous run and schedules a flush.
+  Future<void> start() => _restoring ??= _restore();
+
+  Future<void> _restore() async {
+    try {
+      final prefs = await SharedPreferences.getInstance();
+      final raw = prefs.getStringList(prefsKey) ?? const [];
+      for (final item in raw) {
+        final entry = OutboxEntry.fromJson(jsonDecode(item));
+        if (_entries.every((e) => e.id != entry.id)) _entries.add(entry);
+      }
+    } catch (e) {
+      debugPrint('Outbox restore failed: $e');
+    }
+    notifyListeners();
+    _scheduleFlush(Duration.zero);
+  }
+
+  Future<void> _persist() async {
+    final prefs = await SharedPreferences.getInstance();
+    await prefs.setStringList(
+      prefsKey,
+      _entries.map((e) => jsonEncode(e.toJson())).toList(),
+    );
+  }
+
+  /// Entries of [chatId] that are not yet acknowledged, oldest first.
+  List<OutboxEntry> entriesFor(String chatId) =>
+      _entries.where((e) => e.chatId == chatId).toList(growable: false);
+
+  /// Queues a message. [message] must not contain the `timestamp`; a server
+  /// timestamp is added when the message is flushed.
+  Future<OutboxEntry> enqueue({
+    required String chatId,
+    required Map<String, dynamic> message,
+    required String senderId,
+    required String peerId,
+    required Map<String, dynamic> summary,
+  }) async {
+    await start();
+    final entry = OutboxEntry(
+      id: _sender.newMessageRef(chatId).id,
+      chatId: chatId,
+      message: message,
+      senderId: senderId,
+      peerId: peerId,
+      summary: summary,
+      createdAt: DateTime.now(),
+    );
+    _entries.add(entry);
+    notifyListeners();
+    await _persist();
+    _scheduleFlush(coalesceWindow);
+    return entry;
+  }
+
+  /// Puts a failed entry back in the queue for an immediate attempt.
+  void retry(String id) {
+    for (final entry in _entries) {
+      if (entry.id == id && entry.state == OutboxState.failed) {
+        entry
+          ..state = OutboxState.queued
+          ..attempts = 0
+          ..nextAttemptAt = null;
+      }
+    }
+    notifyListeners();
+    _persist();
+    _scheduleFlush(Duration.zero);
+  }
+
+  void _scheduleFlush(Duration delay) {
+    _flushTimer?.cancel();
+    _flushTimer = Timer(delay, flush);
+  }
+
+  /// Commits every due entry, grouped into as few batches as possible.
+  Future<void> flush() async {
+    if (_flushing) return;
+    _flushing = true;
+    try {
+      final now = DateTime.now();
+      final due = _entries
+          .where(
+            (e) =>
+                e.state == OutboxState.queued &&
+                (e.nextAttemptAt == null || !e.nextAttemptAt!.isAfter(now)),
+          )
+          .toList();
+
+      for (var i = 0; i < due.length; i += maxMessagesPerCommit) {
+        final chunk = due.sublist(i, min(i + maxMessagesPerCommit, due.length));
+        await _commitChunk(chunk);
+      }
+    } finally {
+      _flushing = false;
+      await _persist();
+      notifyListeners();
+      _scheduleNextRetry();
+    }
+  }
+
+  Future<void> _commitChunk(List<OutboxEntry> chunk) async {
+    for (final entry in chunk) {
+      entry.state = OutboxState.sending;
+    }
+    notifyListeners();
+
+    try {
+      // A retried entry may already have been committed (or be waiting in
+      // Firestore's own write queue) even though we never saw the ack.
+      // Skipping those keeps the unread increment from being applied twice.
+      // Entries that cannot be checked right now are not written either.
+      final toWrite = <OutboxEntry>[];
+      final unchecked = <OutboxEntry>[];
+      for (final entry in chunk) {
+        if (entry.attempts == 0) {
+          toWrite.add(entry);
+          continue;
+        }
+        switch (await _alreadyWritten(entry)) {
+          case true:
+            _entries.remove(entry);
+          case false:
+            toWrite.add(entry);
+          case null:
+            // Counts as an attempt so the checks back off too.
+            entry.attempts++;
+            unchecked.add(entry);
+        }
+      }
+      _backOff(unchecked);
+      if (toWrite.isEmpty) return;
+
+      final batch = _firestore.batch();
+      for (final entry in toWrite) {
+        entry.attempts++;
+        _sender.addToBatch(
+          batch,
+          messageRef: _messageRef(entry),
+          message: {...entry.message, 'timestamp': FieldValue.serverTimestamp()},
+          senderId: entry.senderId,
+          peerId: entry.peerId,
+          summary: entry.summary,
+        );
+      }
+      await _persist();
+      await batch
+          .trackedCommit('messages/*/chats', writes: toWrite.length * 3)
+          .timeout(commitTimeout);
+      _entries.removeWhere((e) => toWrite.contains(e));
+    } catch (e) {
+      debugPrint('Outbox flush failed: $e');
+      final permanent = e is FirebaseException && e.code == 'permission-denied';
+      _backOff(
+        chunk.where((e) => e.state == OutboxState.sending),
+        permanent: permanent,
+      );
+    }
+  }
+
+  /// Puts [entries] back in the queue for a later attempt, or marks them
+  /// failed once they are out of attempts.
+  void _backOff(Iterable<OutboxEntry> entries, {bool permanent = false}) {
+    for (final entry in entries) {
+      if (!_entries.contains(entry)) continue;
+      if (permanent || entry.attempts >= maxAttempts) {
+        entry.state = OutboxState.failed;
+      } else {
+        entry
+          ..state = OutboxState.queued
+          ..nextAttemptAt = DateTime.now().add(_backoff(entry.attempts));
+      }
+    }
+  }
+
+  /// Whether [entry]'s message document exists, or null if that cannot be
+  /// told: the read failed, or it came from the local cache without the
+  /// document, which may just mean the cache does not hold it. Rewriting on
+  /// a guess could count the message twice in the receiver's unread count.
+  Future<bool?> _alreadyWritten(OutboxEntry entry) async {
+    try {
+      final snap = await _messageRef(entry).trackedGet();
+      if (snap.exists) return true;
+      return snap.metadata.isFromCache ? null : false;
+    } catch (e) {
+      debugPrint('Outbox could not check ${entry.id}: $e');
+      return null;
+    }
+  }
+
+  DocumentReference<Map<String, dynamic>> _messageRef(OutboxEntry entry) =>
+      _firestore
+          .collection('messages')
+          .doc(entry.chatId)
+          .collection('chats')
+          .doc(entry.id);
+
+  /// 1s, 2s, 4s ... capped at one minute, with jitter so that many clients
+  /// coming back online do not retry in lockstep.
+  Duration _backoff(int attempts) {
+    final base = min(60000, 1000 * pow(2, max(0, attempts - 1)).toInt());
+    return Duration(milliseconds: base ~/ 2 + _random.nextInt(base ~/ 2 + 1));
+  }
+
+  void _scheduleNextRetry() {
+    DateTime? next;
+    for (final entry in _entries) {
+      if (entry.state != OutboxState.queued) continue;
+      final at = entry.nextAttemptAt ?? DateTime.now();
+      if (next == null || at.isBefore(next)) next = at;
+    }
+    if (next == null) return;
+    final delay = next.difference(DateTime.now());
+    _scheduleFlush(delay.isNegative ? Duration.zero : delay);
+  }
+}
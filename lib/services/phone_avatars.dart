@@ -0,0 +1,171 @@
+import 'dart:async';
+import 'dart:math';
+
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/material.dart';
+
+import 'firestore_metrics.dart';
+import 'profile_photos.dart';
+
+/// Profile photos of users looked up by phone number, for lists that only
+/// know numbers, like the call log.
+///
+/// Rows call [photoFor] while they build. Numbers not resolved yet are
+/// collected until the frame is done and then looked up together, as
+/// `whereIn` queries of [chunkSize] numbers on `client.phone`, so a screen
+/// of rows costs a query or two instead of one per row. Only the photo
+/// fields of each user are kept, for the last [maxNumbers] numbers; the
+/// images themselves live in [ProfilePhotos], whose memory is bounded in
+/// bytes. Listeners are notified once a batch has something new to show.
+class PhoneAvatars extends ChangeNotifier {
+  PhoneAvatars({
+    FirebaseFirestore? firestore,
+    this.chunkSize = 30,
+    this.maxNumbers = 1000,
+  }) : _firestore = firestore ?? FirebaseFirestore.instance;
+
+  static final PhoneAvatars instance = PhoneAvatars();
+
+  /// Values per `whereIn`; Firestore's limit is 30.
+  final int chunkSize;
+  final int maxNumbers;
+
+  final FirebaseFirestore _firestore;
+
+  /// Number → photo fields of its user, or null for no account or no
+  /// photo. In recency order.
+  final Map<String, Map<String, dynamic>?> _users = {};
+  final Set<String> _pending = {};
+  final Set<String> _inFlight = {};
+
+  /// Numbers whose photo failed to load this session; not retried on every
+  /// rebuild.
+  final Set<String> _broken = {};
+  Timer? _timer;
+  Completer<void>? _batch;
+  Future<void> _settled = Future.value();
+
+  int _queries = 0;
+  int _docs = 0;
+
+  Map<String, int> get stats => {
+    'queries': _queries,
+    'docs': _docs,
+    'numbers': _users.length,
+  };
+
+  /// The photo of the user registered under [number], if it is already in
+  /// memory. Otherwise schedules the lookup or the decode and returns null;
+  /// listeners hear when it is ready. Safe to call from build.
+  ImageProvider? photoFor(String number) {
+    if (number.isEmpty) return null;
+    if (!_users.containsKey(number)) {
+      _request(number);
+      return null;
+    }
+    final user = _users.remove(number);
+    _users[number] = user;
+    if (user == null) return null;
+    final photo = ProfilePhotos.instance.peek(user);
+    if (photo == null && !_broken.contains(number)) _request(number);
+    return photo;
+  }
+
+  void _request(String number) {
+    if (_inFlight.contains(number) || !_pending.add(number)) return;
+    if (_timer != null) return;
+    final batch = _batch = Completer<void>();
+    _settled = batch.future;
+    _timer = Timer(Duration.zero, _flush);
+  }
+
+  /// Looks up [numbers] and loads their photos ahead of their rows. The
+  /// future completes with the batch that asks for them.
+  Future<void> prefetch(Iterable<String> numbers) {
+    for (final number in numbers) {
+      photoFor(number);
+    }
+    return _settled;
+  }
+
+  Future<void> _flush() async {
+    _timer = null;
+    final batch = _batch;
+    _batch = null;
+    final numbers = _pending.toList();
+    _pending.clear();
+    _inFlight.addAll(numbers);
+    final unknown = [
+      for (final number in numbers)
+        if (!_users.containsKey(number)) number,
+    ];
+    final changed = await Future.wait([
+      for (var i = 0; i < unknown.length; i += chunkSize)
+        _lookup(unknown.sublist(i, min(i + chunkSize, unknown.length))),
+      // Known, but evicted from ProfilePhotos since.
+      for (final number in numbers)
+        if (_users[number] case final user?) _decode(number, user),
+    ]);
+    _inFlight.removeAll(numbers);
+    if (changed.contains(true)) notifyListeners();
+    batch?.complete();
+  }
+
+  Future<bool> _lookup(List<String> numbers) async {
+    _queries++;
+    final QuerySnapshot<Map<String, dynamic>> snap;
+    try {
+      snap = await _firestore
+          .collection('client')
+          .where('phone', whereIn: numbers)
+          .trackedGet(path: 'client');
+    } catch (e) {
+      // Not remembered, so the next build asks again.
+      debugPrint('Avatar lookup failed: $e');
+      return false;
+    }
+    _docs += snap.docs.length;
+
+    final found = <String, Map<String, dynamic>>{};
+    for (final doc in snap.docs) {
+      final data = doc.data();
+      final phone = data['phone'];
+      if (phone is! String || !ProfilePhotos.hasPhoto(data)) continue;
+      found.putIfAbsent(
+        phone,
+        () => {
+          for (final field in [
+            ProfilePhotos.field,
+            ProfilePhotos.legacyField,
+          ])
+            if (data.containsKey(field)) field: data[field],
+        },
+      );
+    }
+    for (final number in numbers) {
+      _users[number] = found[number];
+    }
+    while (_users.length > maxNumbers) {
+      _users.remove(_users.keys.first);
+    }
+    // Decoded before listeners hear, so a row goes from initials straight
+    // to the photo.
+    final decoded = await Future.wait([
+      for (final entry in found.entries) _decode(entry.key, entry.value),
+    ]);
+    return found.isNotEmpty && decoded.contains(true);
+  }
+
+  Future<bool> _decode(String number, Map<String, dynamic> user) async {
+    final photo = await ProfilePhotos.instance.load(user);
+    if (photo == null) _broken.add(number);
+    return photo != null;
+  }
+
+  /// Forgets what is known about [number], e.g. after its user changed
+  /// their photo.
+  void invalidate(String number) {
+    _users.remove(number);
+    _broken.remove(number);
+  }
+}
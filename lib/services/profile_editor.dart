@@ -0,0 +1,369 @@
+import 'dart:async';
+import 'dart:convert';
+
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/foundation.dart';
+import 'package:shared_preferences/shared_preferences.dart';
+
+import 'contact_discovery.dart';
+import 'firestore_metrics.dart';
+import 'user_directory.dart';
+
+/// What a save transaction found: conflicts, the update it wrote (null if
+/// none) and the size of the document it read.
+typedef _Outcome = (Map<String, dynamic>, Map<String, dynamic>?, int);
+
+/// Edits of `client/{uid}` profile fields that have not reached the server
+/// yet.
+@immutable
+class ProfileDraft {
+  const ProfileDraft({
+    required this.uid,
+    required this.base,
+    required this.changes,
+    this.stamp,
+  });
+
+  factory ProfileDraft.fromJson(Map<String, dynamic> json) => ProfileDraft(
+    uid: json['uid'] as String,
+    base: Map<String, dynamic>.from(json['base'] as Map),
+    changes: Map<String, dynamic>.from(json['changes'] as Map),
+    stamp: json['stamp'] as int?,
+  );
+
+  final String uid;
+
+  /// The edited fields as they were when editing started.
+  final Map<String, dynamic> base;
+
+  /// The edited fields with their new values.
+  final Map<String, dynamic> changes;
+
+  /// [ProfileEditor.stampField] when editing started, in microseconds.
+  final int? stamp;
+
+  Map<String, dynamic> toJson() => {
+    'uid': uid,
+    'base': base,
+    'changes': changes,
+    'stamp': stamp,
+  };
+}
+
+enum ProfileSaveStatus {
+  saved,
+
+  /// Nothing differed from the profile being edited.
+  unchanged,
+
+  /// Offline: kept as a draft and written once the server is reachable.
+  queued,
+
+  /// Another device changed some of the same fields; nothing was written.
+  conflict,
+}
+
+@immutable
+class ProfileSaveResult {
+  const ProfileSaveResult(this.status, {this.conflicts = const {}});
+
+  final ProfileSaveStatus status;
+
+  /// For [ProfileSaveStatus.conflict]: field → value now on the server.
+  final Map<String, dynamic> conflicts;
+}
+
+/// Saves profile edits as a delta, detects concurrent edits and keeps
+/// edits made offline until they can be written.
+///
+/// [save] writes only the fields that differ from the profile the user
+/// started from, so an unchanged save costs nothing and a one-field edit
+/// sends one field. Every write also sets [stampField] to the server time.
+/// The write runs in a transaction that first checks the stamp against the
+/// one the edit started from (the plugin does not expose update-time
+/// preconditions, so the stamp stands in for the document's update time).
+/// If it moved, another device saved in between: fields it changed to
+/// something else are reported as conflicts and the user decides; fields
+/// it left alone are written as usual.
+///
+/// The edit is stored as a [ProfileDraft] before the write starts and
+/// dropped once it succeeds. When the server cannot be reached within
+/// [saveTimeout], [save] returns [ProfileSaveStatus.queued] right away and
+/// the draft is replayed the next time the profile document is delivered
+/// by the server, also after a restart (see [start]). A replay cannot ask
+/// the user, so fields changed elsewhere in the meantime keep the other
+/// device's value.
+class ProfileEditor {
+  ProfileEditor({
+    FirebaseFirestore? firestore,
+    this.prefsKey = 'profile_drafts_v1',
+    this.saveTimeout = const Duration(seconds: 8),
+  }) : _firestore = firestore ?? FirebaseFirestore.instance;
+
+  static final ProfileEditor instance = ProfileEditor();
+
+  /// The fields EditProfilePage edits.
+  static const List<String> fields = [
+    'first_name',
+    'last_name',
+    'company_name',
+    'phone',
+    'address',
+    'city',
+    'state',
+    'zipcode',
+    'status',
+  ];
+
+  static const String stampField = 'profileUpdatedAt';
+
+  final FirebaseFirestore _firestore;
+  final String prefsKey;
+  final Duration saveTimeout;
+
+  final Map<String, ProfileDraft> _drafts = {};
+  final Map<String, Future<Map<String, dynamic>>> _writing = {};
+  final Map<String, StreamSubscription<Object?>> _watches = {};
+  final Set<String> _replaying = {};
+  Future<void>? _loading;
+
+  int _saves = 0;
+  int _writes = 0;
+  int _queued = 0;
+  int _replayed = 0;
+  int _conflicts = 0;
+
+  Map<String, int> get stats => {
+    'saves': _saves,
+    'writes': _writes,
+    'queued': _queued,
+    'replayed': _replayed,
+    'conflicts': _conflicts,
+  };
+
+  /// The fields of [edited] whose value differs from [base]. A missing
+  /// field counts as empty.
+  static Map<String, dynamic> changesBetween(
+    Map<String, dynamic> base,
+    Map<String, String> edited,
+  ) => {
+    for (final entry in edited.entries)
+      if ((base[entry.key] ?? '') != entry.value) entry.key: entry.value,
+  };
+
+  static int? _micros(Object? stamp) =>
+      stamp is Timestamp ? stamp.microsecondsSinceEpoch : null;
+
+  /// The edits of [uid] still waiting for the server, if any.
+  Future<ProfileDraft?> draftFor(String uid) async {
+    await _load();
+    return _drafts[uid];
+  }
+
+  /// Replays the stored draft of [uid], if any, once the server is
+  /// reachable. The signed-in start-up hook.
+  Future<void> start(String uid) async {
+    await _load();
+    if (_drafts.containsKey(uid)) _watch(uid);
+  }
+
+  /// Saves [edited] (field → text) over [base], the profile as the user
+  /// started editing it.
+  Future<ProfileSaveResult> save(
+    String uid, {
+    required Map<String, dynamic> base,
+    required Map<String, String> edited,
+  }) async {
+    await _load();
+    _saves++;
+    final changes = changesBetween(base, edited);
+    if (changes.isEmpty) {
+      // Any stored draft was edited back to what the server has.
+      if (_drafts.remove(uid) != null) await _persist();
+      return const ProfileSaveResult(ProfileSaveStatus.unchanged);
+    }
+    final draft = ProfileDraft(
+      uid: uid,
+      base: {for (final field in changes.keys) field: base[field]},
+      changes: changes,
+      stamp: _micros(base[stampField]),
+    );
+    _drafts[uid] = draft;
+    await _persist();
+
+    final Map<String, dynamic> conflicts;
+    try {
+      conflicts = await _write(draft, keepTheirs: false).timeout(saveTimeout);
+    } on TimeoutException {
+      return _queue(uid);
+    } on FirebaseException catch (e) {
+      if (e.code == 'unavailable' || e.code == 'deadline-exceeded') {
+        return _queue(uid);
+      }
+      await _drop(uid, draft);
+      rethrow;
+    }
+    await _drop(uid, draft);
+    if (conflicts.isNotEmpty) {
+      _conflicts++;
+      return ProfileSaveResult(
+        ProfileSaveStatus.conflict,
+        conflicts: conflicts,
+      );
+    }
+    return const ProfileSaveResult(ProfileSaveStatus.saved);
+  }
+
+  ProfileSaveResult _queue(String uid) {
+    _queued++;
+    _watch(uid);
+    return const ProfileSaveResult(ProfileSaveStatus.queued);
+  }
+
+  /// Writes [draft] unless it conflicts, and returns the conflicts. With
+  /// [keepTheirs], conflicting fields are skipped and the rest is written.
+  ///
+  /// A write that timed out may still land; replaying it then finds its
+  /// own values on the server and writes nothing.
+  Future<Map<String, dynamic>> _write(
+    ProfileDraft draft, {
+    required bool keepTheirs,
+  }) {
+    final previous = _writing[draft.uid] ?? Future.value(const {});
+    late final Future<Map<String, dynamic>> write;
+    write = previous
+        .catchError((_) => const <String, dynamic>{})
+        .then((_) => _transact(draft, keepTheirs))
+        .whenComplete(() {
+          if (identical(_writing[draft.uid], write)) {
+            _writing.remove(draft.uid);
+          }
+          UserDirectory.instance.invalidate('client/${draft.uid}');
+        });
+    _writing[draft.uid] = write;
+    return write;
+  }
+
+  Future<Map<String, dynamic>> _transact(
+    ProfileDraft draft,
+    bool keepTheirs,
+  ) async {
+    final ref = _firestore.collection('client').doc(draft.uid);
+    final stopwatch = Stopwatch()..start();
+    final (conflicts, update, bytesRead) = await _firestore
+        .runTransaction<_Outcome>((transaction) async {
+          final snap = await transaction.get(ref);
+          final server = snap.data() ?? const {};
+          final untouched = _micros(server[stampField]) == draft.stamp;
+          final update = <String, dynamic>{};
+          final conflicts = <String, dynamic>{};
+          for (final entry in draft.changes.entries) {
+            final theirs = server[entry.key];
+            if (theirs == entry.value) continue;
+            final before = draft.base[entry.key] ?? '';
+            if (!untouched && (theirs ?? '') != before) {
+              conflicts[entry.key] = theirs;
+            } else {
+              update[entry.key] = entry.value;
+            }
+          }
+          if (update.isEmpty || (conflicts.isNotEmpty && !keepTheirs)) {
+            return (conflicts, null, FirestoreMetrics.estimateBytes(server));
+          }
+          final phone = update['phone'];
+          if (phone is String) update.addAll(ContactDiscovery.fieldsFor(phone));
+          update[stampField] = FieldValue.serverTimestamp();
+          transaction.update(ref, update);
+          return (conflicts, update, FirestoreMetrics.estimateBytes(server));
+        });
+    FirestoreMetrics.instance.recordRead(
+      'client',
+      docs: 1,
+      bytes: bytesRead,
+      latency: stopwatch.elapsed,
+    );
+    if (update != null) {
+      _writes++;
+      FirestoreMetrics.instance.recordWrite(
+        'client',
+        bytes: FirestoreMetrics.estimateBytes(update),
+        latency: stopwatch.elapsed,
+      );
+    }
+    return conflicts;
+  }
+
+  /// Replays the draft of [uid] whenever the server delivers the profile
+  /// document, until no draft is left.
+  void _watch(String uid) {
+    if (_watches.containsKey(uid)) return;
+    _watches[uid] = _firestore
+        .collection('client')
+        .doc(uid)
+        .trackedSnapshots(includeMetadataChanges: true)
+        .where((snap) => !snap.metadata.isFromCache)
+        .listen((_) => _replay(uid), onError: (Object e) {
+          debugPrint('Profile draft watch failed: $e');
+        });
+  }
+
+  Future<void> _replay(String uid) async {
+    final draft = _drafts[uid];
+    if (draft == null) {
+      await _watches.remove(uid)?.cancel();
+      return;
+    }
+    // Snapshots arriving while a replay runs do not start another one.
+    if (!_replaying.add(uid)) return;
+    try {
+      await _write(draft, keepTheirs: true);
+      _replayed++;
+    } on FirebaseException catch (e) {
+      if (e.code == 'unavailable' || e.code == 'deadline-exceeded') return;
+      // Rejected for good, e.g. by the rules; retrying cannot help.
+      debugPrint('Profile draft dropped: $e');
+    } catch (e) {
+      debugPrint('Profile draft replay failed: $e');
+      return;
+    } finally {
+      _replaying.remove(uid);
+    }
+    await _drop(uid, draft);
+    if (!_drafts.containsKey(uid)) await _watches.remove(uid)?.cancel();
+  }
+
+  /// Forgets [draft] unless a newer save replaced it.
+  Future<void> _drop(String uid, ProfileDraft draft) async {
+    if (!identical(_drafts[uid], draft)) return;
+    _drafts.remove(uid);
+    await _persist();
+  }
+
+  Future<void> _load() => _loading ??= _restore();
+
+  Future<void> _restore() async {
+    try {
+      final prefs = await SharedPreferences.getInstance();
+      final raw = prefs.getString(prefsKey);
+      if (raw == null) return;
+      for (final json in jsonDecode(raw) as List) {
+        final draft = ProfileDraft.fromJson(json as Map<String, dynamic>);
+        _drafts[draft.uid] = draft;
+      }
+    } catch (e) {
+      debugPrint('Profile drafts could not be restored: $e');
+    }
+  }
+
+  Future<void> _persist() async {
+    final prefs = await SharedPreferences.getInstance();
+    if (_drafts.isEmpty) {
+      await prefs.remove(prefsKey);
+    } else {
+      await prefs.setString(
+        prefsKey,
+        jsonEncode([for (final draft in _drafts.values) draft.toJson()]),
+      );
+    }
+  }
+}
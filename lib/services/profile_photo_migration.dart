@@ -0,0 +1,107 @@
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/foundation.dart';
+
+import 'media_workers.dart';
+import 'profile_photos.dart';
+import 'user_directory.dart';
+
+/// Outcome of a [ProfilePhotoMigration] run.
+class ProfilePhotoMigrationReport {
+  int scanned = 0;
+  int migrated = 0;
+  int failed = 0;
+  int bytesRemoved = 0;
+
+  @override
+  String toString() =>
+      'scanned $scanned, migrated $migrated, failed $failed, '
+      'removed ${(bytesRemoved / 1024).toStringAsFixed(0)} KB of inline photos';
+}
+
+/// Moves inline `profile_photo_base64` fields out of `client` documents into
+/// content-addressed blobs (see [ProfilePhotos]).
+///
+/// [migrateUser] runs for the signed-in user at start-up, so every active
+/// account migrates itself. [migrateAll] walks the whole collection page by
+/// page and is meant for an operator session with write access to every
+/// `client` document.
+class ProfilePhotoMigration {
+  ProfilePhotoMigration({FirebaseFirestore? firestore, ProfilePhotos? photos})
+    : _firestore = firestore ?? FirebaseFirestore.instance,
+      _photos = photos ?? ProfilePhotos.instance;
+
+  final FirebaseFirestore _firestore;
+  final ProfilePhotos _photos;
+
+  /// The signed-in start-up hook: [migrateUser].
+  Future<void> start(String uid) => migrateUser(uid);
+
+  /// Migrates `client/{uid}` if it still carries an inline photo.
+  Future<bool> migrateUser(String uid) async {
+    // Read through the directory: screens opened next need this doc anyway.
+    final data = await UserDirectory.instance.user(uid);
+    if (data == null) return false;
+    final report = ProfilePhotoMigrationReport();
+    await _migrate(uid, data, report);
+    return report.migrated > 0;
+  }
+
+  /// Migrates every `client` document with an inline photo, [pageSize]
+  /// documents at a time. With [dryRun] nothing is written; the report
+  /// shows what would be moved.
+  Future<ProfilePhotoMigrationReport> migrateAll({
+    int pageSize = 20,
+    bool dryRun = false,
+  }) async {
+    final report = ProfilePhotoMigrationReport();
+    DocumentSnapshot<Map<String, dynamic>>? cursor;
+    while (true) {
+      var query = _firestore
+          .collection('client')
+          .where(ProfilePhotos.legacyField, isGreaterThan: '')
+          .orderBy(ProfilePhotos.legacyField)
+          .limit(pageSize);
+      if (cursor != null) query = query.startAfterDocument(cursor);
+      final page = await query.get();
+      for (final doc in page.docs) {
+        await _migrate(doc.id, doc.data(), report, dryRun: dryRun);
+      }
+      debugPrint('Profile photo migration: $report');
+      if (page.docs.length < pageSize) break;
+      cursor = page.docs.last;
+    }
+    return report;
+  }
+
+  Future<void> _migrate(
+    String uid,
+    Map<String, dynamic> data,
+    ProfilePhotoMigrationReport report, {
+    bool dryRun = false,
+  }) async {
+    final inline = data[ProfilePhotos.legacyField];
+    if (inline is! String) return;
+    report.scanned++;
+    try {
+      if (inline.isEmpty) {
+        if (!dryRun) {
+          await _firestore.collection('client').doc(uid).update({
+            ProfilePhotos.legacyField: FieldValue.delete(),
+          });
+          UserDirectory.instance.invalidate('client/$uid');
+        }
+        return;
+      }
+      if (!dryRun) {
+        final bytes = await MediaWorkers.instance.decodeBase64(inline);
+        await _photos.setPhoto(uid, bytes);
+      }
+      report.migrated++;
+      report.bytesRemoved += inline.length;
+    } catch (e) {
+      // Undecodable data is left in place for a manual look.
+      debugPrint('Profile photo migration of $uid failed: $e');
+      report.failed++;
+    }
+  }
+}
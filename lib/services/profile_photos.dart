@@ -0,0 +1,245 @@
+import 'dart:async';
+import 'dart:io';
+import 'dart:typed_data';
+
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:firebase_storage/firebase_storage.dart';
+import 'package:flutter/material.dart';
+import 'package:flutter_image_compress/flutter_image_compress.dart';
+import 'package:path/path.dart' as p;
+import 'package:path_provider/path_provider.dart';
+
+import 'firestore_metrics.dart';
+import 'media_workers.dart';
+import 'user_directory.dart';
+
+/// Profile photos stored as binary blobs in Firebase Storage, addressed by
+/// the SHA-256 of the full-size JPEG:
+///
+///     profile_photos/{hash}/{size}.jpg     for every size in [sizes]
+///
+/// The `client` document only carries a small reference,
+/// `profile_photo: {'hash': ..., 'sizes': [...]}`, so reading a user no
+/// longer downloads the image. Identical images share one blob and a blob
+/// never changes, which makes every cache below safe to keep forever.
+///
+/// Decoded images are kept in memory keyed by `hash@size`, least recently
+/// used first out once they exceed [maxDecodedBytes], and downloaded bytes
+/// on disk, so a photo is fetched at most once per device.
+class ProfilePhotos {
+  ProfilePhotos._({FirebaseStorage? storage, FirebaseFirestore? firestore})
+    : _storage = storage ?? FirebaseStorage.instance,
+      _firestore = firestore ?? FirebaseFirestore.instance;
+
+  static final ProfilePhotos instance = ProfilePhotos._();
+
+  /// Thumbnail edge lengths in pixels. 64 fits list avatars, 256 headers
+  /// and profile pages, 1024 is the full-size photo.
+  static const List<int> sizes = [64, 256, 1024];
+  static const int thumb = 64;
+  static const int medium = 256;
+  static const int full = 1024;
+
+  static const String field = 'profile_photo';
+  static const String legacyField = 'profile_photo_base64';
+
+  /// Image bytes kept in memory. A thumbnail is a few KB and a full-size
+  /// photo around 150 KB, but legacy inline photos can be much larger, so
+  /// the budget is in bytes rather than entries.
+  static const int maxDecodedBytes = 16 * 1024 * 1024;
+
+  final FirebaseStorage _storage;
+  final FirebaseFirestore _firestore;
+  /// In recency order: a hit moves its entry to the end.
+  final Map<String, MemoryImage> _decoded = {};
+  int _decodedBytes = 0;
+  final Map<String, Future<ImageProvider?>> _loading = {};
+  Directory? _dir;
+
+  /// The content hash referenced by [user], if it has a migrated photo.
+  static String? hashOf(Map<String, dynamic>? user) {
+    final ref = user?[field];
+    if (ref is Map && ref['hash'] is String) return ref['hash'] as String;
+    return null;
+  }
+
+  /// Whether [user] has any photo, migrated or legacy.
+  static bool hasPhoto(Map<String, dynamic>? user) =>
+      hashOf(user) != null ||
+      (user?[legacyField] is String && (user![legacyField] as String).isNotEmpty);
+
+  /// The already decoded photo of [user] at [size], without any I/O. Use it
+  /// as the first frame while [load] completes.
+  ImageProvider? peek(Map<String, dynamic>? user, {int size = thumb}) {
+    final key = _keyFor(user, size);
+    return key == null ? null : _touch(key);
+  }
+
+  /// Bytes of the images currently held in memory.
+  int get decodedBytes => _decodedBytes;
+
+  /// The photo of [user] at the smallest stored size that is at least
+  /// [size] pixels, or null when the user has no photo.
+  Future<ImageProvider?> load(Map<String, dynamic>? user, {int size = thumb}) {
+    final key = _keyFor(user, size);
+    if (key == null) return Future.value(null);
+    final cached = _touch(key);
+    if (cached != null) return Future.value(cached);
+
+    final pending = _loading[key];
+    if (pending != null) return pending;
+    final future = _decode(key, user, size);
+    _loading[key] = future;
+    return future.whenComplete(() => _loading.remove(key));
+  }
+
+  Future<MemoryImage?> _decode(
+    String key,
+    Map<String, dynamic>? user,
+    int size,
+  ) async {
+    try {
+      final hash = hashOf(user);
+      final Uint8List? bytes;
+      if (hash != null) {
+        bytes = await _bytes(hash, _variant(size));
+      } else {
+        // Not migrated yet: decode the inline copy once, off the UI isolate.
+        bytes = await MediaWorkers.instance.decodeBase64(
+          user![legacyField] as String,
+        );
+      }
+      if (bytes == null) return null;
+      return _remember(key, MemoryImage(bytes));
+    } catch (e) {
+      debugPrint('Profile photo $key failed to load: $e');
+      return null;
+    }
+  }
+
+  /// [load] for `client/{uid}`, read through [UserDirectory].
+  Future<ImageProvider?> forUser(String uid, {int size = thumb}) async =>
+      load(await UserDirectory.instance.user(uid), size: size);
+
+  /// [peek] for `client/{uid}`, if the user document is cached too.
+  ImageProvider? peekUser(String uid, {int size = thumb}) =>
+      peek(UserDirectory.instance.peek('client/$uid'), size: size);
+
+  String? _keyFor(Map<String, dynamic>? user, int size) {
+    final hash = hashOf(user);
+    if (hash != null) return '$hash@${_variant(size)}';
+    final legacy = user?[legacyField];
+    if (legacy is String && legacy.isNotEmpty) {
+      return 'inline:${legacy.length}:${legacy.hashCode}';
+    }
+    return null;
+  }
+
+  static int _variant(int size) =>
+      sizes.firstWhere((s) => s >= size, orElse: () => full);
+
+  MemoryImage? _touch(String key) {
+    final image = _decoded.remove(key);
+    if (image != null) _decoded[key] = image;
+    return image;
+  }
+
+  MemoryImage _remember(String key, MemoryImage image) {
+    final previous = _decoded.remove(key);
+    if (previous != null) _decodedBytes -= previous.bytes.length;
+    _decoded[key] = image;
+    _decodedBytes += image.bytes.length;
+    // The newest image stays even if it alone is over budget.
+    while (_decodedBytes > maxDecodedBytes && _decoded.length > 1) {
+      final oldest = _decoded.keys.first;
+      _decodedBytes -= _decoded.remove(oldest)!.bytes.length;
+    }
+    return image;
+  }
+
+  Future<Directory> _directory() async {
+    if (_dir != null) return _dir!;
+    final support = await getApplicationSupportDirectory();
+    final dir = Directory(p.join(support.path, 'profile_photos'));
+    if (!await dir.exists()) await dir.create(recursive: true);
+    return _dir = dir;
+  }
+
+  Future<Uint8List?> _bytes(String hash, int size) async {
+    final file = File(p.join((await _directory()).path, '${hash}_$size.jpg'));
+    if (await file.exists()) return file.readAsBytes();
+    final bytes = await _blob(hash, size).getData(2 * 1024 * 1024);
+    if (bytes != null) await file.writeAsBytes(bytes, flush: false);
+    return bytes;
+  }
+
+  Reference _blob(String hash, int size) =>
+      _storage.ref('profile_photos/$hash/$size.jpg');
+
+  /// Encodes [source] into every size in [sizes], uploads whatever is not
+  /// stored yet and returns the reference to put on the user document.
+  Future<Map<String, dynamic>> upload(Uint8List source) async {
+    final variants = <int, Uint8List>{};
+    for (final size in sizes.reversed) {
+      variants[size] = await FlutterImageCompress.compressWithList(
+        size == full ? source : variants[full]!,
+        minWidth: size,
+        minHeight: size,
+        quality: size == full ? 85 : 75,
+      );
+    }
+    final hash = await MediaWorkers.instance.sha256Of(variants[full]!);
+
+    for (final entry in variants.entries) {
+      final ref = _blob(hash, entry.key);
+      if (!await _exists(ref)) {
+        await ref.putData(
+          entry.value,
+          SettableMetadata(
+            contentType: 'image/jpeg',
+            cacheControl: 'public, max-age=31536000, immutable',
+          ),
+        );
+      }
+      // The uploader sees their own photo immediately, without a download.
+      final dir = await _directory();
+      await File(
+        p.join(dir.path, '${hash}_${entry.key}.jpg'),
+      ).writeAsBytes(entry.value, flush: false);
+    }
+
+    return {'hash': hash, 'sizes': sizes};
+  }
+
+  Future<bool> _exists(Reference ref) async {
+    try {
+      await ref.getMetadata();
+      return true;
+    } on FirebaseException catch (e) {
+      if (e.code == 'object-not-found') return false;
+      rethrow;
+    }
+  }
+
+  /// Uploads [source] and points `client/{uid}` at it, dropping any inline
+  /// copy left from before the migration.
+  Future<Map<String, dynamic>> setPhoto(String uid, Uint8List source) async {
+    final ref = await upload(source);
+    await _firestore.collection('client').doc(uid).trackedUpdate({
+      field: ref,
+      legacyField: FieldValue.delete(),
+    });
+    UserDirectory.instance.invalidate('client/$uid');
+    return ref;
+  }
+
+  /// Removes the photo reference (and any inline copy) from `client/{uid}`.
+  /// Blobs are shared by hash and are left in place.
+  Future<void> clearPhoto(String uid) async {
+    await _firestore.collection('client').doc(uid).trackedUpdate({
+      field: FieldValue.delete(),
+      legacyField: FieldValue.delete(),
+    });
+    UserDirectory.instance.invalidate('client/$uid');
+  }
+}
@@ -0,0 +1,282 @@
+import 'dart:async';
+import 'dart:convert';
+
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/foundation.dart';
+import 'package:shared_preferences/shared_preferences.dart';
+
+import 'firestore_metrics.dart';
+
+/// A collection being emptied, plus the documents to delete once it is.
+class PurgeJob {
+  PurgeJob({
+    required this.collection,
+    List<String> thenDelete = const [],
+    this.deleted = 0,
+    this.total,
+    this.cursor,
+  }) : thenDelete = List.of(thenDelete);
+
+  /// Collection path, e.g. `groups/{id}/messages`.
+  final String collection;
+
+  /// Document paths deleted after the collection is empty.
+  final List<String> thenDelete;
+
+  int deleted;
+
+  /// Documents in the collection when the job started, for progress.
+  int? total;
+
+  /// Every document id up to and including this one has been deleted.
+  String? cursor;
+
+  bool done = false;
+  bool stopped = false;
+  Object? error;
+
+  /// 0..1, or null while the total is unknown.
+  double? get progress {
+    final all = total;
+    if (all == null) return null;
+    if (all == 0) return 1;
+    return (deleted / all).clamp(0.0, 1.0);
+  }
+
+  Map<String, dynamic> toJson() => {
+    'collection': collection,
+    'thenDelete': thenDelete,
+    'deleted': deleted,
+    'total': total,
+    'cursor': cursor,
+  };
+
+  factory PurgeJob.fromJson(Map<String, dynamic> json) => PurgeJob(
+    collection: json['collection'],
+    thenDelete: List<String>.from(json['thenDelete'] ?? const []),
+    deleted: json['deleted'] ?? 0,
+    total: json['total'],
+    cursor: json['cursor'],
+  );
+}
+
+class _Page {
+  _Page(this.lastId, this.size);
+
+  final String lastId;
+  final int size;
+  bool committed = false;
+}
+
+/// Deletes whole collections (chat histories, group messages) in bulk.
+///
+/// The collection is paged by document id with cursor queries and each page
+/// is deleted in one batch of up to [batchSize] writes, with at most
+/// [maxInFlight] commits running while the next page is read. After every
+/// commit the job is checkpointed to shared preferences: the cursor only
+/// moves past pages whose commits (and those of every earlier page) have
+/// landed, so a job resumed after the app was killed never skips documents.
+/// A final pass from the start picks up anything written meanwhile.
+///
+/// Checkpoints belong to the signed-in user passed to [start], so another
+/// account signing in on the device never resumes them. Listeners are
+/// notified on every committed page; [jobFor] gives the progress of a
+/// running job.
+class PurgeEngine extends ChangeNotifier {
+  PurgeEngine({
+    FirebaseFirestore? firestore,
+    this.batchSize = 500,
+    this.maxInFlight = 4,
+  }) : _firestore = firestore ?? FirebaseFirestore.instance;
+
+  static final PurgeEngine instance = PurgeEngine();
+
+  static String _prefsKey(String uid) => 'purge_jobs_v1_$uid';
+
+  final FirebaseFirestore _firestore;
+
+  /// Deletes per commit; Firestore caps a batch at 500 writes.
+  final int batchSize;
+  final int maxInFlight;
+
+  final Map<String, PurgeJob> _jobs = {};
+  final Map<String, Future<PurgeJob>> _running = {};
+  String? _uid;
+  Future<void>? _restoring;
+
+  PurgeJob? jobFor(String collection) => _jobs[collection];
+
+  /// Resumes the jobs [uid] left unfinished in a previous run. Jobs of the
+  /// user signed in before are dropped from memory; their checkpoints stay
+  /// for when that user signs in again.
+  Future<void> start(String uid) {
+    if (uid == _uid) return _restoring!;
+    if (_uid != null) {
+      for (final job in _jobs.values) {
+        job.stopped = true;
+      }
+      _jobs.clear();
+    }
+    _uid = uid;
+    return _restoring = _restore(uid);
+  }
+
+  Future<void> _restore(String uid) async {
+    try {
+      final prefs = await SharedPreferences.getInstance();
+      final saved = prefs.getStringList(_prefsKey(uid)) ?? const <String>[];
+      for (final item in saved) {
+        final job = PurgeJob.fromJson(jsonDecode(item));
+        _jobs.putIfAbsent(job.collection, () => job);
+      }
+    } catch (e) {
+      debugPrint('Purge restore failed: $e');
+    }
+    // Jobs started before the user was known are checkpointed from now on.
+    await _persist();
+    for (final job in List.of(_jobs.values)) {
+      _run(job).catchError((e) {
+        debugPrint('Resumed purge of ${job.collection} failed: $e');
+        return job;
+      });
+    }
+  }
+
+  /// Deletes every document of [collection], then the documents at
+  /// [thenDelete]. Joins the job if it is already running.
+  Future<PurgeJob> purge(
+    String collection, {
+    List<String> thenDelete = const [],
+  }) async {
+    await _restoring;
+    final job = _jobs.putIfAbsent(
+      collection,
+      () => PurgeJob(collection: collection),
+    );
+    for (final path in thenDelete) {
+      if (!job.thenDelete.contains(path)) job.thenDelete.add(path);
+    }
+    job
+      ..stopped = false
+      ..error = null;
+    await _persist();
+    return _run(job);
+  }
+
+  /// Stops [collection]'s job once the commits in flight have landed. The
+  /// checkpoint is kept; [purge] or the next [start] carries on from it.
+  void stop(String collection) => _jobs[collection]?.stopped = true;
+
+  Future<PurgeJob> _run(PurgeJob job) =>
+      _running[job.collection] ??= _execute(
+        job,
+      ).whenComplete(() => _running.remove(job.collection));
+
+  Future<PurgeJob> _execute(PurgeJob job) async {
+    final ref = _firestore.collection(job.collection);
+    try {
+      if (job.total == null) {
+        final remaining = await ref.count().get();
+        job.total = job.deleted + (remaining.count ?? 0);
+        await _persist();
+        notifyListeners();
+      }
+
+      // One pass from the checkpoint, then one from the start for whatever
+      // was written before it or meanwhile. No more: a chat the peer keeps
+      // writing to would otherwise never let the job finish.
+      if (job.cursor != null) await _sweep(job, ref, job.cursor);
+      if (!job.stopped) await _sweep(job, ref, null);
+      if (job.stopped) return job;
+
+      if (job.thenDelete.isNotEmpty) {
+        final batch = _firestore.batch();
+        for (final path in job.thenDelete) {
+          batch.delete(_firestore.doc(path));
+        }
+        await batch.trackedCommit(
+          job.collection,
+          writes: job.thenDelete.length,
+        );
+      }
+      job.done = true;
+      _jobs.remove(job.collection);
+      await _persist();
+      notifyListeners();
+      return job;
+    } catch (e) {
+      job.error = e;
+      notifyListeners();
+      rethrow;
+    }
+  }
+
+  /// Deletes every document after [from] (or all of them).
+  Future<void> _sweep(
+    PurgeJob job,
+    CollectionReference<Map<String, dynamic>> ref,
+    String? from,
+  ) async {
+    final query = ref.orderBy(FieldPath.documentId).limit(batchSize);
+    final inFlight = <Future<void>>{};
+    final uncommitted = <_Page>[];
+    var after = from;
+    // Commits never throw into [inFlight]; the first failure is kept here,
+    // stops the sweep and is rethrown once every commit has settled.
+    Object? failure;
+
+    try {
+      while (!job.stopped && failure == null) {
+        final page =
+            await (after == null ? query : query.startAfter([after]))
+                .trackedGet(path: job.collection);
+        if (page.docs.isEmpty) break;
+
+        final batch = _firestore.batch();
+        for (final doc in page.docs) {
+          batch.delete(doc.reference);
+        }
+        final entry = _Page(page.docs.last.id, page.docs.length);
+        uncommitted.add(entry);
+        late final Future<void> commit;
+        commit = batch
+            .trackedCommit(job.collection, writes: entry.size)
+            .then((_) {
+              entry.committed = true;
+              job.deleted += entry.size;
+              while (uncommitted.isNotEmpty && uncommitted.first.committed) {
+                job.cursor = uncommitted.removeAt(0).lastId;
+              }
+              _persist();
+              notifyListeners();
+            })
+            .catchError((Object e) {
+              failure ??= e;
+            })
+            .whenComplete(() => inFlight.remove(commit));
+        inFlight.add(commit);
+
+        after = entry.lastId;
+        if (page.docs.length < batchSize) break;
+        if (inFlight.length >= maxInFlight) await Future.any(inFlight);
+      }
+    } finally {
+      // Also when a page read throws: no commit is left unawaited.
+      await Future.wait(inFlight.toList());
+    }
+    if (failure != null) throw failure!;
+  }
+
+  Future<void> _persist() async {
+    final uid = _uid;
+    if (uid == null) return;
+    try {
+      final prefs = await SharedPreferences.getInstance();
+      await prefs.setStringList(_prefsKey(uid), [
+        for (final job in _jobs.values) jsonEncode(job.toJson()),
+      ]);
+    } catch (e) {
+      debugPrint('Purge checkpoint failed: $e');
+    }
+  }
+}
@@ -0,0 +1,94 @@
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/foundation.dart';
+import 'package:shared_preferences/shared_preferences.dart';
+
+import 'firestore_metrics.dart';
+import 'read_receipts.dart';
+
+/// Seeds [ReadReceipts] watermarks from the legacy per-message `isRead`
+/// flags.
+///
+/// Each user migrates their own watermarks once, at start-up: for every chat
+/// in `chatList/{uid}/chats` without a watermark, the watermark is set to the
+/// newest message before the oldest one still unread, or to the newest
+/// message if nothing is unread. Legacy flags are left in place;
+/// [ReadReceipts.isRead] keeps honouring them.
+class ReadReceiptMigration {
+  ReadReceiptMigration({FirebaseFirestore? firestore})
+    : _firestore = firestore ?? FirebaseFirestore.instance;
+
+  final FirebaseFirestore _firestore;
+
+  static String _doneKey(String uid) => 'read_watermarks_migrated_$uid';
+
+  /// The signed-in start-up hook: [migrateUser].
+  Future<void> start(String uid) => migrateUser(uid);
+
+  /// Migrates every chat of [uid] unless this device already did. Returns
+  /// the number of watermarks written.
+  Future<int> migrateUser(String uid) async {
+    final prefs = await SharedPreferences.getInstance();
+    if (prefs.getBool(_doneKey(uid)) == true) return 0;
+
+    final chats =
+        await _firestore
+            .collection('chatList')
+            .doc(uid)
+            .collection('chats')
+            .trackedGet();
+    var written = 0;
+    for (final chat in chats.docs) {
+      try {
+        if (await migrateChat(_chatId(uid, chat.id), uid)) written++;
+      } catch (e) {
+        debugPrint('Read watermark migration of ${chat.id} failed: $e');
+        return written;
+      }
+    }
+    await prefs.setBool(_doneKey(uid), true);
+    return written;
+  }
+
+  /// Seeds the watermark of [uid] in [chatId] if it has none.
+  Future<bool> migrateChat(String chatId, String uid) async {
+    final chatRef = _firestore.collection('messages').doc(chatId);
+    final chat = await chatRef.trackedGet();
+    if (ReadReceipts.watermarkOf(chat.data(), uid) != null) return false;
+
+    final messages = chatRef.collection('chats');
+    // Two equality filters need no composite index.
+    final unread =
+        await messages
+            .where('receiverId', isEqualTo: uid)
+            .where('isRead', isEqualTo: false)
+            .trackedGet(path: messages.path);
+    Timestamp? oldestUnread;
+    for (final doc in unread.docs) {
+      final ts = doc.data()['timestamp'];
+      if (ts is Timestamp &&
+          (oldestUnread == null || ts.compareTo(oldestUnread) < 0)) {
+        oldestUnread = ts;
+      }
+    }
+
+    var query = messages.orderBy('timestamp');
+    if (oldestUnread != null) query = query.endBefore([oldestUnread]);
+    final last = await query
+        .limitToLast(1)
+        .trackedGet(path: messages.path);
+    if (last.docs.isEmpty) return false;
+    final newestRead = last.docs.single;
+    final at = newestRead.data()['timestamp'];
+    if (at is! Timestamp) return false;
+
+    await chatRef.trackedSet({
+      ReadReceipts.field: {
+        uid: {'at': at, 'id': newestRead.id},
+      },
+    }, SetOptions(merge: true));
+    return true;
+  }
+
+  static String _chatId(String uid1, String uid2) =>
+      uid1.hashCode <= uid2.hashCode ? '${uid1}_$uid2' : '${uid2}_$uid1';
+}
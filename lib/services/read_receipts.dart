@@ -0,0 +1,125 @@
+import 'dart:async';
+
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/foundation.dart';
+
+import 'chat_message.dart';
+import 'firestore_metrics.dart';
+
+/// Read receipts for one-to-one chats as one watermark per participant.
+///
+/// Instead of flipping `isRead` on every message, the chat document
+/// `messages/{chatId}` carries `readUpTo.{uid} = {at, id}`: the timestamp
+/// and id of the newest message that participant has seen. A message counts
+/// as read by its receiver once its timestamp is at or before the receiver's
+/// watermark (see [isRead]); messages written before watermarks existed also
+/// honour their legacy `isRead` flag.
+///
+/// [markRead] only ever moves a watermark forward. The first write waits
+/// [settle] so the cached and live pages delivered on open collapse into one
+/// write, and later writes happen at most once per [interval] per chat. So
+/// opening a chat costs one write no matter how many messages were unread,
+/// and a busy open chat costs one write per interval rather than one per
+/// message.
+class ReadReceipts {
+  ReadReceipts({
+    FirebaseFirestore? firestore,
+    this.interval = const Duration(seconds: 5),
+    this.settle = const Duration(milliseconds: 500),
+  }) : _firestore = firestore ?? FirebaseFirestore.instance;
+
+  static final ReadReceipts instance = ReadReceipts();
+
+  static const String field = 'readUpTo';
+
+  final FirebaseFirestore _firestore;
+  final Duration interval;
+  final Duration settle;
+
+  final Map<String, _Watermark> _pending = {};
+  final Map<String, Timestamp> _written = {};
+  final Map<String, DateTime> _lastWrite = {};
+  final Map<String, Timer> _timers = {};
+
+  int _requests = 0;
+  int _writes = 0;
+
+  Map<String, int> get stats => {'requests': _requests, 'writes': _writes};
+
+  /// The watermark of [uid] in a `messages/{chatId}` document.
+  static Timestamp? watermarkOf(Map<String, dynamic>? chat, String uid) {
+    final marks = chat?[field];
+    if (marks is! Map) return null;
+    final mark = marks[uid];
+    if (mark is! Map) return null;
+    final at = mark['at'];
+    return at is Timestamp ? at : null;
+  }
+
+  /// Whether the receiver of [message] has read it, given the receiver's
+  /// [watermark].
+  static bool isRead(ChatMessage message, Timestamp? watermark) {
+    if (message.isRead) return true;
+    final ts = message.timestamp;
+    return watermark != null && ts != null && ts.compareTo(watermark) <= 0;
+  }
+
+  /// Records that [readerId] has seen [chatId] up to [upTo] (the timestamp
+  /// of [messageId]). Writes after [settle], or once [interval] has passed
+  /// since the last write for this chat.
+  void markRead({
+    required String chatId,
+    required String readerId,
+    required Timestamp upTo,
+    String? messageId,
+  }) {
+    _requests++;
+    final key = '$chatId/$readerId';
+    final known = _pending[key]?.at ?? _written[key];
+    if (known != null && upTo.compareTo(known) <= 0) return;
+    _pending[key] = _Watermark(chatId, readerId, upTo, messageId);
+
+    if (_timers.containsKey(key)) return;
+    final last = _lastWrite[key];
+    final sinceLast =
+        last == null ? interval : DateTime.now().difference(last);
+    final wait = sinceLast >= interval - settle ? settle : interval - sinceLast;
+    _timers[key] = Timer(wait, () => _flush(key));
+  }
+
+  /// Writes a pending watermark for [chatId] right away, e.g. when the chat
+  /// is closed.
+  Future<void> flush(String chatId, String readerId) =>
+      _flush('$chatId/$readerId');
+
+  Future<void> _flush(String key) async {
+    _timers.remove(key)?.cancel();
+    final mark = _pending.remove(key);
+    if (mark == null) return;
+    _lastWrite[key] = DateTime.now();
+    _written[key] = mark.at;
+    _writes++;
+    try {
+      await _firestore.collection('messages').doc(mark.chatId).trackedSet({
+        field: {
+          mark.readerId: {
+            'at': mark.at,
+            if (mark.messageId != null) 'id': mark.messageId,
+          },
+        },
+      }, SetOptions(merge: true));
+    } catch (e) {
+      debugPrint('Error updating read watermark: $e');
+      if (_written[key] == mark.at) _written.remove(key);
+    }
+  }
+}
+
+class _Watermark {
+  _Watermark(this.chatId, this.readerId, this.at, this.messageId);
+
+  final String chatId;
+  final String readerId;
+  final Timestamp at;
+  final String? messageId;
+}
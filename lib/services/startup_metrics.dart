@@ -0,0 +1,144 @@
+import 'dart:async';
+import 'dart:convert';
+import 'dart:developer' as developer;
+
+import 'package:flutter/widgets.dart';
+import 'package:shared_preferences/shared_preferences.dart';
+
+/// Startup timings of one launch, in milliseconds since `main` started.
+class StartupRecord {
+  StartupRecord({
+    required this.launchedAt,
+    this.firstFrameMs,
+    this.chatListMs,
+    this.chatListFromCache,
+    this.chatListLiveMs,
+  });
+
+  final DateTime launchedAt;
+
+  /// The first frame (the splash screen) was rasterized.
+  int? firstFrameMs;
+
+  /// The chat list first showed rows and accepted taps.
+  int? chatListMs;
+
+  /// Whether those rows came from [ChatListCache] rather than Firestore.
+  bool? chatListFromCache;
+
+  /// The chat list first showed the live server snapshot.
+  int? chatListLiveMs;
+
+  Map<String, dynamic> toJson() => {
+    'launchedAt': launchedAt.millisecondsSinceEpoch,
+    if (firstFrameMs != null) 'firstFrameMs': firstFrameMs,
+    if (chatListMs != null) 'chatListMs': chatListMs,
+    if (chatListFromCache != null) 'chatListFromCache': chatListFromCache,
+    if (chatListLiveMs != null) 'chatListLiveMs': chatListLiveMs,
+  };
+
+  factory StartupRecord.fromJson(Map<String, dynamic> json) => StartupRecord(
+    launchedAt: DateTime.fromMillisecondsSinceEpoch(json['launchedAt'] as int),
+    firstFrameMs: json['firstFrameMs'] as int?,
+    chatListMs: json['chatListMs'] as int?,
+    chatListFromCache: json['chatListFromCache'] as bool?,
+    chatListLiveMs: json['chatListLiveMs'] as int?,
+  );
+
+  @override
+  String toString() =>
+      'first frame ${firstFrameMs ?? '-'} ms, chat list '
+      '${chatListMs ?? '-'} ms${chatListFromCache == true ? ' (cached)' : ''}'
+      ', live ${chatListLiveMs ?? '-'} ms';
+}
+
+/// Time to first frame and time to an interactive chat list, per launch.
+///
+/// [start] is called first thing in `main`; the chat list reports
+/// [chatListShown] when it first renders rows. Every mark is also a
+/// timeline event, so profile-mode traces line up with it. The last
+/// [keep] launches are saved in SharedPreferences as [history].
+class StartupMetrics {
+  StartupMetrics._();
+
+  static final StartupMetrics instance = StartupMetrics._();
+
+  static const String _prefsKey = 'startup_metrics_v1';
+  static const int keep = 20;
+
+  final Stopwatch _sinceMain = Stopwatch();
+  StartupRecord? _current;
+  Timer? _saveTimer;
+
+  StartupRecord? get current => _current;
+
+  void start() {
+    if (_current != null) return;
+    _sinceMain.start();
+    _current = StartupRecord(launchedAt: DateTime.now());
+    WidgetsBinding.instance.waitUntilFirstFrameRasterized.then((_) {
+      _current!.firstFrameMs ??= _mark('firstFrame');
+      _save();
+    });
+  }
+
+  /// The chat list is building rows, from a cache if [fromCache]. Marked
+  /// once that frame is on screen; later calls cost a null check.
+  void chatListShown({required bool fromCache}) {
+    final record = _current;
+    if (record == null || record.chatListLiveMs != null) return;
+    if (record.chatListMs != null && fromCache) return;
+    WidgetsBinding.instance.addPostFrameCallback((_) {
+      if (record.chatListMs == null) {
+        record
+          ..chatListMs = _mark('chatListInteractive')
+          ..chatListFromCache = fromCache;
+      }
+      if (!fromCache) record.chatListLiveMs ??= _mark('chatListLive');
+      _save();
+    });
+  }
+
+  int _mark(String name) {
+    final ms = _sinceMain.elapsedMilliseconds;
+    developer.Timeline.instantSync('startup.$name', arguments: {'ms': ms});
+    return ms;
+  }
+
+  /// Saved launches, oldest first, including this one once it has a mark.
+  Future<List<StartupRecord>> history() async {
+    try {
+      final prefs = await SharedPreferences.getInstance();
+      return [
+        for (final raw in prefs.getStringList(_prefsKey) ?? const <String>[])
+          StartupRecord.fromJson(jsonDecode(raw) as Map<String, dynamic>),
+      ];
+    } catch (e) {
+      debugPrint('Startup metrics unreadable: $e');
+      return [];
+    }
+  }
+
+  /// Writes after the marks of a launch have settled, so startup itself
+  /// does not pay for the preferences write.
+  void _save() {
+    _saveTimer?.cancel();
+    _saveTimer = Timer(const Duration(seconds: 3), () async {
+      final record = _current;
+      if (record == null) return;
+      debugPrint('Startup: $record');
+      try {
+        final prefs = await SharedPreferences.getInstance();
+        final saved = prefs.getStringList(_prefsKey) ?? <String>[];
+        final launchedAt = record.launchedAt.millisecondsSinceEpoch;
+        // Replace this launch's earlier save, if any.
+        saved.removeWhere((raw) => raw.contains('"launchedAt":$launchedAt,'));
+        saved.add(jsonEncode(record.toJson()));
+        if (saved.length > keep) saved.removeRange(0, saved.length - keep);
+        await prefs.setStringList(_prefsKey, saved);
+      } catch (e) {
+        debugPrint('Startup metrics write failed: $e');
+      }
+    });
+  }
+}
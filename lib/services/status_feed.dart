@@ -0,0 +1,348 @@
+import 'dart:async';
+import 'dart:convert';
+import 'dart:io';
+import 'dart:math';
+
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/foundation.dart';
+import 'package:flutter/painting.dart';
+import 'package:path/path.dart' as p;
+import 'package:path_provider/path_provider.dart';
+
+import 'base64_image.dart';
+import 'contact_index.dart';
+import 'firestore_metrics.dart';
+
+/// One status update, `whatsappstatus/{uploaderId}/statuses/{id}`.
+class StatusItem {
+  StatusItem({
+    required this.id,
+    required this.uploaderId,
+    required this.image,
+    required this.timestamp,
+    required this.views,
+  });
+
+  factory StatusItem.fromDoc(DocumentSnapshot<Map<String, dynamic>> doc) {
+    final data = doc.data() ?? const {};
+    return StatusItem(
+      id: doc.id,
+      uploaderId: doc.reference.parent.parent!.id,
+      image: data['image'] as String? ?? '',
+      timestamp: (data['timestamp'] as num?)?.toInt() ?? 0,
+      views: List<String>.from(data['views'] ?? const []),
+    );
+  }
+
+  factory StatusItem.fromJson(Map<String, dynamic> json) => StatusItem(
+    id: json['id'] as String,
+    uploaderId: json['uploaderId'] as String,
+    image: json['image'] as String,
+    timestamp: json['timestamp'] as int,
+    views: List<String>.from(json['views'] as List),
+  );
+
+  final String id;
+  final String uploaderId;
+
+  /// Base64 JPEG, as uploaded.
+  final String image;
+
+  /// Upload time in milliseconds since epoch (client clock).
+  final int timestamp;
+  final List<String> views;
+
+  /// Decodes through [Base64Image], so an item precached by the status list
+  /// opens in the viewer without decoding again.
+  ImageProvider imageProvider({int? targetWidth}) =>
+      Base64Image(image, cacheKey: 'status:$id', targetWidth: targetWidth);
+
+  Map<String, dynamic> toJson() => {
+    'id': id,
+    'uploaderId': uploaderId,
+    'image': image,
+    'timestamp': timestamp,
+    'views': views,
+  };
+}
+
+/// Everything one uploader posted in the last day, oldest first.
+class StatusStory {
+  StatusStory(this.uploaderId, this.phone, this.items);
+
+  final String uploaderId;
+
+  /// Normalized number, or empty for legacy uploads and the user's own.
+  final String phone;
+  final List<StatusItem> items;
+
+  /// The item the viewer opens on.
+  StatusItem get first => items.first;
+  StatusItem get latest => items.last;
+}
+
+/// The status feed: only the user's contacts, only the last [window], kept
+/// on disk between sessions.
+///
+/// Uploads carry `phone10`, the uploader's normalized number. The feed asks
+/// for `statuses` across all uploaders with `phone10` in the user's contact
+/// numbers, in `whereIn` chunks of [chunkSize] (Firestore's limit), plus the
+/// user's own. Each refresh only asks for statuses newer than the moment the
+/// last complete refresh started, by this device's clock, minus [overlap]:
+/// `timestamp` is set by the uploader's clock, which may run behind ours, and
+/// an upload can land after a refresh started with a timestamp from before
+/// it. Numbers that joined the contact set since the last refresh are
+/// queried for the whole window. Items are dropped locally once they are
+/// older than [window], so incremental refreshes never have to re-read the
+/// day. A `full` refresh re-reads the window to pick up deleted statuses.
+///
+/// The query needs a collection-group index on `statuses` (`phone10`
+/// ascending, `timestamp` ascending), defined in firestore.indexes.json.
+class StatusFeed extends ChangeNotifier {
+  StatusFeed({
+    FirebaseFirestore? firestore,
+    this.window = const Duration(hours: 24),
+    this.overlap = const Duration(minutes: 5),
+    this.chunkSize = 30,
+  }) : _firestore = firestore ?? FirebaseFirestore.instance;
+
+  static final StatusFeed instance = StatusFeed();
+
+  final FirebaseFirestore _firestore;
+  final Duration window;
+  final Duration overlap;
+  final int chunkSize;
+
+  final Map<String, StatusItem> _items = {};
+  final Map<String, String> _phoneOf = {};
+  Set<String> _phones = {};
+  /// Local time the last complete refresh started, in milliseconds.
+  int? _since;
+  List<StatusStory>? _stories;
+  Future<void>? _loading;
+  Future<void>? _refreshing;
+  Timer? _writeTimer;
+  File? _file;
+
+  int _queries = 0;
+  int _docs = 0;
+
+  Map<String, int> get stats => {
+    'queries': _queries,
+    'docs': _docs,
+    'items': _items.length,
+  };
+
+  /// Stories with at least one live item, most recently updated first.
+  List<StatusStory> get stories => _stories ??= _buildStories();
+
+  StatusStory? storyOf(String uploaderId) {
+    for (final story in stories) {
+      if (story.uploaderId == uploaderId) return story;
+    }
+    return null;
+  }
+
+  /// Restores the feed saved by the last session. Concurrent callers share
+  /// the same read.
+  Future<void> load() => _loading ??= _read();
+
+  /// Brings the feed up to date for [selfUid] and the contact [phones]
+  /// (normalized, see [ContactIndex.normalize]).
+  Future<void> refresh({
+    required String selfUid,
+    required Iterable<String> phones,
+    bool full = false,
+  }) {
+    final pending = _refreshing;
+    if (pending != null) return pending;
+    return _refreshing = _refresh(selfUid, phones.toSet(), full).whenComplete(
+      () => _refreshing = null,
+    );
+  }
+
+  Future<void> _refresh(String selfUid, Set<String> phones, bool full) async {
+    await load();
+    final now = DateTime.now().millisecondsSinceEpoch;
+    final windowStart = now - window.inMilliseconds;
+    final since =
+        full || _since == null
+            ? windowStart
+            : (_since! - overlap.inMilliseconds).clamp(windowStart, now);
+    final known = full ? <String>{} : _phones.intersection(phones);
+    final added = phones.difference(known);
+
+    final results = await Future.wait([
+      _query(
+        _firestore
+            .collection('whatsappstatus')
+            .doc(selfUid)
+            .collection('statuses'),
+        since,
+      ),
+      for (final chunk in _chunks(known))
+        _query(
+          _firestore
+              .collectionGroup('statuses')
+              .where('phone10', whereIn: chunk),
+          since,
+        ),
+      for (final chunk in _chunks(added))
+        _query(
+          _firestore
+              .collectionGroup('statuses')
+              .where('phone10', whereIn: chunk),
+          windowStart,
+        ),
+    ]);
+
+    final complete = !results.contains(null);
+    if (full && complete) {
+      _items.clear();
+      _phoneOf.clear();
+    }
+    // Contacts that were removed take their stories with them.
+    _items.removeWhere(
+      (_, item) =>
+          item.uploaderId != selfUid &&
+          !phones.contains(_phoneOf[item.uploaderId]),
+    );
+    for (final docs in results) {
+      for (final doc in docs ?? const []) {
+        final item = StatusItem.fromDoc(doc);
+        if (item.image.isEmpty) continue;
+        _items[item.id] = item;
+        final phone = doc.data()['phone10'];
+        if (phone is String) _phoneOf[item.uploaderId] = phone;
+      }
+    }
+    // On failure the cursors stay where they were so the next refresh asks
+    // again.
+    if (complete) {
+      _phones = phones;
+      _since = now;
+    }
+    _expire();
+    _changed();
+  }
+
+  /// The matching documents, or null if the query failed.
+  Future<List<QueryDocumentSnapshot<Map<String, dynamic>>>?> _query(
+    Query<Map<String, dynamic>> query,
+    int since,
+  ) async {
+    _queries++;
+    try {
+      final snap = await query
+          .where('timestamp', isGreaterThan: since)
+          .trackedGet(path: 'statuses');
+      _docs += snap.docs.length;
+      return snap.docs;
+    } catch (e) {
+      debugPrint('Status feed query failed: $e');
+      return null;
+    }
+  }
+
+  Iterable<List<String>> _chunks(Set<String> phones) sync* {
+    final all = phones.where((phone) => phone.isNotEmpty).toList();
+    for (var i = 0; i < all.length; i += chunkSize) {
+      yield all.sublist(i, min(i + chunkSize, all.length));
+    }
+  }
+
+  /// Forgets [statusId], e.g. after its uploader deleted it.
+  void remove(String statusId) {
+    if (_items.remove(statusId) != null) _changed();
+  }
+
+  /// Records that [viewerId] saw [statusId], mirroring the `views` update.
+  void markViewed(String statusId, String viewerId) {
+    final item = _items[statusId];
+    if (item == null || item.views.contains(viewerId)) return;
+    item.views.add(viewerId);
+    _scheduleWrite();
+  }
+
+  void _expire() {
+    final cutoff =
+        DateTime.now().millisecondsSinceEpoch - window.inMilliseconds;
+    _items.removeWhere((_, item) => item.timestamp <= cutoff);
+  }
+
+  List<StatusStory> _buildStories() {
+    _expire();
+    final byUploader = <String, List<StatusItem>>{};
+    for (final item in _items.values) {
+      byUploader.putIfAbsent(item.uploaderId, () => []).add(item);
+    }
+    final stories = [
+      for (final entry in byUploader.entries)
+        StatusStory(
+          entry.key,
+          _phoneOf[entry.key] ?? '',
+          entry.value..sort((a, b) => a.timestamp.compareTo(b.timestamp)),
+        ),
+    ];
+    stories.sort((a, b) => b.latest.timestamp.compareTo(a.latest.timestamp));
+    return stories;
+  }
+
+  void _changed() {
+    _stories = null;
+    _scheduleWrite();
+    notifyListeners();
+  }
+
+  Future<File> _cacheFile() async {
+    if (_file != null) return _file!;
+    final docs = await getApplicationDocumentsDirectory();
+    return _file = File(p.join(docs.path, 'status_feed.json'));
+  }
+
+  Future<void> _read() async {
+    try {
+      final file = await _cacheFile();
+      if (!await file.exists()) return;
+      final json =
+          jsonDecode(await file.readAsString()) as Map<String, dynamic>;
+      _since = json['since'] as int?;
+      _phones = Set<String>.from(json['phones'] as List? ?? const []);
+      _phoneOf.addAll(Map<String, String>.from(json['phoneOf'] as Map? ?? {}));
+      for (final raw in (json['items'] as List? ?? const [])) {
+        final item = StatusItem.fromJson(raw as Map<String, dynamic>);
+        _items.putIfAbsent(item.id, () => item);
+      }
+      _expire();
+      _stories = null;
+      notifyListeners();
+    } catch (e) {
+      debugPrint('Status feed cache unreadable, resetting: $e');
+      _items.clear();
+      _phoneOf.clear();
+      _phones = {};
+      _since = null;
+    }
+  }
+
+  void _scheduleWrite() {
+    _writeTimer?.cancel();
+    _writeTimer = Timer(const Duration(milliseconds: 500), _write);
+  }
+
+  Future<void> _write() async {
+    try {
+      final file = await _cacheFile();
+      await file.writeAsString(
+        jsonEncode({
+          'since': _since,
+          'phones': _phones.toList(),
+          'phoneOf': _phoneOf,
+          'items': [for (final item in _items.values) item.toJson()],
+        }),
+      );
+    } catch (e) {
+      debugPrint('Status feed cache write failed: $e');
+    }
+  }
+}
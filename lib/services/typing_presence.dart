@@ -0,0 +1,175 @@
+import 'dart:async';
+
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/widgets.dart';
+
+import 'firestore_metrics.dart';
+
+/// "Typing…" signals, kept in one small document per chat:
+///
+///     typing/{chatId}    {uid: Timestamp}    present while uid is typing
+///
+/// This is deliberately not `client/{uid}` (online status, watched by every
+/// open chat with that user) nor `messages/{chatId}` (read watermarks, which
+/// invalidate the bubbles when they change), so a keystroke never wakes up
+/// listeners that have nothing to do with typing.
+///
+/// The sender writes at most once per [heartbeat] while typing and clears
+/// its field after [idleAfter] without a keystroke, when the text is sent or
+/// emptied, and when the chat closes. Receivers treat a signal they have not
+/// seen refreshed for [staleAfter] as gone, so an app killed mid-sentence
+/// does not leave the peer "typing" forever.
+class TypingPresence {
+  TypingPresence({
+    FirebaseFirestore? firestore,
+    this.heartbeat = const Duration(seconds: 4),
+    this.idleAfter = const Duration(seconds: 5),
+    this.staleAfter = const Duration(seconds: 8),
+  }) : _firestore = firestore ?? FirebaseFirestore.instance;
+
+  static final TypingPresence instance = TypingPresence();
+
+  final FirebaseFirestore _firestore;
+  final Duration heartbeat;
+  final Duration idleAfter;
+  final Duration staleAfter;
+
+  final Map<String, _Typing> _typing = {};
+
+  int _keystrokes = 0;
+  int _writes = 0;
+
+  Map<String, int> get stats => {'keystrokes': _keystrokes, 'writes': _writes};
+
+  DocumentReference<Map<String, dynamic>> _doc(String chatId) =>
+      _firestore.collection('typing').doc(chatId);
+
+  /// Records a keystroke by [uid] in [chatId].
+  void keystroke(String chatId, String uid) {
+    _keystrokes++;
+    final key = '$chatId/$uid';
+    final typing = _typing.putIfAbsent(key, _Typing.new);
+    final now = DateTime.now();
+    final last = typing.lastWrite;
+    if (last == null || now.difference(last) >= heartbeat) {
+      typing.lastWrite = now;
+      _write(chatId, {uid: FieldValue.serverTimestamp()});
+    }
+    typing.idle?.cancel();
+    typing.idle = Timer(idleAfter, () => stop(chatId, uid));
+  }
+
+  /// Clears [uid]'s signal in [chatId], if it is set.
+  void stop(String chatId, String uid) {
+    final typing = _typing.remove('$chatId/$uid');
+    if (typing == null) return;
+    typing.idle?.cancel();
+    _write(chatId, {uid: FieldValue.delete()});
+  }
+
+  void _write(String chatId, Map<String, dynamic> data) {
+    _writes++;
+    // Not awaited: a signal that arrives late is worth less than a
+    // responsive composer.
+    _doc(chatId)
+        .trackedSet(data, SetOptions(merge: true))
+        .catchError((e) => debugPrint('Typing signal failed: $e'));
+  }
+
+  /// Whether [peerId] is typing in [chatId]. Dispose it with the screen.
+  PeerTyping watch(String chatId, String peerId) =>
+      PeerTyping._(_doc(chatId).trackedSnapshots(), peerId, staleAfter);
+}
+
+class _Typing {
+  DateTime? lastWrite;
+  Timer? idle;
+}
+
+/// Follows one peer's signal in a [TypingPresence] document.
+class PeerTyping extends ValueNotifier<bool> {
+  PeerTyping._(
+    Stream<DocumentSnapshot<Map<String, dynamic>>> snapshots,
+    this.peerId,
+    this.staleAfter,
+  ) : super(false) {
+    _sub = snapshots.listen(_onSnapshot, onError: (_) => value = false);
+  }
+
+  final String peerId;
+  final Duration staleAfter;
+  late final StreamSubscription<DocumentSnapshot<Map<String, dynamic>>> _sub;
+  Timestamp? _seen;
+  Timer? _stale;
+
+  void _onSnapshot(DocumentSnapshot<Map<String, dynamic>> snap) {
+    final at = snap.data()?[peerId];
+    if (at is! Timestamp) {
+      _seen = null;
+      _stale?.cancel();
+      value = false;
+      return;
+    }
+    if (at == _seen) return; // someone else's field changed
+    _seen = at;
+    // Left over from a session that never cleared it.
+    if (DateTime.now().difference(at.toDate()) > const Duration(minutes: 1)) {
+      return;
+    }
+    value = true;
+    _stale?.cancel();
+    _stale = Timer(staleAfter, () => value = false);
+  }
+
+  @override
+  void dispose() {
+    _stale?.cancel();
+    _sub.cancel();
+    super.dispose();
+  }
+}
+
+/// Connects a chat composer to [TypingPresence] and exposes [hasText], so
+/// only the widgets that depend on it (the send/mic button, the icons that
+/// hide while typing) rebuild on input, never the message list.
+class ComposerPresence {
+  ComposerPresence({
+    required this.chatId,
+    required this.uid,
+    required this.controller,
+    TypingPresence? presence,
+  }) : _presence = presence ?? TypingPresence.instance,
+       hasText = ValueNotifier(controller.text.trim().isNotEmpty) {
+    _lastText = controller.text;
+    controller.addListener(_onChanged);
+  }
+
+  final String chatId;
+  final String uid;
+  final TextEditingController controller;
+  final TypingPresence _presence;
+
+  /// Notifies only when the composer goes from empty to non-empty or back.
+  final ValueNotifier<bool> hasText;
+  late String _lastText;
+
+  void _onChanged() {
+    final text = controller.text;
+    // Selection and composing-region changes also notify; skip them.
+    if (text == _lastText) return;
+    _lastText = text;
+    final nonEmpty = text.trim().isNotEmpty;
+    hasText.value = nonEmpty;
+    if (nonEmpty) {
+      _presence.keystroke(chatId, uid);
+    } else {
+      _presence.stop(chatId, uid);
+    }
+  }
+
+  void dispose() {
+    controller.removeListener(_onChanged);
+    _presence.stop(chatId, uid);
+    hasText.dispose();
+  }
+}
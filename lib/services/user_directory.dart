@@ -0,0 +1,185 @@
+import 'dart:async';
+import 'dart:collection';
+import 'dart:convert';
+
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter/foundation.dart';
+
+import 'firestore_metrics.dart';
+
+/// Process-wide cache of user profile documents (`client/{uid}` and the
+/// small docs hanging off it, such as `client/{uid}/contacts/{other}`).
+///
+/// * Entries are evicted least-recently-used once the cached documents take
+///   more than [maxBytes], and are re-fetched after [ttl].
+/// * Concurrent requests for the same document share one read.
+/// * [watch] shares a single snapshot listener per document and keeps the
+///   cached copy current, so anything else reading that document gets the
+///   live value for free.
+///
+/// [stats] reports hits, misses and Firestore reads so that the savings per
+/// session can be measured.
+class UserDirectory {
+  UserDirectory._({FirebaseFirestore? firestore})
+    : _firestore = firestore ?? FirebaseFirestore.instance;
+
+  static final UserDirectory instance = UserDirectory._();
+
+  final FirebaseFirestore _firestore;
+
+  int maxBytes = 4 * 1024 * 1024;
+  Duration ttl = const Duration(minutes: 10);
+
+  final LinkedHashMap<String, _Entry> _entries = LinkedHashMap();
+  final Map<String, Future<Map<String, dynamic>?>> _inFlight = {};
+  final Map<String, _Watch> _watches = {};
+  int _bytes = 0;
+
+  int _hits = 0;
+  int _misses = 0;
+  int _joined = 0;
+  int _reads = 0;
+  int _listenerEvents = 0;
+  int _evictions = 0;
+
+  Map<String, int> get stats => {
+    'hits': _hits,
+    'misses': _misses,
+    'joinedInFlight': _joined,
+    'reads': _reads,
+    'listenerEvents': _listenerEvents,
+    'evictions': _evictions,
+    'entries': _entries.length,
+    'bytes': _bytes,
+  };
+
+  /// The `client/{uid}` document, or null if it does not exist.
+  Future<Map<String, dynamic>?> user(String uid, {bool refresh = false}) =>
+      doc('client/$uid', refresh: refresh);
+
+  /// Any document by path, cached under the same policy.
+  Future<Map<String, dynamic>?> doc(String path, {bool refresh = false}) {
+    if (!refresh) {
+      final entry = _entries.remove(path);
+      if (entry != null) {
+        _entries[path] = entry; // mark most recently used
+        if (_watches.containsKey(path) || !entry.isExpired(ttl)) {
+          _hits++;
+          return Future.value(entry.data);
+        }
+      }
+    }
+
+    final pending = _inFlight[path];
+    if (pending != null) {
+      _joined++;
+      return pending;
+    }
+
+    _misses++;
+    final future = _fetch(path);
+    _inFlight[path] = future;
+    return future.whenComplete(() => _inFlight.remove(path));
+  }
+
+  Future<Map<String, dynamic>?> _fetch(String path) async {
+    _reads++;
+    final snapshot = await _firestore.doc(path).trackedGet();
+    final data = snapshot.data();
+    _put(path, data);
+    return data;
+  }
+
+  /// The cached copy of [path] without touching the network, for seeding
+  /// `FutureBuilder.initialData` so cached rows render on the first frame.
+  Map<String, dynamic>? peek(String path) => _entries[path]?.data;
+
+  /// Live updates of [path]. All watchers of one document share a single
+  /// listener, which also refreshes the cache. Every subscriber first gets
+  /// the cached copy, if there is one, so a second screen on the same
+  /// document does not wait for it to change.
+  Stream<Map<String, dynamic>?> watch(String path) => Stream.multi((listener) {
+    final cached = _entries[path];
+    if (cached != null) listener.add(cached.data);
+    final watch = _watches.putIfAbsent(path, () => _Watch(this, path));
+    final sub = watch.controller.stream.listen(
+      listener.add,
+      onError: listener.addError,
+      onDone: listener.close,
+    );
+    listener.onCancel = sub.cancel;
+  });
+
+  /// Drops the cached copy of [path], e.g. right after writing to it.
+  void invalidate(String path) {
+    final entry = _entries.remove(path);
+    if (entry != null) _bytes -= entry.bytes;
+  }
+
+  void _put(String path, Map<String, dynamic>? data) {
+    invalidate(path);
+    final entry = _Entry(data, _estimateBytes(data), DateTime.now());
+    _entries[path] = entry;
+    _bytes += entry.bytes;
+    while (_bytes > maxBytes && _entries.length > 1) {
+      final oldest = _entries.keys.first;
+      if (_watches.containsKey(oldest)) {
+        // Watched docs are in use on screen; rotate them to the back.
+        _entries[oldest] = _entries.remove(oldest)!;
+        if (_entries.keys.first == path) break;
+        continue;
+      }
+      invalidate(oldest);
+      _evictions++;
+    }
+  }
+
+  static int _estimateBytes(Map<String, dynamic>? data) {
+    if (data == null) return 16;
+    try {
+      return utf8.encode(jsonEncode(data, toEncodable: (v) => v.toString()))
+          .length;
+    } catch (_) {
+      return 1024;
+    }
+  }
+}
+
+class _Entry {
+  _Entry(this.data, this.bytes, this.fetchedAt);
+
+  final Map<String, dynamic>? data;
+  final int bytes;
+  final DateTime fetchedAt;
+
+  bool isExpired(Duration ttl) => DateTime.now().difference(fetchedAt) > ttl;
+}
+
+class _Watch {
+  _Watch(this.directory, this.path) {
+    controller = StreamController<Map<String, dynamic>?>.broadcast(
+      onListen: _start,
+      onCancel: _stop,
+    );
+  }
+
+  final UserDirectory directory;
+  final String path;
+  late final StreamController<Map<String, dynamic>?> controller;
+  StreamSubscription<DocumentSnapshot<Map<String, dynamic>>>? _sub;
+
+  void _start() {
+    _sub = directory._firestore.doc(path).trackedSnapshots().listen((snapshot) {
+      directory._listenerEvents++;
+      directory._put(path, snapshot.data());
+      controller.add(snapshot.data());
+    }, onError: (e) => debugPrint('UserDirectory watch $path failed: $e'));
+  }
+
+  void _stop() {
+    _sub?.cancel();
+    _sub = null;
+    directory._watches.remove(path);
+    controller.close();
+  }
+}
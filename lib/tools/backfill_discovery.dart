@@ -0,0 +1,28 @@
+import 'package:firebase_core/firebase_core.dart';
+import 'package:flutter/material.dart';
+
+import '../firebase_options.dart';
+import '../services/discovery_backfill.dart';
+
+/// One-off backfill of the contact discovery fields on `client` documents.
+///
+///     flutter run -t lib/tools/backfill_discovery.dart
+///     flutter run -t lib/tools/backfill_discovery.dart --dart-define=DRY_RUN=true
+///
+/// Must run under an account allowed to update every `client` document
+/// (or against the emulators). Progress is printed per page.
+Future<void> main() async {
+  WidgetsFlutterBinding.ensureInitialized();
+  await Firebase.initializeApp(options: DefaultFirebaseOptions.currentPlatform);
+  const dryRun = bool.fromEnvironment('DRY_RUN');
+  final report = await DiscoveryBackfill().backfillAll(dryRun: dryRun);
+  runApp(
+    MaterialApp(
+      home: Scaffold(
+        body: Center(
+          child: Text('${dryRun ? 'Dry run: ' : ''}$report'),
+        ),
+      ),
+    ),
+  );
+}
@@ -0,0 +1,743 @@
+import 'dart:async';
+import 'dart:math';
+
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:firebase_core/firebase_core.dart';
+import 'package:flutter/foundation.dart';
+
+import '../firebase_options.dart';
+import '../services/chat_message.dart';
+import '../services/chat_sender.dart';
+import '../services/firestore_metrics.dart';
+import '../services/read_receipts.dart';
+
+/// Who the simulated users write to.
+enum FanIn {
+  /// Every message goes to a random other user.
+  uniform,
+
+  /// [ChatLoadConfig.hotShare] of the messages go to user 0, the rest are
+  /// [uniform].
+  hotspot,
+
+  /// Every user writes to user 0, who replies to random users.
+  star,
+}
+
+/// How a message and its chatList updates are written.
+enum SendPath {
+  /// [ChatSender]: one batch with a server-side unread increment, as the
+  /// chat screens send through the outbox.
+  batch,
+
+  /// The read-then-set the chat screens used before [ChatSender]: read the
+  /// receiver's chatList entry, then write its count plus one.
+  readThenSet,
+}
+
+/// One load run. [ChatLoadConfig.fromEnvironment] reads the same fields
+/// from `--dart-define`s.
+@immutable
+class ChatLoadConfig {
+  const ChatLoadConfig({
+    this.users = 100,
+    this.devices = 4,
+    this.fanIn = FanIn.hotspot,
+    this.hotShare = 0.5,
+    this.messagesPerSecond = 20,
+    this.duration = const Duration(seconds: 60),
+    this.openInterval = const Duration(seconds: 10),
+    this.blockShare = 0.05,
+    this.sendPath = SendPath.batch,
+    this.emulatorHost = 'localhost',
+    this.emulatorPort = 8080,
+    this.seed = 1,
+  }) : assert(users >= 2);
+
+  factory ChatLoadConfig.fromEnvironment() => ChatLoadConfig(
+    users: const int.fromEnvironment('USERS', defaultValue: 100),
+    devices: const int.fromEnvironment('DEVICES', defaultValue: 4),
+    fanIn: FanIn.values.byName(
+      const String.fromEnvironment('FAN_IN', defaultValue: 'hotspot'),
+    ),
+    hotShare: const int.fromEnvironment('HOT_PERCENT', defaultValue: 50) / 100,
+    messagesPerSecond: const int.fromEnvironment('RATE', defaultValue: 20),
+    duration: const Duration(
+      seconds: int.fromEnvironment('SECONDS', defaultValue: 60),
+    ),
+    openInterval: const Duration(
+      seconds: int.fromEnvironment('OPEN_EVERY', defaultValue: 10),
+    ),
+    blockShare:
+        const int.fromEnvironment('BLOCK_PERCENT', defaultValue: 5) / 100,
+    sendPath: SendPath.values.byName(
+      const String.fromEnvironment('SEND_PATH', defaultValue: 'batch'),
+    ),
+    emulatorHost: const String.fromEnvironment(
+      'FIRESTORE_EMULATOR_HOST',
+      defaultValue: 'localhost',
+    ),
+    seed: const int.fromEnvironment('SEED', defaultValue: 1),
+  );
+
+  final int users;
+
+  /// Firebase app instances the users are spread over. Each has its own
+  /// cache and connection, so a message reaches its receiver through the
+  /// emulator rather than the sender's local cache, as between two phones.
+  final int devices;
+
+  final FanIn fanIn;
+  final double hotShare;
+
+  /// Messages started per second across all users.
+  final int messagesPerSecond;
+  final Duration duration;
+
+  /// How often, on average, each user opens the chat with the most unread
+  /// messages.
+  final Duration openInterval;
+
+  /// Share of users who block someone they write to, partway through.
+  final double blockShare;
+
+  final SendPath sendPath;
+  final String emulatorHost;
+  final int emulatorPort;
+  final int seed;
+
+  Map<String, dynamic> toJson() => {
+    'users': users,
+    'devices': devices,
+    'fanIn': fanIn.name,
+    'hotShare': hotShare,
+    'messagesPerSecond': messagesPerSecond,
+    'seconds': duration.inSeconds,
+    'openIntervalSeconds': openInterval.inSeconds,
+    'blockShare': blockShare,
+    'sendPath': sendPath.name,
+    'seed': seed,
+  };
+}
+
+/// What a [ChatLoadSimulator] run measured.
+class ChatLoadReport {
+  ChatLoadReport(this.json);
+
+  /// Export format; also what [compare] reads back as a baseline.
+  final Map<String, dynamic> json;
+
+  /// The headline numbers that [compare] lists, as `section.key` paths.
+  static const List<String> keys = [
+    'sends.perSecond',
+    'sends.errors',
+    'commitMs.p50',
+    'commitMs.p95',
+    'chatListMs.p50',
+    'chatListMs.p95',
+    'chatListMs.p99',
+    'openChatMs.p50',
+    'openChatMs.p95',
+    'unread.lost',
+    'unread.duplicated',
+    'messages.missing',
+    'firestore.reads',
+    'firestore.writes',
+  ];
+
+  static num? _value(Map<String, dynamic> json, String key) {
+    Object? value = json;
+    for (final part in key.split('.')) {
+      value = value is Map ? value[part] : null;
+    }
+    return value is num ? value : null;
+  }
+
+  /// One line per headline number: this run, [baseline] and the change.
+  String compare(Map<String, dynamic> baseline) {
+    final lines = <String>['metric: this run / baseline (change)'];
+    for (final key in keys) {
+      final now = _value(json, key);
+      final before = _value(baseline, key);
+      final change =
+          now == null || before == null
+              ? ''
+              : before == 0
+              ? ' (${now == 0 ? '=' : '+$now'})'
+              : ' (${((now - before) / before * 100).toStringAsFixed(1)}%)';
+      lines.add('$key: ${_format(now)} / ${_format(before)}$change');
+    }
+    return lines.join('\n');
+  }
+
+  static String _format(num? value) =>
+      value == null
+          ? '-'
+          : value is double
+          ? value.toStringAsFixed(1)
+          : '$value';
+
+  @override
+  String toString() => [
+    for (final key in keys) '$key: ${_format(_value(json, key))}',
+  ].join('\n');
+}
+
+/// Many users chatting at once against the Firestore emulator, through the
+/// same data paths as ChatPage and ChatScreen, to reproduce contention on
+/// shared documents before it happens in production.
+///
+/// Every user keeps the chat list listener of the home screen. Messages
+/// are started at [ChatLoadConfig.messagesPerSecond] and routed by
+/// [ChatLoadConfig.fanIn]; each send is written like the outbox does, or
+/// the old way (see [SendPath]). Every [ChatLoadConfig.openInterval] or
+/// so a user opens the chat with the most unread messages: the unread
+/// count is reset as the chat screen does on open, the newest messages
+/// are listened to and the read watermark moves forward through
+/// [ReadReceipts]. Some users block a peer partway through and stop
+/// writing to them.
+///
+/// After the run the unread count of every chatList entry is checked
+/// against the messages acknowledged since the last reset of that entry
+/// and each chat's message count against the acknowledged sends. A reset
+/// happens when the receiver opens the chat or writes to that peer; a send
+/// that overlaps in time with the last reset may land on either side of
+/// it, so counts are checked against a range.
+class ChatLoadSimulator {
+  ChatLoadSimulator(this.config);
+
+  final ChatLoadConfig config;
+
+  /// Time for listeners to catch up once sending has stopped.
+  static const Duration settle = Duration(seconds: 3);
+
+  /// Newest messages listened to in an open chat, as in MessageWindow.
+  static const int openChatWindow = 50;
+
+  static const Duration _tick = Duration(milliseconds: 50);
+
+  late final Random _random = Random(config.seed);
+  final Stopwatch _clock = Stopwatch();
+  final List<FirebaseApp> _apps = [];
+  final List<_User> _users = [];
+  late final String _run;
+
+  /// receiver/sender → what was acknowledged for that chatList entry.
+  final Map<String, _Ledger> _ledgers = {};
+
+  /// Message id → the send, while its delivery may still be observed.
+  final Map<String, _Send> _sends = {};
+
+  /// Chat id → acknowledged messages.
+  final Map<String, int> _committed = {};
+  final Set<Future<void>> _inFlight = {};
+  final Map<String, int> _errors = {};
+  final List<int> _commitMicros = [];
+  final List<int> _chatListMicros = [];
+  final List<int> _openChatMicros = [];
+  int _started = 0;
+  int _skippedBlocked = 0;
+  int _opens = 0;
+  int _blocks = 0;
+  bool _sending = false;
+
+  int get _now => _clock.elapsedMicroseconds;
+
+  /// Same ordering as ChatPage.getChatId.
+  static String chatIdOf(String a, String b) =>
+      a.hashCode <= b.hashCode ? '${a}_$b' : '${b}_$a';
+
+  Future<ChatLoadReport> run() async {
+    _run = DateTime.now().millisecondsSinceEpoch.toString();
+    FirestoreMetrics.instance.reset();
+    await _start();
+    debugPrint(
+      'Chat load: ${config.users} users on ${config.devices} devices, '
+      '${config.messagesPerSecond} msg/s for ${config.duration.inSeconds} s',
+    );
+
+    _clock.start();
+    _sending = true;
+    var owed = 0.0;
+    final ticker = Timer.periodic(_tick, (_) {
+      owed += config.messagesPerSecond * _tick.inMicroseconds / 1e6;
+      for (; owed >= 1; owed--) {
+        _sendOne();
+      }
+    });
+    for (final user in _users) {
+      user.scheduleOpen();
+      if (_random.nextDouble() < config.blockShare) {
+        user.scheduleBlock(
+          config.duration * (0.25 + _random.nextDouble() * 0.5),
+        );
+      }
+    }
+    await Future.delayed(config.duration);
+    _sending = false;
+    ticker.cancel();
+    final sendSeconds = _clock.elapsedMicroseconds / 1e6;
+
+    while (_inFlight.isNotEmpty) {
+      await Future.wait(_inFlight.toList());
+    }
+    for (final user in _users) {
+      await user.close();
+    }
+    await Future.delayed(settle);
+    for (final user in _users) {
+      user.stop();
+    }
+
+    final report = await _verify(sendSeconds);
+    for (final app in _apps) {
+      await app.delete();
+    }
+    return report;
+  }
+
+  Future<void> _start() async {
+    for (var i = 0; i < config.devices; i++) {
+      final app = await Firebase.initializeApp(
+        name: 'chat_load_${_run}_$i',
+        options: DefaultFirebaseOptions.currentPlatform,
+      );
+      final db =
+          FirebaseFirestore.instanceFor(app: app)
+            ..settings = const Settings(persistenceEnabled: false)
+            ..useFirestoreEmulator(config.emulatorHost, config.emulatorPort);
+      _apps.add(app);
+      for (var u = i; u < config.users; u += config.devices) {
+        _users.add(_User(this, 'load_${_run}_$u', u, db));
+      }
+    }
+    _users.sort((a, b) => a.index.compareTo(b.index));
+    for (final user in _users) {
+      user.listenToChatList();
+    }
+  }
+
+  int _other(int index) {
+    final other = _random.nextInt(config.users - 1);
+    return other >= index ? other + 1 : other;
+  }
+
+  void _sendOne() {
+    final int from;
+    final int to;
+    switch (config.fanIn) {
+      case FanIn.uniform:
+        from = _random.nextInt(config.users);
+        to = _other(from);
+      case FanIn.hotspot:
+        if (_random.nextDouble() < config.hotShare) {
+          from = 1 + _random.nextInt(config.users - 1);
+          to = 0;
+        } else {
+          from = _random.nextInt(config.users);
+          to = _other(from);
+        }
+      case FanIn.star:
+        // The hot user answers one message in ten.
+        final reply = _random.nextInt(10) == 0;
+        from = reply ? 0 : 1 + _random.nextInt(config.users - 1);
+        to = from == 0 ? _other(0) : 0;
+    }
+    final sender = _users[from];
+    final receiver = _users[to];
+    if (sender.blocked.contains(receiver.uid)) {
+      _skippedBlocked++;
+      return;
+    }
+    _started++;
+    _track(sender.send(receiver));
+  }
+
+  void _track(Future<void> future) {
+    _inFlight.add(future);
+    future.whenComplete(() => _inFlight.remove(future));
+  }
+
+  void _error(String what, Object error) {
+    final code = error is FirebaseException ? error.code : 'other';
+    final key = '$what:$code';
+    _errors[key] = (_errors[key] ?? 0) + 1;
+  }
+
+  _Ledger _ledger(String receiver, String sender) =>
+      _ledgers.putIfAbsent('$receiver/$sender', () => _Ledger());
+
+  Future<ChatLoadReport> _verify(double sendSeconds) async {
+    final db = FirebaseFirestore.instanceFor(app: _apps.first);
+    var pairs = 0;
+    var lost = 0;
+    var duplicated = 0;
+    var uncertain = 0;
+    for (final user in _users) {
+      final snap =
+          await db
+              .collection('chatList')
+              .doc(user.uid)
+              .collection('chats')
+              .trackedGet(path: 'chatList/*/chats');
+      final actual = {
+        for (final doc in snap.docs)
+          doc.id: (doc.data()['unreadCount'] as num?)?.toInt() ?? 0,
+      };
+      for (final peer in _users) {
+        final ledger = _ledgers['${user.uid}/${peer.uid}'];
+        if (ledger == null) continue;
+        pairs++;
+        final (low, high) = ledger.expected();
+        final count = actual[peer.uid] ?? 0;
+        uncertain += high - low;
+        if (count < low) lost += low - count;
+        if (count > high) duplicated += count - high;
+      }
+    }
+
+    var missing = 0;
+    for (final chat in _committed.entries) {
+      final counted =
+          await db
+              .collection('messages')
+              .doc(chat.key)
+              .collection('chats')
+              .count()
+              .get();
+      missing += max(0, chat.value - (counted.count ?? 0));
+    }
+
+    final committed = _committed.values.fold(0, (a, b) => a + b);
+    final totals = FirestoreMetrics.instance.totalsByScreen().values;
+    return ChatLoadReport({
+      'config': config.toJson(),
+      'sends': {
+        'started': _started,
+        'committed': committed,
+        'perSecond': committed / sendSeconds,
+        'errors': _errors.values.fold(0, (a, b) => a + b),
+        'skippedBlocked': _skippedBlocked,
+      },
+      'errors': _errors,
+      'commitMs': _percentiles(_commitMicros),
+      'chatListMs': _percentiles(_chatListMicros),
+      'openChatMs': _percentiles(_openChatMicros),
+      'unread': {
+        'entries': pairs,
+        'lost': lost,
+        'duplicated': duplicated,
+        'uncertain': uncertain,
+      },
+      'messages': {'chats': _committed.length, 'missing': missing},
+      'flows': {'opens': _opens, 'blocks': _blocks},
+      'firestore': {
+        'reads': totals.fold<int>(0, (a, t) => a + t['reads']!),
+        'writes': totals.fold<int>(0, (a, t) => a + t['writes']!),
+      },
+    });
+  }
+
+  static Map<String, dynamic> _percentiles(List<int> micros) {
+    if (micros.isEmpty) return {'count': 0};
+    final sorted = [...micros]..sort();
+    double at(double p) =>
+        sorted[min(sorted.length - 1, (sorted.length * p).floor())] / 1000;
+    return {
+      'count': sorted.length,
+      'p50': at(0.5),
+      'p95': at(0.95),
+      'p99': at(0.99),
+      'max': sorted.last / 1000,
+    };
+  }
+}
+
+/// Sends and resets of one chatList entry, as intervals of simulator time:
+/// each write took effect at some point between its start and its ack.
+class _Ledger {
+  final List<(int, int)> _sends = [];
+  int _lastResetStart = -1;
+  int _lastResetAck = -1;
+
+  void sent(int start, int ack) => _sends.add((start, ack));
+
+  void reset(int start, int ack) {
+    _lastResetStart = max(_lastResetStart, start);
+    _lastResetAck = max(_lastResetAck, ack);
+    // Certainly overwritten by this reset or a later one.
+    _sends.removeWhere((send) => send.$2 < _lastResetStart);
+  }
+
+  /// The range the unread count must fall in. The last reset to take
+  /// effect did so between the latest reset start and the latest reset
+  /// ack; sends that started after that are counted for sure, sends that
+  /// overlap it may or may not be.
+  (int, int) expected() {
+    var low = 0;
+    var high = 0;
+    for (final (start, ack) in _sends) {
+      if (ack < _lastResetStart) continue;
+      high++;
+      if (start > _lastResetAck) low++;
+    }
+    return (low, high);
+  }
+}
+
+class _Send {
+  _Send(this.receiver, this.start);
+
+  final String receiver;
+  final int start;
+  bool seenInChatList = false;
+  bool seenInOpenChat = false;
+}
+
+/// One simulated user on one of the simulator's devices.
+class _User {
+  _User(this.sim, this.uid, this.index, this.db)
+    : sender = ChatSender(firestore: db),
+      receipts = ReadReceipts(firestore: db);
+
+  final ChatLoadSimulator sim;
+  final String uid;
+  final int index;
+  final FirebaseFirestore db;
+  final ChatSender sender;
+  final ReadReceipts receipts;
+
+  /// Peer uid → their chatList entry, from the chat list listener.
+  final Map<String, Map<String, dynamic>> chats = {};
+  final Set<String> blocked = {};
+  StreamSubscription<QuerySnapshot<Map<String, dynamic>>>? _chatList;
+  StreamSubscription<QuerySnapshot<Map<String, dynamic>>>? _openChat;
+  String? _openPeer;
+  Timer? _openTimer;
+  Timer? _blockTimer;
+  bool _opening = false;
+
+  void listenToChatList() {
+    _chatList = db
+        .collection('chatList')
+        .doc(uid)
+        .collection('chats')
+        .orderBy('timestamp', descending: true)
+        .trackedSnapshots(path: 'chatList/*/chats')
+        .listen(_onChatList, onError: (e) => sim._error('chatList', e));
+  }
+
+  void _onChatList(QuerySnapshot<Map<String, dynamic>> snap) {
+    for (final change in snap.docChanges) {
+      final doc = change.doc;
+      if (change.type == DocumentChangeType.removed) {
+        chats.remove(doc.id);
+        continue;
+      }
+      final data = doc.data()!;
+      chats[doc.id] = data;
+      if (doc.metadata.hasPendingWrites) continue;
+      // The preview is the message text, which is its id.
+      final send = sim._sends[data['lastMessage']];
+      if (send == null || send.receiver != uid || send.seenInChatList) {
+        continue;
+      }
+      send.seenInChatList = true;
+      sim._chatListMicros.add(sim._now - send.start);
+    }
+  }
+
+  Future<void> send(_User to) async {
+    final chatId = ChatLoadSimulator.chatIdOf(uid, to.uid);
+    final ref = sender.newMessageRef(chatId);
+    final start = sim._now;
+    sim._sends[ref.id] = _Send(to.uid, start);
+    final message = ChatMessage.compact(
+      senderId: uid,
+      text: ref.id,
+      timestamp: FieldValue.serverTimestamp(),
+    );
+    final summary = ChatSender.summaryFor('text', ref.id);
+    try {
+      switch (sim.config.sendPath) {
+        case SendPath.batch:
+          await sender.send(
+            chatId: chatId,
+            message: message,
+            senderId: uid,
+            peerId: to.uid,
+            summary: summary,
+            messageRef: ref,
+          );
+        case SendPath.readThenSet:
+          await _sendByReadThenSet(chatId, ref, message, to.uid, summary);
+      }
+    } catch (e) {
+      sim._error('send', e);
+      return;
+    }
+    final ack = sim._now;
+    sim._commitMicros.add(ack - start);
+    sim._committed[chatId] = (sim._committed[chatId] ?? 0) + 1;
+    sim._ledger(to.uid, uid).sent(start, ack);
+    // Our own entry for the peer is written with a zero count.
+    sim._ledger(uid, to.uid).reset(start, ack);
+  }
+
+  Future<void> _sendByReadThenSet(
+    String chatId,
+    DocumentReference<Map<String, dynamic>> ref,
+    Map<String, dynamic> message,
+    String peerId,
+    Map<String, dynamic> summary,
+  ) async {
+    final theirs = db
+        .collection('chatList')
+        .doc(peerId)
+        .collection('chats')
+        .doc(uid);
+    final current = await theirs.trackedGet();
+    final unread = (current.data()?['unreadCount'] as num?)?.toInt() ?? 0;
+    final batch = db.batch();
+    batch.set(ref, message);
+    final mine = db
+        .collection('chatList')
+        .doc(uid)
+        .collection('chats')
+        .doc(peerId);
+    batch.set(mine, {
+      'peerId': peerId,
+      ...summary,
+      'timestamp': FieldValue.serverTimestamp(),
+      'unreadCount': 0,
+    });
+    batch.set(theirs, {
+      'peerId': uid,
+      ...summary,
+      'timestamp': FieldValue.serverTimestamp(),
+      'unreadCount': unread + 1,
+    }, SetOptions(merge: true));
+    await batch.trackedCommit('messages/$chatId/chats', writes: 3);
+  }
+
+  void scheduleOpen() {
+    final mean = sim.config.openInterval.inMilliseconds;
+    _openTimer = Timer(
+      Duration(milliseconds: mean ~/ 2 + sim._random.nextInt(mean + 1)),
+      () {
+        if (!sim._sending) return;
+        if (!_opening) sim._track(_openMostUnread());
+        scheduleOpen();
+      },
+    );
+  }
+
+  /// Opens the chat with the most unread messages, as a user tapping it in
+  /// the chat list.
+  Future<void> _openMostUnread() async {
+    String? peer;
+    var most = 0;
+    for (final entry in chats.entries) {
+      final unread = (entry.value['unreadCount'] as num?)?.toInt() ?? 0;
+      if (unread > most) {
+        most = unread;
+        peer = entry.key;
+      }
+    }
+    if (peer == null) return;
+    _opening = true;
+    await close();
+    sim._opens++;
+    _openPeer = peer;
+    final chatId = ChatLoadSimulator.chatIdOf(uid, peer);
+    final start = sim._now;
+    try {
+      await db
+          .collection('chatList')
+          .doc(uid)
+          .collection('chats')
+          .doc(peer)
+          .trackedUpdate({'unreadCount': 0});
+      sim._ledger(uid, peer).reset(start, sim._now);
+    } catch (e) {
+      sim._error('reset', e);
+    }
+    _opening = false;
+    if (_openPeer != peer) return;
+    _openChat = db
+        .collection('messages')
+        .doc(chatId)
+        .collection('chats')
+        .orderBy('timestamp')
+        .limitToLast(ChatLoadSimulator.openChatWindow)
+        .trackedSnapshots(path: 'messages/*/chats')
+        .listen(
+          (snap) => _onOpenChat(chatId, peer!, snap),
+          onError: (e) => sim._error('openChat', e),
+        );
+  }
+
+  void _onOpenChat(
+    String chatId,
+    String peer,
+    QuerySnapshot<Map<String, dynamic>> snap,
+  ) {
+    ChatMessage? newest;
+    for (final change in snap.docChanges) {
+      if (change.type != DocumentChangeType.added) continue;
+      final message = ChatMessage.fromMap(change.doc.id, change.doc.data()!);
+      if (message.senderId != peer || message.timestamp == null) continue;
+      final send = sim._sends[message.id];
+      if (send != null && !send.seenInOpenChat) {
+        send.seenInOpenChat = true;
+        sim._openChatMicros.add(sim._now - send.start);
+      }
+      final ts = message.timestamp!;
+      if (newest == null || ts.compareTo(newest.timestamp!) > 0) {
+        newest = message;
+      }
+    }
+    if (newest == null) return;
+    receipts.markRead(
+      chatId: chatId,
+      readerId: uid,
+      upTo: newest.timestamp!,
+      messageId: newest.id,
+    );
+  }
+
+  /// Leaves the open chat, writing its pending read watermark.
+  Future<void> close() async {
+    final peer = _openPeer;
+    _openPeer = null;
+    await _openChat?.cancel();
+    _openChat = null;
+    if (peer != null) {
+      await receipts.flush(ChatLoadSimulator.chatIdOf(uid, peer), uid);
+    }
+  }
+
+  void scheduleBlock(Duration after) {
+    _blockTimer = Timer(after, () {
+      if (!sim._sending || chats.isEmpty) return;
+      final peer = chats.keys.elementAt(sim._random.nextInt(chats.length));
+      blocked.add(peer);
+      sim._blocks++;
+      sim._track(
+        db
+            .collection('client')
+            .doc(uid)
+            .collection('blocked')
+            .doc(peer)
+            .trackedSet({'blockedAt': FieldValue.serverTimestamp()})
+            .catchError((Object e) => sim._error('block', e)),
+      );
+    });
+  }
+
+  void stop() {
+    _openTimer?.cancel();
+    _blockTimer?.cancel();
+    _chatList?.cancel();
+  }
+}
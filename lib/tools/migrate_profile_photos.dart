@@ -0,0 +1,28 @@
+import 'package:firebase_core/firebase_core.dart';
+import 'package:flutter/material.dart';
+
+import '../firebase_options.dart';
+import '../services/profile_photo_migration.dart';
+
+/// One-off migration of inline profile photos to Storage.
+///
+///     flutter run -t lib/tools/migrate_profile_photos.dart
+///     flutter run -t lib/tools/migrate_profile_photos.dart --dart-define=DRY_RUN=true
+///
+/// Must run under an account allowed to update every `client` document
+/// (or against the emulators). Progress is printed per page.
+Future<void> main() async {
+  WidgetsFlutterBinding.ensureInitialized();
+  await Firebase.initializeApp(options: DefaultFirebaseOptions.currentPlatform);
+  const dryRun = bool.fromEnvironment('DRY_RUN');
+  final report = await ProfilePhotoMigration().migrateAll(dryRun: dryRun);
+  runApp(
+    MaterialApp(
+      home: Scaffold(
+        body: Center(
+          child: Text('${dryRun ? 'Dry run: ' : ''}$report'),
+        ),
+      ),
+    ),
+  );
+}
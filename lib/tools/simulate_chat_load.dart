@@ -0,0 +1,57 @@
+import 'dart:convert';
+import 'dart:io';
+
+import 'package:firebase_core/firebase_core.dart';
+import 'package:flutter/material.dart';
+import 'package:path/path.dart' as p;
+import 'package:path_provider/path_provider.dart';
+
+import '../firebase_options.dart';
+import 'chat_load.dart';
+
+/// Chat load against the Firestore emulator; see [ChatLoadSimulator].
+///
+///     firebase emulators:start --only firestore
+///     flutter run -t lib/tools/simulate_chat_load.dart \
+///       --dart-define=FIRESTORE_EMULATOR_HOST=10.0.2.2 \
+///       --dart-define=USERS=200 --dart-define=FAN_IN=star \
+///       --dart-define=RATE=50 --dart-define=SECONDS=120
+///
+/// Other defines: DEVICES, HOT_PERCENT, OPEN_EVERY (seconds),
+/// BLOCK_PERCENT, SEND_PATH (batch or readThenSet) and SEED. The report is
+/// printed and saved as JSON under the app documents directory; pass the
+/// path of an earlier report as BASELINE to print the change against it.
+Future<void> main() async {
+  WidgetsFlutterBinding.ensureInitialized();
+  await Firebase.initializeApp(options: DefaultFirebaseOptions.currentPlatform);
+  final config = ChatLoadConfig.fromEnvironment();
+  final report = await ChatLoadSimulator(config).run();
+
+  final dir = await getApplicationDocumentsDirectory();
+  final file = File(
+    p.join(dir.path, 'chat_load_${DateTime.now().millisecondsSinceEpoch}.json'),
+  );
+  await file.writeAsString(
+    const JsonEncoder.withIndent('  ').convert(report.json),
+  );
+
+  var summary = '$report';
+  const baseline = String.fromEnvironment('BASELINE');
+  if (baseline.isNotEmpty) {
+    final before = jsonDecode(await File(baseline).readAsString());
+    summary = report.compare(before as Map<String, dynamic>);
+  }
+  debugPrint('$summary\nSaved to ${file.path}');
+  runApp(
+    MaterialApp(
+      home: Scaffold(
+        body: SafeArea(
+          child: SingleChildScrollView(
+            padding: const EdgeInsets.all(16),
+            child: SelectableText('$summary\n\nSaved to ${file.path}'),
+          ),
+        ),
+      ),
+    ),
+  );
+}
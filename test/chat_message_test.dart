@@ -0,0 +1,123 @@
+import 'package:TwinBox/services/chat_message.dart';
+import 'package:cloud_firestore/cloud_firestore.dart';
+import 'package:flutter_test/flutter_test.dart';
+
+void main() {
+  final sent = Timestamp.fromMillisecondsSinceEpoch(1700000000000);
+
+  group('ChatMessage.fromMap', () {
+    test('reads a v1 document with long keys', () {
+      final message = ChatMessage.fromMap('m1', {
+        'senderId': 'alice',
+        'receiverId': 'bob',
+        'message': 'hello',
+        'type': 'text',
+        'timestamp': sent,
+        'isRead': true,
+        'senderName': 'Alice',
+        'reaction': '👍',
+      });
+
+      expect(message.id, 'm1');
+      expect(message.senderId, 'alice');
+      expect(message.receiverId, 'bob');
+      expect(message.text, 'hello');
+      expect(message.type, 'text');
+      expect(message.timestamp, sent);
+      expect(message.isRead, isTrue);
+      expect(message.senderName, 'Alice');
+      expect(message.toMap()['reaction'], '👍');
+    });
+
+    test('reads a v2 document written by compact', () {
+      final until = Timestamp.fromMillisecondsSinceEpoch(1700000900000);
+      final message = ChatMessage.fromMap(
+        'm2',
+        ChatMessage.compact(
+          senderId: 'alice',
+          type: 'location',
+          timestamp: sent,
+          lat: 12.5,
+          lng: 77,
+          isLive: true,
+          liveUntil: until,
+        ),
+      );
+
+      expect(message.senderId, 'alice');
+      expect(message.type, 'location');
+      expect(message.isLocation, isTrue);
+      expect(message.text, '');
+      expect(message.lat, 12.5);
+      expect(message.lng, 77.0);
+      expect(message.isLive, isTrue);
+      expect(message.liveUntil, until);
+      expect(message.locationSharedAt, sent);
+      expect(message.receiverId, isNull);
+    });
+
+    test('v1 and v2 of the same text message render alike', () {
+      final v1 = ChatMessage.fromMap('m', {
+        'senderId': 'alice',
+        'message': 'hi',
+        'type': 'text',
+        'timestamp': sent,
+      });
+      final v2 = ChatMessage.fromMap(
+        'm',
+        ChatMessage.compact(senderId: 'alice', text: 'hi', timestamp: sent),
+      );
+
+      expect(v2.sameContent(v1), isTrue);
+    });
+
+    test('keeps unknown compact keys and an unknown kind tag', () {
+      final message = ChatMessage.fromMap('m', {
+        ChatMessage.versionKey: ChatMessage.schemaVersion,
+        ChatMessage.senderKey: 'alice',
+        ChatMessage.kindKey: 'poll',
+        'q': 'Lunch?',
+      });
+
+      expect(message.type, 'poll');
+      expect(message.toMap()['q'], 'Lunch?');
+    });
+
+    test('treats a pending server timestamp as not yet assigned', () {
+      final message = ChatMessage.fromMap('m', {
+        ...ChatMessage.compact(
+          senderId: 'alice',
+          text: 'hi',
+          timestamp: FieldValue.serverTimestamp(),
+        ),
+        'pending': true,
+      });
+
+      expect(message.timestamp, isNull);
+      expect(message.isPending, isTrue);
+    });
+  });
+
+  test('compact leaves out empty and default fields', () {
+    expect(ChatMessage.compact(senderId: 'alice', text: 'hi'), {
+      ChatMessage.versionKey: ChatMessage.schemaVersion,
+      ChatMessage.senderKey: 'alice',
+      ChatMessage.kindKey: 't',
+      ChatMessage.textKey: 'hi',
+    });
+  });
+
+  test('isLiveNow ends at liveUntil', () {
+    ChatMessage live(DateTime until) => ChatMessage(
+      id: 'm',
+      senderId: 'alice',
+      type: 'location',
+      isLive: true,
+      liveUntil: Timestamp.fromDate(until),
+    );
+    final now = DateTime.now();
+
+    expect(live(now.add(const Duration(minutes: 5))).isLiveNow, isTrue);
+    expect(live(now.subtract(const Duration(minutes: 5))).isLiveNow, isFalse);
+  });
+}
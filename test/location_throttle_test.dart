@@ -0,0 +1,52 @@
+import 'package:TwinBox/services/live_location.dart';
+import 'package:flutter_test/flutter_test.dart';
+
+void main() {
+  final start = DateTime(2024, 1, 1, 12);
+  DateTime at(int seconds) => start.add(Duration(seconds: seconds));
+
+  // 0.001° of latitude is about 111 m.
+  const lat = 12.9716;
+  const lng = 77.5946;
+
+  test('sends the first fix', () {
+    expect(LocationThrottle().shouldSend(lat, lng, start), isTrue);
+  });
+
+  test('holds fixes that come sooner than minInterval', () {
+    final throttle = LocationThrottle()..shouldSend(lat, lng, start);
+
+    expect(throttle.shouldSend(lat + 0.01, lng, at(3)), isFalse);
+  });
+
+  test('holds fixes closer than minDistanceMeters', () {
+    final throttle = LocationThrottle()..shouldSend(lat, lng, start);
+
+    expect(throttle.shouldSend(lat + 0.0001, lng, at(10)), isFalse);
+    expect(throttle.shouldSend(lat + 0.001, lng, at(20)), isTrue);
+  });
+
+  test('measures distance from the last sent fix', () {
+    final throttle = LocationThrottle()..shouldSend(lat, lng, start);
+
+    // Creeping 20 m at a time is sent once the total passes 30 m.
+    expect(throttle.shouldSend(lat + 0.00018, lng, at(10)), isFalse);
+    expect(throttle.shouldSend(lat + 0.00036, lng, at(20)), isTrue);
+  });
+
+  test('sends a standing fix after maxInterval', () {
+    final throttle = LocationThrottle()..shouldSend(lat, lng, start);
+
+    expect(throttle.shouldSend(lat, lng, at(59)), isFalse);
+    expect(throttle.shouldSend(lat, lng, at(60)), isTrue);
+    expect(throttle.shouldSend(lat, lng, at(61)), isFalse);
+  });
+
+  test('distanceMeters', () {
+    expect(LocationThrottle.distanceMeters(lat, lng, lat, lng), 0);
+    expect(
+      LocationThrottle.distanceMeters(lat, lng, lat + 0.001, lng),
+      closeTo(111.2, 0.5),
+    );
+  });
+}
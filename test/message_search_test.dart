@@ -0,0 +1,65 @@
+import 'package:TwinBox/services/message_search.dart';
+import 'package:flutter_test/flutter_test.dart';
+
+void main() {
+  group('MessageSearch.matchQuery', () {
+    test('matches the last word as a prefix while it is typed', () {
+      expect(MessageSearch.matchQuery('hello'), 'body:hello*');
+      expect(
+        MessageSearch.matchQuery('see you tom'),
+        'body:see body:you body:tom*',
+      );
+    });
+
+    test('matches whole words once a space follows', () {
+      expect(MessageSearch.matchQuery('Hello World '), 'body:hello body:world');
+    });
+
+    test('keeps quoted text as a phrase', () {
+      expect(
+        MessageSearch.matchQuery('"Good morning" team '),
+        'body:"good morning" body:team',
+      );
+      expect(
+        MessageSearch.matchQuery('"good morning"'),
+        'body:"good morning"',
+      );
+    });
+
+    test('splits on punctuation like the tokenizer', () {
+      expect(MessageSearch.matchQuery("don't"), 'body:"don t*"');
+      expect(MessageSearch.matchQuery('caf* '), 'body:caf*');
+    });
+
+    test('returns null without words', () {
+      expect(MessageSearch.matchQuery(''), isNull);
+      expect(MessageSearch.matchQuery('   '), isNull);
+      expect(MessageSearch.matchQuery('?! ""'), isNull);
+    });
+
+    test('scopes to one chat', () {
+      const chat = 'messages/a_b/chats';
+      expect(
+        MessageSearch.matchQuery('hi ', chat: chat),
+        'body:hi scope:${MessageSearch.scopeToken(chat)}',
+      );
+      expect(MessageSearch.matchQuery('', chat: chat), isNull);
+    });
+  });
+
+  test('scopeToken is one token per chat', () {
+    final a = MessageSearch.scopeToken('messages/a_b/chats');
+    final b = MessageSearch.scopeToken('groups/g1/messages');
+
+    expect(a, isNot(b));
+    expect(a, MessageSearch.scopeToken('messages/a_b/chats'));
+    expect(a, matches(RegExp(r'^c[0-9a-f]+$')));
+  });
+
+  test('docIdFor orders by time', () {
+    expect(
+      MessageSearch.docIdFor('z', 1000),
+      lessThan(MessageSearch.docIdFor('a', 1001)),
+    );
+  });
+}
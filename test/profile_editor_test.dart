@@ -0,0 +1,40 @@
+import 'package:TwinBox/services/profile_editor.dart';
+import 'package:flutter_test/flutter_test.dart';
+
+void main() {
+  group('ProfileEditor.changesBetween', () {
+    final base = {'name': 'Asha', 'about': 'Hi there', 'photoUrl': 'x'};
+
+    test('is empty when nothing was edited', () {
+      expect(
+        ProfileEditor.changesBetween(base, {
+          'name': 'Asha',
+          'about': 'Hi there',
+        }),
+        isEmpty,
+      );
+    });
+
+    test('holds only the edited fields', () {
+      expect(
+        ProfileEditor.changesBetween(base, {
+          'name': 'Asha',
+          'about': 'Busy',
+        }),
+        {'about': 'Busy'},
+      );
+    });
+
+    test('treats a missing field as empty', () {
+      expect(ProfileEditor.changesBetween(base, {'email': ''}), isEmpty);
+      expect(
+        ProfileEditor.changesBetween(base, {'email': 'a@b.c'}),
+        {'email': 'a@b.c'},
+      );
+    });
+
+    test('keeps a field cleared by the user', () {
+      expect(ProfileEditor.changesBetween(base, {'about': ''}), {'about': ''});
+    });
+  });
+}
@@ -0,0 +1,22 @@
+import 'package:flutter_driver/flutter_driver.dart' as driver;
+import 'package:integration_test/integration_test_driver.dart';
+
+/// Writes a timeline summary per `reportKey` passed to `traceAction`.
+Future<void> main() {
+  return integrationDriver(
+    responseDataCallback: (data) async {
+      if (data == null) return;
+      for (final entry in data.entries) {
+        final timeline = driver.Timeline.fromJson(
+          entry.value as Map<String, dynamic>,
+        );
+        final summary = driver.TimelineSummary.summarize(timeline);
+        await summary.writeTimelineToFile(
+          entry.key,
+          pretty: true,
+          includeSummary: true,
+        );
+      }
+    },
+  );
+}